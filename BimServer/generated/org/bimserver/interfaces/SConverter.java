@@ -3105,6 +3105,15 @@ public class SConverter {
 		result.setReuseGeometry(input.isReuseGeometry());
 		result.setAllowCreateValidatedUser(input.isAllowCreateValidatedUser());
 		result.setRenderEngineProcesses(input.getRenderEngineProcesses());
+		result.setDatabaseScanThreads(input.getDatabaseScanThreads());
+		result.setIncrementalGeometry(input.isIncrementalGeometry());
+		result.setDeltaCheckins(input.isDeltaCheckins());
+		result.setLongActionHeapPercentage(input.getLongActionHeapPercentage());
+		result.setCacheOutputFilesMaxMb(input.getCacheOutputFilesMaxMb());
+		result.setCompressCachedOutputFiles(input.isCompressCachedOutputFiles());
+		result.setCacheCompareResults(input.isCacheCompareResults());
+		result.setProgressUpdateIntervalMs(input.getProgressUpdateIntervalMs());
+		result.setIfcIndexes(input.isIfcIndexes());
 		List<Long> listwebModules = new ArrayList<Long>();
 		for (WebModulePluginConfiguration v : input.getWebModules()) {
 			listwebModules.add(v.getOid());
@@ -3151,6 +3160,15 @@ public class SConverter {
 		result.setReuseGeometry(input.isReuseGeometry());
 		result.setAllowCreateValidatedUser(input.isAllowCreateValidatedUser());
 		result.setRenderEngineProcesses(input.getRenderEngineProcesses());
+		result.setDatabaseScanThreads(input.getDatabaseScanThreads());
+		result.setIncrementalGeometry(input.isIncrementalGeometry());
+		result.setDeltaCheckins(input.isDeltaCheckins());
+		result.setLongActionHeapPercentage(input.getLongActionHeapPercentage());
+		result.setCacheOutputFilesMaxMb(input.getCacheOutputFilesMaxMb());
+		result.setCompressCachedOutputFiles(input.isCompressCachedOutputFiles());
+		result.setCacheCompareResults(input.isCacheCompareResults());
+		result.setProgressUpdateIntervalMs(input.getProgressUpdateIntervalMs());
+		result.setIfcIndexes(input.isIfcIndexes());
 		List<WebModulePluginConfiguration> listwebModules = result.getWebModules();
 		for (long oid : input.getWebModules()) {
 			listwebModules.add((WebModulePluginConfiguration)session.get(StorePackage.eINSTANCE.getWebModulePluginConfiguration(), oid, Query.getDefault()));
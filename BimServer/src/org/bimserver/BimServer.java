@@ -123,6 +123,7 @@ import org.bimserver.plugins.serializers.MessagingSerializerPlugin;
 import org.bimserver.plugins.serializers.SerializerPlugin;
 import org.bimserver.plugins.services.ServicePlugin;
 import org.bimserver.plugins.web.WebModulePlugin;
+import org.bimserver.renderengine.RenderEnginePools;
 import org.bimserver.schemaconverter.Ifc2x3tc1ToIfc4SchemaConverterFactory;
 import org.bimserver.schemaconverter.Ifc4ToIfc2x3tc1SchemaConverterFactory;
 import org.bimserver.schemaconverter.SchemaConverterManager;
@@ -195,6 +196,7 @@ public class BimServer {
 	private SchemaConverterManager schemaConverterManager = new SchemaConverterManager();
 	private WebModuleManager webModuleManager;
 	private MetricsRegistry metricsRegistry;
+	private RenderEnginePools renderEnginePools;
 
 	/**
 	 * Create a new BIMserver
@@ -264,7 +266,7 @@ public class BimServer {
 			versionChecker = new VersionChecker(config.getResourceFetcher());
 			LOGGER.debug("Version Checker created");
 
-			compareCache = new CompareCache();
+			compareCache = new CompareCache(this, config.getHomeDir().resolve("comparecache"));
 			LOGGER.debug("Compare cache created");
 			if (config.isStartEmbeddedWebServer()) {
 				embeddedWebServer = new EmbeddedWebServer(this, config.isLocalDev());
@@ -350,7 +352,7 @@ public class BimServer {
 			}
 			serverStartTime = new GregorianCalendar();
 
-			longActionManager = new LongActionManager();
+			longActionManager = new LongActionManager(this);
 
 			Set<EPackage> packages = new LinkedHashSet<>();
 			packages.add(Ifc2x3tc1Package.eINSTANCE);
@@ -364,6 +366,7 @@ public class BimServer {
 			schemaConverterManager.registerConverter(new Ifc4ToIfc2x3tc1SchemaConverterFactory());
 			
 			metricsRegistry = new MetricsRegistry();
+			renderEnginePools = new RenderEnginePools(RenderEnginePools.DEFAULT_MAX_JOBS_PER_ENGINE);
 			
 			Query.setPackageMetaDataForDefaultQuery(metaDataManager.getPackageMetaData("store"));
 			
@@ -953,6 +956,9 @@ public class BimServer {
 		if (longActionManager != null) {
 			longActionManager.shutdown();
 		}
+		if (renderEnginePools != null) {
+			renderEnginePools.close();
+		}
 		if (notificationsManager != null) {
 			notificationsManager.shutdown();
 		}
@@ -1087,4 +1093,8 @@ public class BimServer {
 	public MetricsRegistry getMetricsRegistry() {
 		return metricsRegistry;
 	}
+
+	public RenderEnginePools getRenderEnginePools() {
+		return renderEnginePools;
+	}
 }
\ No newline at end of file
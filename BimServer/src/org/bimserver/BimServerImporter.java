@@ -103,12 +103,18 @@ public class BimServerImporter {
 		}
 	}
 	
-	public void start() {
+	/**
+	 * @throws BimserverDatabaseException When the bulk load cannot be started, for example because the server is in use
+	 */
+	public void start() throws BimserverDatabaseException {
+		final BimDatabase database = bimServer.getDatabase();
+		// Everything until the last checkin has been done is one bulk load, an interrupted import has to be started again anyway
+		database.startBulkLoad();
+		boolean bulkLoadEndedByExecutor = false;
 		try {
 			LOGGER.info("Importing...");
 			BimServerClientFactory factory = new JsonBimServerClientFactory(bimServer.getMetaDataManager(), address);
 			remoteClient = factory.create(new UsernamePasswordAuthenticationInfo(username, password));
-			final BimDatabase database = bimServer.getDatabase();
 			DatabaseSession databaseSession = database.createSession();
 			try {
 				LOGGER.info("Users...");
@@ -208,6 +214,13 @@ public class BimServerImporter {
 				});
 				
 			}
+			executorService.submit(new Runnable(){
+				@Override
+				public void run() {
+					endBulkLoad(database);
+				}
+			});
+			bulkLoadEndedByExecutor = true;
 			executorService.shutdown();
 		} catch (ServiceException e) {
 			LOGGER.error("", e);
@@ -219,6 +232,18 @@ public class BimServerImporter {
 			LOGGER.error("", e);
 		} catch (IOException e) {
 			LOGGER.error("", e);
+		} finally {
+			if (!bulkLoadEndedByExecutor) {
+				endBulkLoad(database);
+			}
+		}
+	}
+
+	private void endBulkLoad(BimDatabase database) {
+		try {
+			database.endBulkLoad();
+		} catch (BimserverDatabaseException e) {
+			LOGGER.error("", e);
 		}
 	}
 
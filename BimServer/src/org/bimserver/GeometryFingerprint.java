@@ -0,0 +1,206 @@
+package org.bimserver;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.plugins.serializers.SerializerException;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+
+import com.google.common.base.Charsets;
+
+/*
+ * Calculates a hash of everything that determines the geometry of a product: its placement, its representation and
+ * the placement and representation of the openings in it, including the styles of the representation items. The
+ * materials associated with the product or its type (and the styles of their representations) determine the colours,
+ * so they are part of it too. The schemas have no opposite for IfcRelAssociates.RelatedObjects, so HasAssociations is
+ * never filled in; the material associations are looked up in the model of the product instead. References are followed the way the geometry generator copies them, so two products with
+ * the same fingerprint result in the same geometry. Oids and express ids are not part of the fingerprint, so products
+ * of different revisions can be compared.
+ */
+public class GeometryFingerprint {
+	private final PackageMetaData packageMetaData;
+	private final EStructuralFeature objectPlacementFeature;
+	private final EStructuralFeature representationFeature;
+	private final EClass relAssociatesMaterialClass;
+	private final Map<IfcModelInterface, Map<IdEObject, List<IdEObject>>> materialAssociations = new IdentityHashMap<>();
+
+	public GeometryFingerprint(PackageMetaData packageMetaData) {
+		this.packageMetaData = packageMetaData;
+		EClass productClass = packageMetaData.getEClass("IfcProduct");
+		this.objectPlacementFeature = productClass.getEStructuralFeature("ObjectPlacement");
+		this.representationFeature = productClass.getEStructuralFeature("Representation");
+		this.relAssociatesMaterialClass = packageMetaData.getEClass("IfcRelAssociatesMaterial");
+	}
+
+	/**
+	 * @param model The model the product belongs to, its IfcRelAssociatesMaterial objects give the materials of the product
+	 */
+	public byte[] fingerprint(IfcModelInterface model, IdEObject product) {
+		MessageDigest messageDigest;
+		try {
+			messageDigest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		Map<IdEObject, Integer> visited = new IdentityHashMap<>();
+		update(messageDigest, product.eClass().getName());
+		updateShape(messageDigest, product, visited);
+		EStructuralFeature hasOpeningsFeature = product.eClass().getEStructuralFeature("HasOpenings");
+		if (hasOpeningsFeature != null) {
+			for (Object ifcRelVoidsElement : (List<?>) product.eGet(hasOpeningsFeature)) {
+				IdEObject relVoidsElement = (IdEObject) ifcRelVoidsElement;
+				IdEObject openingElement = (IdEObject) relVoidsElement.eGet(relVoidsElement.eClass().getEStructuralFeature("RelatedOpeningElement"));
+				if (openingElement != null) {
+					updateShape(messageDigest, openingElement, visited);
+				}
+			}
+		}
+		Map<IdEObject, List<IdEObject>> associations = getMaterialAssociations(model);
+		updateMaterials(messageDigest, associations, product, visited);
+		for (String typeRelationName : new String[] { "IsDefinedBy", "IsTypedBy" }) {
+			// IFC2x3 has the type relation between the property definitions, IFC4 has a separate inverse for it
+			EStructuralFeature typeRelationFeature = product.eClass().getEStructuralFeature(typeRelationName);
+			if (typeRelationFeature != null) {
+				for (Object relation : (List<?>) product.eGet(typeRelationFeature)) {
+					IdEObject relDefines = (IdEObject) relation;
+					EStructuralFeature relatingTypeFeature = relDefines.eClass().getEStructuralFeature("RelatingType");
+					if (relatingTypeFeature != null && relDefines.eGet(relatingTypeFeature) != null) {
+						updateMaterials(messageDigest, associations, (IdEObject) relDefines.eGet(relatingTypeFeature), visited);
+					}
+				}
+			}
+		}
+		return messageDigest.digest();
+	}
+
+	/*
+	 * Only the materials of the associations are followed, the relations themselves refer to all other objects with the same material
+	 */
+	private void updateMaterials(MessageDigest messageDigest, Map<IdEObject, List<IdEObject>> associations, IdEObject object, Map<IdEObject, Integer> visited) {
+		List<IdEObject> relations = associations.get(object);
+		if (relations == null) {
+			return;
+		}
+		for (IdEObject relAssociatesMaterial : relations) {
+			update(messageDigest, relAssociatesMaterial.eClass().getName());
+			updateValue(messageDigest, relAssociatesMaterial.eGet(relAssociatesMaterial.eClass().getEStructuralFeature("RelatingMaterial")), visited);
+		}
+	}
+
+	/*
+	 * The IfcRelAssociatesMaterial objects of the model by related object. This is built once per model, so changes to the
+	 * related objects of the relations after the first fingerprint of a model are not seen
+	 */
+	private Map<IdEObject, List<IdEObject>> getMaterialAssociations(IfcModelInterface model) {
+		Map<IdEObject, List<IdEObject>> associations = materialAssociations.get(model);
+		if (associations == null) {
+			associations = new IdentityHashMap<>();
+			for (IdEObject relAssociatesMaterial : model.getAllWithSubTypes(relAssociatesMaterialClass)) {
+				for (Object relatedObject : (List<?>) relAssociatesMaterial.eGet(relAssociatesMaterial.eClass().getEStructuralFeature("RelatedObjects"))) {
+					List<IdEObject> relations = associations.get(relatedObject);
+					if (relations == null) {
+						relations = new ArrayList<>();
+						associations.put((IdEObject) relatedObject, relations);
+					}
+					relations.add(relAssociatesMaterial);
+				}
+			}
+			materialAssociations.put(model, associations);
+		}
+		return associations;
+	}
+
+	private void updateShape(MessageDigest messageDigest, IdEObject product, Map<IdEObject, Integer> visited) {
+		updateValue(messageDigest, product.eGet(objectPlacementFeature), visited);
+		updateValue(messageDigest, product.eGet(representationFeature), visited);
+	}
+
+	private void updateObject(MessageDigest messageDigest, IdEObject object, Map<IdEObject, Integer> visited) {
+		Integer index = visited.get(object);
+		if (index != null) {
+			// Already part of the fingerprint, only the position is added so cycles and shared objects are handled
+			update(messageDigest, "#" + index);
+			return;
+		}
+		visited.put(object, visited.size());
+		update(messageDigest, object.eClass().getName());
+		for (EStructuralFeature eStructuralFeature : object.eClass().getEAllStructuralFeatures()) {
+			if (eStructuralFeature instanceof EReference && !shouldFollow(eStructuralFeature)) {
+				continue;
+			}
+			update(messageDigest, eStructuralFeature.getName());
+			updateValue(messageDigest, object.eGet(eStructuralFeature), visited);
+		}
+	}
+
+	private void updateValue(MessageDigest messageDigest, Object value, Map<IdEObject, Integer> visited) {
+		if (value == null) {
+			update(messageDigest, "$");
+		} else if (value instanceof List) {
+			List<?> list = (List<?>) value;
+			update(messageDigest, "(" + list.size());
+			for (Object item : list) {
+				updateValue(messageDigest, item, visited);
+			}
+		} else if (value instanceof IdEObject) {
+			IdEObject idEObject = (IdEObject) value;
+			if (idEObject.eClass().getEPackage() == packageMetaData.getEPackage()) {
+				updateObject(messageDigest, idEObject, visited);
+			}
+		} else if (value instanceof byte[]) {
+			messageDigest.update((byte[]) value);
+		} else {
+			update(messageDigest, value.toString());
+		}
+	}
+
+	private boolean shouldFollow(EStructuralFeature eStructuralFeature) {
+		String name = eStructuralFeature.getName();
+		if (name.equals("StyledByItem") || name.equals("HasRepresentation")) {
+			// The styles of representation items and materials (IfcMaterialDefinitionRepresentation) are inverses
+			return true;
+		}
+		if (name.equals("OwnerHistory") || name.equals("Representation") || name.equals("geometry")) {
+			return false;
+		}
+		try {
+			return !packageMetaData.isInverse(eStructuralFeature);
+		} catch (SerializerException e) {
+			return false;
+		}
+	}
+
+	private void update(MessageDigest messageDigest, String value) {
+		byte[] bytes = value.getBytes(Charsets.UTF_8);
+		messageDigest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+		messageDigest.update(bytes);
+	}
+}
\ No newline at end of file
@@ -17,20 +17,30 @@ package org.bimserver;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -39,20 +49,20 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.NotImplementedException;
 import org.bimserver.database.BimserverDatabaseException;
 import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.GeometryDataStore;
+import org.bimserver.database.PostCommitAction;
 import org.bimserver.database.Query;
 import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IdEObjectImpl;
 import org.bimserver.emf.IfcModelInterface;
 import org.bimserver.emf.IfcModelInterfaceException;
-import org.bimserver.emf.OidProvider;
 import org.bimserver.emf.PackageMetaData;
 import org.bimserver.emf.Schema;
 import org.bimserver.geometry.Matrix;
 import org.bimserver.geometry.Vector;
-import org.bimserver.ifc.BasicIfcModel;
 import org.bimserver.models.geometry.GeometryData;
 import org.bimserver.models.geometry.GeometryFactory;
 import org.bimserver.models.geometry.GeometryInfo;
@@ -62,14 +72,11 @@ import org.bimserver.models.ifc2x3tc1.IfcShapeRepresentation;
 import org.bimserver.models.store.RenderEnginePluginConfiguration;
 import org.bimserver.models.store.User;
 import org.bimserver.models.store.UserSettings;
-import org.bimserver.plugins.ModelHelper;
 import org.bimserver.plugins.PluginConfiguration;
 import org.bimserver.plugins.PluginManager;
-import org.bimserver.plugins.objectidms.HideAllInversesObjectIDM;
 import org.bimserver.plugins.renderengine.EntityNotFoundException;
 import org.bimserver.plugins.renderengine.IndexFormat;
 import org.bimserver.plugins.renderengine.Precision;
-import org.bimserver.plugins.renderengine.RenderEngine;
 import org.bimserver.plugins.renderengine.RenderEngineException;
 import org.bimserver.plugins.renderengine.RenderEngineFilter;
 import org.bimserver.plugins.renderengine.RenderEngineGeometry;
@@ -80,8 +87,11 @@ import org.bimserver.plugins.renderengine.RenderEngineSettings;
 import org.bimserver.plugins.serializers.Serializer;
 import org.bimserver.plugins.serializers.SerializerException;
 import org.bimserver.plugins.serializers.SerializerPlugin;
+import org.bimserver.renderengine.RenderEnginePool;
+import org.bimserver.renderengine.RenderEnginePool.InputStreamSource;
+import org.bimserver.renderengine.RenderEnginePool.PooledRenderEngine;
 import org.bimserver.shared.exceptions.UserException;
-import org.bimserver.utils.CollectionUtils;
+import org.bimserver.utils.ByteBufferInputStream;
 import org.bimserver.utils.Formatters;
 import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.EStructuralFeature;
@@ -90,10 +100,10 @@ import org.slf4j.LoggerFactory;
 
 public class GeometryGenerator {
 	private static final Logger LOGGER = LoggerFactory.getLogger(GeometryGenerator.class);
+	private static final int BATCHES_PER_RUNNER = 8;
 	
 	private final BimServer bimServer;
-	private final Map<Integer, GeometryData> hashes = new ConcurrentHashMap<Integer, GeometryData>();
-
+	private final Map<ByteBuffer, GeometryData> hashes = new ConcurrentHashMap<ByteBuffer, GeometryData>();
 	private EClass productClass;
 	private EClass productRepresentationClass;
 	private EStructuralFeature geometryFeature;
@@ -110,241 +120,284 @@ public class GeometryGenerator {
 	
 	public class Runner implements Runnable {
 
-		private EClass eClass;
-		private RenderEnginePlugin renderEnginePlugin;
+		private Queue<List<IdEObject>> batches;
+		private RenderEnginePool renderEnginePool;
 		private DatabaseSession databaseSession;
 		private RenderEngineSettings renderEngineSettings;
 		private RenderEngineFilter renderEngineFilter;
 		private RenderEngineFilter renderEngineFilterTransformed = new RenderEngineFilter(true);
 		private boolean store;
-		private IfcModelInterface targetModel;
-		private SerializerPlugin ifcSerializerPlugin;
+		private SerializedModel serializedModel;
 		private IfcModelInterface model;
 		private int pid;
 		private int rid;
-		private Map<IdEObject, IdEObject> bigMap;
 
-		public Runner(EClass eClass, RenderEnginePlugin renderEnginePlugin, DatabaseSession databaseSession, RenderEngineSettings renderEngineSettings, boolean store, IfcModelInterface targetModel, SerializerPlugin ifcSerializerPlugin, IfcModelInterface model, int pid, int rid, Map<IdEObject, IdEObject> bigMap, RenderEngineFilter renderEngineFilter) {
-			this.eClass = eClass;
-			this.renderEnginePlugin = renderEnginePlugin;
+		public Runner(Queue<List<IdEObject>> batches, RenderEnginePool renderEnginePool, DatabaseSession databaseSession, RenderEngineSettings renderEngineSettings, boolean store, SerializedModel serializedModel, IfcModelInterface model, int pid, int rid, RenderEngineFilter renderEngineFilter) {
+			this.batches = batches;
+			this.renderEnginePool = renderEnginePool;
 			this.databaseSession = databaseSession;
 			this.renderEngineSettings = renderEngineSettings;
 			this.store = store;
-			this.targetModel = targetModel;
-			this.ifcSerializerPlugin = ifcSerializerPlugin;
+			this.serializedModel = serializedModel;
 			this.model = model;
 			this.pid = pid;
 			this.rid = rid;
-			this.bigMap = bigMap;
 			this.renderEngineFilter = renderEngineFilter;
 		}
 		
 		@Override
 		public void run() {
-			targetModel.generateMinimalExpressIds();
-
-			Serializer ifcSerializer = ifcSerializerPlugin.createSerializer(new PluginConfiguration());
-			RenderEngine renderEngine = null;
+			PooledRenderEngine renderEngine = null;
 			try {
-				renderEngine = renderEnginePlugin.createRenderEngine(new PluginConfiguration(), model.getPackageMetaData().getSchema().getEPackageName());
+				renderEngine = renderEnginePool.borrowRenderEngine();
 			} catch (RenderEngineException e) {
 				LOGGER.error("", e);
+				return;
+			} catch (InterruptedException e) {
+				LOGGER.error("", e);
+				return;
 			}
 			try {
-				renderEngine.init();
-				ifcSerializer.init(targetModel, null, bimServer.getPluginManager(), null, model.getPackageMetaData(), true);
-
-				boolean debug = false;
-				InputStream in = null;
-				if (debug) {
-					File file = new File((eClass == null ? "all" : eClass.getName()) + ".ifc");
-					FileOutputStream fos = new FileOutputStream(file);
-					IOUtils.copy(ifcSerializer.getInputStream(), fos);
-					fos.close();
-					in = new FileInputStream(file);
-				} else {
-					in = ifcSerializer.getInputStream();
-				}
-				RenderEngineModel renderEngineModel = renderEngine.openModel(in);
+				RenderEngineModel renderEngineModel = serializedModel.open(renderEngine);
 				try {
 					renderEngineModel.setSettings(renderEngineSettings);
 					renderEngineModel.setFilter(renderEngineFilter);
 
 					renderEngineModel.generateGeneralGeometry();
 
-					List<IdEObject> allWithSubTypes = null;
-					if (eClass == null) {
-						allWithSubTypes = targetModel.getAllWithSubTypes(packageMetaData.getEClass("IfcProduct"));
-					} else {
-						allWithSubTypes = targetModel.getAll(eClass);
-					}
-					for (IdEObject ifcProduct : allWithSubTypes) {
-						IdEObject representation = (IdEObject) ifcProduct.eGet(representationFeature);
-						if (representation != null && ((List<?>) representation.eGet(representationsFeature)).size() > 0) {
-							List<?> representations = (List<?>) representation.eGet(representationsFeature);
-							try {
-								RenderEngineInstance renderEngineInstance = renderEngineModel.getInstanceFromExpressId(ifcProduct.getExpressId());
-								RenderEngineGeometry geometry = renderEngineInstance.generateGeometry();
-								boolean translate = true;
-								if (geometry == null || geometry.getIndices().length == 0) {
-									renderEngineModel.setFilter(renderEngineFilterTransformed);
-									geometry = renderEngineInstance.generateGeometry();
-									if (geometry != null) {
-										translate = false;
-									}
-									renderEngineModel.setFilter(renderEngineFilter);
-								}
-								if (geometry != null && geometry.getNrIndices() > 0) {
-									GeometryInfo geometryInfo = null;
-									if (store) {
-										geometryInfo = model.createAndAdd(GeometryPackage.eINSTANCE.getGeometryInfo(), databaseSession.newOid(GeometryPackage.eINSTANCE.getGeometryInfo()));
-										databaseSession.store(geometryInfo, pid, rid);
-//										geometryInfo = packageMetaData.create(GeometryInfo.class);
-//										Long newOid = databaseSession.newOid(GeometryPackage.eINSTANCE.getGeometryInfo());
-//										((IdEObjectImpl) geometryInfo).setOid(newOid);
-//										model.add(newOid, geometryInfo);
-									} else {
-										geometryInfo = GeometryFactory.eINSTANCE.createGeometryInfo();
+					// Runners that finish early take over the batches other runners have not started yet
+					for (List<IdEObject> batch = batches.poll(); batch != null; batch = batches.poll()) {
+						for (IdEObject ifcProduct : batch) {
+							IdEObject representation = (IdEObject) ifcProduct.eGet(representationFeature);
+							if (representation != null && ((List<?>) representation.eGet(representationsFeature)).size() > 0) {
+								List<?> representations = (List<?>) representation.eGet(representationsFeature);
+								try {
+									RenderEngineInstance renderEngineInstance = renderEngineModel.getInstanceFromExpressId(ifcProduct.getExpressId());
+									RenderEngineGeometry geometry = renderEngineInstance.generateGeometry();
+									boolean translate = true;
+									if (geometry == null || geometry.getIndices().length == 0) {
+										renderEngineModel.setFilter(renderEngineFilterTransformed);
+										geometry = renderEngineInstance.generateGeometry();
+										if (geometry != null) {
+											translate = false;
+										}
+										renderEngineModel.setFilter(renderEngineFilter);
 									}
+									if (geometry != null && geometry.getNrIndices() > 0) {
+										GeometryInfo geometryInfo = null;
+										if (store) {
+											geometryInfo = model.createAndAdd(GeometryPackage.eINSTANCE.getGeometryInfo(), databaseSession.newOid(GeometryPackage.eINSTANCE.getGeometryInfo()));
+											databaseSession.store(geometryInfo, pid, rid);
+	//										geometryInfo = packageMetaData.create(GeometryInfo.class);
+	//										Long newOid = databaseSession.newOid(GeometryPackage.eINSTANCE.getGeometryInfo());
+	//										((IdEObjectImpl) geometryInfo).setOid(newOid);
+	//										model.add(newOid, geometryInfo);
+										} else {
+											geometryInfo = GeometryFactory.eINSTANCE.createGeometryInfo();
+										}
 
-									geometryInfo.setMinBounds(createVector3f(packageMetaData, model, Float.POSITIVE_INFINITY, databaseSession, store, pid, rid));
-									geometryInfo.setMaxBounds(createVector3f(packageMetaData, model, Float.NEGATIVE_INFINITY, databaseSession, store, pid, rid));
+										geometryInfo.setMinBounds(createVector3f(packageMetaData, model, Float.POSITIVE_INFINITY, databaseSession, store, pid, rid));
+										geometryInfo.setMaxBounds(createVector3f(packageMetaData, model, Float.NEGATIVE_INFINITY, databaseSession, store, pid, rid));
 
-									try {
-										double area = renderEngineInstance.getArea();
-										geometryInfo.setArea(area);
-										double volume = renderEngineInstance.getVolume();
-										if (volume < 0d) {
-											volume = -volume;
-										}
-										geometryInfo.setVolume(volume);
+										try {
+											double area = renderEngineInstance.getArea();
+											geometryInfo.setArea(area);
+											double volume = renderEngineInstance.getVolume();
+											if (volume < 0d) {
+												volume = -volume;
+											}
+											geometryInfo.setVolume(volume);
 										
-//										EStructuralFeature guidFeature = ifcProduct.eClass().getEStructuralFeature("GlobalId");
-//										String guid = (String) ifcProduct.eGet(guidFeature);
-//										System.out.println(guid + ": " + "Area: " + area + ", Volume: " + volume);
-									} catch (NotImplementedException e) {
-									}
+	//										EStructuralFeature guidFeature = ifcProduct.eClass().getEStructuralFeature("GlobalId");
+	//										String guid = (String) ifcProduct.eGet(guidFeature);
+	//										System.out.println(guid + ": " + "Area: " + area + ", Volume: " + volume);
+										} catch (NotImplementedException e) {
+										}
 									
-									GeometryData geometryData = null;
-									if (store) {
-										geometryData = model.createAndAdd(GeometryPackage.eINSTANCE.getGeometryData(), databaseSession.newOid(GeometryPackage.eINSTANCE.getGeometryData()));
-										databaseSession.store(geometryData, pid, rid);
-									} else {
-										geometryData = GeometryFactory.eINSTANCE.createGeometryData();
-									}
+										GeometryData geometryData = null;
+										if (store) {
+											geometryData = model.createAndAdd(GeometryPackage.eINSTANCE.getGeometryData(), databaseSession.newOid(GeometryPackage.eINSTANCE.getGeometryData()));
+											databaseSession.store(geometryData, pid, rid);
+										} else {
+											geometryData = GeometryFactory.eINSTANCE.createGeometryData();
+										}
 
-									geometryData.setIndices(intArrayToByteArray(geometry.getIndices()));
-									geometryData.setVertices(floatArrayToByteArray(geometry.getVertices()));
-									geometryData.setMaterialIndices(intArrayToByteArray(geometry.getMaterialIndices()));
-									geometryData.setNormals(floatArrayToByteArray(geometry.getNormals()));
+										geometryData.setIndices(intArrayToByteArray(geometry.getIndices()));
+										geometryData.setVertices(floatArrayToByteArray(geometry.getVertices()));
+										geometryData.setMaterialIndices(intArrayToByteArray(geometry.getMaterialIndices()));
+										geometryData.setNormals(floatArrayToByteArray(geometry.getNormals()));
 									
-									geometryInfo.setPrimitiveCount(geometry.getIndices().length / 3);
-
-									if (geometry.getMaterialIndices() != null && geometry.getMaterialIndices().length > 0) {
-										boolean hasMaterial = false;
-										float[] vertex_colors = new float[geometry.getVertices().length / 3 * 4];
-										for (int i = 0; i < geometry.getMaterialIndices().length; ++i) {
-											int c = geometry.getMaterialIndices()[i];
-											for (int j = 0; j < 3; ++j) {
-												int k = geometry.getIndices()[i * 3 + j];
-												if (c > -1) {
-													hasMaterial = true;
-													for (int l = 0; l < 4; ++l) {
-														vertex_colors[4 * k + l] = geometry.getMaterials()[4 * c + l];
+										geometryInfo.setPrimitiveCount(geometry.getIndices().length / 3);
+
+										if (geometry.getMaterialIndices() != null && geometry.getMaterialIndices().length > 0) {
+											boolean hasMaterial = false;
+											float[] vertex_colors = new float[geometry.getVertices().length / 3 * 4];
+											for (int i = 0; i < geometry.getMaterialIndices().length; ++i) {
+												int c = geometry.getMaterialIndices()[i];
+												for (int j = 0; j < 3; ++j) {
+													int k = geometry.getIndices()[i * 3 + j];
+													if (c > -1) {
+														hasMaterial = true;
+														for (int l = 0; l < 4; ++l) {
+															vertex_colors[4 * k + l] = geometry.getMaterials()[4 * c + l];
+														}
 													}
 												}
 											}
+											if (hasMaterial) {
+												geometryData.setMaterials(floatArrayToByteArray(vertex_colors));
+											}
 										}
-										if (hasMaterial) {
-											geometryData.setMaterials(floatArrayToByteArray(vertex_colors));
-										}
-									}
 
-									float[] tranformationMatrix = new float[16];
-									if (translate && renderEngineInstance.getTransformationMatrix() != null) {
-										tranformationMatrix = renderEngineInstance.getTransformationMatrix();
-									} else {
-										Matrix.setIdentityM(tranformationMatrix, 0);
-									}
+										float[] tranformationMatrix = new float[16];
+										if (translate && renderEngineInstance.getTransformationMatrix() != null) {
+											tranformationMatrix = renderEngineInstance.getTransformationMatrix();
+										} else {
+											Matrix.setIdentityM(tranformationMatrix, 0);
+										}
 
-									for (int i = 0; i < geometry.getIndices().length; i++) {
-										processExtends(geometryInfo, tranformationMatrix, geometry.getVertices(), geometry.getIndices()[i] * 3);
-									}
+										for (int i = 0; i < geometry.getIndices().length; i++) {
+											processExtends(geometryInfo, tranformationMatrix, geometry.getVertices(), geometry.getIndices()[i] * 3);
+										}
 
-									geometryInfo.setData(geometryData);
-
-									long length = (geometryData.getIndices() != null ? geometryData.getIndices().length : 0) + 
-												  (geometryData.getVertices() != null ? geometryData.getVertices().length : 0) + 
-												  (geometryData.getNormals() != null ? geometryData.getNormals().length : 0) + 
-												  (geometryData.getMaterials() != null ? geometryData.getMaterials().length : 0) +
-												  (geometryData.getMaterialIndices() != null ? geometryData.getMaterialIndices().length : 0);
-
-									setTransformationMatrix(geometryInfo, tranformationMatrix);
-									if (bimServer.getServerSettingsCache().getServerSettings().isReuseGeometry()) {
-										int hash = hash(geometryData);
-										if (hashes.containsKey(hash)) {
-											databaseSession.removeFromCommit(geometryData);
-											geometryInfo.setData(hashes.get(hash));
-											bytesSaved.addAndGet(length);
-										} else {
-											hashes.put(hash, geometryData);
+										geometryInfo.setData(geometryData);
+
+										long length = (geometryData.getIndices() != null ? geometryData.getIndices().length : 0) + 
+													  (geometryData.getVertices() != null ? geometryData.getVertices().length : 0) + 
+													  (geometryData.getNormals() != null ? geometryData.getNormals().length : 0) + 
+													  (geometryData.getMaterials() != null ? geometryData.getMaterials().length : 0) +
+													  (geometryData.getMaterialIndices() != null ? geometryData.getMaterialIndices().length : 0);
+
+										setTransformationMatrix(geometryInfo, tranformationMatrix);
+										if (bimServer.getServerSettingsCache().getServerSettings().isReuseGeometry()) {
+											GeometryData existing = hashes.putIfAbsent(ByteBuffer.wrap(GeometryDataStore.hash(geometryData)), geometryData);
+											if (existing != null) {
+												databaseSession.removeFromCommit(geometryData);
+												if (store) {
+													model.remove(geometryData);
+												}
+												geometryInfo.setData(existing);
+												bytesSaved.addAndGet(length);
+											}
 										}
-									}
-									totalBytes.addAndGet(length);
+										totalBytes.addAndGet(length);
 
-									if (bigMap == null) {
 										ifcProduct.eSet(geometryFeature, geometryInfo);
 										if (store) {
 											databaseSession.store(ifcProduct, pid, rid);
 										}
-									} else {
-										bigMap.get(ifcProduct).eSet(geometryFeature, geometryInfo);
-										ifcProduct.eSet(geometryFeature, geometryInfo); // ??
-										if (store) {
-											databaseSession.store(bigMap.get(ifcProduct), pid, rid);
-										}
 									}
-								}
-							} catch (EntityNotFoundException e) {
-								// As soon as we find a representation that is not Curve2D, then we should show a "INFO" message in the log to indicate there could be something wrong
-								boolean ignoreNotFound = true;
-								for (Object rep : representations) {
-									if (rep instanceof IfcShapeRepresentation) {
-										IfcShapeRepresentation ifcShapeRepresentation = (IfcShapeRepresentation)rep;
-										if (!"Curve2D".equals(ifcShapeRepresentation.getRepresentationType())) {
-											ignoreNotFound = false;
+								} catch (EntityNotFoundException e) {
+									// As soon as we find a representation that is not Curve2D, then we should show a "INFO" message in the log to indicate there could be something wrong
+									boolean ignoreNotFound = true;
+									for (Object rep : representations) {
+										if (rep instanceof IfcShapeRepresentation) {
+											IfcShapeRepresentation ifcShapeRepresentation = (IfcShapeRepresentation)rep;
+											if (!"Curve2D".equals(ifcShapeRepresentation.getRepresentationType())) {
+												ignoreNotFound = false;
+											}
 										}
 									}
+									if (!ignoreNotFound) {
+										LOGGER.info("Entity not found " + ifcProduct.eClass().getName() + " " + ifcProduct.getExpressId() + "/" + ifcProduct.getOid());
+									}
+								} catch (RenderEngineException e) {
+									// The engine goes back to the pool, but will not be used again
+									renderEngine.markFailed();
+									LOGGER.error("", e);
+								} catch (BimserverDatabaseException e) {
+									LOGGER.error("", e);
+								} catch (IfcModelInterfaceException e) {
+									LOGGER.error("", e);
 								}
-								if (!ignoreNotFound) {
-									LOGGER.info("Entity not found " + ifcProduct.eClass().getName() + " " + ifcProduct.getExpressId() + "/" + ifcProduct.getOid());
-								}
-							} catch (BimserverDatabaseException | RenderEngineException e) {
-								LOGGER.error("", e);
-							} catch (IfcModelInterfaceException e) {
-								LOGGER.error("", e);
 							}
 						}
 					}								
 				} finally {
-					in.close();
 					renderEngineModel.close();
 				}
-			} catch (SerializerException | RenderEngineException | IOException e) {
+			} catch (RenderEngineException | IOException e) {
 				LOGGER.error("", e);
 			} finally {
-				try {
-					renderEngine.close();
-				} catch (RenderEngineException e) {
-					LOGGER.error("", e);
-				}
+				renderEngine.returnToPool();
 			}
 		}
 	}
 	
-	@SuppressWarnings("unchecked")
+	/**
+	 * The serialized IFC model, written to a temporary file once and memory mapped when it fits in a single buffer, so the render engines do not each need their own serialization
+	 */
+	private static class SerializedModel implements Closeable {
+		private final Path file;
+		private final long size;
+		private final ByteBuffer buffer;
+
+		private SerializedModel(Path file, long size, ByteBuffer buffer) {
+			this.file = file;
+			this.size = size;
+			this.buffer = buffer;
+		}
+
+		public static SerializedModel serialize(SerializerPlugin ifcSerializerPlugin, IfcModelInterface model, PluginManager pluginManager) throws SerializerException, IOException {
+			Serializer ifcSerializer = ifcSerializerPlugin.createSerializer(new PluginConfiguration());
+			ifcSerializer.init(model, null, pluginManager, null, model.getPackageMetaData(), true);
+			Path tempDir = pluginManager.getTempDir();
+			if (!Files.exists(tempDir)) {
+				Files.createDirectories(tempDir);
+			}
+			Path file = Files.createTempFile(tempDir, "geometry", ".ifc");
+			try {
+				try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(file))) {
+					ifcSerializer.writeToOutputStream(outputStream, null);
+				}
+				long size = Files.size(file);
+				ByteBuffer buffer = null;
+				if (size <= Integer.MAX_VALUE) {
+					try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+						buffer = fileChannel.map(MapMode.READ_ONLY, 0, size);
+					}
+				}
+				return new SerializedModel(file, size, buffer);
+			} catch (SerializerException | IOException e) {
+				Files.deleteIfExists(file);
+				throw e;
+			}
+		}
+
+		public RenderEngineModel open(PooledRenderEngine renderEngine) throws RenderEngineException, IOException {
+			if (buffer != null) {
+				return renderEngine.openModel(new ByteBufferInputStream(buffer.duplicate()), (int) size);
+			}
+			// Too large to map, when the engine has to be replaced the file is read again instead of buffering the stream
+			return renderEngine.openModel(new InputStreamSource() {
+				@Override
+				public InputStream open() throws IOException {
+					return new BufferedInputStream(Files.newInputStream(file));
+				}
+			});
+		}
+
+		@Override
+		public void close() {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				// Some platforms do not allow deleting a file that is still mapped
+				file.toFile().deleteOnExit();
+			}
+		}
+	}
+
 	public void generateGeometry(long uoid, final PluginManager pluginManager, final DatabaseSession databaseSession, final IfcModelInterface model, final int pid, final int rid,
 			final boolean store, GeometryCache geometryCache) throws BimserverDatabaseException, GeometryGeneratingException {
+		generateGeometry(uoid, pluginManager, databaseSession, model, pid, rid, store, geometryCache, null);
+	}
+
+	/**
+	 * @param previousModel When not null, geometry is only generated for the products that are new or have a different fingerprint than the product with the same GUID in this model, the other products refer to the geometry of the product in this model
+	 */
+	public void generateGeometry(long uoid, final PluginManager pluginManager, final DatabaseSession databaseSession, final IfcModelInterface model, final int pid, final int rid,
+			final boolean store, GeometryCache geometryCache, IfcModelInterface previousModel) throws BimserverDatabaseException, GeometryGeneratingException {
 		packageMetaData = model.getPackageMetaData();
 		productClass = packageMetaData.getEClass("IfcProduct");
 		productRepresentationClass = packageMetaData.getEClass("IfcProductRepresentation");
@@ -385,6 +438,8 @@ public class GeometryGenerator {
 			if (maxSimultanousThreads < 1) {
 				maxSimultanousThreads = 1;
 			}
+			// The pool is shared by all geometry generation, so concurrent checkins do not start more engines than configured
+			RenderEnginePool renderEnginePool = bimServer.getRenderEnginePools().getPool(renderEnginePlugin, model.getPackageMetaData().getSchema().getEPackageName(), maxSimultanousThreads);
 
 			final RenderEngineSettings settings = new RenderEngineSettings();
 			settings.setPrecision(Precision.SINGLE);
@@ -395,68 +450,64 @@ public class GeometryGenerator {
 			
 			final RenderEngineFilter renderEngineFilter = new RenderEngineFilter();
 
-			if (maxSimultanousThreads == 1) {
-				Runner runner = new Runner(null, renderEnginePlugin, databaseSession, settings, store, model, ifcSerializerPlugin, model, pid, rid, null, renderEngineFilter);
-				runner.run();
-			} else {
-				Set<EClass> classes = new HashSet<>();
-				for (IdEObject object : model.getAllWithSubTypes(packageMetaData.getEClass("IfcProduct"))) {
-					IdEObject representation = (IdEObject)object.eGet(representationFeature);
-					if (representation != null && ((List<?>)representation.eGet(representationsFeature)).size() > 0) {
-						classes.add(object.eClass());
+			List<IdEObject> products = model.getAllWithSubTypes(productClass);
+			Map<String, IdEObject> previousProducts = new HashMap<>();
+			if (previousModel != null) {
+				previousProducts = getProductsWithGeometry(previousModel);
+				products = copyUnchangedGeometry(databaseSession, model, previousModel, previousProducts, products, store, pid, rid);
+			}
+
+			// The model is serialized once, all render engines read the same bytes
+			model.generateMinimalExpressIds();
+			SerializedModel serializedModel = SerializedModel.serialize(ifcSerializerPlugin, model, pluginManager);
+			try {
+				if (maxSimultanousThreads == 1 && previousModel == null) {
+					Queue<List<IdEObject>> batches = new LinkedList<>();
+					batches.add(products);
+					Runner runner = new Runner(batches, renderEnginePool, databaseSession, settings, store, serializedModel, model, pid, rid, renderEngineFilter);
+					runner.run();
+				} else {
+					// Also used for incremental generation, only the changed products are queried from the render engines
+					EClass annotationClass = packageMetaData.getEClass("IfcAnnotation");
+					EClass openingElementClass = packageMetaData.getEClass("IfcOpeningElement");
+					List<IdEObject> productsWithRepresentation = new ArrayList<>();
+					for (IdEObject object : products) {
+						if (object.eClass() == annotationClass || object.eClass() == openingElementClass) {
+							continue;
+						}
+						IdEObject representation = (IdEObject)object.eGet(representationFeature);
+						if (representation != null && ((List<?>)representation.eGet(representationsFeature)).size() > 0) {
+							productsWithRepresentation.add(object);
+						}
 					}
-				}
-				
-				if (classes.size() == 0) {
-					return;
-				}
-				
-				classes.remove(packageMetaData.getEClass("IfcAnnotation"));
-				classes.remove(packageMetaData.getEClass("IfcOpeningElement"));
-				
-				LOGGER.debug("Using " + maxSimultanousThreads + " processes for geometry generation");
-				ThreadPoolExecutor executor = new ThreadPoolExecutor(maxSimultanousThreads, maxSimultanousThreads, 24, TimeUnit.HOURS, new ArrayBlockingQueue<Runnable>(classes.size()));
-
-				final Map<IdEObject, IdEObject> bigMap = new HashMap<IdEObject, IdEObject>();
-
-				HideAllInversesObjectIDM idm = new HideAllInversesObjectIDM(CollectionUtils.singleSet(packageMetaData.getEPackage()), pluginManager.getMetaDataManager().getPackageMetaData("ifc2x3tc1").getSchemaDefinition());
-				OidProvider<Long> oidProvider = new OidProvider<Long>(){
-					@Override
-					public Long newOid(EClass eClass) {
-						return databaseSession.newOid(eClass);
-					}};
-				for (final EClass eClass : classes) {
-					final BasicIfcModel targetModel = new BasicIfcModel(pluginManager.getMetaDataManager().getPackageMetaData("ifc2x3tc1"), null);
-					ModelHelper modelHelper = new ModelHelper(bimServer.getMetaDataManager(), targetModel);
-					modelHelper.setOidProvider(oidProvider);
-					modelHelper.setObjectIDM(idm);
-					
-					IdEObject newOwnerHistory = modelHelper.copyBasicObjects(model, bigMap);
 					
-					for (IdEObject idEObject : model.getAll(eClass)) {
-						IdEObject newObject = modelHelper.copy(idEObject, false, ModelHelper.createObjectIdm(idEObject.eClass()));
-						modelHelper.copyDecomposes(idEObject, newOwnerHistory);
-						bigMap.put(newObject, idEObject);
-						if (eClass.getName().equals("IfcWallStandardCase")) {
-							EStructuralFeature hasOpeningsFeature = idEObject.eClass().getEStructuralFeature("HasOpenings");
-							for (IdEObject ifcRelVoidsElement : ((List<IdEObject>)idEObject.eGet(hasOpeningsFeature))) {
-								bigMap.put(modelHelper.copy(ifcRelVoidsElement, false), ifcRelVoidsElement);
-								EStructuralFeature relatedOpeningElementFeature = ifcRelVoidsElement.eClass().getEStructuralFeature("RelatedOpeningElement");
-								IdEObject relatedOpeningElement = (IdEObject) ifcRelVoidsElement.eGet(relatedOpeningElementFeature);
-								if (relatedOpeningElement != null) {
-									bigMap.put(modelHelper.copy(relatedOpeningElement, false), relatedOpeningElement);
-								}
-							}
-						}
+					if (productsWithRepresentation.size() == 0) {
+						return;
 					}
+					
+					int nrRunners = Math.min(maxSimultanousThreads, productsWithRepresentation.size());
+					LOGGER.debug("Using " + nrRunners + " processes for geometry generation");
+					
+					// Every runner opens the model once and then keeps taking batches, more batches than runners leave room for balancing
+					Queue<List<IdEObject>> batches = ProductBatches.create(productsWithRepresentation, estimateCosts(productsWithRepresentation, previousProducts), nrRunners * BATCHES_PER_RUNNER);
 
-					executor.submit(new Runner(eClass, renderEnginePlugin, databaseSession, settings, store, targetModel, ifcSerializerPlugin, model, pid, rid, bigMap, renderEngineFilter));
+					ThreadPoolExecutor executor = new ThreadPoolExecutor(nrRunners, nrRunners, 24, TimeUnit.HOURS, new ArrayBlockingQueue<Runnable>(nrRunners));
+					for (int i = 0; i < nrRunners; i++) {
+						executor.submit(new Runner(batches, renderEnginePool, databaseSession, settings, store, serializedModel, model, pid, rid, renderEngineFilter));
+					}
+					executor.shutdown();
+					executor.awaitTermination(24, TimeUnit.HOURS);
 				}
-				executor.shutdown();
-				executor.awaitTermination(24, TimeUnit.HOURS);				
+			} finally {
+				serializedModel.close();
+			}
+
+			if (store && bimServer.getServerSettingsCache().getServerSettings().isReuseGeometry()) {
+				reuseStoredGeometry(databaseSession, model, pid, rid);
 			}
 			
 			long end = System.nanoTime();
+			LOGGER.debug("Render engine pool " + renderEnginePool);
 			LOGGER.info("Rendertime: " + ((end - start) / 1000000) + "ms, " + "Reused: " + Formatters.bytesToString(bytesSaved.get()) + ", Total: " + Formatters.bytesToString(totalBytes.get()) + ", Final: " + Formatters.bytesToString(totalBytes.get() - bytesSaved.get()));
 		} catch (Exception e) {
 			LOGGER.error("", e);
@@ -464,24 +515,161 @@ public class GeometryGenerator {
 		}
 	}
 	
-	private int hash(GeometryData geometryData) {
-		int hashCode = 0;
-		if (geometryData.getIndices() != null) {
-			hashCode += Arrays.hashCode(geometryData.getIndices());
+	/*
+	 * The products of the given (earlier) model that have geometry, by GUID
+	 */
+	private Map<String, IdEObject> getProductsWithGeometry(IfcModelInterface previousModel) {
+		EStructuralFeature guidFeature = productClass.getEStructuralFeature("GlobalId");
+		Map<String, IdEObject> previousProducts = new HashMap<>();
+		for (IdEObject previousProduct : previousModel.getAllWithSubTypes(previousModel.getPackageMetaData().getEClass("IfcProduct"))) {
+			String guid = (String) previousProduct.eGet(guidFeature);
+			if (guid != null && previousProduct.eGet(geometryFeature) != null) {
+				previousProducts.put(guid, previousProduct);
+			}
+		}
+		return previousProducts;
+	}
+
+	/*
+	 * The estimated cost of a product is the number of triangles the same product had in the previous revision. Products without history are
+	 * estimated from their number of representation items and openings, times the average number of triangles per item of the products with history.
+	 */
+	private Map<IdEObject, Long> estimateCosts(List<IdEObject> products, Map<String, IdEObject> previousProducts) {
+		EStructuralFeature guidFeature = productClass.getEStructuralFeature("GlobalId");
+		EStructuralFeature itemsFeature = packageMetaData.getEClass("IfcRepresentation").getEStructuralFeature("Items");
+		Map<IdEObject, Long> itemCounts = new HashMap<>();
+		Map<IdEObject, Long> costs = new HashMap<>();
+		long knownItems = 0;
+		long knownTriangles = 0;
+		for (IdEObject ifcProduct : products) {
+			long items = 0;
+			IdEObject representation = (IdEObject) ifcProduct.eGet(representationFeature);
+			for (Object shapeRepresentation : (List<?>) representation.eGet(representationsFeature)) {
+				items += ((List<?>) ((IdEObject) shapeRepresentation).eGet(itemsFeature)).size();
+			}
+			EStructuralFeature hasOpeningsFeature = ifcProduct.eClass().getEStructuralFeature("HasOpenings");
+			if (hasOpeningsFeature != null) {
+				items += ((List<?>) ifcProduct.eGet(hasOpeningsFeature)).size();
+			}
+			items = Math.max(1, items);
+			itemCounts.put(ifcProduct, items);
+			IdEObject previousProduct = previousProducts.get((String) ifcProduct.eGet(guidFeature));
+			if (previousProduct != null) {
+				Integer primitiveCount = ((GeometryInfo) previousProduct.eGet(geometryFeature)).getPrimitiveCount();
+				if (primitiveCount != null) {
+					knownItems += items;
+					knownTriangles += primitiveCount;
+					costs.put(ifcProduct, Math.max(1L, primitiveCount));
+				}
+			}
+		}
+		long trianglesPerItem = knownItems == 0 ? 1 : Math.max(1, knownTriangles / knownItems);
+		for (IdEObject ifcProduct : products) {
+			if (!costs.containsKey(ifcProduct)) {
+				costs.put(ifcProduct, itemCounts.get(ifcProduct) * trianglesPerItem);
+			}
+		}
+		return costs;
+	}
+
+	/*
+	 * Products with the same GUID and fingerprint as a product of the previous revision refer to the GeometryInfo of
+	 * that product, which is visible to this revision because references are resolved by oid. When storing, this revision
+	 * takes a reference to the GeometryData as well, so regenerating the previous revision does not delete it. Returns the
+	 * products that still need geometry.
+	 */
+	private List<IdEObject> copyUnchangedGeometry(DatabaseSession databaseSession, IfcModelInterface model, IfcModelInterface previousModel, Map<String, IdEObject> previousProducts, List<IdEObject> products, boolean store, int pid, int rid) throws BimserverDatabaseException {
+		EStructuralFeature guidFeature = productClass.getEStructuralFeature("GlobalId");
+		GeometryFingerprint geometryFingerprint = new GeometryFingerprint(packageMetaData);
+		GeometryDataStore geometryDataStore = bimServer.getDatabase().getGeometryDataStore();
+		// By GeometryData oid, whether this revision shares the record, a revision holds one reference per record
+		Map<Long, Boolean> sharedRecords = new HashMap<>();
+		List<IdEObject> changedProducts = new ArrayList<>();
+		for (IdEObject ifcProduct : products) {
+			IdEObject previousProduct = previousProducts.get((String) ifcProduct.eGet(guidFeature));
+			if (previousProduct != null && Arrays.equals(geometryFingerprint.fingerprint(model, ifcProduct), geometryFingerprint.fingerprint(previousModel, previousProduct))
+					&& (!store || shareGeometryData(databaseSession, geometryDataStore, (GeometryInfo) previousProduct.eGet(geometryFeature), sharedRecords, pid, rid))) {
+				ifcProduct.eSet(geometryFeature, previousProduct.eGet(geometryFeature));
+				if (store) {
+					databaseSession.store(ifcProduct, pid, rid);
+				}
+			} else {
+				changedProducts.add(ifcProduct);
+			}
 		}
-		if (geometryData.getVertices() != null) {
-			hashCode += Arrays.hashCode(geometryData.getVertices());
+		LOGGER.info("Incremental geometry: " + (products.size() - changedProducts.size()) + " products unchanged, " + changedProducts.size() + " products new or changed");
+		return changedProducts;
+	}
+
+	/*
+	 * A product whose record cannot be shared (another record is indexed for the same geometry) gets new geometry, which is
+	 * then deduplicated against the indexed record
+	 */
+	private boolean shareGeometryData(DatabaseSession databaseSession, GeometryDataStore geometryDataStore, GeometryInfo geometryInfo, Map<Long, Boolean> sharedRecords, int pid, int rid) throws BimserverDatabaseException {
+		if (geometryInfo == null || geometryInfo.getData() == null) {
+			return true;
 		}
-		if (geometryData.getNormals() != null) {
-			hashCode += Arrays.hashCode(geometryData.getNormals());
+		GeometryData geometryData = geometryInfo.getData();
+		Boolean shared = sharedRecords.get(geometryData.getOid());
+		if (shared == null) {
+			shared = geometryDataStore.share(pid, GeometryDataStore.hash(geometryData), geometryData.getOid(), geometryData.getRid(), rid, GeometryDataStore.size(geometryData), databaseSession);
+			sharedRecords.put(geometryData.getOid(), shared);
 		}
-		if (geometryData.getMaterialIndices() != null) {
-			hashCode += Arrays.hashCode(geometryData.getMaterialIndices());
+		return shared;
+	}
+
+	/*
+	 * Runs on the calling thread after all geometry has been generated. GeometryData that has already been stored by an
+	 * older revision of the same project is not stored again, the new GeometryInfo objects refer to the existing record
+	 */
+	private void reuseStoredGeometry(DatabaseSession databaseSession, IfcModelInterface model, int pid, int rid) throws BimserverDatabaseException {
+		GeometryDataStore geometryDataStore = bimServer.getDatabase().getGeometryDataStore();
+		for (Entry<ByteBuffer, GeometryData> entry : hashes.entrySet()) {
+			byte[] hash = entry.getKey().array();
+			GeometryData geometryData = entry.getValue();
+			long size = GeometryDataStore.size(geometryData);
+			long oid = geometryDataStore.reference(pid, hash, geometryData.getOid(), rid, size, databaseSession);
+			if (oid != geometryData.getOid()) {
+				databaseSession.removeFromCommit(geometryData);
+				model.remove(geometryData);
+				((IdEObjectImpl) geometryData).setOid(oid);
+				bytesSaved.addAndGet(size);
+			}
 		}
-		if (geometryData.getMaterials() != null) {
-			hashCode += Arrays.hashCode(geometryData.getMaterials());
+		final long generated = totalBytes.get();
+		final long saved = bytesSaved.get();
+		databaseSession.addPostCommitAction(new PostCommitAction() {
+			@Override
+			public void execute() throws UserException {
+				bimServer.getDatabase().getGeometryDataStore().generated(generated, saved);
+			}
+		});
+	}
+
+	/**
+	 * Releases the GeometryData the products of the given model refer to, should be called before generating new geometry for a revision that already has geometry.
+	 * Records no other revision refers to are deleted.
+	 */
+	public void releaseStoredGeometry(DatabaseSession databaseSession, IfcModelInterface model, int pid, int rid) throws BimserverDatabaseException {
+		GeometryDataStore geometryDataStore = bimServer.getDatabase().getGeometryDataStore();
+		EClass productClass = model.getPackageMetaData().getEClass("IfcProduct");
+		EStructuralFeature geometryFeature = productClass.getEStructuralFeature("geometry");
+		Set<Long> released = new HashSet<>();
+		for (IdEObject ifcProduct : model.getAllWithSubTypes(productClass)) {
+			GeometryInfo geometryInfo = (GeometryInfo) ifcProduct.eGet(geometryFeature);
+			if (geometryInfo != null && geometryInfo.getData() != null) {
+				GeometryData geometryData = geometryInfo.getData();
+				// A revision holds one reference per GeometryData record
+				if (released.add(geometryData.getOid())) {
+					if (geometryInfo.getRid() == rid) {
+						geometryDataStore.release(pid, GeometryDataStore.hash(geometryData), geometryData.getOid(), geometryData.getRid(), databaseSession);
+					} else {
+						// GeometryInfo of an older revision, copied by incremental generation, which shared its GeometryData
+						geometryDataStore.releaseShared(pid, GeometryDataStore.hash(geometryData), geometryData.getOid(), databaseSession);
+					}
+				}
+			}
 		}
-		return hashCode;
 	}
 
 	private void processExtends(GeometryInfo geometryInfo, float[] transformationMatrix, float[] vertices, int index) {
@@ -0,0 +1,68 @@
+package org.bimserver;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.bimserver.emf.IdEObject;
+
+/**
+ * Divides products over batches of about the same estimated cost. Runners take the next batch from the queue when they are done with the previous
+ * one, the most expensive batches are handed out first so the cheap ones fill up the gaps at the end.
+ */
+public class ProductBatches {
+
+	public static Queue<List<IdEObject>> create(List<IdEObject> products, final Map<IdEObject, Long> costs, int nrBatches) {
+		List<IdEObject> sorted = new ArrayList<>(products);
+		Collections.sort(sorted, new Comparator<IdEObject>() {
+			@Override
+			public int compare(IdEObject o1, IdEObject o2) {
+				return Long.compare(costs.get(o2), costs.get(o1));
+			}
+		});
+		long totalCost = 0;
+		for (IdEObject product : sorted) {
+			totalCost += costs.get(product);
+		}
+		long costPerBatch = Math.max(1, (totalCost + nrBatches - 1) / nrBatches);
+
+		Queue<List<IdEObject>> batches = new ConcurrentLinkedQueue<>();
+		List<IdEObject> batch = new ArrayList<>();
+		long batchCost = 0;
+		for (IdEObject product : sorted) {
+			batch.add(product);
+			batchCost += costs.get(product);
+			if (batchCost >= costPerBatch) {
+				batches.add(batch);
+				batch = new ArrayList<>();
+				batchCost = 0;
+			}
+		}
+		if (!batch.isEmpty()) {
+			batches.add(batch);
+		}
+		return batches;
+	}
+}
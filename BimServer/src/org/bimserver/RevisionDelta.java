@@ -0,0 +1,308 @@
+package org.bimserver;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IdEObjectImpl;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.plugins.serializers.SerializerException;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EStructuralFeature;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Sets;
+
+/*
+ * Matches the IFC objects of a new revision to the objects of the previous revision of the same project. Objects with a GlobalId
+ * are matched by GlobalId, other objects by a hash of their attributes and of the objects they refer to. Matched objects get the
+ * oid of the object they have been matched to. Because records are versioned per oid, only the matched objects that differ from
+ * the previous revision and the new objects have to be written, previous objects that have not been matched have been removed.
+ */
+public class RevisionDelta {
+	private final IfcModelInterface model;
+	private final IfcModelInterface previousModel;
+	private final PackageMetaData packageMetaData;
+	private final EPackage ePackage;
+	private final EStructuralFeature guidFeature;
+	private final Map<IdEObject, IdEObject> matches = new IdentityHashMap<>();
+	private final Map<IdEObject, Long> hashes = new IdentityHashMap<>();
+	private List<IdEObject> changed;
+	private List<IdEObject> unchanged;
+
+	public RevisionDelta(IfcModelInterface model, IfcModelInterface previousModel) {
+		this.model = model;
+		this.previousModel = previousModel;
+		this.packageMetaData = model.getPackageMetaData();
+		this.ePackage = packageMetaData.getEPackage();
+		this.guidFeature = packageMetaData.getEClass("IfcRoot").getEStructuralFeature("GlobalId");
+	}
+
+	/**
+	 * Gives the matched objects the oid of the object of the previous revision they have been matched to, must be called after
+	 * the model got its new oids and before anything is stored
+	 */
+	public void reuseOids() {
+		Map<String, IdEObject> previousByGuid = new HashMap<>();
+		Map<Long, Deque<IdEObject>> previousByHash = new HashMap<>();
+		for (IdEObject previous : previousModel.getValues()) {
+			if (!isMatchable(previous)) {
+				continue;
+			}
+			String guid = getGuid(previous);
+			if (guid != null) {
+				previousByGuid.put(guid, previous);
+			} else {
+				long hash = hash(previous);
+				Deque<IdEObject> candidates = previousByHash.get(hash);
+				if (candidates == null) {
+					candidates = new ArrayDeque<>();
+					previousByHash.put(hash, candidates);
+				}
+				candidates.add(previous);
+			}
+		}
+		for (IdEObject object : model.getValues()) {
+			if (!isMatchable(object)) {
+				continue;
+			}
+			String guid = getGuid(object);
+			IdEObject previous = null;
+			if (guid != null) {
+				previous = previousByGuid.remove(guid);
+			} else {
+				// Every previous object is used once, otherwise two objects would end up with the same oid
+				Deque<IdEObject> candidates = previousByHash.get(hash(object));
+				if (candidates != null) {
+					previous = candidates.poll();
+				}
+			}
+			// The class is part of the oid
+			if (previous != null && previous.eClass() == object.eClass()) {
+				matches.put(object, previous);
+			}
+		}
+		for (Map.Entry<IdEObject, IdEObject> entry : matches.entrySet()) {
+			((IdEObjectImpl) entry.getKey()).setOid(entry.getValue().getOid());
+			model.changeOid(entry.getKey());
+		}
+	}
+
+	/**
+	 * Compares the matched objects to the previous revision, must be called after everything that changes the model (like geometry
+	 * generation) has been done
+	 */
+	public void compare() {
+		changed = new ArrayList<>();
+		unchanged = new ArrayList<>();
+		for (IdEObject object : model.getValues()) {
+			IdEObject previous = matches.get(object);
+			if (previous != null && sameRecord(object, previous)) {
+				unchanged.add(object);
+			} else {
+				changed.add(object);
+			}
+		}
+	}
+
+	/**
+	 * The objects that have to be written for the new revision: new objects, matched objects that are not exactly the same as in
+	 * the previous revision and all objects that are not IFC objects
+	 */
+	public List<IdEObject> getChangedObjects() {
+		return changed;
+	}
+
+	/**
+	 * The objects of the model that still have the record of the previous revision
+	 */
+	public List<IdEObject> getUnchangedObjects() {
+		return unchanged;
+	}
+
+	/**
+	 * The IFC objects of the previous revision that are not part of the new revision
+	 */
+	public List<IdEObject> getRemovedObjects() {
+		Set<IdEObject> matched = Sets.newIdentityHashSet();
+		matched.addAll(matches.values());
+		List<IdEObject> removed = new ArrayList<>();
+		for (IdEObject previous : previousModel.getValues()) {
+			if (isMatchable(previous) && !matched.contains(previous)) {
+				removed.add(previous);
+			}
+		}
+		return removed;
+	}
+
+	private boolean isMatchable(IdEObject object) {
+		return object.eClass().getEPackage() == ePackage && !isEmbedded(object.eClass());
+	}
+
+	private boolean isEmbedded(EClass eClass) {
+		return eClass.getEAnnotation("wrapped") != null || eClass.getEStructuralFeature("wrappedValue") != null;
+	}
+
+	private String getGuid(IdEObject object) {
+		if (object.eClass().getEAllStructuralFeatures().contains(guidFeature)) {
+			return (String) object.eGet(guidFeature);
+		}
+		return null;
+	}
+
+	/*
+	 * Objects that are referred to are part of the hash, objects with a GlobalId only by their GlobalId. Inverse references and references
+	 * to objects of other packages (geometry) are not, so the hash of an object does not change when something starts referring to it.
+	 */
+	private long hash(IdEObject object) {
+		Long hash = hashes.get(object);
+		if (hash != null) {
+			return hash;
+		}
+		// Placeholder for cycles
+		hashes.put(object, 0L);
+		long result = object.eClass().getName().hashCode();
+		String guid = getGuid(object);
+		if (guid != null) {
+			result = 31 * result + guid.hashCode();
+		} else {
+			for (EStructuralFeature eStructuralFeature : object.eClass().getEAllStructuralFeatures()) {
+				if (eStructuralFeature.getEType() instanceof EClass && isInverse(eStructuralFeature)) {
+					continue;
+				}
+				result = 31 * result + hashValue(object.eGet(eStructuralFeature));
+			}
+		}
+		hashes.put(object, result);
+		return result;
+	}
+
+	private long hashValue(Object value) {
+		if (value == null) {
+			return 1;
+		} else if (value instanceof List) {
+			long result = 2;
+			for (Object item : (List<?>) value) {
+				result = 31 * result + hashValue(item);
+			}
+			return result;
+		} else if (value instanceof IdEObject) {
+			IdEObject idEObject = (IdEObject) value;
+			if (idEObject.eClass().getEPackage() != ePackage) {
+				return 3;
+			} else if (isEmbedded(idEObject.eClass())) {
+				long result = idEObject.eClass().getName().hashCode();
+				for (EStructuralFeature eStructuralFeature : idEObject.eClass().getEAllStructuralFeatures()) {
+					result = 31 * result + hashValue(idEObject.eGet(eStructuralFeature));
+				}
+				return result;
+			}
+			return hash(idEObject);
+		} else if (value instanceof byte[]) {
+			return Arrays.hashCode((byte[]) value);
+		}
+		// The string value, enum literals do not have a stable hashCode
+		return value.toString().hashCode();
+	}
+
+	private boolean isInverse(EStructuralFeature eStructuralFeature) {
+		try {
+			return packageMetaData.isInverse(eStructuralFeature);
+		} catch (SerializerException e) {
+			return true;
+		}
+	}
+
+	/*
+	 * Whether the object would be written as the exact same record as the previous object, references are compared by oid
+	 */
+	private boolean sameRecord(IdEObject object, IdEObject previous) {
+		if (object.eClass() != previous.eClass() || object.getOid() != previous.getOid()) {
+			return false;
+		}
+		for (EStructuralFeature eStructuralFeature : object.eClass().getEAllStructuralFeatures()) {
+			boolean unset = isUnset(object, eStructuralFeature);
+			if (unset != isUnset(previous, eStructuralFeature)) {
+				return false;
+			}
+			if (!unset && !sameValue(object.eGet(eStructuralFeature), previous.eGet(eStructuralFeature))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isUnset(IdEObject object, EStructuralFeature eStructuralFeature) {
+		Object value = object.eGet(eStructuralFeature);
+		if (eStructuralFeature.isUnsettable()) {
+			return !object.eIsSet(eStructuralFeature);
+		}
+		if (eStructuralFeature.isMany() && ((List<?>) value).isEmpty()) {
+			return true;
+		}
+		return Objects.equal(eStructuralFeature.getDefaultValue(), value);
+	}
+
+	private boolean sameValue(Object value, Object previousValue) {
+		if (value == null || previousValue == null) {
+			return value == previousValue;
+		} else if (value instanceof List && previousValue instanceof List) {
+			List<?> list = (List<?>) value;
+			List<?> previousList = (List<?>) previousValue;
+			if (list.size() != previousList.size()) {
+				return false;
+			}
+			for (int i = 0; i < list.size(); i++) {
+				if (!sameValue(list.get(i), previousList.get(i))) {
+					return false;
+				}
+			}
+			return true;
+		} else if (value instanceof IdEObject && previousValue instanceof IdEObject) {
+			IdEObject idEObject = (IdEObject) value;
+			IdEObject previousIdEObject = (IdEObject) previousValue;
+			if (idEObject.eClass() != previousIdEObject.eClass()) {
+				return false;
+			}
+			if (isEmbedded(idEObject.eClass()) || idEObject.getOid() == -1) {
+				// Stored as part of the referring record
+				for (EStructuralFeature eStructuralFeature : idEObject.eClass().getEAllStructuralFeatures()) {
+					if (!sameValue(idEObject.eGet(eStructuralFeature), previousIdEObject.eGet(eStructuralFeature))) {
+						return false;
+					}
+				}
+				return true;
+			}
+			return idEObject.getOid() == previousIdEObject.getOid();
+		} else if (value instanceof byte[] && previousValue instanceof byte[]) {
+			return Arrays.equals((byte[]) value, (byte[]) previousValue);
+		}
+		return value.equals(previousValue);
+	}
+}
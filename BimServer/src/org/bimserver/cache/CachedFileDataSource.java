@@ -0,0 +1,165 @@
+package org.bimserver.cache;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A file from the disk cache, decompressed when needed. The checksum is verified when the end of the file is reached, a corrupt file is removed from the
+ * cache and the read fails instead of silently serving broken output. Small files are verified with verify() before they are served at all.
+ */
+public class CachedFileDataSource extends FileInputStreamDataSource {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private final DiskCacheManager diskCacheManager;
+	private final DiskCacheEntry diskCacheEntry;
+
+	CachedFileDataSource(DiskCacheManager diskCacheManager, Path file, DiskCacheEntry diskCacheEntry) {
+		super(file);
+		this.diskCacheManager = diskCacheManager;
+		this.diskCacheEntry = diskCacheEntry;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return new VerifyingInputStream(openFile());
+	}
+
+	private InputStream openFile() throws IOException {
+		InputStream inputStream = super.getInputStream();
+		if (diskCacheEntry.isCompressed()) {
+			inputStream = new GZIPInputStream(inputStream, BUFFER_SIZE);
+		}
+		return inputStream;
+	}
+
+	/**
+	 * Reads the whole file and compares it with the checksum of the entry
+	 * 
+	 * @return false when the file is corrupt, it has then been removed from the cache
+	 */
+	boolean verify() {
+		CRC32 crc32 = new CRC32();
+		long size = 0;
+		try {
+			InputStream inputStream = openFile();
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int nr = inputStream.read(buffer);
+				while (nr != -1) {
+					crc32.update(buffer, 0, nr);
+					size += nr;
+					nr = inputStream.read(buffer);
+				}
+			} finally {
+				inputStream.close();
+			}
+		} catch (IOException e) {
+			// A compressed file that cannot be decompressed is corrupt as well
+			diskCacheManager.corrupt(diskCacheEntry);
+			return false;
+		}
+		if (size != diskCacheEntry.getSize() || crc32.getValue() != diskCacheEntry.getChecksum()) {
+			diskCacheManager.corrupt(diskCacheEntry);
+			return false;
+		}
+		diskCacheEntry.setVerified(true);
+		return true;
+	}
+
+	@Override
+	public long size() {
+		return diskCacheEntry.getSize();
+	}
+
+	private class VerifyingInputStream extends FilterInputStream {
+		private final CRC32 crc32 = new CRC32();
+		private long read;
+		private boolean verified;
+
+		public VerifyingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = readOrEvict();
+			if (b == -1) {
+				verify();
+			} else {
+				crc32.update(b);
+				read++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int nr = readOrEvict(b, off, len);
+			if (nr == -1) {
+				verify();
+			} else {
+				crc32.update(b, off, nr);
+				read += nr;
+			}
+			return nr;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// Skipped bytes cannot be checked
+			verified = true;
+			return super.skip(n);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!verified) {
+				verified = true;
+				diskCacheManager.served(read);
+			}
+			super.close();
+		}
+
+		/*
+		 * A read error of the underlying stream, like a broken compressed file, also removes the file from the cache and ends the response
+		 */
+		private int readOrEvict() throws IOException {
+			try {
+				return super.read();
+			} catch (IOException e) {
+				diskCacheManager.corrupt(diskCacheEntry);
+				throw e;
+			}
+		}
+
+		private int readOrEvict(byte[] b, int off, int len) throws IOException {
+			try {
+				return super.read(b, off, len);
+			} catch (IOException e) {
+				diskCacheManager.corrupt(diskCacheEntry);
+				throw e;
+			}
+		}
+
+		private void verify() throws IOException {
+			if (verified) {
+				return;
+			}
+			verified = true;
+			diskCacheManager.served(read);
+			if (read != diskCacheEntry.getSize() || crc32.getValue() != diskCacheEntry.getChecksum()) {
+				diskCacheManager.corrupt(diskCacheEntry);
+				throw new IOException("Cached file " + diskCacheEntry.getId() + " is corrupt");
+			}
+		}
+	}
+}
@@ -17,22 +17,82 @@ package org.bimserver.cache;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.bimserver.BimServer;
+import org.bimserver.database.BimserverDatabaseException;
+import org.bimserver.interfaces.objects.SCompareResult;
+import org.bimserver.interfaces.objects.SInterfaceMetric;
+import org.bimserver.models.store.CompareContainer;
+import org.bimserver.models.store.CompareItem;
 import org.bimserver.models.store.CompareResult;
 import org.bimserver.models.store.CompareType;
+import org.bimserver.models.store.DataObject;
+import org.bimserver.models.store.DataValue;
+import org.bimserver.models.store.ListDataValue;
+import org.bimserver.models.store.ObjectModified;
+import org.bimserver.models.store.SimpleDataValue;
+import org.bimserver.plugins.serializers.SerializerException;
+import org.bimserver.shared.json.ConvertException;
+import org.bimserver.shared.json.JsonConverter;
+import org.bimserver.utils.PathUtils;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
 
-public class CompareCache extends GenericCache<CompareCache.CompareKey, CompareCache.CompareValue> {
-	private static final int MAX_UNACCESSED_TIME_MS = 1000 * 60 * 30; // 30 minutes
+/**
+ * Keeps compare results in memory, bounded by the estimated size of the results. When the cacheCompareResults setting is enabled, results are also stored
+ * on disk, revisions never change so a stored result stays valid until the settings of the model compare plugin change.
+ */
+public class CompareCache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CompareCache.class);
+	private static final int MAX_UNACCESSED_TIME_MINUTES = 30;
+	private static final int MAX_HEAP_FRACTION = 10; // 1/10th of the heap
+	private static final String EXTENSION = ".json.gz";
+	private final BimServer bimServer;
+	private final Path cacheDir;
+	private final Cache<CompareKey, CompareResult> cache;
+	private final AtomicLong diskHits = new AtomicLong();
 
-	public static class CompareKey extends GenericCacheKey {
+	public static class CompareKey {
 		private final long roid1;
 		private final long roid2;
-		private final CompareType sCompareType;
+		private final CompareType compareType;
+		private final long mcid;
 
-		public CompareKey(long roid1, long roid2, CompareType sCompareType) {
-			super();
+		public CompareKey(long roid1, long roid2, CompareType compareType, long mcid) {
 			this.roid1 = roid1;
 			this.roid2 = roid2;
-			this.sCompareType = sCompareType;
+			this.compareType = compareType;
+			this.mcid = mcid;
+		}
+
+		public long getMcid() {
+			return mcid;
+		}
+
+		public String getFileName() {
+			return roid1 + "-" + roid2 + "-" + compareType.getName() + "-" + mcid + EXTENSION;
 		}
 
 		@Override
@@ -41,7 +101,8 @@ public class CompareCache extends GenericCache<CompareCache.CompareKey, CompareC
 			int result = 1;
 			result = prime * result + (int) (roid1 ^ (roid1 >>> 32));
 			result = prime * result + (int) (roid2 ^ (roid2 >>> 32));
-			result = prime * result	+ ((sCompareType == null) ? 0 : sCompareType.hashCode());
+			result = prime * result + ((compareType == null) ? 0 : compareType.hashCode());
+			result = prime * result + (int) (mcid ^ (mcid >>> 32));
 			return result;
 		}
 
@@ -58,43 +119,182 @@ public class CompareCache extends GenericCache<CompareCache.CompareKey, CompareC
 				return false;
 			if (roid2 != other.roid2)
 				return false;
-			if (sCompareType == null) {
-				if (other.sCompareType != null)
-					return false;
-			} else if (!sCompareType.equals(other.sCompareType))
+			if (compareType != other.compareType)
+				return false;
+			if (mcid != other.mcid)
 				return false;
 			return true;
 		}
 	}
 
-	public static class CompareValue extends GenericCacheValue {
+	public CompareCache(BimServer bimServer, Path cacheDir) {
+		this.bimServer = bimServer;
+		this.cacheDir = cacheDir;
+		long maxWeightKb = Runtime.getRuntime().maxMemory() / MAX_HEAP_FRACTION / 1024;
+		cache = CacheBuilder.newBuilder().maximumWeight(maxWeightKb).weigher(new Weigher<CompareKey, CompareResult>() {
+			@Override
+			public int weigh(CompareKey key, CompareResult value) {
+				return (int) Math.min(Integer.MAX_VALUE, estimateSize(value) / 1024);
+			}
+		}).expireAfterAccess(MAX_UNACCESSED_TIME_MINUTES, TimeUnit.MINUTES).recordStats().build();
+	}
 
-		private final CompareResult compareResults;
+	private boolean isPersistent() {
+		return bimServer.getServerSettingsCache().getServerSettings().isCacheCompareResults();
+	}
 
-		public CompareValue(CompareResult compareResults) {
-			super(MAX_UNACCESSED_TIME_MS);
-			this.compareResults = compareResults;
+	public CompareResult getCompareResults(long roid1, long roid2, CompareType compareType, long mcid) {
+		CompareKey compareKey = new CompareKey(roid1, roid2, compareType, mcid);
+		CompareResult compareResult = cache.getIfPresent(compareKey);
+		if (compareResult == null && isPersistent()) {
+			compareResult = read(compareKey);
+			if (compareResult != null) {
+				diskHits.incrementAndGet();
+				cache.put(compareKey, compareResult);
+			}
 		}
+		// Every caller gets its own copy, the cached result is shared by all sessions
+		return compareResult == null ? null : EcoreUtil.copy(compareResult);
+	}
 
-		public CompareResult getCompareResults() {
-			return compareResults;
+	public void storeResults(long roid1, long roid2, CompareType compareType, long mcid, CompareResult compareResult) {
+		CompareKey compareKey = new CompareKey(roid1, roid2, compareType, mcid);
+		cache.put(compareKey, EcoreUtil.copy(compareResult));
+		if (isPersistent()) {
+			write(compareKey, compareResult);
 		}
 	}
 
-	public CompareCache() {
-		super();
+	private CompareResult read(CompareKey compareKey) {
+		Path file = cacheDir.resolve(compareKey.getFileName());
+		if (!Files.exists(file)) {
+			return null;
+		}
+		try {
+			Reader reader = new InputStreamReader(new GZIPInputStream(Files.newInputStream(file)), Charsets.UTF_8);
+			try {
+				JsonConverter jsonConverter = new JsonConverter(bimServer.getServicesMap());
+				SCompareResult sCompareResult = (SCompareResult) jsonConverter.fromJson(null, null, new JsonParser().parse(reader));
+				return bimServer.getSConverter().convertFromSObject(sCompareResult, null);
+			} finally {
+				reader.close();
+			}
+		} catch (IOException | ConvertException | BimserverDatabaseException | RuntimeException e) {
+			LOGGER.error("Could not read stored compare result " + file.getFileName().toString() + ", removing it", e);
+			delete(file);
+		}
+		return null;
 	}
 
-	public CompareResult getCompareResults(long roid1, long roid2, CompareType sCompareType) {
-		CompareValue compareValue = getValue(new CompareKey(roid1, roid2, sCompareType));
-		if (compareValue != null) {
-			compareValue.access();
-			return compareValue.getCompareResults();
+	private void write(CompareKey compareKey, CompareResult compareResult) {
+		Path file = cacheDir.resolve(compareKey.getFileName());
+		Path tempFile = cacheDir.resolve(compareKey.getFileName() + ".__tmp");
+		try {
+			if (!Files.exists(cacheDir)) {
+				Files.createDirectories(cacheDir);
+			}
+			Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(tempFile)), Charsets.UTF_8);
+			try {
+				JsonWriter jsonWriter = new JsonWriter(writer);
+				new JsonConverter(bimServer.getServicesMap()).toJson(bimServer.getSConverter().convertToSObject(compareResult), jsonWriter);
+				jsonWriter.flush();
+			} finally {
+				writer.close();
+			}
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException | SerializerException e) {
+			LOGGER.error("", e);
+			delete(tempFile);
 		}
-		return null;
 	}
 
-	public void storeResults(long roid1, long roid2, CompareType sCompareType, CompareResult compareResults) {
-		store(new CompareKey(roid1, roid2, sCompareType), new CompareValue(compareResults));
+	private void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			LOGGER.error("", e);
+		}
+	}
+
+	/**
+	 * Removes all results of the given model compare plugin configuration, from memory and from disk
+	 */
+	public void invalidateModelCompare(long mcid) {
+		Iterator<CompareKey> iterator = cache.asMap().keySet().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().getMcid() == mcid) {
+				iterator.remove();
+			}
+		}
+		if (Files.exists(cacheDir)) {
+			try {
+				for (Path file : PathUtils.list(cacheDir)) {
+					if (file.getFileName().toString().endsWith("-" + mcid + EXTENSION)) {
+						delete(file);
+					}
+				}
+			} catch (IOException e) {
+				LOGGER.error("", e);
+			}
+		}
+	}
+
+	/**
+	 * Expired entries are otherwise only removed when the cache is used
+	 */
+	public void cleanup() {
+		cache.cleanUp();
+	}
+
+	public SInterfaceMetric getMetrics() {
+		CacheStats stats = cache.stats();
+		SInterfaceMetric sInterfaceMetric = new SInterfaceMetric();
+		sInterfaceMetric.setName("Compare cache (" + cache.size() + " results)");
+		sInterfaceMetric.getMethods().add(DiskCacheManager.createCountMetric("hits", stats.hitCount()));
+		sInterfaceMetric.getMethods().add(DiskCacheManager.createCountMetric("disk hits", diskHits.get()));
+		sInterfaceMetric.getMethods().add(DiskCacheManager.createCountMetric("misses", stats.missCount() - diskHits.get()));
+		sInterfaceMetric.getMethods().add(DiskCacheManager.createCountMetric("evictions", stats.evictionCount()));
+		return sInterfaceMetric;
+	}
+
+	/**
+	 * A rough estimate of the heap used by a compare result, the bulk of it are the strings of the compared objects
+	 */
+	private static long estimateSize(CompareResult compareResult) {
+		long size = 64;
+		for (CompareContainer compareContainer : compareResult.getItems()) {
+			size += 64 + stringSize(compareContainer.getType());
+			for (CompareItem compareItem : compareContainer.getItems()) {
+				size += 64;
+				if (compareItem instanceof ObjectModified) {
+					ObjectModified objectModified = (ObjectModified) compareItem;
+					size += stringSize(objectModified.getFieldName()) + stringSize(objectModified.getOldValue()) + stringSize(objectModified.getNewValue());
+				}
+				DataObject dataObject = compareItem.getDataObject();
+				if (dataObject != null) {
+					size += 64 + stringSize(dataObject.getType()) + stringSize(dataObject.getGuid()) + stringSize(dataObject.getName());
+					for (DataValue dataValue : dataObject.getValues()) {
+						size += estimateSize(dataValue);
+					}
+				}
+			}
+		}
+		return size;
+	}
+
+	private static long estimateSize(DataValue dataValue) {
+		long size = 48 + stringSize(dataValue.getFieldName());
+		if (dataValue instanceof SimpleDataValue) {
+			size += stringSize(((SimpleDataValue) dataValue).getStringValue());
+		} else if (dataValue instanceof ListDataValue) {
+			for (DataValue value : ((ListDataValue) dataValue).getValues()) {
+				size += estimateSize(value);
+			}
+		}
+		return size;
+	}
+
+	private static long stringSize(String string) {
+		return string == null ? 0 : 40 + string.length() * 2;
 	}
-}
\ No newline at end of file
+}
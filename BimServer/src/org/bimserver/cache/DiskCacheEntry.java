@@ -0,0 +1,102 @@
+package org.bimserver.cache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * One file in the disk cache, as stored in the index of the DiskCacheManager
+ */
+class DiskCacheEntry {
+	private final String id;
+	private final long fileSize;
+	private final long size;
+	private final long checksum;
+	private final boolean compressed;
+	private final long serializerOid;
+	private final Set<Long> roids;
+	// Not stored in the index, every file is verified again after a restart
+	private volatile boolean verified;
+
+	/**
+	 * @param fileSize The number of bytes on disk
+	 * @param size The number of bytes the serializer wrote, differs from fileSize when compressed
+	 * @param checksum CRC32 of the serializer output
+	 */
+	public DiskCacheEntry(String id, long fileSize, long size, long checksum, boolean compressed, long serializerOid, Set<Long> roids) {
+		this.id = id;
+		this.fileSize = fileSize;
+		this.size = size;
+		this.checksum = checksum;
+		this.compressed = compressed;
+		this.serializerOid = serializerOid;
+		this.roids = roids == null ? Collections.<Long>emptySet() : roids;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getChecksum() {
+		return checksum;
+	}
+
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	public long getSerializerOid() {
+		return serializerOid;
+	}
+
+	public Set<Long> getRoids() {
+		return roids;
+	}
+
+	public boolean isVerified() {
+		return verified;
+	}
+
+	public void setVerified(boolean verified) {
+		this.verified = verified;
+	}
+
+	public void write(DataOutputStream dataOutputStream) throws IOException {
+		dataOutputStream.writeUTF(id);
+		dataOutputStream.writeLong(fileSize);
+		dataOutputStream.writeLong(size);
+		dataOutputStream.writeLong(checksum);
+		dataOutputStream.writeBoolean(compressed);
+		dataOutputStream.writeLong(serializerOid);
+		dataOutputStream.writeInt(roids.size());
+		for (Long roid : roids) {
+			dataOutputStream.writeLong(roid);
+		}
+	}
+
+	public static DiskCacheEntry read(DataInputStream dataInputStream) throws IOException {
+		String id = dataInputStream.readUTF();
+		long fileSize = dataInputStream.readLong();
+		long size = dataInputStream.readLong();
+		long checksum = dataInputStream.readLong();
+		boolean compressed = dataInputStream.readBoolean();
+		long serializerOid = dataInputStream.readLong();
+		int nrRoids = dataInputStream.readInt();
+		Set<Long> roids = new HashSet<Long>();
+		for (int i = 0; i < nrRoids; i++) {
+			roids.add(dataInputStream.readLong());
+		}
+		return new DiskCacheEntry(id, fileSize, size, checksum, compressed, serializerOid, roids);
+	}
+}
@@ -1,49 +1,121 @@
 package org.bimserver.cache;
 
-import java.io.FileNotFoundException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.activation.DataSource;
 
 import org.bimserver.BimServer;
+import org.bimserver.interfaces.objects.SInterfaceMetric;
+import org.bimserver.interfaces.objects.SMethodMetric;
 import org.bimserver.longaction.DownloadParameters;
+import org.bimserver.models.store.ServerSettings;
 import org.bimserver.utils.PathUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Keeps serializer output on disk. The cache is bounded by the cacheOutputFilesMaxMb setting, the least recently used files are removed first. All files are
+ * listed in an index file, so the cache directory does not have to be listed on startup.
+ */
 public class DiskCacheManager {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(DiskCacheManager.class);
+	private static final String INDEX_FILE = "cache.index";
+	private static final int INDEX_VERSION = 1;
+	private static final long VERIFY_BEFORE_SERVING_MAX_SIZE = 16 * 1024 * 1024; // Larger files are only verified while they are served
 	private final Path cacheDir;
 	private final BimServer bimServer;
-	private final Set<String> cachedFileNames = new HashSet<String>();
+	// In access order, the first entry is the least recently used one
+	private final LinkedHashMap<String, DiskCacheEntry> entries = new LinkedHashMap<String, DiskCacheEntry>(16, 0.75f, true);
 	private final Map<DownloadParameters, DiskCacheOutputStream> busyCaching = new HashMap<DownloadParameters, DiskCacheOutputStream>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong bytesServed = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private long totalFileSize;
 
 	public DiskCacheManager(BimServer bimServer, Path cacheDir) {
 		this.bimServer = bimServer;
 		this.cacheDir = cacheDir;
 		try {
 			if (!Files.exists(cacheDir)) {
-					Files.createDirectory(cacheDir);
+				Files.createDirectory(cacheDir);
 			}
+			if (Files.exists(cacheDir.resolve(INDEX_FILE))) {
+				readIndex();
+			}
+			// Removes unfinished files and files cached before there was an index, those have no checksum and cannot be invalidated
 			for (Path file : PathUtils.list(this.cacheDir)) {
-				if (file.getFileName().toString().endsWith(".__tmp")) {
+				String fileName = file.getFileName().toString();
+				if (!fileName.equals(INDEX_FILE) && !entries.containsKey(fileName)) {
 					Files.delete(file);
-				} else {
-					cachedFileNames.add(file.getFileName().toString());
 				}
 			}
+			writeIndex();
 		} catch (IOException e) {
 			LOGGER.error("", e);
 		}
 	}
-	
+
+	private void readIndex() throws IOException {
+		DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheDir.resolve(INDEX_FILE))));
+		try {
+			int version = dataInputStream.readInt();
+			if (version != INDEX_VERSION) {
+				LOGGER.warn("Unknown disk cache index version " + version + ", ignoring index");
+				return;
+			}
+			int nrEntries = dataInputStream.readInt();
+			for (int i = 0; i < nrEntries; i++) {
+				DiskCacheEntry diskCacheEntry = DiskCacheEntry.read(dataInputStream);
+				if (Files.exists(cacheDir.resolve(diskCacheEntry.getId()))) {
+					entries.put(diskCacheEntry.getId(), diskCacheEntry);
+					totalFileSize += diskCacheEntry.getFileSize();
+				}
+			}
+		} finally {
+			dataInputStream.close();
+		}
+	}
+
+	/**
+	 * Written in LRU order, so the order of eviction survives a restart as of the last change of the cache
+	 */
+	private synchronized void writeIndex() {
+		Path tempFile = cacheDir.resolve(INDEX_FILE + ".__tmp");
+		try {
+			DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)));
+			try {
+				dataOutputStream.writeInt(INDEX_VERSION);
+				dataOutputStream.writeInt(entries.size());
+				for (DiskCacheEntry diskCacheEntry : entries.values()) {
+					diskCacheEntry.write(dataOutputStream);
+				}
+			} finally {
+				dataOutputStream.close();
+			}
+			Files.move(tempFile, cacheDir.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			LOGGER.error("", e);
+		}
+	}
+
+	/**
+	 * Small files are verified against their checksum the first time, so a corrupt file is removed and generated again before any of it has been sent.
+	 * Larger files are verified while they are served, a mismatch then fails the response and removes the file.
+	 */
 	public boolean contains(DownloadParameters downloadParameters) {
 		if (isEnabled()) {
 			synchronized (busyCaching) {
@@ -51,14 +123,22 @@ public class DiskCacheManager {
 					return true;
 				}
 			}
-			synchronized (cachedFileNames) {
-				return cachedFileNames.contains(downloadParameters.getId());
+			DiskCacheEntry diskCacheEntry;
+			synchronized (this) {
+				diskCacheEntry = entries.get(downloadParameters.getId());
 			}
+			if (diskCacheEntry == null) {
+				return false;
+			}
+			if (diskCacheEntry.isVerified() || diskCacheEntry.getFileSize() > VERIFY_BEFORE_SERVING_MAX_SIZE) {
+				return true;
+			}
+			return new CachedFileDataSource(this, cacheDir.resolve(diskCacheEntry.getId()), diskCacheEntry).verify();
 		} else {
 			return false;
 		}
 	}
-	
+
 	public boolean isEnabled() {
 		return bimServer.getServerSettingsCache().getServerSettings().getCacheOutputFiles();
 	}
@@ -77,14 +157,20 @@ public class DiskCacheManager {
 					LOGGER.error("", e);
 				}
 			}
+			DiskCacheEntry diskCacheEntry;
+			synchronized (this) {
+				// Also marks the entry as most recently used
+				diskCacheEntry = entries.get(downloadParameters.getId());
+			}
 			Path file = cacheDir.resolve(downloadParameters.getId());
-			if (!Files.exists(file)) {
+			if (diskCacheEntry == null || !Files.exists(file)) {
 				LOGGER.error("File " + file.getFileName().toString() + " not found in cache");
 			} else {
 				LOGGER.info("Reading from cache " + downloadParameters.getFileName());
-				FileInputStreamDataSource fileInputStreamDataSource = new FileInputStreamDataSource(file);
-				fileInputStreamDataSource.setName(downloadParameters.getFileNameWithoutExtension());
-				return fileInputStreamDataSource;
+				hits.incrementAndGet();
+				CachedFileDataSource cachedFileDataSource = new CachedFileDataSource(this, file, diskCacheEntry);
+				cachedFileDataSource.setName(downloadParameters.getFileNameWithoutExtension());
+				return cachedFileDataSource;
 			}
 		}
 		return null;
@@ -93,12 +179,14 @@ public class DiskCacheManager {
 	public DiskCacheOutputStream startCaching(DownloadParameters downloadParameters) {
 		try {
 			LOGGER.info("Start caching " + downloadParameters.getFileName());
-			DiskCacheOutputStream out = new DiskCacheOutputStream(this, cacheDir.resolve(downloadParameters.getId()), downloadParameters);
+			misses.incrementAndGet();
+			boolean compress = bimServer.getServerSettingsCache().getServerSettings().isCompressCachedOutputFiles();
+			DiskCacheOutputStream out = new DiskCacheOutputStream(this, cacheDir.resolve(downloadParameters.getId()), downloadParameters, compress);
 			synchronized (busyCaching) {
 				busyCaching.put(downloadParameters, out);
 			}
 			return out;
-		} catch (FileNotFoundException e) {
+		} catch (IOException e) {
 			LOGGER.error("", e);
 		}
 		return null;
@@ -108,6 +196,9 @@ public class DiskCacheManager {
 		int removed = 0;
 		try {
 			for (Path file : PathUtils.list(cacheDir)) {
+				if (file.getFileName().toString().equals(INDEX_FILE)) {
+					continue;
+				}
 				try {
 					Files.delete(file);
 					removed++;
@@ -118,23 +209,136 @@ public class DiskCacheManager {
 		} catch (IOException e) {
 			LOGGER.error("", e);
 		}
-		cachedFileNames.clear();
+		entries.clear();
+		totalFileSize = 0;
+		writeIndex();
 		return removed;
 	}
 
 	public void doneGenerating(DiskCacheOutputStream diskCacheOutputStream) {
+		DownloadParameters downloadParameters = diskCacheOutputStream.getDownloadParameters();
 		synchronized (busyCaching) {
-			LOGGER.info("Done caching " + diskCacheOutputStream.getDownloadParameters().getFileName());
-			busyCaching.remove(diskCacheOutputStream.getDownloadParameters());
-			cachedFileNames.add(diskCacheOutputStream.getDownloadParameters().getId());
+			LOGGER.info("Done caching " + downloadParameters.getFileName());
+			busyCaching.remove(downloadParameters);
+		}
+		try {
+			DiskCacheEntry diskCacheEntry = new DiskCacheEntry(downloadParameters.getId(), Files.size(diskCacheOutputStream.getFile()), diskCacheOutputStream.getSize(),
+					diskCacheOutputStream.getChecksum(), diskCacheOutputStream.isCompressed(), downloadParameters.getSerializerOid(), downloadParameters.getRoids());
+			synchronized (this) {
+				DiskCacheEntry previous = entries.put(diskCacheEntry.getId(), diskCacheEntry);
+				if (previous != null) {
+					totalFileSize -= previous.getFileSize();
+				}
+				totalFileSize += diskCacheEntry.getFileSize();
+				evict();
+				writeIndex();
+			}
+		} catch (IOException e) {
+			LOGGER.error("", e);
 		}
 	}
 
+	private long getMaxSize() {
+		ServerSettings serverSettings = bimServer.getServerSettingsCache().getServerSettings();
+		return serverSettings.getCacheOutputFilesMaxMb() * 1024L * 1024L;
+	}
+
+	/**
+	 * Removes the least recently used files until the cache fits in its maximum size again
+	 */
+	private synchronized void evict() {
+		long maxSize = getMaxSize();
+		if (maxSize <= 0) {
+			return;
+		}
+		Iterator<DiskCacheEntry> iterator = entries.values().iterator();
+		while (totalFileSize > maxSize && iterator.hasNext()) {
+			DiskCacheEntry diskCacheEntry = iterator.next();
+			iterator.remove();
+			deleteFile(diskCacheEntry);
+			evictions.incrementAndGet();
+		}
+	}
+
+	private void deleteFile(DiskCacheEntry diskCacheEntry) {
+		totalFileSize -= diskCacheEntry.getFileSize();
+		try {
+			Files.deleteIfExists(cacheDir.resolve(diskCacheEntry.getId()));
+		} catch (IOException e) {
+			LOGGER.error("", e);
+		}
+	}
+
+	public synchronized void invalidateRevision(long roid) {
+		Iterator<DiskCacheEntry> iterator = entries.values().iterator();
+		boolean changed = false;
+		while (iterator.hasNext()) {
+			DiskCacheEntry diskCacheEntry = iterator.next();
+			if (diskCacheEntry.getRoids().contains(roid)) {
+				iterator.remove();
+				deleteFile(diskCacheEntry);
+				changed = true;
+			}
+		}
+		if (changed) {
+			writeIndex();
+		}
+	}
+
+	public synchronized void invalidateSerializer(long serializerOid) {
+		Iterator<DiskCacheEntry> iterator = entries.values().iterator();
+		boolean changed = false;
+		while (iterator.hasNext()) {
+			DiskCacheEntry diskCacheEntry = iterator.next();
+			if (diskCacheEntry.getSerializerOid() == serializerOid) {
+				iterator.remove();
+				deleteFile(diskCacheEntry);
+				changed = true;
+			}
+		}
+		if (changed) {
+			writeIndex();
+		}
+	}
+
+	synchronized void corrupt(DiskCacheEntry diskCacheEntry) {
+		LOGGER.error("Checksum of cached file " + diskCacheEntry.getId() + " does not match, removing it from the cache");
+		if (entries.get(diskCacheEntry.getId()) == diskCacheEntry) {
+			entries.remove(diskCacheEntry.getId());
+			deleteFile(diskCacheEntry);
+			writeIndex();
+		}
+	}
+
+	void served(long bytes) {
+		bytesServed.addAndGet(bytes);
+	}
+
 	public void remove(DiskCacheOutputStream diskCacheOutputStream) {
 		LOGGER.info("Removing cache " + diskCacheOutputStream.getDownloadParameters().getFileName());
-		cachedFileNames.remove(diskCacheOutputStream.getDownloadParameters().getId());
 		synchronized (busyCaching) {
 			busyCaching.remove(diskCacheOutputStream.getDownloadParameters());
 		}
 	}
-}
\ No newline at end of file
+
+	public synchronized SInterfaceMetric getMetrics() {
+		SInterfaceMetric sInterfaceMetric = new SInterfaceMetric();
+		long maxSize = getMaxSize();
+		sInterfaceMetric.setName("Disk cache (" + entries.size() + " files, " + (totalFileSize / (1024 * 1024)) + "MB of " + (maxSize <= 0 ? "unlimited" : (maxSize / (1024 * 1024)) + "MB") + ")");
+		sInterfaceMetric.getMethods().add(createCountMetric("hits", hits.get()));
+		sInterfaceMetric.getMethods().add(createCountMetric("misses", misses.get()));
+		sInterfaceMetric.getMethods().add(createCountMetric("evictions", evictions.get()));
+		sInterfaceMetric.getMethods().add(createCountMetric("MB served", bytesServed.get() / (1024 * 1024)));
+		return sInterfaceMetric;
+	}
+
+	static SMethodMetric createCountMetric(String name, long count) {
+		SMethodMetric sMethodMetric = new SMethodMetric();
+		sMethodMetric.setName(name);
+		sMethodMetric.setNrCalls(count);
+		sMethodMetric.setAverageMs(0L);
+		sMethodMetric.setShortestMs(0L);
+		sMethodMetric.setLongestMs(0L);
+		return sMethodMetric;
+	}
+}
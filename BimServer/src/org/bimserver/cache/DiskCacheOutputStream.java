@@ -1,11 +1,14 @@
 package org.bimserver.cache;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
 
 import org.bimserver.longaction.DownloadParameters;
 import org.bimserver.plugins.serializers.RemovableFileOutputStream;
@@ -15,18 +18,88 @@ import org.slf4j.LoggerFactory;
 public class DiskCacheOutputStream extends RemovableFileOutputStream {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(DiskCacheOutputStream.class);
+	private static final int BUFFER_SIZE = 64 * 1024;
 	private DiskCacheManager diskCacheManager;
 	private Path file;
 	private Path tempFile;
 	private final CountDownLatch latch = new CountDownLatch(1);
 	private final DownloadParameters downloadParameters;
+	private final CRC32 crc32 = new CRC32();
+	// Writes the compressed bytes to the file through this FileOutputStream, null when not compressing
+	private final GZIPOutputStream compressor;
+	private long size;
+	private boolean closed;
 
-	public DiskCacheOutputStream(DiskCacheManager diskCacheManager, Path file, DownloadParameters downloadParameters) throws FileNotFoundException {
+	public DiskCacheOutputStream(DiskCacheManager diskCacheManager, Path file, DownloadParameters downloadParameters, boolean compress) throws IOException {
 		super(file.getParent().resolve(file.getFileName().toString() + ".__tmp"));
 		this.tempFile = file.getParent().resolve(file.getFileName().toString() + ".__tmp");
 		this.diskCacheManager = diskCacheManager;
 		this.file = file;
 		this.downloadParameters = downloadParameters;
+		if (compress) {
+			compressor = new GZIPOutputStream(new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					DiskCacheOutputStream.super.write(b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					DiskCacheOutputStream.super.write(b, off, len);
+				}
+			}, BUFFER_SIZE);
+		} else {
+			compressor = null;
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		crc32.update(b);
+		size++;
+		if (compressor != null) {
+			compressor.write(b);
+		} else {
+			super.write(b);
+		}
+	}
+
+	@Override
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		crc32.update(b, off, len);
+		size += len;
+		if (compressor != null) {
+			compressor.write(b, off, len);
+		} else {
+			super.write(b, off, len);
+		}
+	}
+
+	/**
+	 * @return CRC32 of the bytes written to this stream, before compression
+	 */
+	public long getChecksum() {
+		return crc32.getValue();
+	}
+
+	/**
+	 * @return The number of bytes written to this stream, before compression
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	public boolean isCompressed() {
+		return compressor != null;
+	}
+
+	public Path getFile() {
+		return file;
 	}
 	
 	public DownloadParameters getDownloadParameters() {
@@ -39,9 +112,16 @@ public class DiskCacheOutputStream extends RemovableFileOutputStream {
 	
 	@Override
 	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (compressor != null) {
+			compressor.finish();
+		}
 		super.close();
 		LOGGER.info("Renaming temp file " + tempFile.getFileName().toString() + " to " + file.getFileName().toString());
-		Files.move(tempFile, file);
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
 		diskCacheManager.doneGenerating(this);
 		latch.countDown();
 	}
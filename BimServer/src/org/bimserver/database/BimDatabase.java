@@ -26,6 +26,8 @@ import org.eclipse.emf.ecore.EClass;
 public interface BimDatabase {
 	DatabaseSession createSession();
 
+	DatabaseSession createReadOnlySession();
+
 	void close();
 
 	Migrator getMigrator();
@@ -38,5 +40,20 @@ public interface BimDatabase {
 
 	Registry getRegistry();
 
+	GeometryDataStore getGeometryDataStore();
+
+	RevisionIndex getRevisionIndex();
+
+	SecondaryIndexes getSecondaryIndexes();
+
+	/**
+	 * Refused while other sessions are open, their commits would lose durability without them knowing
+	 * 
+	 * @see KeyValueStore#startBulkLoad()
+	 */
+	void startBulkLoad() throws BimserverDatabaseException;
+
+	void endBulkLoad() throws BimserverDatabaseException;
+
 	EClass getEClassForOid(long oid) throws BimserverDatabaseException;
 }
\ No newline at end of file
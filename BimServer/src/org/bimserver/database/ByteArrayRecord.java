@@ -1,38 +1,41 @@
-package org.bimserver.cache;
-
-/******************************************************************************
- * Copyright (C) 2009-2015  BIMserver.org
- * 
- * This program is free software: you can redistribute it and/or modify
- * it under the terms of the GNU Affero General Public License as
- * published by the Free Software Foundation, either version 3 of the
- * License, or (at your option) any later version.
- * 
- * This program is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARRANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- * GNU Affero General Public License for more details.
- * 
- * You should have received a copy of the GNU Affero General Public License
- * along with this program.  If not, see <http://www.gnu.org/licenses/>.
- *****************************************************************************/
-
-import java.util.Date;
+package org.bimserver.database;
 
-public abstract class GenericCacheValue {
-	private Date lastAccess;
-	private final int maxUnaccessedTimeMillis;
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
 
-	public GenericCacheValue(int maxUnaccessedTime) {
-		this.maxUnaccessedTimeMillis = maxUnaccessedTime;
-		access();
+/**
+ * A plain in-memory key/value pair, used to hand sorted runs of records to the bulk methods of {@link KeyValueStore}
+ */
+public class ByteArrayRecord implements Record {
+	private final byte[] key;
+	private final byte[] value;
+
+	public ByteArrayRecord(byte[] key, byte[] value) {
+		this.key = key;
+		this.value = value;
 	}
 
-	public void access() {
-		lastAccess = new Date();
+	@Override
+	public byte[] getKey() {
+		return key;
 	}
-	
-	public boolean shouldCleanUp() {
-		return new Date().getTime() - lastAccess.getTime() > maxUnaccessedTimeMillis;
+
+	@Override
+	public byte[] getValue() {
+		return value;
 	}
 }
@@ -22,11 +22,15 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -78,20 +82,28 @@ public class Database implements BimDatabase {
 	private final Map<EClass, AtomicLong> oidCounters = new HashMap<EClass, AtomicLong>();
 	private final AtomicInteger pidCounter = new AtomicInteger(1);
 	private final Registry registry;
+	private final GeometryDataStore geometryDataStore;
+	private final RevisionIndex revisionIndex;
+	private final SecondaryIndexes secondaryIndexes;
+	private final RecordCodec recordCodec;
 	private Date created;
 	private final Set<DatabaseSession> sessions = Collections.newSetFromMap(new ConcurrentHashMap<DatabaseSession, Boolean>());
+	// Projects (pid) with the number of open sessions that rewrite committed records of that project
+	private final Map<Integer, Integer> overwrittenProjects = new ConcurrentHashMap<Integer, Integer>();
 	private int databaseSchemaVersion;
 	private short tableId;
 	private Migrator migrator;
 	private final MetaDataManager metaDataManager;
 	private final BimServer bimServer;
+	private volatile ExecutorService commitExecutor;
+	private volatile ExecutorService scanExecutor;
 
 	/*
 	 * This variable should be _incremented_ with every (released)
 	 * database-schema change. Do not change this variable when nothing has
 	 * changed in the schema!
 	 */
-	public static final int APPLICATION_SCHEMA_VERSION = 20;
+	public static final int APPLICATION_SCHEMA_VERSION = 28;
 
 	public Database(BimServer bimServer, Set<? extends EPackage> emfPackages, KeyValueStore keyValueStore, MetaDataManager metaDataManager) throws DatabaseInitException {
 		this.bimServer = bimServer;
@@ -104,6 +116,10 @@ public class Database implements BimDatabase {
 			this.emfPackages.put(ePackage.getName(), ePackage);
 		}
 		this.registry = new Registry(keyValueStore);
+		this.geometryDataStore = new GeometryDataStore(keyValueStore);
+		this.revisionIndex = new RevisionIndex(this);
+		this.secondaryIndexes = new SecondaryIndexes(this);
+		this.recordCodec = new RecordCodec(this);
 	}
 
 	public int getApplicationSchemaVersion() {
@@ -116,7 +132,7 @@ public class Database implements BimDatabase {
 
 	public EClass getEClassForName(String packageName, String className) {
 		EPackage ePackage = emfPackages.get(packageName);
-		if (ePackage.getEClassifier(className) != null) {
+		if (ePackage != null && ePackage.getEClassifier(className) != null) {
 			return (EClass) ePackage.getEClassifier(className);
 		}
 		return null;
@@ -129,6 +145,8 @@ public class Database implements BimDatabase {
 				keyValueStore.createTable(CLASS_LOOKUP_TABLE, null);
 				keyValueStore.createTable(Database.STORE_PROJECT_NAME, null);
 				keyValueStore.createTable(Registry.REGISTRY_TABLE, null);
+				keyValueStore.createTable(GeometryDataStore.GEOMETRY_DATA_TABLE, null);
+				keyValueStore.createTable(RevisionIndex.REVISION_INDEX_TABLE, null);
 				setDatabaseVersion(-1, databaseSession);
 				created = new Date();
 				registry.save(DATE_CREATED, created, databaseSession);
@@ -136,6 +154,18 @@ public class Database implements BimDatabase {
 				keyValueStore.openTable(CLASS_LOOKUP_TABLE);
 				keyValueStore.openTable(Database.STORE_PROJECT_NAME);
 				keyValueStore.openTable(Registry.REGISTRY_TABLE);
+				if (keyValueStore.containsTable(GeometryDataStore.GEOMETRY_DATA_TABLE)) {
+					keyValueStore.openTable(GeometryDataStore.GEOMETRY_DATA_TABLE);
+				} else {
+					// Databases created before geometry was deduplicated between revisions
+					keyValueStore.createTable(GeometryDataStore.GEOMETRY_DATA_TABLE, null);
+				}
+				if (keyValueStore.containsTable(RevisionIndex.REVISION_INDEX_TABLE)) {
+					keyValueStore.openTable(RevisionIndex.REVISION_INDEX_TABLE);
+				} else {
+					// Databases created before revisions were indexed, their existing revisions are read by scanning
+					keyValueStore.createTable(RevisionIndex.REVISION_INDEX_TABLE, null);
+				}
 				created = registry.readDate(DATE_CREATED, databaseSession);
 				if (created == null) {
 					created = new Date();
@@ -160,6 +190,7 @@ public class Database implements BimDatabase {
 			} else if (registry.readBoolean("isnew", true, databaseSession)) {
 				initInternalStructure(databaseSession);
 				initCounters(databaseSession);
+				secondaryIndexes.init(databaseSession);
 
 				ServerSettings settings = createDefaultSettings(databaseSession);
 				databaseSession.store(settings);
@@ -183,6 +214,7 @@ public class Database implements BimDatabase {
 			} else {
 				initInternalStructure(databaseSession);
 				initCounters(databaseSession);
+				secondaryIndexes.init(databaseSession);
 			}
 			for (EClass eClass : classifiers.keyBSet()) {
 				if (eClass.getEPackage() == Ifc2x3tc1Package.eINSTANCE || eClass.getEPackage() == Ifc4Package.eINSTANCE) {
@@ -190,6 +222,7 @@ public class Database implements BimDatabase {
 				}
 			}
 			databaseSession.commit();
+			secondaryIndexes.startBuilding();
 		} catch (UserException e) {
 			LOGGER.error("", e);
 			close();
@@ -227,6 +260,15 @@ public class Database implements BimDatabase {
 		settings.setGenerateGeometryOnCheckin(true);
 		settings.setReuseGeometry(true);
 		settings.setRenderEngineProcesses(1);
+		settings.setDatabaseScanThreads(1);
+		settings.setIncrementalGeometry(false);
+		settings.setDeltaCheckins(false);
+		settings.setLongActionHeapPercentage(60);
+		settings.setCacheOutputFilesMaxMb(10240);
+		settings.setCompressCachedOutputFiles(false);
+		settings.setCacheCompareResults(false);
+		settings.setProgressUpdateIntervalMs(200);
+		settings.setIfcIndexes(true);
 		settings.setSessionTimeOutSeconds(60 * 60 * 24 * 30); // 1 month
 		settings.getWhitelistedDomains().add("localhost");
 		settings.getWhitelistedDomains().add("localhost:8080");
@@ -331,9 +373,101 @@ public class Database implements BimDatabase {
 	}
 
 	public void close() {
+		secondaryIndexes.close();
+		if (commitExecutor != null) {
+			commitExecutor.shutdownNow();
+		}
+		if (scanExecutor != null) {
+			scanExecutor.shutdownNow();
+		}
 		keyValueStore.close();
 	}
 
+	/**
+	 * @return The executor that is used by DatabaseSession.commit to serialize large groups of objects in parallel
+	 */
+	public ExecutorService getCommitExecutor() {
+		if (commitExecutor == null) {
+			synchronized (this) {
+				if (commitExecutor == null) {
+					commitExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+						private final AtomicInteger threadCounter = new AtomicInteger();
+
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "CommitSerializer-" + threadCounter.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+				}
+			}
+		}
+		return commitExecutor;
+	}
+
+	/**
+	 * @return The executor that is used by DatabaseSession.getMap to scan the tables of multiple classes in parallel, the amount of concurrent scans per call is limited by getDatabaseScanThreads
+	 */
+	public ExecutorService getScanExecutor() {
+		if (scanExecutor == null) {
+			synchronized (this) {
+				if (scanExecutor == null) {
+					scanExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+						private final AtomicInteger threadCounter = new AtomicInteger();
+
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "DatabaseScan-" + threadCounter.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+				}
+			}
+		}
+		return scanExecutor;
+	}
+
+	/**
+	 * @return The amount of threads to use for scanning the tables of one model, 1 (sequential scanning) when the server settings are not available yet
+	 */
+	public int getDatabaseScanThreads() {
+		if (bimServer == null || bimServer.getServerSettingsCache() == null) {
+			return 1;
+		}
+		ServerSettings serverSettings = bimServer.getServerSettingsCache().getServerSettings();
+		if (serverSettings == null) {
+			return 1;
+		}
+		return Math.max(1, Math.min(serverSettings.getDatabaseScanThreads(), Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * @return Whether the secondary indexes on IFC objects should be maintained according to the server settings, true when there is no server
+	 * (tools and tests that only open a database), null when the server settings are not available yet
+	 */
+	public Boolean isIfcIndexesEnabled() {
+		if (bimServer == null) {
+			return true;
+		}
+		if (bimServer.getServerSettingsCache() == null) {
+			return null;
+		}
+		ServerSettings serverSettings = bimServer.getServerSettingsCache().getServerSettings();
+		if (serverSettings == null) {
+			return null;
+		}
+		return serverSettings.isIfcIndexes();
+	}
+
+	/**
+	 * @return The sessions that are open at this moment
+	 */
+	public Set<DatabaseSession> getOpenSessions() {
+		return new HashSet<DatabaseSession>(sessions);
+	}
+
 	public List<String> getAvailableClasses() {
 		return realClasses;
 	}
@@ -344,6 +478,15 @@ public class Database implements BimDatabase {
 		return databaseSession;
 	}
 
+	/**
+	 * Creates a session for reading committed revisions (downloads), see {@link DatabaseSession#isUncommittedReadAllowed(String, byte[])}
+	 */
+	public DatabaseSession createReadOnlySession() {
+		DatabaseSession databaseSession = new DatabaseSession(this, keyValueStore.startTransaction(), true);
+		sessions.add(databaseSession);
+		return databaseSession;
+	}
+
 	public KeyValueStore getKeyValueStore() {
 		return keyValueStore;
 	}
@@ -364,6 +507,33 @@ public class Database implements BimDatabase {
 		return registry;
 	}
 
+	public GeometryDataStore getGeometryDataStore() {
+		return geometryDataStore;
+	}
+
+	public RevisionIndex getRevisionIndex() {
+		return revisionIndex;
+	}
+
+	public SecondaryIndexes getSecondaryIndexes() {
+		return secondaryIndexes;
+	}
+
+	public void startBulkLoad() throws BimserverDatabaseException {
+		if (!sessions.isEmpty()) {
+			throw new BimserverDatabaseException("A bulk load needs exclusive use of the database, but " + sessions.size() + " database sessions are open. Import into a server that is not in use");
+		}
+		keyValueStore.startBulkLoad();
+	}
+
+	public void endBulkLoad() throws BimserverDatabaseException {
+		keyValueStore.endBulkLoad();
+	}
+
+	public RecordCodec getRecordCodec() {
+		return recordCodec;
+	}
+
 	public Date getCreated() {
 		return created;
 	}
@@ -372,6 +542,32 @@ public class Database implements BimDatabase {
 		sessions.remove(databaseSession);
 	}
 
+	/**
+	 * Registers a session that is going to rewrite committed records of the given project, until {@link #endOverwrite(int)} is called
+	 * read-only sessions read the records of this project read committed
+	 */
+	public synchronized void startOverwrite(int pid) {
+		Integer count = overwrittenProjects.get(pid);
+		overwrittenProjects.put(pid, count == null ? 1 : count + 1);
+	}
+
+	public synchronized void endOverwrite(int pid) {
+		Integer count = overwrittenProjects.get(pid);
+		if (count == null || count == 1) {
+			overwrittenProjects.remove(pid);
+		} else {
+			overwrittenProjects.put(pid, count - 1);
+		}
+	}
+
+	public boolean isOverwriting(int pid) {
+		return overwrittenProjects.containsKey(pid);
+	}
+
+	public boolean isOverwriting() {
+		return !overwrittenProjects.isEmpty();
+	}
+
 	public void setDatabaseVersion(int version, DatabaseSession databaseSession) throws BimserverLockConflictException {
 		databaseSchemaVersion = version;
 		registry.save(SCHEMA_VERSION, version, databaseSession);
@@ -23,17 +23,32 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.bimserver.ServerIfcModel;
+import org.bimserver.database.Query.Deep;
+import org.bimserver.database.actions.AbstractDownloadDatabaseAction;
 import org.bimserver.database.actions.BimDatabaseAction;
 import org.bimserver.database.berkeley.BimserverConcurrentModificationDatabaseException;
 import org.bimserver.database.query.conditions.Condition;
@@ -84,6 +99,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Charsets;
+import com.google.common.primitives.UnsignedBytes;
+import com.google.common.primitives.UnsignedInts;
+import com.google.common.primitives.UnsignedLongs;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.sleepycat.je.LockConflictException;
 import com.sleepycat.je.LockTimeoutException;
 import com.sleepycat.je.TransactionTimeoutException;
@@ -92,6 +111,44 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 	public static final int DEFAULT_CONFLICT_RETRIES = 10;
 	private static final boolean DEVELOPER_DEBUG = false;
 	private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseSession.class);
+	private static final int PARALLEL_SERIALIZATION_THRESHOLD = 2048;
+	private static final int SERIALIZATION_CHUNK_SIZE = 1024;
+	private static final int WRITE_SLICE_SIZE = 1024;
+	private static final int COMMIT_BATCH_SIZE = 64 * 1024;
+	private static final int SCAN_CHUNK_SIZE = 1024;
+	private static final Comparator<byte[]> KEY_COMPARATOR = UnsignedBytes.lexicographicalComparator();
+
+	/*
+	 * Orders records the same way as the underlying store does (unsigned, byte by byte), on key first and value second (for tables with duplicates)
+	 */
+	private static final Comparator<Record> RECORD_COMPARATOR = new Comparator<Record>() {
+		@Override
+		public int compare(Record o1, Record o2) {
+			int result = KEY_COMPARATOR.compare(o1.getKey(), o2.getKey());
+			if (result == 0) {
+				result = KEY_COMPARATOR.compare(o1.getValue(), o2.getValue());
+			}
+			return result;
+		}
+	};
+
+	/*
+	 * Orders objects by their (pid, oid, -rid) key, the same order the store uses for the serialized keys
+	 */
+	private static final Comparator<IdEObject> OBJECT_KEY_COMPARATOR = new Comparator<IdEObject>() {
+		@Override
+		public int compare(IdEObject o1, IdEObject o2) {
+			int result = UnsignedInts.compare(o1.getPid(), o2.getPid());
+			if (result == 0) {
+				result = UnsignedLongs.compare(o1.getOid(), o2.getOid());
+			}
+			if (result == 0) {
+				result = UnsignedInts.compare(-o1.getRid(), -o2.getRid());
+			}
+			return result;
+		}
+	};
+
 	private final Database database;
 	private BimTransaction bimTransaction;
 	private final Set<PostCommitAction> postCommitActions = new LinkedHashSet<PostCommitAction>();
@@ -108,10 +165,21 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 
 	private SessionState state = SessionState.OPEN;
 	private boolean overwriteEnabled;
+	private int overwritePid;
+	private final boolean readOnly;
 
 	public DatabaseSession(Database database, BimTransaction bimTransaction) {
+		this(database, bimTransaction, false);
+	}
+
+	/**
+	 * @param readOnly Read-only sessions cannot store, delete or commit objects. They read the records of committed revisions without taking locks,
+	 * so long running reads (downloads) do not block checkins and the other way around
+	 */
+	public DatabaseSession(Database database, BimTransaction bimTransaction, boolean readOnly) {
 		this.database = database;
 		this.bimTransaction = bimTransaction;
+		this.readOnly = readOnly;
 		if (DEVELOPER_DEBUG) {
 			this.stackTrace = Thread.currentThread().getStackTrace();
 			LOGGER.info("");
@@ -122,8 +190,58 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		}
 	}
 	
-	public void setOverwriteEnabled(boolean overwriteEnabled) {
-		this.overwriteEnabled = overwriteEnabled;
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * Checkins only add records to the object tables of the IFC packages, with a higher rid than any committed revision a query can ask for.
+	 * Read-only sessions can therefore read those tables without locks, unless the records of the project are being rewritten in place by an
+	 * overwrite session (see {@link #setOverwriteEnabled(int)}), in which case an uncommitted or rolled back rewrite could be read. The keys
+	 * of these tables start with the pid, when no key is given (a full table scan) any open overwrite session makes the read committed.
+	 * The store and log tables and all index tables are always read committed.
+	 */
+	public boolean isUncommittedReadAllowed(String tableName, byte[] key) {
+		if (!readOnly) {
+			return false;
+		}
+		String packagePrefix;
+		if (tableName.startsWith(Ifc2x3tc1Package.eNAME + "_")) {
+			packagePrefix = Ifc2x3tc1Package.eNAME + "_";
+		} else if (tableName.startsWith(Ifc4Package.eNAME + "_")) {
+			packagePrefix = Ifc4Package.eNAME + "_";
+		} else {
+			return false;
+		}
+		if (tableName.indexOf('_', packagePrefix.length()) != -1) {
+			// package_Class_feature, an index table
+			return false;
+		}
+		if (key == null || key.length < 4) {
+			return !database.isOverwriting();
+		}
+		return !database.isOverwriting(BinUtils.byteArrayToInt(key, 0));
+	}
+
+	/**
+	 * Allows this session to rewrite committed records of the given project at their existing rid. Until this session is closed, read-only
+	 * sessions read the records of the project read committed.
+	 */
+	public void setOverwriteEnabled(int pid) {
+		if (overwriteEnabled) {
+			throw new IllegalStateException("Overwrite has already been enabled for project " + overwritePid);
+		}
+		database.startOverwrite(pid);
+		this.overwritePid = pid;
+		this.overwriteEnabled = true;
+	}
+
+	/**
+	 * Limits the number of objects in the object cache of this session, fully loaded objects will be evicted when the limit is reached.
+	 * Only use this for read-only sessions that keep all loaded objects in their model.
+	 */
+	public void setObjectCacheMaxSize(int maxSize) {
+		objectCache.setMaxSize(maxSize);
 	}
 
 	public EClass getEClassForName(String packageName, String className) {
@@ -135,6 +253,7 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 	}
 
 	public void addToObjectsToCommit(IdEObject idEObject) throws BimserverDatabaseException {
+		checkWritable();
 		if (idEObject.getOid() == -1) {
 			throw new BimserverDatabaseException("Cannot store object with oid -1");
 		}
@@ -158,6 +277,11 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 				database.getKeyValueStore().dumpOpenCursors();
 			}
 		}
+		if (overwriteEnabled) {
+			// Only after the transaction has been committed or aborted, so no read-only session sees a rewrite that is still pending
+			overwriteEnabled = false;
+			database.endOverwrite(overwritePid);
+		}
 		if (DEVELOPER_DEBUG) {
 			LOGGER.info("END SESSION");
 		}
@@ -165,72 +289,59 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 	
 	public void commit(ProgressHandler progressHandler) throws BimserverDatabaseException, ServiceException {
 		checkOpen();
+		checkWritable();
 		try {
+			int total = objectsToCommit.size();
 			if (progressHandler != null) {
-				progressHandler.progress(0, objectsToCommit.size());
+				progressHandler.progress(0, total);
 			}
 			int current = 0;
 			long writes = 0;
-			ByteBuffer keyBuffer = ByteBuffer.wrap(new byte[16]);
+			KeyValueStore keyValueStore = database.getKeyValueStore();
+			Map<String, List<Record>> deletedRecords = new HashMap<String, List<Record>>();
 			for (RecordIdentifierPlusType recordIdentifier : objectsToDelete) {
-				fillKeyBuffer(keyBuffer, recordIdentifier);
-				database.getKeyValueStore().storeNoOverwrite(recordIdentifier.getPackageName() + "_" + recordIdentifier.getClassName(), keyBuffer.array(), new byte[] { -1 }, this);
-				writes++;
-			}
-			// This buffer is reused for the values, it's position must be reset at the end of the loop, and the convertObjectToByteArray function is responsible for setting the buffer's position to the end of the (used part of the) buffer
-			ByteBuffer reusableBuffer = ByteBuffer.allocate(32768);
-			for (IdEObject object : objectsToCommit) {
-				if (object.getOid() == -1) {
-					throw new BimserverDatabaseException("Cannot store object with oid -1");
-				}
-				fillKeyBuffer(keyBuffer, object);
-				if (DEVELOPER_DEBUG) {
-					LOGGER.info("Write: " + object.eClass().getName() + " " + "pid=" + object.getPid() + " oid=" + object.getOid() + " rid=" + object.getRid());
-				}
-				ByteBuffer valueBuffer = convertObjectToByteArray(object, reusableBuffer, getMetaDataManager().getPackageMetaData(object.eClass().getEPackage().getName()));
-				int valueBufferPosition = valueBuffer.position();
-				if (object.eClass().getEAnnotation("nolazyload") == null && !overwriteEnabled) {
-					boolean hasAtLeastOneIndex = false;
-					for (EStructuralFeature eStructuralFeature : object.eClass().getEAllStructuralFeatures()) {
-						if (eStructuralFeature.getEAnnotation("singleindex") != null) {
-							hasAtLeastOneIndex = true;
-							break;
-						}
+				String tableName = recordIdentifier.getPackageName() + "_" + recordIdentifier.getClassName();
+				ByteBuffer keyBuffer = createKeyBuffer(recordIdentifier.getPid(), recordIdentifier.getOid(), recordIdentifier.getRid());
+				getRecordList(deletedRecords, tableName).add(new ByteArrayRecord(keyBuffer.array(), new byte[] { -1 }));
+			}
+			writes += storeSortedNoOverwrite(deletedRecords);
+			Map<EClass, List<IdEObject>> objectsPerClass = groupObjectsToCommitByClass();
+			// From here on the groups refer to the objects, dropping the index early leaves more heap for the serialized records
+			objectsToCommit.clear();
+			Iterator<Map.Entry<EClass, List<IdEObject>>> iterator = objectsPerClass.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<EClass, List<IdEObject>> entry = iterator.next();
+				EClass eClass = entry.getKey();
+				List<IdEObject> objects = entry.getValue();
+				iterator.remove();
+				String tableName = eClass.getEPackage().getName() + "_" + eClass.getName();
+				boolean versioned = eClass.getEAnnotation("nolazyload") == null && !overwriteEnabled;
+
+				// Serialized records are only kept for one batch at a time, so large checkins do not need a second copy of the model in heap
+				for (int batchStart = 0; batchStart < objects.size(); batchStart += COMMIT_BATCH_SIZE) {
+					List<IdEObject> batch = objects.subList(batchStart, Math.min(objects.size(), batchStart + COMMIT_BATCH_SIZE));
+					// Values of wrapped objects that have their own table (IfcGloballyUniqueId) are collected while serializing and written as separate runs
+					Map<String, List<Record>> wrappedRecords = new HashMap<String, List<Record>>();
+					List<Record> records = serialize(eClass, batch, wrappedRecords);
+					if (versioned) {
+						updateIndexes(eClass, tableName, records);
 					}
-					if (hasAtLeastOneIndex) {
-						ByteBuffer oldKeyBuffer = ByteBuffer.allocate(16);
-						oldKeyBuffer.putInt(object.getPid());
-						oldKeyBuffer.putLong(object.getOid());
-						oldKeyBuffer.putInt(-(object.getRid() - 1));
-						byte[] oldData = database.getKeyValueStore().get(object.eClass().getEPackage().getName() + "_" + object.eClass().getName(), oldKeyBuffer.array(), this);
-						for (EStructuralFeature eStructuralFeature : object.eClass().getEAllStructuralFeatures()) {
-							if (eStructuralFeature.getEAnnotation("singleindex") != null) {
-								String indexTableName = object.eClass().getEPackage().getName() + "_" + object.eClass().getName() + "_" + eStructuralFeature.getName();
-								byte[] featureBytes = extractFeatureBytes(this, valueBuffer, object.eClass(), eStructuralFeature);
-
-								if (oldData != null) {
-									ByteBuffer oldValue = ByteBuffer.wrap(oldData);
-									byte[] featureBytesOldIndex = extractFeatureBytes(this, oldValue, object.eClass(), eStructuralFeature);
-									database.getKeyValueStore().delete(indexTableName, featureBytesOldIndex, oldKeyBuffer.array(), this);
-								}
-
-								if (featureBytes != null) {
-									database.getKeyValueStore().store(indexTableName, featureBytes, keyBuffer.array(), this);
-								}
-							}
+					database.getSecondaryIndexes().update(eClass, records, this);
+					writes += storeSortedNoOverwrite(wrappedRecords);
+					for (int start = 0; start < records.size(); start += WRITE_SLICE_SIZE) {
+						List<Record> slice = records.subList(start, Math.min(records.size(), start + WRITE_SLICE_SIZE));
+						if (versioned) {
+							keyValueStore.storeNoOverwrite(tableName, slice, this);
+						} else {
+							keyValueStore.store(tableName, slice, this);
+						}
+						writes += slice.size();
+						current += slice.size();
+						if (progressHandler != null) {
+							progressHandler.progress(current, total);
 						}
 					}
-					database.getKeyValueStore().storeNoOverwrite(object.eClass().getEPackage().getName() + "_" + object.eClass().getName(), keyBuffer.array(), valueBuffer.array(), 0, valueBufferPosition, this);
-				} else {
-					database.getKeyValueStore().store(object.eClass().getEPackage().getName() + "_" + object.eClass().getName(), keyBuffer.array(),
-							valueBuffer.array(), 0, valueBuffer.position(), this);
 				}
-				if (progressHandler != null) {
-					progressHandler.progress(++current, objectsToCommit.size());
-				}
-				writes++;
-				reusableBuffer = valueBuffer; // bimServerClient may have increased the size of the buffer by creating a new one, we keep using it for other objects
-				reusableBuffer.position(0);
 			}
 			bimTransaction.commit();
 			database.incrementCommittedWrites(writes);
@@ -245,8 +356,152 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		}
 	}
 
-	private void fillKeyBuffer(ByteBuffer buffer, RecordIdentifierPlusType recordIdentifier) {
-		fillKeyBuffer(buffer, recordIdentifier.getPid(), recordIdentifier.getOid(), recordIdentifier.getRid());
+	/**
+	 * Groups the objects to commit per table (EClass), every group is sorted in the same order as the keys in the underlying store
+	 */
+	private Map<EClass, List<IdEObject>> groupObjectsToCommitByClass() throws BimserverDatabaseException {
+		Map<EClass, List<IdEObject>> result = new LinkedHashMap<EClass, List<IdEObject>>();
+		for (IdEObject object : objectsToCommit) {
+			if (object.getOid() == -1) {
+				throw new BimserverDatabaseException("Cannot store object with oid -1");
+			}
+			List<IdEObject> list = result.get(object.eClass());
+			if (list == null) {
+				list = new ArrayList<IdEObject>();
+				result.put(object.eClass(), list);
+			}
+			list.add(object);
+		}
+		for (List<IdEObject> list : result.values()) {
+			Collections.sort(list, OBJECT_KEY_COMPARATOR);
+		}
+		return result;
+	}
+
+	private List<Record> getRecordList(Map<String, List<Record>> recordsPerTable, String tableName) {
+		List<Record> list = recordsPerTable.get(tableName);
+		if (list == null) {
+			list = new ArrayList<Record>();
+			recordsPerTable.put(tableName, list);
+		}
+		return list;
+	}
+
+	private long storeSortedNoOverwrite(Map<String, List<Record>> recordsPerTable) throws BimserverDatabaseException {
+		long writes = 0;
+		for (Map.Entry<String, List<Record>> entry : recordsPerTable.entrySet()) {
+			Collections.sort(entry.getValue(), RECORD_COMPARATOR);
+			database.getKeyValueStore().storeNoOverwrite(entry.getKey(), entry.getValue(), this);
+			writes += entry.getValue().size();
+		}
+		return writes;
+	}
+
+	/**
+	 * Converts the (sorted) objects to records, large groups are split up in chunks that are serialized in parallel. The order of the objects is retained.
+	 */
+	private List<Record> serialize(EClass eClass, List<IdEObject> objects, Map<String, List<Record>> wrappedRecords) throws BimserverDatabaseException {
+		final PackageMetaData packageMetaData = getMetaDataManager().getPackageMetaData(eClass.getEPackage().getName());
+		if (objects.size() < PARALLEL_SERIALIZATION_THRESHOLD) {
+			return serializeObjects(objects, packageMetaData, wrappedRecords);
+		}
+		// EMF initializes some of the meta data lazily, make sure that has happened before multiple threads start reading it
+		eClass.getEAllStructuralFeatures();
+
+		List<Future<List<Record>>> futures = new ArrayList<Future<List<Record>>>();
+		List<Map<String, List<Record>>> wrappedRecordsPerChunk = new ArrayList<Map<String, List<Record>>>();
+		for (int start = 0; start < objects.size(); start += SERIALIZATION_CHUNK_SIZE) {
+			final List<IdEObject> chunk = objects.subList(start, Math.min(objects.size(), start + SERIALIZATION_CHUNK_SIZE));
+			final Map<String, List<Record>> chunkWrappedRecords = new HashMap<String, List<Record>>();
+			wrappedRecordsPerChunk.add(chunkWrappedRecords);
+			futures.add(database.getCommitExecutor().submit(new Callable<List<Record>>() {
+				@Override
+				public List<Record> call() throws Exception {
+					return serializeObjects(chunk, packageMetaData, chunkWrappedRecords);
+				}
+			}));
+		}
+		List<Record> records = new ArrayList<Record>(objects.size());
+		try {
+			for (int i = 0; i < futures.size(); i++) {
+				// Commits have never been interruptible, so we don't start now
+				records.addAll(Uninterruptibles.getUninterruptibly(futures.get(i)));
+				for (Map.Entry<String, List<Record>> entry : wrappedRecordsPerChunk.get(i).entrySet()) {
+					getRecordList(wrappedRecords, entry.getKey()).addAll(entry.getValue());
+				}
+			}
+		} catch (ExecutionException e) {
+			for (Future<List<Record>> future : futures) {
+				future.cancel(false);
+			}
+			if (e.getCause() instanceof BimserverDatabaseException) {
+				throw (BimserverDatabaseException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new BimserverDatabaseException(e.getCause());
+		}
+		return records;
+	}
+
+	private List<Record> serializeObjects(List<IdEObject> objects, PackageMetaData packageMetaData, Map<String, List<Record>> wrappedRecords) throws BimserverDatabaseException {
+		List<Record> records = new ArrayList<Record>(objects.size());
+		for (IdEObject object : objects) {
+			if (DEVELOPER_DEBUG) {
+				LOGGER.info("Write: " + object.eClass().getName() + " " + "pid=" + object.getPid() + " oid=" + object.getOid() + " rid=" + object.getRid());
+			}
+			ByteBuffer keyBuffer = fillKeyBuffer(ByteBuffer.allocate(16), object);
+			ByteBuffer valueBuffer = convertObjectToByteArray(object, packageMetaData, wrappedRecords);
+			records.add(new ByteArrayRecord(keyBuffer.array(), database.getRecordCodec().encode(valueBuffer.array(), object.eClass())));
+		}
+		return records;
+	}
+
+	/**
+	 * Maintains the "singleindex" tables for a sorted run of records of one class. The previous versions of all records are read in one pass, after which the index changes are written per index table in sorted order.
+	 */
+	private void updateIndexes(EClass eClass, String tableName, List<Record> records) throws BimserverDatabaseException {
+		List<EStructuralFeature> indexedFeatures = new ArrayList<EStructuralFeature>();
+		for (EStructuralFeature eStructuralFeature : eClass.getEAllStructuralFeatures()) {
+			if (eStructuralFeature.getEAnnotation("singleindex") != null) {
+				indexedFeatures.add(eStructuralFeature);
+			}
+		}
+		if (indexedFeatures.isEmpty()) {
+			return;
+		}
+		KeyValueStore keyValueStore = database.getKeyValueStore();
+		List<byte[]> oldKeys = new ArrayList<byte[]>(records.size());
+		for (Record record : records) {
+			ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+			int pid = keyBuffer.getInt();
+			long oid = keyBuffer.getLong();
+			int rid = -keyBuffer.getInt();
+			oldKeys.add(createKeyBuffer(pid, oid, rid - 1).array());
+		}
+		List<byte[]> oldValues = keyValueStore.get(tableName, oldKeys, this);
+		for (EStructuralFeature eStructuralFeature : indexedFeatures) {
+			String indexTableName = tableName + "_" + eStructuralFeature.getName();
+			List<Record> deletes = new ArrayList<Record>();
+			List<Record> stores = new ArrayList<Record>();
+			for (int i = 0; i < records.size(); i++) {
+				byte[] oldData = oldValues.get(i);
+				if (oldData != null) {
+					byte[] featureBytesOldIndex = extractFeatureBytes(this, ByteBuffer.wrap(oldData), eClass, eStructuralFeature);
+					if (featureBytesOldIndex != null) {
+						deletes.add(new ByteArrayRecord(featureBytesOldIndex, oldKeys.get(i)));
+					}
+				}
+				byte[] featureBytes = extractFeatureBytes(this, ByteBuffer.wrap(records.get(i).getValue()), eClass, eStructuralFeature);
+				if (featureBytes != null) {
+					stores.add(new ByteArrayRecord(featureBytes, records.get(i).getKey()));
+				}
+			}
+			Collections.sort(deletes, RECORD_COMPARATOR);
+			Collections.sort(stores, RECORD_COMPARATOR);
+			keyValueStore.delete(indexTableName, deletes, this);
+			keyValueStore.store(indexTableName, stores, this);
+		}
 	}
 
 	private IdEObjectImpl createInternal(EClass eClass, QueryInterface queryInterface) {
@@ -287,9 +542,10 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 
 			objectCache.put(oid, idEObject);
 			
-			byte unsettedLength = buffer.get();
+			RecordCodec.Reader reader = database.getRecordCodec().reader(buffer);
+			byte unsettedLength = reader.readRaw();
 			byte[] unsetted = new byte[unsettedLength];
-			buffer.get(unsetted);
+			reader.readRaw(unsetted);
 			
 			int fieldCounter = 0;
 			for (EStructuralFeature feature : eClass.getEAllStructuralFeatures()) {
@@ -306,14 +562,14 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 					if (!query.shouldFollowReference(originalQueryClass, eClass, feature)) {
 						// we have to do some reading to maintain a correct
 						// index
-						fakeRead(buffer, feature);
+						fakeRead(reader, feature);
 					} else {
 						Object newValue = null;
 						if (feature.isMany()) {
-							newValue = readList(idEObject, originalQueryClass, buffer, model, query, todoList, feature);
+							newValue = readList(idEObject, originalQueryClass, reader, model, query, todoList, feature);
 						} else {
 							if (feature.getEType() instanceof EEnum) {
-								int enumOrdinal = buffer.getInt();
+								int enumOrdinal = reader.readInt();
 								if (enumOrdinal == -1) {
 									newValue = null;
 								} else {
@@ -325,19 +581,19 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 								}
 							} else if (feature.getEType() instanceof EClass) {
 								// EReference eReference = (EReference) feature;
-								short cid = buffer.getShort();
+								short cid = reader.readCid();
 								if (cid == -1) {
 									// null, do nothing
 								} else if (cid < 0) {
 									// negative cid means value is embedded in
 									// record
 									EClass referenceClass = database.getEClassForCid((short) (-cid));
-									newValue = readWrappedValue(feature, buffer, referenceClass, query);
+									newValue = readWrappedValue(feature, reader, referenceClass, query);
 								} else if (cid > 0) {
 									// positive cid means value is reference to
 									// other record
 									EClass referenceClass = database.getEClassForCid(cid);
-									newValue = readReference(originalQueryClass, buffer, model, idEObject, feature, referenceClass, query, todoList);
+									newValue = readReference(originalQueryClass, reader, cid, model, idEObject, feature, referenceClass, query, todoList);
 									// if (eReference.getEOpposite() != null &&
 									// ((IdEObjectImpl)
 									// newValue).isLoadedOrLoading()) {
@@ -345,7 +601,7 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 									// }
 								}
 							} else if (feature.getEType() instanceof EDataType) {
-								newValue = readPrimitiveValue(feature.getEType(), buffer, query);
+								newValue = readPrimitiveValue(feature.getEType(), reader, query);
 							}
 						}
 						if (newValue != null) {
@@ -369,72 +625,68 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 	}
 
 	@SuppressWarnings("unchecked")
-	private Object readList(IdEObject idEObject, EClass originalQueryClass, ByteBuffer buffer, IfcModelInterface model, QueryInterface query, TodoList todoList,
+	private Object readList(IdEObject idEObject, EClass originalQueryClass, RecordCodec.Reader reader, IfcModelInterface model, QueryInterface query, TodoList todoList,
 			EStructuralFeature feature) throws BimserverDatabaseException {
 		if (feature.getEType() instanceof EEnum) {
 		} else if (feature.getEType() instanceof EClass) {
-			if (buffer.capacity() == 1 && buffer.get(0) == -1) {
-				buffer.position(buffer.position() + 1);
-			} else {
-				/*
-				 * TODO There still is a problem with this,
-				 * when readReference (and all calls beyond
-				 * that call) alter (by opposites) this
-				 * list, this list can potentially grow too
-				 * large
-				 * 
-				 * Only can happen with non-unique
-				 * references
-				 */
-				int listSize = buffer.getInt();
-
-				AbstractEList<Object> list = (AbstractEList<Object>) idEObject.eGet(feature);
-				for (int i = 0; i < listSize; i++) {
-					if (feature.getEAnnotation("twodimensionalarray") != null) {
-						IdEObjectImpl newObject = createInternal((EClass) feature.getEType(), query);
-						Object result = readList(newObject, originalQueryClass, buffer, model, query, todoList, newObject.eClass().getEStructuralFeature("List"));
-						if (result != null) {
-							newObject.eSet(newObject.eClass().getEStructuralFeature("List"), result);
-						}
-						list.addUnique(newObject);
-					} else {
-						IdEObject referencedObject = null;
-						
-						short cid = buffer.getShort();
-						if (cid == -1) {
-							// null, do nothing
-						} else if (cid < 0) {
-							// negative cid means value is
-							// embedded
-							// in record
-							EClass referenceClass = database.getEClassForCid((short) (-cid));
-							referencedObject = readWrappedValue(feature, buffer, referenceClass, query);
-						} else if (cid > 0) {
-							// positive cid means value is a
-							// reference
-							// to another record
-							EClass referenceClass = database.getEClassForCid(cid);
-							referencedObject = readReference(originalQueryClass, buffer, model, idEObject, feature, referenceClass, query, todoList);
+			/*
+			 * TODO There still is a problem with this,
+			 * when readReference (and all calls beyond
+			 * that call) alter (by opposites) this
+			 * list, this list can potentially grow too
+			 * large
+			 * 
+			 * Only can happen with non-unique
+			 * references
+			 */
+			int listSize = reader.readSize();
+
+			AbstractEList<Object> list = (AbstractEList<Object>) idEObject.eGet(feature);
+			for (int i = 0; i < listSize; i++) {
+				if (feature.getEAnnotation("twodimensionalarray") != null) {
+					IdEObjectImpl newObject = createInternal((EClass) feature.getEType(), query);
+					Object result = readList(newObject, originalQueryClass, reader, model, query, todoList, newObject.eClass().getEStructuralFeature("List"));
+					if (result != null) {
+						newObject.eSet(newObject.eClass().getEStructuralFeature("List"), result);
+					}
+					list.addUnique(newObject);
+				} else {
+					IdEObject referencedObject = null;
+					
+					short cid = reader.readCid();
+					if (cid == -1) {
+						// null, do nothing
+					} else if (cid < 0) {
+						// negative cid means value is
+						// embedded
+						// in record
+						EClass referenceClass = database.getEClassForCid((short) (-cid));
+						referencedObject = readWrappedValue(feature, reader, referenceClass, query);
+					} else if (cid > 0) {
+						// positive cid means value is a
+						// reference
+						// to another record
+						EClass referenceClass = database.getEClassForCid(cid);
+						referencedObject = readReference(originalQueryClass, reader, cid, model, idEObject, feature, referenceClass, query, todoList);
+					}
+					if (referencedObject != null) {
+						if (!feature.getEType().isInstance(referencedObject)) {
+							throw new BimserverDatabaseException(referencedObject.getClass().getSimpleName() + " cannot be stored in list of "
+									+ feature.getName());
 						}
-						if (referencedObject != null) {
-							if (!feature.getEType().isInstance(referencedObject)) {
-								throw new BimserverDatabaseException(referencedObject.getClass().getSimpleName() + " cannot be stored in list of "
-										+ feature.getName());
-							}
-							if (feature.isUnique()) {
-								list.add(referencedObject);
-							} else {
-								list.addUnique(referencedObject);
-							}
+						if (feature.isUnique()) {
+							list.add(referencedObject);
+						} else {
+							list.addUnique(referencedObject);
 						}
 					}
 				}
 			}
 		} else if (feature.getEType() instanceof EDataType) {
-			int listSize = buffer.getInt();
+			int listSize = reader.readSize();
 			BasicEList<Object> list = new BasicEList<Object>(listSize);
 			for (int i = 0; i < listSize; i++) {
-				Object reference = readPrimitiveValue(feature.getEType(), buffer, query);
+				Object reference = readPrimitiveValue(feature.getEType(), reader, query);
 				if (reference != null) {
 					list.addUnique(reference);
 				}
@@ -462,12 +714,9 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		return false;
 	}
 	
-	private ByteBuffer convertObjectToByteArray(IdEObject object, ByteBuffer buffer, PackageMetaData packageMetaData) throws BimserverDatabaseException {
+	private ByteBuffer convertObjectToByteArray(IdEObject object, PackageMetaData packageMetaData, Map<String, List<Record>> wrappedRecords) throws BimserverDatabaseException {
 		int bufferSize = getExactSize(object);
-		if (bufferSize > buffer.capacity()) {
-			LOGGER.debug("Buffer too small (" + bufferSize + ")");
-			buffer = ByteBuffer.allocate(bufferSize);
-		}
+		ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
 		byte[] unsetted = new byte[(int) Math.ceil(object.eClass().getEAllStructuralFeatures().size() / 8.0)];
 		int fieldCounter = 0;
 		for (EStructuralFeature feature : object.eClass().getEAllStructuralFeatures()) {
@@ -487,7 +736,7 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		for (EStructuralFeature feature : object.eClass().getEAllStructuralFeatures()) {
 			if (!useUnsetBit(feature, object)) {
 				if (feature.isMany()) {
-					writeList(object, buffer, packageMetaData, feature);
+					writeList(object, buffer, packageMetaData, feature, wrappedRecords);
 				} else {
 					Object value = object.eGet(feature);
 					if (feature.getEType() instanceof EEnum) {
@@ -510,7 +759,7 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 							IdEObject referencedObject = (IdEObject) value;
 							EClass referencedClass = referencedObject.eClass();
 							if (referencedClass.getEAnnotation("wrapped") != null) {
-								writeWrappedValue(object.getPid(), object.getRid(), value, buffer, packageMetaData);
+								writeWrappedValue(object.getPid(), object.getRid(), value, buffer, packageMetaData, wrappedRecords);
 							} else {
 								writeReference(object, value, buffer, feature);
 							}
@@ -527,7 +776,7 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		return buffer;
 	}
 
-	private void writeList(IdEObject object, ByteBuffer buffer, PackageMetaData packageMetaData, EStructuralFeature feature) throws BimserverDatabaseException {
+	private void writeList(IdEObject object, ByteBuffer buffer, PackageMetaData packageMetaData, EStructuralFeature feature, Map<String, List<Record>> wrappedRecords) throws BimserverDatabaseException {
 		if (feature.getEType() instanceof EEnum) {
 			// Aggregate relations to enums never occur... at this
 			// moment
@@ -540,10 +789,10 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 				} else {
 					IdEObject listObject = (IdEObject) o;
 					if (listObject.eClass().getEAnnotation("wrapped") != null || listObject.eClass().getEStructuralFeature("wrappedValue") != null) {
-						writeWrappedValue(object.getPid(), object.getRid(), listObject, buffer, packageMetaData);
+						writeWrappedValue(object.getPid(), object.getRid(), listObject, buffer, packageMetaData, wrappedRecords);
 					} else if (feature.getEAnnotation("twodimensionalarray") != null) {
 						EStructuralFeature lf = listObject.eClass().getEStructuralFeature("List");
-						writeList(listObject, buffer, packageMetaData, lf);
+						writeList(listObject, buffer, packageMetaData, lf, wrappedRecords);
 					} else {
 						writeReference(object, listObject, buffer, feature);
 					}
@@ -595,6 +844,7 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 
 	public void delete(IdEObject object, Integer newRid) throws BimserverDatabaseException {
 		checkOpen();
+		checkWritable();
 		// if (perRecordVersioning(object)) {
 		objectsToDelete.put(object.eClass(), object.getPid(), newRid, object.getOid());
 		if (objectsToCommit.containsObject(object)) {
@@ -623,7 +873,7 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		for (int i = 0; i < retries; i++) {
 			try {
 				T result = action.execute();
-				if (objectsToCommit.size() > 0 || objectsToDelete.size() > 0) {
+				if (!readOnly && (objectsToCommit.size() > 0 || objectsToDelete.size() > 0)) {
 					commit(progressHandler);
 				}
 				return result;
@@ -742,6 +992,12 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		}
 	}
 
+	private void checkWritable() throws BimserverDatabaseException {
+		if (readOnly) {
+			throw new BimserverDatabaseException("Database session is read-only");
+		}
+	}
+
 	public <T extends IdEObject> T get(IdEObject idEObject, long oid, IfcModelInterface model, QueryInterface query) throws BimserverDatabaseException {
 		checkOpen();
 		TodoList todoList = new TodoList();
@@ -756,7 +1012,7 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		if (oid == -1) {
 			throw new BimserverDatabaseException("Cannot get object for oid " + oid);
 		}
-		if (objectsToCommit.containsOid(oid)) {
+		if (!readOnly && objectsToCommit.containsOid(oid)) {
 			return (T) objectsToCommit.getByOid(oid);
 		}
 		EClass eClass = getEClassForOid(oid);
@@ -850,6 +1106,48 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		return model;
 	}
 
+	/**
+	 * Adds the objects of the given classes that match the given condition to the model, using a secondary index when there is one for the condition.
+	 * Objects are read into a separate model first, so objects that do not match do not end up in the given model.
+	 *
+	 * @return The objects that match
+	 */
+	public List<IdEObject> getAllOfTypes(IfcModelInterface model, Set<EClass> eClasses, Condition condition, QueryInterface query) throws BimserverDatabaseException {
+		checkOpen();
+		IfcModelInterface readModel = createModel(query);
+		List<IdEObject> read = new ArrayList<IdEObject>();
+		Set<Long> candidates = database.getSecondaryIndexes().find(eClasses, condition, query.getPid(), this);
+		if (candidates != null) {
+			for (Long oid : candidates) {
+				if (eClasses.contains(getEClassForOid(oid))) {
+					IdEObject object = get(null, oid, readModel, query);
+					if (object != null && isVisible(object, query)) {
+						read.add(object);
+					}
+				}
+			}
+		} else {
+			getAllOfTypes(readModel, eClasses, query);
+			for (EClass eClass : eClasses) {
+				read.addAll(readModel.getAll(eClass));
+			}
+		}
+		List<IdEObject> result = new ArrayList<IdEObject>();
+		try {
+			for (IdEObject object : read) {
+				if (condition.matches(object)) {
+					if (!model.contains(object.getOid())) {
+						model.addAllowMultiModel(object.getOid(), object);
+					}
+					result.add(object);
+				}
+			}
+		} catch (IfcModelInterfaceException e) {
+			throw new BimserverDatabaseException(e);
+		}
+		return result;
+	}
+
 	public IfcModelInterface getAllOfType(String packageName, String className, QueryInterface query) throws BimserverDatabaseException {
 		checkOpen();
 		return getAllOfType(getEClass(packageName, className), query);
@@ -964,6 +1262,10 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		} finally {
 			scanner.close();
 		}
+		database.getGeometryDataStore().addDatabaseInformation(databaseInformation);
+		database.getRevisionIndex().addDatabaseInformation(databaseInformation);
+		database.getSecondaryIndexes().addDatabaseInformation(databaseInformation);
+		database.getRecordCodec().addDatabaseInformation(databaseInformation);
 		databaseInformation.setLocation(database.getKeyValueStore().getLocation());
 		return databaseInformation;
 	}
@@ -1064,23 +1366,81 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		return GetResult.STOP;
 	}
 
-	public void getMap(EClass eClass, IfcModelInterface ifcModel, QueryInterface query, TodoList todoList) throws BimserverDatabaseException {
-		checkOpen();
-		SearchingRecordIterator recordIterator = null;
+	/*
+	 * Returns null when the query does not contain any objects of the given class
+	 */
+	private SearchingRecordIterator getRecordIterator(EClass eClass, QueryInterface query) throws BimserverDatabaseException {
 		String tableName = eClass.getEPackage().getName() + "_" + eClass.getName();
 		if (query.getOidCounters() != null) {
 			if (!query.getOidCounters().containsKey(eClass)) {
-				return;
+				return null;
 			}
 			long startOid = query.getOidCounters().get(eClass);
 			ByteBuffer tmp = ByteBuffer.allocate(12);
 			tmp.putInt(query.getPid());
 			tmp.putLong(startOid + 1);
-			recordIterator = database.getKeyValueStore().getRecordIterator(tableName, BinUtils.intToByteArray(query.getPid()), tmp.array(), this);
+			return database.getKeyValueStore().getRecordIterator(tableName, BinUtils.intToByteArray(query.getPid()), tmp.array(), this);
 		} else {
 //			LOGGER.warn("Potential too-many-reads");
-			recordIterator = database.getKeyValueStore().getRecordIterator(tableName, BinUtils.intToByteArray(query.getPid()), BinUtils.intToByteArray(query.getPid()), this);
+			return database.getKeyValueStore().getRecordIterator(tableName, BinUtils.intToByteArray(query.getPid()), BinUtils.intToByteArray(query.getPid()), this);
+		}
+	}
+
+	/*
+	 * Returns null when the revision of the query has not been indexed for the given class, the records are scanned in that case
+	 */
+	private RevisionIndex.Entries getRevisionIndexEntries(EClass eClass, QueryInterface query) throws BimserverDatabaseException {
+		if (query.getOidCounters() == null || !query.getOidCounters().containsKey(eClass)) {
+			return null;
+		}
+		return database.getRevisionIndex().get(query.getPid(), query.getRid(), query.getStopRid(), eClass, query.getOidCounters().get(eClass), this);
+	}
+
+	/*
+	 * Reads the records of the index entries from start (inclusive) to end (exclusive) with one bulk lookup, the entries are sorted by oid so the table is read in key order
+	 */
+	private List<Record> getIndexedRecords(EClass eClass, QueryInterface query, RevisionIndex.Entries entries, int start, int end) throws BimserverDatabaseException {
+		String tableName = eClass.getEPackage().getName() + "_" + eClass.getName();
+		List<byte[]> keys = new ArrayList<byte[]>(end - start);
+		for (int i = start; i < end; i++) {
+			keys.add(createKeyBuffer(query.getPid(), entries.getOid(i), entries.getRid(i)).array());
+		}
+		List<byte[]> values = database.getKeyValueStore().get(tableName, keys, this);
+		List<Record> records = new ArrayList<Record>(keys.size());
+		for (int i = 0; i < keys.size(); i++) {
+			if (values.get(i) != null) {
+				records.add(new ByteArrayRecord(keys.get(i), values.get(i)));
+			}
+		}
+		database.getRevisionIndex().incrementIndexedReads(keys.size());
+		return records;
+	}
+
+	public void getMap(EClass eClass, IfcModelInterface ifcModel, QueryInterface query, TodoList todoList) throws BimserverDatabaseException {
+		checkOpen();
+		if (query.getOidCounters() != null && !query.getOidCounters().containsKey(eClass)) {
+			return;
 		}
+		RevisionIndex.Entries entries = getRevisionIndexEntries(eClass, query);
+		if (entries != null) {
+			for (int start = 0; start < entries.size(); start += SCAN_CHUNK_SIZE) {
+				if (Thread.currentThread().isInterrupted()) {
+					throw new BimserverThreadInterruptedException("Thread interrupted");
+				}
+				List<Record> records = getIndexedRecords(eClass, query, entries, start, Math.min(entries.size(), start + SCAN_CHUNK_SIZE));
+				reads += records.size();
+				for (Record record : records) {
+					ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+					int keyPid = keyBuffer.getInt();
+					long keyOid = keyBuffer.getLong();
+					int keyRid = -keyBuffer.getInt();
+					getMap(eClass, eClass, ifcModel, ByteBuffer.wrap(record.getValue()), keyPid, keyOid, keyRid, query, todoList);
+				}
+			}
+			return;
+		}
+		long readsBefore = reads;
+		SearchingRecordIterator recordIterator = getRecordIterator(eClass, query);
 		try {
 			Record record = recordIterator.next();
 			ByteBuffer nextKeyStart = ByteBuffer.allocate(12);
@@ -1106,37 +1466,251 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 			}
 		} finally {
 			recordIterator.close();
+			database.getRevisionIndex().incrementScannedReads(reads - readsBefore);
 		}
 	}
 
 	public void getMap(IfcModelInterface ifcModel, QueryInterface query) throws BimserverDatabaseException {
 		checkOpen();
 		TodoList todoList = new TodoList();
+		Collection<EClass> candidates = null;
 		if (query.getOidCounters() != null) {
-			for (EClass eClass : query.getOidCounters().keySet()) {
+			candidates = query.getOidCounters().keySet();
+		} else {
+			LOGGER.info("Inefficient getMap");
+			candidates = database.getClasses();
+		}
+		List<EClass> eClasses = new ArrayList<EClass>();
+		for (EClass eClass : candidates) {
+			if (eClass.getEAnnotation("nolazyload") == null && eClass.getEAnnotation("nodatabase") == null) {
+				if (query.shouldIncludeClass(eClass)) {
+					eClasses.add(eClass);
+				}
+			}
+		}
+		int nrThreads = Math.min(database.getDatabaseScanThreads(), eClasses.size());
+		if (nrThreads > 1) {
+			getMapParallel(eClasses, ifcModel, query, todoList, nrThreads);
+		} else {
+			for (EClass eClass : eClasses) {
 				if (Thread.currentThread().isInterrupted()) {
 					throw new BimserverDatabaseException("Thread interrupted");
 				}
-				if (eClass.getEAnnotation("nolazyload") == null && eClass.getEAnnotation("nodatabase") == null) {
-					if (query.shouldIncludeClass(eClass)) {
-						getMap(eClass, ifcModel, query, todoList);
+				getMap(eClass, ifcModel, query, todoList);
+			}
+		}
+		processTodoList(ifcModel, todoList, query);
+	}
+
+	/*
+	 * The tables of the given classes are scanned by nrThreads TableScanners, each with its own cursor. The scanners only do the (pid, oid, rid) filtering,
+	 * the visible records are handed back in chunks and converted to objects on this thread, because the object cache, the model and the lazy loading of
+	 * objects are not thread safe. Chunks of one class always arrive in key order, so the results are the same as those of the sequential scan.
+	 */
+	private void getMapParallel(List<EClass> eClasses, IfcModelInterface ifcModel, QueryInterface query, TodoList todoList, int nrThreads) throws BimserverDatabaseException {
+		Queue<EClass> remaining = new ConcurrentLinkedQueue<EClass>(eClasses);
+		BlockingQueue<ScannedRecords> scanned = new ArrayBlockingQueue<ScannedRecords>(nrThreads * 4);
+		AtomicBoolean aborted = new AtomicBoolean();
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int i = 0; i < nrThreads; i++) {
+			futures.add(database.getScanExecutor().submit(new TableScanner(remaining, scanned, aborted, query)));
+		}
+		try {
+			Set<EClass> stopped = new HashSet<EClass>();
+			int running = nrThreads;
+			while (running > 0) {
+				if (Thread.currentThread().isInterrupted()) {
+					throw new BimserverThreadInterruptedException("Thread interrupted");
+				}
+				ScannedRecords scannedRecords = null;
+				try {
+					scannedRecords = scanned.poll(100, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					throw new BimserverThreadInterruptedException("Thread interrupted");
+				}
+				if (scannedRecords == null) {
+					continue;
+				}
+				reads += scannedRecords.getReads();
+				if (scannedRecords.isLast()) {
+					running--;
+					Throwable error = scannedRecords.getError();
+					if (error instanceof BimserverDatabaseException) {
+						throw (BimserverDatabaseException) error;
+					} else if (error instanceof RuntimeException) {
+						throw (RuntimeException) error;
+					} else if (error != null) {
+						throw new BimserverDatabaseException(error);
+					}
+					continue;
+				}
+				EClass eClass = scannedRecords.getEClass();
+				if (stopped.contains(eClass)) {
+					continue;
+				}
+				checkOpen();
+				for (Record record : scannedRecords.getRecords()) {
+					ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+					int keyPid = keyBuffer.getInt();
+					long keyOid = keyBuffer.getLong();
+					int keyRid = -keyBuffer.getInt();
+					if (getMap(eClass, eClass, ifcModel, ByteBuffer.wrap(record.getValue()), keyPid, keyOid, keyRid, query, todoList) == GetResult.STOP) {
+						stopped.add(eClass);
+						break;
 					}
 				}
 			}
-		} else {
-			LOGGER.info("Inefficient getMap");
-			for (EClass eClass : database.getClasses()) {
-				if (Thread.currentThread().isInterrupted()) {
-					throw new BimserverDatabaseException("Thread interrupted");
+		} finally {
+			// Make sure no cursors of this session are in use anymore when returning
+			aborted.set(true);
+			for (Future<?> future : futures) {
+				try {
+					Uninterruptibles.getUninterruptibly(future);
+				} catch (ExecutionException e) {
+					LOGGER.error("", e);
 				}
-				if (eClass.getEAnnotation("nolazyload") == null && eClass.getEAnnotation("nodatabase") == null) {
-					if (query.shouldIncludeClass(eClass)) {
-						getMap(eClass, ifcModel, query, todoList);
+			}
+		}
+	}
+
+	private static class ScannedRecords {
+		private final EClass eClass;
+		private final List<Record> records;
+		private final long reads;
+		private final Throwable error;
+		private final boolean last;
+
+		private ScannedRecords(EClass eClass, List<Record> records, long reads, Throwable error, boolean last) {
+			this.eClass = eClass;
+			this.records = records;
+			this.reads = reads;
+			this.error = error;
+			this.last = last;
+		}
+
+		public EClass getEClass() {
+			return eClass;
+		}
+
+		public List<Record> getRecords() {
+			return records;
+		}
+
+		public long getReads() {
+			return reads;
+		}
+
+		public Throwable getError() {
+			return error;
+		}
+
+		public boolean isLast() {
+			return last;
+		}
+	}
+
+	/*
+	 * Takes classes from the shared queue until it is empty, and hands back the records that are visible for the query (at most one per oid, the same ones
+	 * the sequential scan would convert). The last ScannedRecords of a scanner is always marked as last, and carries the error if the scan failed.
+	 */
+	private class TableScanner implements Runnable {
+		private final Queue<EClass> remaining;
+		private final BlockingQueue<ScannedRecords> scanned;
+		private final AtomicBoolean aborted;
+		private final QueryInterface query;
+		private long reads;
+
+		public TableScanner(Queue<EClass> remaining, BlockingQueue<ScannedRecords> scanned, AtomicBoolean aborted, QueryInterface query) {
+			this.remaining = remaining;
+			this.scanned = scanned;
+			this.aborted = aborted;
+			this.query = query;
+		}
+
+		@Override
+		public void run() {
+			Throwable error = null;
+			try {
+				EClass eClass = remaining.poll();
+				while (eClass != null && !aborted.get()) {
+					scan(eClass);
+					eClass = remaining.poll();
+				}
+			} catch (Throwable e) {
+				error = e;
+			}
+			try {
+				hand(new ScannedRecords(null, null, reads, error, true));
+			} catch (InterruptedException e) {
+				// Executor is shutting down
+			}
+		}
+
+		private void scan(EClass eClass) throws BimserverDatabaseException, InterruptedException {
+			if (query.getOidCounters() != null && !query.getOidCounters().containsKey(eClass)) {
+				return;
+			}
+			RevisionIndex.Entries entries = getRevisionIndexEntries(eClass, query);
+			if (entries != null) {
+				for (int start = 0; start < entries.size() && !aborted.get(); start += SCAN_CHUNK_SIZE) {
+					List<Record> records = getIndexedRecords(eClass, query, entries, start, Math.min(entries.size(), start + SCAN_CHUNK_SIZE));
+					reads += records.size();
+					hand(new ScannedRecords(eClass, records, reads, null, false));
+					reads = 0;
+				}
+				return;
+			}
+			long scannedReads = 0;
+			SearchingRecordIterator recordIterator = getRecordIterator(eClass, query);
+			try {
+				List<Record> records = new ArrayList<Record>();
+				Record record = recordIterator.next();
+				ByteBuffer nextKeyStart = ByteBuffer.allocate(12);
+				while (record != null && !aborted.get()) {
+					reads++;
+					scannedReads++;
+					ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+					int keyPid = keyBuffer.getInt();
+					long keyOid = keyBuffer.getLong();
+					int keyRid = -keyBuffer.getInt();
+					if (keyPid != query.getPid()) {
+						break;
 					}
+					if (keyRid <= query.getRid() && keyRid >= query.getStopRid()) {
+						records.add(record);
+						if (records.size() == SCAN_CHUNK_SIZE) {
+							hand(new ScannedRecords(eClass, records, reads, null, false));
+							records = new ArrayList<Record>();
+							reads = 0;
+						}
+						nextKeyStart.position(0);
+						nextKeyStart.putInt(query.getPid());
+						nextKeyStart.putLong(keyOid + 1);
+						record = recordIterator.next(nextKeyStart.array());
+					} else {
+						record = recordIterator.next();
+					}
+				}
+				if (!records.isEmpty()) {
+					hand(new ScannedRecords(eClass, records, reads, null, false));
+					reads = 0;
+				}
+			} finally {
+				recordIterator.close();
+				database.getRevisionIndex().incrementScannedReads(scannedReads);
+			}
+		}
+
+		/*
+		 * Waits for room in the queue, so a slow consumer limits the amount of records in memory, gives up when the scan has been aborted
+		 */
+		private void hand(ScannedRecords scannedRecords) throws InterruptedException {
+			while (!aborted.get()) {
+				if (scanned.offer(scannedRecords, 100, TimeUnit.MILLISECONDS)) {
+					return;
 				}
 			}
 		}
-		processTodoList(ifcModel, todoList, query);
 	}
 
 	public IfcModelInterface getMapWithOid(QueryInterface query, short cid, long oid, IfcModelInterface model) throws BimserverDatabaseException {
@@ -1218,38 +1792,59 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		return query(condition, clazz, query).size();
 	}
 
-	public ObjectIdentifier getOidOfGuid(String schema, String guid, int pid, int rid) throws BimserverDatabaseException {
-		for (EClass eClass : getMetaDataManager().getPackageMetaData(schema).getAllSubClasses(getMetaDataManager().getPackageMetaData(schema).getEClass("IfcRoot"))) {
-			RecordIterator recordIterator = database.getKeyValueStore().getRecordIterator(eClass.getEPackage().getName() + "_" + eClass.getName(), BinUtils.intToByteArray(pid),
-					BinUtils.intToByteArray(pid), this);
+	/*
+	 * Reads the objects of a revision like a download does, so also the objects that have not changed since an older revision
+	 */
+	private Query createRevisionQuery(ConcreteRevision concreteRevision) {
+		Project project = concreteRevision.getProject();
+		Query query = new Query(getMetaDataManager().getPackageMetaData(project.getSchema()), project.getId(), concreteRevision.getId(), -1, null, Deep.NO,
+				AbstractDownloadDatabaseAction.findHighestStopRid(project, concreteRevision));
+		query.updateOidCounters(concreteRevision, this);
+		return query;
+	}
+
+	public ObjectIdentifier getOidOfGuid(ConcreteRevision concreteRevision, String guid) throws BimserverDatabaseException {
+		Query query = createRevisionQuery(concreteRevision);
+		EClass ifcRoot = query.getPackageMetaData().getEClass("IfcRoot");
+		Set<EClass> eClasses = query.getPackageMetaData().getAllSubClasses(ifcRoot);
+		Set<Long> candidates = database.getSecondaryIndexes().find(eClasses, ifcRoot.getEStructuralFeature("GlobalId"), guid, query.getPid(), this);
+		if (candidates != null) {
+			for (Long oid : candidates) {
+				EClass eClass = getEClassForOid(oid);
+				ByteBuffer value = getVisibleRecord(eClass, oid, query);
+				if (value != null && guid.equals(readGuid(value))) {
+					return new ObjectIdentifier(oid, getCid(eClass));
+				}
+			}
+			return null;
+		}
+		for (EClass eClass : eClasses) {
+			SearchingRecordIterator recordIterator = getRecordIterator(eClass, query);
+			if (recordIterator == null) {
+				continue;
+			}
 			try {
+				ByteBuffer nextKeyStart = ByteBuffer.allocate(12);
 				Record record = recordIterator.next();
 				while (record != null) {
 					reads++;
-					ByteBuffer buffer = ByteBuffer.wrap(record.getKey());
-					int pidOfRecord = buffer.getInt();
-					long oid = buffer.getLong();
-					int ridOfRecord = -buffer.getInt();
-					if (ridOfRecord == rid && pid == pidOfRecord) {
-						ByteBuffer value = ByteBuffer.wrap(record.getValue());
-
-						// Skip the unsettable part
-						byte unsettablesSize = value.get();
-						value.position(value.position() + unsettablesSize);
-
-						if (value.capacity() > 1) {
-							int stringLength = value.getInt();
-							if (stringLength == -1) {
-								return null;
-							} else {
-								String s = BinUtils.readString(value, stringLength);
-								if (s.equals(guid)) {
-									return new ObjectIdentifier(oid, getCid(eClass));
-								}
-							}
+					ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+					keyBuffer.getInt(); // pid
+					long oid = keyBuffer.getLong();
+					int keyRid = -keyBuffer.getInt();
+					if (keyRid > query.getRid()) {
+						record = recordIterator.next();
+					} else {
+						// The newest record up to the rid of the query is the one of the revision, the older records of this oid are skipped
+						ByteBuffer value = decodeVisibleRecord(eClass, record.getValue(), keyRid, query);
+						if (value != null && guid.equals(readGuid(value))) {
+							return new ObjectIdentifier(oid, getCid(eClass));
 						}
+						nextKeyStart.position(0);
+						nextKeyStart.putInt(query.getPid());
+						nextKeyStart.putLong(oid + 1);
+						record = recordIterator.next(nextKeyStart.array());
 					}
-					record = recordIterator.next();
 				}
 			} finally {
 				recordIterator.close();
@@ -1258,46 +1853,48 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		return null;
 	}
 
-	public Set<ObjectIdentifier> getOidsOfName(String schema, String name, int pid, int rid) throws BimserverDatabaseException, MetaDataException {
+	public Set<ObjectIdentifier> getOidsOfName(ConcreteRevision concreteRevision, String name) throws BimserverDatabaseException, MetaDataException {
 		Set<ObjectIdentifier> result = new HashSet<ObjectIdentifier>();
-		for (EClass eClass : getMetaDataManager().getPackageMetaData(schema).getAllSubClasses(getMetaDataManager().getPackageMetaData(schema).getEClass("IfcRoot"))) {
-			RecordIterator recordIterator = database.getKeyValueStore().getRecordIterator(eClass.getEPackage().getName() + "_" + eClass.getName(), BinUtils.intToByteArray(pid),
-					BinUtils.intToByteArray(pid), this);
+		Query query = createRevisionQuery(concreteRevision);
+		EClass ifcRoot = query.getPackageMetaData().getEClass("IfcRoot");
+		Set<EClass> eClasses = query.getPackageMetaData().getAllSubClasses(ifcRoot);
+		Set<Long> candidates = database.getSecondaryIndexes().find(eClasses, ifcRoot.getEStructuralFeature("Name"), name, query.getPid(), this);
+		if (candidates != null) {
+			for (Long oid : candidates) {
+				EClass eClass = getEClassForOid(oid);
+				ByteBuffer value = getVisibleRecord(eClass, oid, query);
+				if (value != null && readGuid(value) != null && name.equals(readName(value))) {
+					result.add(new ObjectIdentifier(oid, getCid(eClass)));
+				}
+			}
+			return result;
+		}
+		for (EClass eClass : eClasses) {
+			SearchingRecordIterator recordIterator = getRecordIterator(eClass, query);
+			if (recordIterator == null) {
+				continue;
+			}
 			try {
+				ByteBuffer nextKeyStart = ByteBuffer.allocate(12);
 				Record record = recordIterator.next();
 				while (record != null) {
 					reads++;
-					ByteBuffer buffer = ByteBuffer.wrap(record.getKey());
-					int pidOfRecord = buffer.getInt();
-					long oid = buffer.getLong();
-					int ridOfRecord = -buffer.getInt();
-					if (ridOfRecord == rid && pid == pidOfRecord) {
-						ByteBuffer value = ByteBuffer.wrap(record.getValue());
-
-						// Skip the unsettable part
-						byte unsettablesSize = value.get();
-						value.position(value.position() + unsettablesSize);
-
-						if (value.capacity() > 1) {
-							int stringLength = value.getInt();
-							if (stringLength == -1) {
-								return null;
-							} else {
-								BinUtils.readString(value, stringLength); // GUID
-								if (value.getShort() != -1) { // CID of OwnerHistory
-									value.getLong(); // OID of OwnerHistory
-								}
-								stringLength = value.getInt();
-								if (stringLength != -1) {
-									String foundName = BinUtils.readString(value, stringLength);
-									if (name.equals(foundName)) {
-										result.add(new ObjectIdentifier(oid, getCid(eClass)));
-									}
-								}
-							}
+					ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+					keyBuffer.getInt(); // pid
+					long oid = keyBuffer.getLong();
+					int keyRid = -keyBuffer.getInt();
+					if (keyRid > query.getRid()) {
+						record = recordIterator.next();
+					} else {
+						ByteBuffer value = decodeVisibleRecord(eClass, record.getValue(), keyRid, query);
+						if (value != null && readGuid(value) != null && name.equals(readName(value))) {
+							result.add(new ObjectIdentifier(oid, getCid(eClass)));
 						}
+						nextKeyStart.position(0);
+						nextKeyStart.putInt(query.getPid());
+						nextKeyStart.putLong(oid + 1);
+						record = recordIterator.next(nextKeyStart.array());
 					}
-					record = recordIterator.next();
 				}
 			} finally {
 				recordIterator.close();
@@ -1306,6 +1903,69 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		return result;
 	}
 
+	/*
+	 * The record of the object as a scan of its class for the given query (getMap) would read it, null when the object is not part of the revision
+	 */
+	private ByteBuffer getVisibleRecord(EClass eClass, long oid, QueryInterface query) throws BimserverDatabaseException {
+		if (query.getOidCounters() != null) {
+			Long startOid = query.getOidCounters().get(eClass);
+			if (startOid == null || oid <= startOid) {
+				return null;
+			}
+		}
+		SearchingRecordIterator recordIterator = database.getKeyValueStore().getRecordIterator(eClass.getEPackage().getName() + "_" + eClass.getName(),
+				createKeyBuffer(query.getPid(), oid).array(), createKeyBuffer(query.getPid(), oid, query.getRid()).array(), this);
+		try {
+			Record record = recordIterator.next();
+			if (record == null) {
+				return null;
+			}
+			reads++;
+			ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+			keyBuffer.getInt(); // pid
+			keyBuffer.getLong(); // oid
+			int keyRid = -keyBuffer.getInt();
+			if (keyRid > query.getRid()) {
+				return null;
+			}
+			return decodeVisibleRecord(eClass, record.getValue(), keyRid, query);
+		} finally {
+			recordIterator.close();
+		}
+	}
+
+	/*
+	 * Null for records before the stop rid of the query and for deleted objects
+	 */
+	private ByteBuffer decodeVisibleRecord(EClass eClass, byte[] value, int keyRid, QueryInterface query) throws BimserverDatabaseException {
+		if (keyRid < query.getStopRid() || value.length <= 1) {
+			return null;
+		}
+		return database.getRecordCodec().decode(ByteBuffer.wrap(value), eClass);
+	}
+
+	/*
+	 * Reads the GlobalId of an IfcRoot record, IfcRoot starts with GlobalId, OwnerHistory and Name
+	 */
+	private String readGuid(ByteBuffer value) {
+		// Skip the unsettable part
+		byte unsettablesSize = value.get();
+		value.position(value.position() + unsettablesSize);
+		int stringLength = value.getInt();
+		return stringLength == -1 ? null : BinUtils.readString(value, stringLength);
+	}
+
+	/*
+	 * Reads the Name of an IfcRoot record, the GlobalId has to be read first
+	 */
+	private String readName(ByteBuffer value) {
+		if (value.getShort() != -1) { // CID of OwnerHistory
+			value.getLong(); // OID of OwnerHistory
+		}
+		int stringLength = value.getInt();
+		return stringLength == -1 ? null : BinUtils.readString(value, stringLength);
+	}
+
 	private int getPrimitiveSize(EDataType eDataType, Object val) {
 		if (eDataType == EcorePackage.eINSTANCE.getEInt() || eDataType == EcorePackage.eINSTANCE.getEIntegerObject()) {
 			return 4;
@@ -1438,6 +2098,17 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		Map<Long, T> map = new HashMap<Long, T>();
 		Set<EClass> eClasses = new HashSet<EClass>();
 		condition.getEClassRequirements(eClasses);
+		Set<Long> candidates = database.getSecondaryIndexes().find(eClasses, condition, query.getPid(), this);
+		if (candidates != null) {
+			// The index can return objects that do not match (anymore) or are not part of this query, so everything is checked again
+			for (Long oid : candidates) {
+				IdEObject object = get(null, oid, model, query);
+				if (object != null && isVisible(object, query) && clazz.isInstance(object) && condition.matches(object)) {
+					map.put(oid, clazz.cast(object));
+				}
+			}
+			return map;
+		}
 		for (EClass eClass : eClasses) {
 			TodoList todoList = new TodoList();
 			getMap(eClass, model, query, todoList);
@@ -1454,6 +2125,20 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		return map;
 	}
 
+	/**
+	 * @return Whether the given object would have been read by a scan of its class for the given query (getMap)
+	 */
+	public boolean isVisible(IdEObject object, QueryInterface query) {
+		if (object.getRid() < query.getStopRid()) {
+			return false;
+		}
+		if (query.getOidCounters() != null) {
+			Long startOid = query.getOidCounters().get(object.eClass());
+			return startOid != null && object.getOid() > startOid;
+		}
+		return true;
+	}
+
 	public <T extends IdEObject> T querySingle(Condition condition, Class<T> clazz, QueryInterface query) throws BimserverDatabaseException {
 		checkOpen();
 		Collection<T> values = query(condition, clazz, query).values();
@@ -1464,40 +2149,41 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 	}
 
 	public Object readPrimitiveValue(EClassifier classifier, ByteBuffer buffer, QueryInterface query) {
+		return readPrimitiveValue(classifier, RecordCodec.legacyReader(buffer), query);
+	}
+
+	private Object readPrimitiveValue(EClassifier classifier, RecordCodec.Reader reader, QueryInterface query) {
 		if (classifier == EcorePackage.eINSTANCE.getEString()) {
-			int length = buffer.getInt();
-			if (length != -1) {
-				return BinUtils.readString(buffer, length);
+			byte[] value = reader.readString();
+			if (value != null) {
+				return new String(value, Charsets.UTF_8);
 			} else {
 				return null;
 			}
 		} else if (classifier == EcorePackage.eINSTANCE.getEInt() || classifier == EcorePackage.eINSTANCE.getEIntegerObject()) {
-			return buffer.getInt();
+			return reader.readInt();
 		} else if (classifier == EcorePackage.eINSTANCE.getELong() || classifier == EcorePackage.eINSTANCE.getELongObject()) {
-			return buffer.getLong();
+			return reader.readLong();
 		} else if (classifier == EcorePackage.eINSTANCE.getEFloat() || classifier == EcorePackage.eINSTANCE.getEFloatObject()) {
-			return buffer.getFloat();
+			return Float.intBitsToFloat(reader.readFloat());
 		} else if (classifier == EcorePackage.eINSTANCE.getEDouble() || classifier == EcorePackage.eINSTANCE.getEDoubleObject()) {
-			return buffer.getDouble();
+			return Double.longBitsToDouble(reader.readDouble());
 		} else if (classifier == EcorePackage.eINSTANCE.getEBoolean() || classifier == EcorePackage.eINSTANCE.getEBooleanObject()) {
-			return buffer.get() == 1;
+			return reader.readRaw() == 1;
 		} else if (classifier == EcorePackage.eINSTANCE.getEDate()) {
-			long val = buffer.getLong();
+			long val = reader.readLong();
 			if (val == -1L) {
 				return null;
 			}
 			return new Date(val);
 		} else if (classifier == EcorePackage.eINSTANCE.getEByteArray()) {
-			int size = buffer.getInt();
-			byte[] result = new byte[size];
-			buffer.get(result);
-			return result;
+			return reader.readBytes();
 		} else if (classifier.getName().equals("Tristate")) {
-			int ordinal = buffer.getInt();
+			int ordinal = reader.readInt();
 			EEnum tristateEnum = query.getPackageMetaData().getEEnum("Tristate");
 			return tristateEnum.getEEnumLiteral(ordinal).getInstance();
 		} else if (classifier instanceof EEnum) {
-			int ordinal = buffer.getInt();
+			int ordinal = reader.readInt();
 			EEnum eEnum = (EEnum) classifier;
 			return eEnum.getEEnumLiteral(ordinal).getInstance();
 		} else {
@@ -1550,89 +2236,79 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 	}
 	
 	public void fakeRead(ByteBuffer buffer, EStructuralFeature feature) throws BimserverDatabaseException {
-		boolean wrappedValue = feature.getEType().getEAnnotation("wrapped") != null;
+		fakeRead(RecordCodec.legacyReader(buffer), feature);
+	}
+
+	/*
+	 * Skips a value, compact records have no fixed width fields so every value is read. References are told apart by their cid
+	 * like readReference does, a negative cid is a wrapped value of that class
+	 */
+	private void fakeRead(RecordCodec.Reader reader, EStructuralFeature feature) throws BimserverDatabaseException {
 		if (feature.isMany()) {
 			if (feature.getEType() instanceof EEnum) {
 			} else if (feature.getEType() instanceof EClass) {
-				if (buffer.capacity() == 1 && buffer.get(0) == -1) {
-					buffer.position(buffer.position() + 1);
-				} else {
-					int listSize = buffer.getInt();
-					for (int i = 0; i < listSize; i++) {
-						short cid = buffer.getShort();
-						if (cid != -1) {
-							if (wrappedValue) {
-								EClass eClass = (EClass) feature.getEType();
-								fakePrimitiveRead(eClass.getEStructuralFeature("wrappedValue").getEType(), buffer);
-							} else {
-								buffer.position(buffer.position() + 8);
-							}
-						}
+				int listSize = reader.readSize();
+				for (int i = 0; i < listSize; i++) {
+					if (feature.getEAnnotation("twodimensionalarray") != null) {
+						fakeRead(reader, ((EClass) feature.getEType()).getEStructuralFeature("List"));
+					} else {
+						fakeReferenceRead(reader);
 					}
 				}
 			} else if (feature.getEType() instanceof EDataType) {
-				int listSize = buffer.getInt();
+				int listSize = reader.readSize();
 				for (int i = 0; i < listSize; i++) {
-					fakePrimitiveRead(feature.getEType(), buffer);
+					fakePrimitiveRead(feature.getEType(), reader);
 				}
 			}
 		} else {
 			if (feature.getEType() instanceof EEnum) {
-				buffer.position(buffer.position() + 4);
+				reader.readInt();
 			} else if (feature.getEType() instanceof EClass) {
-				if (buffer.capacity() == 1 && buffer.get(0) == -1) {
-					buffer.position(buffer.position() + 1);
-				} else {
-					short cid = buffer.getShort();
-					if (wrappedValue) {
-						fakePrimitiveRead(feature.getEType(), buffer);
-					} else {
-						if (cid != -1) {
-							buffer.position(buffer.position() + 8);
-						}
-					}
-				}
+				fakeReferenceRead(reader);
 			} else if (feature.getEType() instanceof EDataType) {
-				fakePrimitiveRead(feature.getEType(), buffer);
+				fakePrimitiveRead(feature.getEType(), reader);
 			}
 		}
 	}
 
-	private void fakePrimitiveRead(EClassifier classifier, ByteBuffer buffer) throws BimserverDatabaseException {
+	private void fakeReferenceRead(RecordCodec.Reader reader) throws BimserverDatabaseException {
+		short cid = reader.readCid();
+		if (cid < -1) {
+			EClass eClass = database.getEClassForCid((short) (-cid));
+			fakePrimitiveRead(eClass.getEStructuralFeature("wrappedValue").getEType(), reader);
+		} else if (cid > 0) {
+			reader.readOid(cid);
+		}
+	}
+
+	private void fakePrimitiveRead(EClassifier classifier, RecordCodec.Reader reader) throws BimserverDatabaseException {
 		if (classifier == EcorePackage.eINSTANCE.getEString()) {
-			int length = buffer.getInt();
-			if (length != -1) {
-				buffer.position(buffer.position() + length);
-			}
+			reader.readString();
 		} else if (classifier == EcorePackage.eINSTANCE.getEInt() || classifier == EcorePackage.eINSTANCE.getEIntegerObject()) {
-			buffer.position(buffer.position() + 4);
+			reader.readInt();
 		} else if (classifier == EcorePackage.eINSTANCE.getELong() || classifier == EcorePackage.eINSTANCE.getELongObject()) {
-			buffer.position(buffer.position() + 8);
+			reader.readLong();
 		} else if (classifier == EcorePackage.eINSTANCE.getEFloat() || classifier == EcorePackage.eINSTANCE.getEFloatObject()) {
-			buffer.position(buffer.position() + 4);
+			reader.readFloat();
 		} else if (classifier == EcorePackage.eINSTANCE.getEDouble() || classifier == EcorePackage.eINSTANCE.getEDoubleObject()) {
-			buffer.position(buffer.position() + 8);
+			reader.readDouble();
 		} else if (classifier == EcorePackage.eINSTANCE.getEBoolean() || classifier == EcorePackage.eINSTANCE.getEBooleanObject()) {
-			buffer.position(buffer.position() + 1);
+			reader.readRaw();
 		} else if (classifier == EcorePackage.eINSTANCE.getEDate()) {
-			buffer.position(buffer.position() + 8);
+			reader.readLong();
 		} else if (classifier == EcorePackage.eINSTANCE.getEByteArray()) {
-			int length = buffer.getInt();
-			if (length != -1) {
-				buffer.position(buffer.position() + length);
-			}
+			reader.readBytes();
+		} else if (classifier instanceof EEnum) {
+			reader.readInt();
 		} else {
 			throw new BimserverDatabaseException("Unimplemented " + classifier);
 		}
 	}
 
-	private IdEObject readReference(EClass originalQueryClass, ByteBuffer buffer, IfcModelInterface model, IdEObject object, EStructuralFeature feature, EClass eClass,
+	private IdEObject readReference(EClass originalQueryClass, RecordCodec.Reader reader, short cid, IfcModelInterface model, IdEObject object, EStructuralFeature feature, EClass eClass,
 			QueryInterface query, TodoList todoList) throws BimserverDatabaseException {
-		if (buffer.capacity() == 1 && buffer.get(0) == -1) {
-			buffer.position(buffer.position() + 1);
-			return null;
-		}
-		long oid = buffer.getLong();
+		long oid = reader.readOid(cid);
 		IdEObject foundInCache = objectCache.get(oid);
 		if (foundInCache != null) {
 			return foundInCache;
@@ -1670,9 +2346,9 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		return newObject;
 	}
 
-	private IdEObject readWrappedValue(EStructuralFeature feature, ByteBuffer buffer, EClass eClass, QueryInterface query) {
+	private IdEObject readWrappedValue(EStructuralFeature feature, RecordCodec.Reader reader, EClass eClass, QueryInterface query) {
 		EStructuralFeature eStructuralFeature = eClass.getEStructuralFeature("wrappedValue");
-		Object primitiveValue = readPrimitiveValue(eStructuralFeature.getEType(), buffer, query);
+		Object primitiveValue = readPrimitiveValue(eStructuralFeature.getEType(), reader, query);
 		IdEObject eObject = createInternal(eClass, query);
 		((IdEObjectImpl) eObject).setLoaded(); // We don't want to go lazy load
 												// this
@@ -1719,6 +2395,7 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 
 	public long store(IdEObject object, int pid, int rid) throws BimserverDatabaseException {
 		checkOpen();
+		checkWritable();
 		if (!objectsToCommit.containsObject(object) && !objectsToDelete.contains(object)) {
 			objectCache.put(object.getOid(), object);
 			boolean wrappedValue = object.eClass().getEAnnotation("wrapped") != null;
@@ -1823,7 +2500,7 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		buffer.putLong(idEObject.getOid());
 	}
 
-	private void writeWrappedValue(int pid, int rid, Object value, ByteBuffer buffer, PackageMetaData packageMetaData) throws BimserverDatabaseException {
+	private void writeWrappedValue(int pid, int rid, Object value, ByteBuffer buffer, PackageMetaData packageMetaData, Map<String, List<Record>> wrappedRecords) throws BimserverDatabaseException {
 		IdEObject wrappedValue = (IdEObject) value;
 		EStructuralFeature eStructuralFeature = wrappedValue.eClass().getEStructuralFeature("wrappedValue");
 		Short cid = database.getCidOfEClass(wrappedValue.eClass());
@@ -1834,15 +2511,9 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 			if (wrappedValue.getOid() == -1) {
 				((IdEObjectImpl) wrappedValue).setOid(newOid(eClass));
 			}
-			ByteBuffer valueBuffer = convertObjectToByteArray(wrappedValue, ByteBuffer.allocate(getExactSize(wrappedValue)), packageMetaData);
+			ByteBuffer valueBuffer = convertObjectToByteArray(wrappedValue, packageMetaData, wrappedRecords);
 			ByteBuffer keyBuffer = createKeyBuffer(pid, wrappedValue.getOid(), rid);
-			try {
-				database.getKeyValueStore().storeNoOverwrite(eClass.getEPackage().getName() + "_" + eClass.getName(),
-						keyBuffer.array(), valueBuffer.array(), this);
-				database.incrementCommittedWrites(1);
-			} catch (BimserverLockConflictException e) {
-				LOGGER.error("", e);
-			}
+			getRecordList(wrappedRecords, eClass.getEPackage().getName() + "_" + eClass.getName()).add(new ByteArrayRecord(keyBuffer.array(), database.getRecordCodec().encode(valueBuffer.array(), wrappedValue.eClass())));
 		}
 	}
 	
@@ -1981,6 +2652,7 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 	
 	public byte[] extractFeatureBytes(DatabaseSession databaseSession, ByteBuffer buffer, EClass eClass, EStructuralFeature eStructuralFeature) throws BimserverDatabaseException {
 		buffer.position(0);
+		buffer = database.getRecordCodec().decode(buffer, eClass);
 		byte unsettedLength = buffer.get();
 		byte[] unsetted = new byte[unsettedLength];
 		buffer.get(unsetted);
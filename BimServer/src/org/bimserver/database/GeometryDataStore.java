@@ -0,0 +1,254 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bimserver.models.geometry.GeometryData;
+import org.bimserver.models.geometry.GeometryPackage;
+import org.bimserver.models.store.DatabaseInformation;
+import org.bimserver.models.store.DatabaseInformationCategory;
+import org.bimserver.models.store.DatabaseInformationItem;
+import org.bimserver.models.store.StoreFactory;
+import org.bimserver.utils.Formatters;
+
+/*
+ * Content addressed index of the GeometryData stored per project. The key is the pid followed by the SHA-256 of the
+ * indices, vertices, normals, material indices and materials, the value contains the oid and rid of the GeometryData
+ * record that was stored first, the amount of revisions referring to it and the size of the data.
+ * 
+ * GeometryData records can be shared between the revisions of a project because references are resolved by oid
+ * without looking at the stop rid of a query, as long as the record has been stored in the same or an older revision.
+ * A record that is not the one in the index (it has been stored by a revision older than the indexed record, or while
+ * geometry was not reused) belongs to the revision that stored it alone, until a newer revision shares it through
+ * incremental geometry generation, which adds it to the index.
+ */
+public class GeometryDataStore {
+	public static final String GEOMETRY_DATA_TABLE = "INT-GeometryData";
+	private static final String RECORD_TABLE = GeometryPackage.eINSTANCE.getGeometryData().getEPackage().getName() + "_" + GeometryPackage.eINSTANCE.getGeometryData().getName();
+	private static final int KEY_SIZE = 4 + 32;
+	private static final int VALUE_SIZE = 8 + 4 + 4 + 8;
+	private final KeyValueStore keyValueStore;
+	private final AtomicLong generations = new AtomicLong();
+	private final AtomicLong bytesGenerated = new AtomicLong();
+	private final AtomicLong bytesSaved = new AtomicLong();
+	private volatile long lastBytesGenerated;
+	private volatile long lastBytesSaved;
+
+	public GeometryDataStore(KeyValueStore keyValueStore) {
+		this.keyValueStore = keyValueStore;
+	}
+
+	public static class Entry {
+		private final long oid;
+		private final int rid;
+		private final int references;
+		private final long size;
+
+		public Entry(long oid, int rid, int references, long size) {
+			this.oid = oid;
+			this.rid = rid;
+			this.references = references;
+			this.size = size;
+		}
+
+		public long getOid() {
+			return oid;
+		}
+
+		public int getRid() {
+			return rid;
+		}
+
+		public int getReferences() {
+			return references;
+		}
+
+		public long getSize() {
+			return size;
+		}
+	}
+
+	public static byte[] hash(GeometryData geometryData) {
+		try {
+			MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+			update(messageDigest, geometryData.getIndices());
+			update(messageDigest, geometryData.getVertices());
+			update(messageDigest, geometryData.getNormals());
+			update(messageDigest, geometryData.getMaterialIndices());
+			update(messageDigest, geometryData.getMaterials());
+			return messageDigest.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void update(MessageDigest messageDigest, byte[] bytes) {
+		// The length is included so the concatenation of the arrays is unambiguous, -1 for a missing array
+		messageDigest.update(ByteBuffer.allocate(4).putInt(bytes == null ? -1 : bytes.length).array());
+		if (bytes != null) {
+			messageDigest.update(bytes);
+		}
+	}
+
+	public static long size(GeometryData geometryData) {
+		return length(geometryData.getIndices()) + length(geometryData.getVertices()) + length(geometryData.getNormals()) + length(geometryData.getMaterials()) + length(geometryData.getMaterialIndices());
+	}
+
+	private static int length(byte[] bytes) {
+		return bytes == null ? 0 : bytes.length;
+	}
+
+	public Entry get(int pid, byte[] hash, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		byte[] value = keyValueStore.get(GEOMETRY_DATA_TABLE, createKey(pid, hash), databaseSession);
+		if (value == null) {
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(value);
+		return new Entry(buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getLong());
+	}
+
+	/**
+	 * Registers the GeometryData record with the given oid that revision rid has just stored
+	 * 
+	 * @return The oid of the record the revision should refer to, when this is not the given oid the new record is a duplicate and should not be stored
+	 */
+	public long reference(int pid, byte[] hash, long oid, int rid, long size, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		Entry entry = get(pid, hash, databaseSession);
+		if (entry == null) {
+			store(pid, hash, new Entry(oid, rid, 1, size), databaseSession);
+			return oid;
+		}
+		if (entry.getRid() <= rid) {
+			store(pid, hash, new Entry(entry.getOid(), entry.getRid(), entry.getReferences() + 1, entry.getSize()), databaseSession);
+			return entry.getOid();
+		}
+		// Regenerating the geometry of an old revision, it cannot see the newer record so it keeps its own record, which is released by oid
+		return oid;
+	}
+
+	/**
+	 * Registers that revision rid refers to the GeometryData record with the given oid that older revision ownerRid has stored, because incremental geometry
+	 * generation copied the geometry of an unchanged product. A record that is not in the index yet is added with a reference for both revisions.
+	 * 
+	 * @return false when another record is in the index for the same geometry, the record then belongs to revision ownerRid alone and cannot be shared
+	 */
+	public boolean share(int pid, byte[] hash, long oid, int ownerRid, int rid, long size, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		Entry entry = get(pid, hash, databaseSession);
+		if (entry == null) {
+			store(pid, hash, new Entry(oid, ownerRid, 2, size), databaseSession);
+			return true;
+		}
+		if (entry.getOid() == oid) {
+			store(pid, hash, new Entry(entry.getOid(), entry.getRid(), entry.getReferences() + 1, entry.getSize()), databaseSession);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Releases a reference taken with {@link #share(int, byte[], long, int, int, long, DatabaseSession)}. Unlike {@link #release(int, byte[], long, int, DatabaseSession)}
+	 * a record that is not in the index is never deleted, it belongs to an older revision
+	 * 
+	 * @return true when the record has been deleted
+	 */
+	public boolean releaseShared(int pid, byte[] hash, long oid, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		Entry entry = get(pid, hash, databaseSession);
+		if (entry == null || entry.getOid() != oid) {
+			return false;
+		}
+		return release(pid, hash, oid, entry.getRid(), databaseSession);
+	}
+
+	/**
+	 * Releases the reference of a revision to the GeometryData record with the given oid, which has been stored by revision rid. The record itself is deleted
+	 * when no revision refers to it anymore
+	 * 
+	 * @return true when the record has been deleted
+	 */
+	public boolean release(int pid, byte[] hash, long oid, int rid, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		Entry entry = get(pid, hash, databaseSession);
+		if (entry != null && entry.getOid() == oid) {
+			if (entry.getReferences() > 1) {
+				store(pid, hash, new Entry(entry.getOid(), entry.getRid(), entry.getReferences() - 1, entry.getSize()), databaseSession);
+				return false;
+			}
+			keyValueStore.delete(GEOMETRY_DATA_TABLE, createKey(pid, hash), databaseSession);
+			rid = entry.getRid();
+		}
+		ByteBuffer recordKey = ByteBuffer.allocate(16);
+		recordKey.putInt(pid);
+		recordKey.putLong(oid);
+		recordKey.putInt(-rid);
+		keyValueStore.delete(RECORD_TABLE, recordKey.array(), databaseSession);
+		return true;
+	}
+
+	private void store(int pid, byte[] hash, Entry entry, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		ByteBuffer value = ByteBuffer.allocate(VALUE_SIZE);
+		value.putLong(entry.getOid());
+		value.putInt(entry.getRid());
+		value.putInt(entry.getReferences());
+		value.putLong(entry.getSize());
+		keyValueStore.store(GEOMETRY_DATA_TABLE, createKey(pid, hash), value.array(), databaseSession);
+	}
+
+	private byte[] createKey(int pid, byte[] hash) {
+		ByteBuffer key = ByteBuffer.allocate(KEY_SIZE);
+		key.putInt(pid);
+		key.put(hash);
+		return key.array();
+	}
+
+	/**
+	 * Should only be called for generations that have been committed
+	 */
+	public void generated(long bytesGenerated, long bytesSaved) {
+		generations.incrementAndGet();
+		this.bytesGenerated.addAndGet(bytesGenerated);
+		this.bytesSaved.addAndGet(bytesSaved);
+		lastBytesGenerated = bytesGenerated;
+		lastBytesSaved = bytesSaved;
+	}
+
+	public void addDatabaseInformation(DatabaseInformation databaseInformation) {
+		DatabaseInformationCategory category = StoreFactory.eINSTANCE.createDatabaseInformationCategory();
+		category.setTitle("Geometry deduplication");
+		addItem(category, "Unique geometry", "" + keyValueStore.count(GEOMETRY_DATA_TABLE));
+		addItem(category, "Generations since startup", "" + generations.get());
+		addItem(category, "Generated since startup", Formatters.bytesToString(bytesGenerated.get()));
+		addItem(category, "Saved since startup", Formatters.bytesToString(bytesSaved.get()));
+		if (generations.get() > 0) {
+			addItem(category, "Saved per checkin", Formatters.bytesToString(bytesSaved.get() / generations.get()));
+		}
+		addItem(category, "Generated last checkin", Formatters.bytesToString(lastBytesGenerated));
+		addItem(category, "Saved last checkin", Formatters.bytesToString(lastBytesSaved));
+		databaseInformation.getCategories().add(category);
+	}
+
+	private void addItem(DatabaseInformationCategory category, String key, String value) {
+		DatabaseInformationItem item = StoreFactory.eINSTANCE.createDatabaseInformationItem();
+		item.setKey(key);
+		item.setValue(value);
+		category.getItems().add(item);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,145 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EEnum;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.EcorePackage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Declares a secondary index on one class, or on a class and all its subclasses. The key is composed of the values of one or more features,
+ * attributes are indexed by value and references by the oid of the referenced object. At most one of the features can be a list (of references),
+ * objects get an entry for every element in that case.
+ *
+ * Definitions refer to their classes by name, so indexes on schemas that are not loaded are ignored.
+ */
+public class IndexDefinition {
+	private static final Logger LOGGER = LoggerFactory.getLogger(IndexDefinition.class);
+	private final String packageName;
+	private final String className;
+	private final boolean includeSubTypes;
+	private final String[] featureNames;
+	private final List<EStructuralFeature> features = new ArrayList<EStructuralFeature>();
+	private final Set<EClass> eClasses = new HashSet<EClass>();
+
+	public IndexDefinition(String packageName, String className, boolean includeSubTypes, String... featureNames) {
+		this.packageName = packageName;
+		this.className = className;
+		this.includeSubTypes = includeSubTypes;
+		this.featureNames = featureNames;
+	}
+
+	/**
+	 * @return false when the classes or features of this definition do not exist (or can not be indexed) in the given database
+	 */
+	boolean resolve(Database database) {
+		EClass eClass = database.getEClassForName(packageName, className);
+		if (eClass == null) {
+			return false;
+		}
+		int lists = 0;
+		for (String featureName : featureNames) {
+			EStructuralFeature feature = eClass.getEStructuralFeature(featureName);
+			if (feature == null || !isIndexable(feature)) {
+				LOGGER.warn("Feature " + featureName + " of " + className + " can not be indexed");
+				return false;
+			}
+			if (feature.isMany()) {
+				lists++;
+			}
+			features.add(feature);
+		}
+		if (lists > 1) {
+			LOGGER.warn("Index " + getName() + " has more than one list feature");
+			return false;
+		}
+		for (EClass subClass : database.getClasses()) {
+			if (subClass == eClass || (includeSubTypes && eClass.isSuperTypeOf(subClass))) {
+				eClasses.add(subClass);
+			}
+		}
+		return !eClasses.isEmpty();
+	}
+
+	private boolean isIndexable(EStructuralFeature feature) {
+		if (feature instanceof EReference) {
+			EClass type = (EClass) feature.getEType();
+			return type.getEAnnotation("wrapped") == null && type.getEStructuralFeature("wrappedValue") == null && feature.getEAnnotation("twodimensionalarray") == null;
+		} else if (feature instanceof EAttribute) {
+			if (feature.isMany()) {
+				return false;
+			}
+			return feature.getEType() instanceof EEnum || getValueSize(feature) != 0;
+		}
+		return false;
+	}
+
+	/**
+	 * @return The number of bytes of a value of the given attribute in a record, -1 for variable length values, 0 for types that are not indexed
+	 */
+	static int getValueSize(EStructuralFeature feature) {
+		if (feature.getEType() == EcorePackage.eINSTANCE.getEString()) {
+			return -1;
+		} else if (feature.getEType() == EcorePackage.eINSTANCE.getEInt() || feature.getEType() == EcorePackage.eINSTANCE.getEIntegerObject() || feature.getEType() instanceof EEnum) {
+			return 4;
+		} else if (feature.getEType() == EcorePackage.eINSTANCE.getELong() || feature.getEType() == EcorePackage.eINSTANCE.getELongObject() || feature.getEType() == EcorePackage.eINSTANCE.getEDate()) {
+			return 8;
+		} else if (feature.getEType() == EcorePackage.eINSTANCE.getEBoolean() || feature.getEType() == EcorePackage.eINSTANCE.getEBooleanObject()) {
+			return 1;
+		}
+		return 0;
+	}
+
+	public String getPackageName() {
+		return packageName;
+	}
+
+	public String getName() {
+		StringBuilder sb = new StringBuilder(packageName + "_" + className + (includeSubTypes ? "+" : ""));
+		for (String featureName : featureNames) {
+			sb.append("_" + featureName);
+		}
+		return sb.toString();
+	}
+
+	public String getTableName() {
+		return "INT-Index-" + getName();
+	}
+
+	public List<EStructuralFeature> getFeatures() {
+		return Collections.unmodifiableList(features);
+	}
+
+	/**
+	 * @return The classes that have their objects in this index
+	 */
+	public Set<EClass> getEClasses() {
+		return Collections.unmodifiableSet(eClasses);
+	}
+}
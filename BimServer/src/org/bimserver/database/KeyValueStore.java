@@ -57,6 +57,14 @@ public interface KeyValueStore {
 
 	BimTransaction startTransaction();
 
+	/**
+	 * Trades durability of individual commits for throughput until {@link #endBulkLoad()} is called, for importing large amounts of data. This applies
+	 * to the commits of all sessions, not only those of the import
+	 */
+	void startBulkLoad() throws BimserverDatabaseException;
+
+	void endBulkLoad() throws BimserverDatabaseException;
+
 	void commit(DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException;
 
 	String getType();
@@ -83,5 +91,30 @@ public interface KeyValueStore {
 
 	List<byte[]> getDuplicates(String tableName, byte[] keyBytes, DatabaseSession databaseSession) throws BimserverDatabaseException;
 
+	/**
+	 * @return The values of the given key, null when there are more than maxSize of them
+	 */
+	List<byte[]> getDuplicates(String tableName, byte[] keyBytes, int maxSize, DatabaseSession databaseSession) throws BimserverDatabaseException;
+
 	void delete(String indexTableName, byte[] featureBytesOldIndex, byte[] array, DatabaseSession databaseSession) throws BimserverLockConflictException;
+
+	/**
+	 * Bulk variant of {@link #storeNoOverwrite(String, byte[], byte[], DatabaseSession)}, the records should be sorted by key (unsigned lexicographical order) to get sequential access in the underlying store
+	 */
+	void storeNoOverwrite(String tableName, List<? extends Record> records, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException, BimserverConcurrentModificationDatabaseException;
+
+	/**
+	 * Bulk variant of {@link #store(String, byte[], byte[], DatabaseSession)}, the records should be sorted by key (unsigned lexicographical order)
+	 */
+	void store(String tableName, List<? extends Record> records, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException;
+
+	/**
+	 * Bulk variant of {@link #get(String, byte[], DatabaseSession)}, the returned list has the same order as the given keys and contains null for keys that were not found
+	 */
+	List<byte[]> get(String tableName, List<byte[]> keys, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException;
+
+	/**
+	 * Bulk variant of {@link #delete(String, byte[], byte[], DatabaseSession)}, deletes all key/value pairs given by the records
+	 */
+	void delete(String indexTableName, List<? extends Record> records, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException;
 }
\ No newline at end of file
@@ -19,36 +19,212 @@ package org.bimserver.database;
 
 import org.bimserver.emf.IdEObject;
 import org.bimserver.emf.IdEObjectImpl;
+import org.bimserver.emf.IdEObjectImpl.State;
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
+/**
+ * Per-session cache of objects by oid.
+ * 
+ * Implemented as an open addressing (linear probing) hash table on primitive longs, so no Long objects and no entry objects are created per cached object.
+ * The reverse lookup (object to oid) uses the oid stored in the object itself combined with an identity check, instead of a second hash table.
+ * 
+ * Optionally the cache can be given a maximum size, when the maximum is reached, fully loaded objects are evicted. Only use this for sessions that keep
+ * the loaded objects reachable in some other way (usually an IfcModelInterface), like read-only download sessions.
+ */
+public class ObjectCache {
+	private static final int DEFAULT_CAPACITY = 1024;
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private long[] keys;
+	private IdEObjectImpl[] values;
+	private int size;
+	private int resizeThreshold;
+	private int maxSize;
+	private int evictionCursor;
+	private long evictions;
+	// After an eviction pass that could not reach its target, the next pass waits until the cache has grown to this size
+	private int nextEvictionSize;
+
+	public ObjectCache() {
+		this(0);
+	}
+
+	/**
+	 * @param maxSize The maximum number of objects in this cache, 0 means unbounded
+	 */
+	public ObjectCache(int maxSize) {
+		this.maxSize = maxSize;
+		allocate(DEFAULT_CAPACITY);
+	}
+
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		nextEvictionSize = 0;
+	}
 
-public class ObjectCache {
-	private final BiMap<Long, IdEObjectImpl> oidCache = HashBiMap.create();
+	public int getMaxSize() {
+		return maxSize;
+	}
 
+	/**
+	 * Adds the object to the cache, unless it has already been cached. Objects without an oid (-1) are never cached.
+	 */
 	public void put(long oid, IdEObject object) {
-		if (!oidCache.containsValue(object)) {
-			oidCache.put(oid, (IdEObjectImpl) object);
+		if (oid == -1 || object == null) {
+			return;
+		}
+		if (contains(object)) {
+			return;
+		}
+		int slot = findSlot(oid);
+		if (values[slot] != null) {
+			values[slot] = (IdEObjectImpl) object;
+			return;
+		}
+		if (maxSize > 0 && size >= maxSize && size >= nextEvictionSize) {
+			evict();
+			slot = findSlot(oid);
+		}
+		keys[slot] = oid;
+		values[slot] = (IdEObjectImpl) object;
+		size++;
+		if (size > resizeThreshold) {
+			rehash(keys.length * 2);
 		}
 	}
-	
+
 	public IdEObject get(long oid) {
-		return oidCache.get(oid);
+		return values[findSlot(oid)];
 	}
-	
+
+	/**
+	 * @return The oid under which the given object is cached, or -1 when the object is not in this cache
+	 */
 	public long get(IdEObject object) {
-		return oidCache.inverse().get(object);
+		if (contains(object)) {
+			return object.getOid();
+		}
+		return -1;
 	}
-	
+
 	public boolean contains(IdEObject object) {
-		return oidCache.inverse().containsKey(object);
+		return object.getOid() != -1 && values[findSlot(object.getOid())] == object;
 	}
 
 	public boolean contains(long oid) {
-		return oidCache.containsKey(oid);
+		return values[findSlot(oid)] != null;
+	}
+
+	public boolean remove(long oid) {
+		int slot = findSlot(oid);
+		if (values[slot] == null) {
+			return false;
+		}
+		removeSlot(slot);
+		return true;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return The number of objects that have been evicted since this cache was created
+	 */
+	public long getEvictions() {
+		return evictions;
 	}
 
 	public void clear() {
-		oidCache.clear();
+		allocate(DEFAULT_CAPACITY);
+		size = 0;
+		evictionCursor = 0;
+		nextEvictionSize = 0;
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new IdEObjectImpl[capacity];
+		resizeThreshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	/**
+	 * Removes fully loaded objects (clock-wise, continuing where the last eviction stopped) until the cache is at 75% of its maximum size. When not enough
+	 * objects can be evicted (because they are still being loaded) the cache is allowed to grow beyond its maximum. A pass visits the whole table in that
+	 * case, so the next one only starts when the cache has grown by a quarter, otherwise every put of a large download would scan the table.
+	 */
+	private void evict() {
+		int target = (int) (maxSize * 0.75);
+		int visited = 0;
+		int capacity = keys.length;
+		while (size > target && visited < capacity) {
+			int slot = evictionCursor & (capacity - 1);
+			IdEObjectImpl value = values[slot];
+			if (value != null && value.getLoadingState() == State.LOADED) {
+				// Backward shifting might move a not yet visited entry into this slot, so we stay here
+				removeSlot(slot);
+				evictions++;
+			} else {
+				// Only moving on counts, so one pass covers the whole table however many objects it removes
+				evictionCursor++;
+				visited++;
+			}
+		}
+		nextEvictionSize = size > target ? size + size / 4 : 0;
+	}
+
+	private int findSlot(long oid) {
+		int mask = keys.length - 1;
+		int slot = hash(oid) & mask;
+		while (values[slot] != null && keys[slot] != oid) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void removeSlot(int slot) {
+		int mask = keys.length - 1;
+		values[slot] = null;
+		size--;
+		// Shift back entries of the same probe sequence, so lookups never stop at the hole we just created
+		int hole = slot;
+		int current = (slot + 1) & mask;
+		while (values[current] != null) {
+			int ideal = hash(keys[current]) & mask;
+			if (((current - ideal) & mask) >= ((current - hole) & mask)) {
+				keys[hole] = keys[current];
+				values[hole] = values[current];
+				values[current] = null;
+				hole = current;
+			}
+			current = (current + 1) & mask;
+		}
+	}
+
+	private void rehash(int newCapacity) {
+		long[] oldKeys = keys;
+		IdEObjectImpl[] oldValues = values;
+		allocate(newCapacity);
+		int mask = newCapacity - 1;
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private static int hash(long oid) {
+		// The lower 16 bits of an oid are the cid, the rest is a counter, mix all bits before using them for the index
+		long h = oid;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) h;
 	}
-}
\ No newline at end of file
+}
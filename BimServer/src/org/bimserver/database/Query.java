@@ -124,15 +124,24 @@ public class Query implements QueryInterface {
 
 	public void updateOidCounters(ConcreteRevision subRevision, DatabaseSession databaseSession) {
 		if (subRevision.getOidCounters() != null) {
-			Map<EClass, Long> oidCounters = new HashMap<>();
+			setOidCounters(readOidCounters(subRevision, databaseSession));
+		}
+	}
+
+	/**
+	 * The lowest oid per class of the objects of the given revision, empty when the revision has no oid counters
+	 */
+	public static Map<EClass, Long> readOidCounters(ConcreteRevision subRevision, DatabaseSession databaseSession) {
+		Map<EClass, Long> oidCounters = new HashMap<>();
+		if (subRevision.getOidCounters() != null) {
 			ByteBuffer buffer = ByteBuffer.wrap(subRevision.getOidCounters());
 			for (int i=0; i<buffer.capacity() / 10; i++) {
 				short cid = buffer.getShort();
 				long oid = buffer.getLong();
 				oidCounters.put(databaseSession.getEClass(cid), oid);
 			}
-			setOidCounters(oidCounters);
 		}
+		return oidCounters;
 	}
 	
 	public int getStopRid() {
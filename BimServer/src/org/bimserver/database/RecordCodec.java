@@ -0,0 +1,741 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.bimserver.models.store.DatabaseInformation;
+import org.bimserver.models.store.DatabaseInformationCategory;
+import org.bimserver.models.store.DatabaseInformationItem;
+import org.bimserver.models.store.StoreFactory;
+import org.bimserver.utils.Formatters;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EClassifier;
+import org.eclipse.emf.ecore.EDataType;
+import org.eclipse.emf.ecore.EEnum;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.EcorePackage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Converts records between the layout DatabaseSession reads and writes (the "legacy" layout: unset bitmap followed by
+ * fixed width fields) and the compact layout that is stored. The first byte tells the layouts apart, legacy records start
+ * with the (positive) length of the unset bitmap, a deleted record is the single byte -1.
+ *
+ * Compact records start with COMPACT, followed by the unset bitmap (same as in the legacy layout) and the fields:
+ * - ints, longs, dates, enums, cids and list sizes as zigzag varints
+ * - references as the varint delta of the oid (without the cid bits) to the previous reference in the record, plus the cid
+ *   bits xor the cid of the reference, which is 0 for all oids generated by the database
+ * - doubles that are integers as a varint, other doubles as a tag followed by the 8 bytes
+ * - strings through a dictionary per record, a string that occurred before is stored as its index
+ * - floats, booleans and byte arrays as they are (byte arrays with a varint length)
+ *
+ * Compact records of at least DEFLATE_THRESHOLD bytes are deflated when that makes them smaller, these start with
+ * COMPACT_DEFLATED followed by the varint length of the inflated record (without the first byte).
+ */
+public class RecordCodec {
+	private static final Logger LOGGER = LoggerFactory.getLogger(RecordCodec.class);
+	public static final byte COMPACT = -2;
+	public static final byte COMPACT_DEFLATED = -3;
+
+	/*
+	 * Field values of a new feature that is not set, for migrations that add a feature to existing compact records
+	 */
+	public static final byte[] EMPTY_LIST = new byte[] { 0 };
+	public static final byte[] NULL_REFERENCE = new byte[] { 1 };
+
+	private static final int DEFLATE_THRESHOLD = 512;
+	private static final long NEGATIVE_ZERO = Double.doubleToRawLongBits(-0D);
+	private static final long MAX_INTEGRAL_DOUBLE = 1L << 52;
+	private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(Deflater.BEST_SPEED);
+		}
+	};
+	private static final ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater();
+		}
+	};
+	private final Database database;
+	private final AtomicLong recordsEncoded = new AtomicLong();
+	private final AtomicLong recordsDeflated = new AtomicLong();
+	private final AtomicLong legacyBytes = new AtomicLong();
+	private final AtomicLong encodedBytes = new AtomicLong();
+
+	public RecordCodec(Database database) {
+		this.database = database;
+	}
+
+	public static boolean isCompact(byte[] value) {
+		return value.length > 1 && (value[0] == COMPACT || value[0] == COMPACT_DEFLATED);
+	}
+
+	/**
+	 * @return The compact form of a record in the legacy layout, or the record itself when it cannot be converted
+	 */
+	public byte[] encode(byte[] value, EClass eClass) {
+		try {
+			Output output = new Output(value.length);
+			output.write(COMPACT);
+			transcode(eClass, new LegacyFormat(ByteBuffer.wrap(value), null), new CompactFormat(null, output));
+			byte[] result = null;
+			if (output.size() >= DEFLATE_THRESHOLD) {
+				result = deflate(output);
+				if (result != null) {
+					recordsDeflated.incrementAndGet();
+				}
+			}
+			if (result == null) {
+				result = output.toByteArray();
+			}
+			recordsEncoded.incrementAndGet();
+			legacyBytes.addAndGet(value.length);
+			encodedBytes.addAndGet(result.length);
+			return result;
+		} catch (BimserverDatabaseException e) {
+			LOGGER.warn("Storing " + eClass.getName() + " record in legacy layout", e);
+		} catch (BufferUnderflowException e) {
+			LOGGER.warn("Storing " + eClass.getName() + " record in legacy layout", e);
+		}
+		return value;
+	}
+
+	/**
+	 * @return A buffer with the record in the legacy layout, the given buffer when the record already is in the legacy layout
+	 */
+	public ByteBuffer decode(ByteBuffer buffer, EClass eClass) throws BimserverDatabaseException {
+		if (!isCompact(buffer)) {
+			return buffer;
+		}
+		try {
+			Output output = new Output(buffer.limit() * 2);
+			transcode(eClass, new CompactFormat(getBody(buffer), null), new LegacyFormat(null, output));
+			return ByteBuffer.wrap(output.buffer, 0, output.size()).slice();
+		} catch (BufferUnderflowException e) {
+			throw new BimserverDatabaseException("Reading compact " + eClass.getName() + " record", e);
+		}
+	}
+
+	/**
+	 * Reading the fields of a compact record through a Reader saves converting the whole record to the legacy layout first,
+	 * object loading reads every record this way
+	 * 
+	 * @return A reader for the unset bitmap and fields of a record in either layout, legacy records are read from the given buffer
+	 */
+	Reader reader(ByteBuffer buffer) throws BimserverDatabaseException {
+		if (!isCompact(buffer)) {
+			return new LegacyFormat(buffer, null);
+		}
+		return new CompactFormat(getBody(buffer), null);
+	}
+
+	static Reader legacyReader(ByteBuffer buffer) {
+		return new LegacyFormat(buffer, null);
+	}
+
+	private static boolean isCompact(ByteBuffer buffer) {
+		return buffer.limit() > 1 && (buffer.get(0) == COMPACT || buffer.get(0) == COMPACT_DEFLATED);
+	}
+
+	private static ByteBuffer getBody(ByteBuffer buffer) throws BimserverDatabaseException {
+		if (buffer.get(0) == COMPACT) {
+			ByteBuffer body = buffer.duplicate();
+			body.position(1);
+			return body;
+		}
+		byte[] value = new byte[buffer.limit()];
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(0);
+		duplicate.get(value);
+		return ByteBuffer.wrap(inflate(value));
+	}
+
+	/**
+	 * @return The unset bitmap and fields of a compact record, inflated when needed
+	 */
+	public static byte[] getBody(byte[] value) throws BimserverDatabaseException {
+		if (value[0] == COMPACT_DEFLATED) {
+			return inflate(value);
+		}
+		return Arrays.copyOfRange(value, 1, value.length);
+	}
+
+	public static byte[] fromBody(byte[] body) {
+		byte[] value = new byte[body.length + 1];
+		value[0] = COMPACT;
+		System.arraycopy(body, 0, value, 1, body.length);
+		return value;
+	}
+
+	private static byte[] deflate(Output output) {
+		int bodyLength = output.size() - 1;
+		Output header = new Output(6);
+		header.write(COMPACT_DEFLATED);
+		header.writeVarLong(bodyLength);
+		byte[] target = new byte[bodyLength - header.size()];
+		Deflater deflater = DEFLATERS.get();
+		deflater.reset();
+		deflater.setInput(output.buffer, 1, bodyLength);
+		deflater.finish();
+		int length = 0;
+		while (!deflater.finished() && length < target.length) {
+			length += deflater.deflate(target, length, target.length - length);
+		}
+		if (!deflater.finished()) {
+			// Not smaller than the compact record
+			return null;
+		}
+		byte[] result = new byte[header.size() + length];
+		System.arraycopy(header.buffer, 0, result, 0, header.size());
+		System.arraycopy(target, 0, result, header.size(), length);
+		return result;
+	}
+
+	private static byte[] inflate(byte[] value) throws BimserverDatabaseException {
+		ByteBuffer buffer = ByteBuffer.wrap(value);
+		buffer.position(1);
+		int bodyLength = (int) readVarLong(buffer);
+		byte[] body = new byte[bodyLength];
+		Inflater inflater = INFLATERS.get();
+		inflater.reset();
+		inflater.setInput(value, buffer.position(), value.length - buffer.position());
+		try {
+			int length = 0;
+			while (!inflater.finished() && length < bodyLength) {
+				int inflated = inflater.inflate(body, length, bodyLength - length);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				length += inflated;
+			}
+			if (length != bodyLength) {
+				throw new BimserverDatabaseException("Deflated record is corrupt, expected " + bodyLength + " bytes, got " + length);
+			}
+		} catch (DataFormatException e) {
+			throw new BimserverDatabaseException("Deflated record is corrupt", e);
+		}
+		return body;
+	}
+
+	/*
+	 * Follows the structure DatabaseSession.convertByteArrayToObject reads, copying every value from one layout to the other
+	 */
+	private void transcode(EClass eClass, Format in, Format out) throws BimserverDatabaseException {
+		byte unsettedLength = in.readRaw();
+		out.writeRaw(unsettedLength);
+		byte[] unsetted = new byte[unsettedLength];
+		for (int i = 0; i < unsettedLength; i++) {
+			unsetted[i] = in.readRaw();
+			out.writeRaw(unsetted[i]);
+		}
+		int fieldCounter = 0;
+		for (EStructuralFeature feature : eClass.getEAllStructuralFeatures()) {
+			boolean isUnsetted = (unsetted[fieldCounter / 8] & (1 << (fieldCounter % 8))) != 0;
+			if (!isUnsetted) {
+				if (feature.isMany()) {
+					transcodeList(feature, in, out);
+				} else if (feature.getEType() instanceof EEnum) {
+					out.writeInt(in.readInt());
+				} else if (feature.getEType() instanceof EClass) {
+					transcodeReference(in, out);
+				} else if (feature.getEType() instanceof EDataType) {
+					transcodePrimitive(feature.getEType(), in, out);
+				}
+			}
+			fieldCounter++;
+		}
+		if (in.hasRemaining()) {
+			throw new BimserverDatabaseException("Record of " + eClass.getName() + " is longer than its fields");
+		}
+	}
+
+	private void transcodeList(EStructuralFeature feature, Format in, Format out) throws BimserverDatabaseException {
+		if (feature.getEType() instanceof EEnum) {
+			// Lists of enums are not stored
+		} else if (feature.getEType() instanceof EClass) {
+			int size = in.readSize();
+			out.writeSize(size);
+			for (int i = 0; i < size; i++) {
+				if (feature.getEAnnotation("twodimensionalarray") != null) {
+					transcodeList(((EClass) feature.getEType()).getEStructuralFeature("List"), in, out);
+				} else {
+					transcodeReference(in, out);
+				}
+			}
+		} else if (feature.getEType() instanceof EDataType) {
+			int size = in.readSize();
+			out.writeSize(size);
+			for (int i = 0; i < size; i++) {
+				transcodePrimitive(feature.getEType(), in, out);
+			}
+		}
+	}
+
+	private void transcodeReference(Format in, Format out) throws BimserverDatabaseException {
+		short cid = in.readCid();
+		out.writeCid(cid);
+		if (cid < -1) {
+			// Embedded (wrapped) value
+			EClass wrappedClass = getEClassForCid((short) -cid);
+			if (wrappedClass == null) {
+				throw new BimserverDatabaseException("No class for cid " + (-cid));
+			}
+			transcodePrimitive(wrappedClass.getEStructuralFeature("wrappedValue").getEType(), in, out);
+		} else if (cid > 0) {
+			out.writeOid(cid, in.readOid(cid));
+		}
+	}
+
+	private void transcodePrimitive(EClassifier classifier, Format in, Format out) throws BimserverDatabaseException {
+		if (classifier == EcorePackage.eINSTANCE.getEString()) {
+			out.writeString(in.readString());
+		} else if (classifier == EcorePackage.eINSTANCE.getEInt() || classifier == EcorePackage.eINSTANCE.getEIntegerObject()) {
+			out.writeInt(in.readInt());
+		} else if (classifier == EcorePackage.eINSTANCE.getELong() || classifier == EcorePackage.eINSTANCE.getELongObject() || classifier == EcorePackage.eINSTANCE.getEDate()) {
+			out.writeLong(in.readLong());
+		} else if (classifier == EcorePackage.eINSTANCE.getEFloat() || classifier == EcorePackage.eINSTANCE.getEFloatObject()) {
+			out.writeFloat(in.readFloat());
+		} else if (classifier == EcorePackage.eINSTANCE.getEDouble() || classifier == EcorePackage.eINSTANCE.getEDoubleObject()) {
+			out.writeDouble(in.readDouble());
+		} else if (classifier == EcorePackage.eINSTANCE.getEBoolean() || classifier == EcorePackage.eINSTANCE.getEBooleanObject()) {
+			out.writeRaw(in.readRaw());
+		} else if (classifier == EcorePackage.eINSTANCE.getEByteArray()) {
+			out.writeBytes(in.readBytes());
+		} else if (classifier instanceof EEnum) {
+			// Includes Tristate
+			out.writeInt(in.readInt());
+		} else {
+			throw new BimserverDatabaseException("Unsupported type " + classifier.getName());
+		}
+	}
+
+	protected EClass getEClassForCid(short cid) {
+		return database.getEClassForCid(cid);
+	}
+
+	/*
+	 * The values of a record in the order they are stored, floats and doubles as their raw bits, strings as UTF-8 (null for a null string)
+	 */
+	static abstract class Reader {
+		abstract boolean hasRemaining();
+		abstract byte readRaw();
+		abstract void readRaw(byte[] value);
+		abstract int readSize();
+		abstract short readCid();
+		abstract long readOid(short cid);
+		abstract int readInt();
+		abstract long readLong();
+		abstract int readFloat();
+		abstract long readDouble();
+		abstract byte[] readString();
+		abstract byte[] readBytes();
+	}
+
+	private static abstract class Format extends Reader {
+		abstract void writeRaw(byte value);
+		abstract void writeSize(int size);
+		abstract void writeCid(short cid);
+		abstract void writeOid(short cid, long oid);
+		abstract void writeInt(int value);
+		abstract void writeLong(long value);
+		abstract void writeFloat(int bits);
+		abstract void writeDouble(long bits);
+		abstract void writeString(byte[] value);
+		abstract void writeBytes(byte[] value);
+	}
+
+	/*
+	 * The layout of DatabaseSession, big endian fixed width values, strings and byte arrays prefixed by an int length (-1 for a null string)
+	 */
+	private static class LegacyFormat extends Format {
+		private final ByteBuffer in;
+		private final Output out;
+
+		LegacyFormat(ByteBuffer in, Output out) {
+			this.in = in;
+			this.out = out;
+		}
+
+		boolean hasRemaining() {
+			return in.hasRemaining();
+		}
+
+		byte readRaw() {
+			return in.get();
+		}
+
+		void readRaw(byte[] value) {
+			in.get(value);
+		}
+
+		void writeRaw(byte value) {
+			out.write(value);
+		}
+
+		int readSize() {
+			return in.getInt();
+		}
+
+		void writeSize(int size) {
+			out.writeInt(size);
+		}
+
+		short readCid() {
+			return in.getShort();
+		}
+
+		void writeCid(short cid) {
+			out.writeShort(cid);
+		}
+
+		long readOid(short cid) {
+			return in.getLong();
+		}
+
+		void writeOid(short cid, long oid) {
+			out.writeLong(oid);
+		}
+
+		int readInt() {
+			return in.getInt();
+		}
+
+		void writeInt(int value) {
+			out.writeInt(value);
+		}
+
+		long readLong() {
+			return in.getLong();
+		}
+
+		void writeLong(long value) {
+			out.writeLong(value);
+		}
+
+		int readFloat() {
+			return in.getInt();
+		}
+
+		void writeFloat(int bits) {
+			out.writeInt(bits);
+		}
+
+		long readDouble() {
+			return in.getLong();
+		}
+
+		void writeDouble(long bits) {
+			out.writeLong(bits);
+		}
+
+		byte[] readString() {
+			int length = in.getInt();
+			if (length == -1) {
+				return null;
+			}
+			byte[] value = new byte[length];
+			in.get(value);
+			return value;
+		}
+
+		void writeString(byte[] value) {
+			if (value == null) {
+				out.writeInt(-1);
+			} else {
+				out.writeInt(value.length);
+				out.write(value);
+			}
+		}
+
+		byte[] readBytes() {
+			byte[] value = new byte[in.getInt()];
+			in.get(value);
+			return value;
+		}
+
+		void writeBytes(byte[] value) {
+			out.writeInt(value.length);
+			out.write(value);
+		}
+	}
+
+	private static class CompactFormat extends Format {
+		private final ByteBuffer in;
+		private final Output out;
+		private long previousOid;
+		private List<byte[]> readStrings;
+		private Map<ByteBuffer, Integer> writtenStrings;
+
+		CompactFormat(ByteBuffer in, Output out) {
+			this.in = in;
+			this.out = out;
+		}
+
+		boolean hasRemaining() {
+			return in.hasRemaining();
+		}
+
+		byte readRaw() {
+			return in.get();
+		}
+
+		void readRaw(byte[] value) {
+			in.get(value);
+		}
+
+		void writeRaw(byte value) {
+			out.write(value);
+		}
+
+		int readSize() {
+			return readInt();
+		}
+
+		void writeSize(int size) {
+			writeInt(size);
+		}
+
+		short readCid() {
+			return (short) readInt();
+		}
+
+		void writeCid(short cid) {
+			writeInt(cid);
+		}
+
+		long readOid(short cid) {
+			long oid = ((previousOid >> 16) + unzigzag(readVarLong(in))) << 16 | (readVarLong(in) ^ (cid & 0xFFFF));
+			previousOid = oid;
+			return oid;
+		}
+
+		void writeOid(short cid, long oid) {
+			out.writeVarLong(zigzag((oid >> 16) - (previousOid >> 16)));
+			out.writeVarLong((oid & 0xFFFF) ^ (cid & 0xFFFF));
+			previousOid = oid;
+		}
+
+		int readInt() {
+			return (int) unzigzag(readVarLong(in));
+		}
+
+		void writeInt(int value) {
+			out.writeVarLong(zigzag(value));
+		}
+
+		long readLong() {
+			return unzigzag(readVarLong(in));
+		}
+
+		void writeLong(long value) {
+			out.writeVarLong(zigzag(value));
+		}
+
+		int readFloat() {
+			return in.getInt();
+		}
+
+		void writeFloat(int bits) {
+			out.writeInt(bits);
+		}
+
+		long readDouble() {
+			long tag = readVarLong(in);
+			if ((tag & 1) == 0) {
+				return Double.doubleToRawLongBits((double) unzigzag(tag >>> 1));
+			}
+			return in.getLong();
+		}
+
+		void writeDouble(long bits) {
+			double value = Double.longBitsToDouble(bits);
+			long integral = (long) value;
+			if (integral == value && bits != NEGATIVE_ZERO && integral > -MAX_INTEGRAL_DOUBLE && integral < MAX_INTEGRAL_DOUBLE) {
+				out.writeVarLong(zigzag(integral) << 1);
+			} else {
+				out.write((byte) 1);
+				out.writeLong(bits);
+			}
+		}
+
+		byte[] readString() {
+			int tag = (int) readVarLong(in);
+			if (tag == 0) {
+				return null;
+			} else if (tag == 1) {
+				byte[] value = new byte[(int) readVarLong(in)];
+				in.get(value);
+				if (readStrings == null) {
+					readStrings = new ArrayList<byte[]>();
+				}
+				readStrings.add(value);
+				return value;
+			}
+			return readStrings.get(tag - 2);
+		}
+
+		void writeString(byte[] value) {
+			if (value == null) {
+				out.writeVarLong(0);
+				return;
+			}
+			if (writtenStrings == null) {
+				writtenStrings = new HashMap<ByteBuffer, Integer>();
+			}
+			ByteBuffer key = ByteBuffer.wrap(value);
+			Integer index = writtenStrings.get(key);
+			if (index != null) {
+				out.writeVarLong(index + 2);
+			} else {
+				writtenStrings.put(key, writtenStrings.size());
+				out.writeVarLong(1);
+				out.writeVarLong(value.length);
+				out.write(value);
+			}
+		}
+
+		byte[] readBytes() {
+			byte[] value = new byte[(int) readVarLong(in)];
+			in.get(value);
+			return value;
+		}
+
+		void writeBytes(byte[] value) {
+			out.writeVarLong(value.length);
+			out.write(value);
+		}
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static long readVarLong(ByteBuffer buffer) {
+		long result = 0;
+		int shift = 0;
+		while (true) {
+			byte b = buffer.get();
+			result |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return result;
+			}
+			shift += 7;
+		}
+	}
+
+	/*
+	 * Growing big endian byte output
+	 */
+	private static class Output {
+		private byte[] buffer;
+		private int size;
+
+		Output(int initialCapacity) {
+			buffer = new byte[Math.max(16, initialCapacity)];
+		}
+
+		private void ensure(int extra) {
+			if (size + extra > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+			}
+		}
+
+		int size() {
+			return size;
+		}
+
+		void write(byte value) {
+			ensure(1);
+			buffer[size++] = value;
+		}
+
+		void write(byte[] value) {
+			ensure(value.length);
+			System.arraycopy(value, 0, buffer, size, value.length);
+			size += value.length;
+		}
+
+		void writeShort(short value) {
+			ensure(2);
+			buffer[size++] = (byte) (value >> 8);
+			buffer[size++] = (byte) value;
+		}
+
+		void writeInt(int value) {
+			ensure(4);
+			buffer[size++] = (byte) (value >> 24);
+			buffer[size++] = (byte) (value >> 16);
+			buffer[size++] = (byte) (value >> 8);
+			buffer[size++] = (byte) value;
+		}
+
+		void writeLong(long value) {
+			writeInt((int) (value >> 32));
+			writeInt((int) value);
+		}
+
+		void writeVarLong(long value) {
+			ensure(10);
+			while ((value & ~0x7FL) != 0) {
+				buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			buffer[size++] = (byte) value;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buffer, size);
+		}
+	}
+
+	public void addDatabaseInformation(DatabaseInformation databaseInformation) {
+		DatabaseInformationCategory category = StoreFactory.eINSTANCE.createDatabaseInformationCategory();
+		category.setTitle("Record encoding");
+		addItem(category, "Records encoded since startup", "" + recordsEncoded.get());
+		addItem(category, "Records deflated since startup", "" + recordsDeflated.get());
+		addItem(category, "Size before encoding", Formatters.bytesToString(legacyBytes.get()));
+		addItem(category, "Size after encoding", Formatters.bytesToString(encodedBytes.get()));
+		databaseInformation.getCategories().add(category);
+	}
+
+	private void addItem(DatabaseInformationCategory category, String key, String value) {
+		DatabaseInformationItem item = StoreFactory.eINSTANCE.createDatabaseInformationItem();
+		item.setKey(key);
+		item.setValue(value);
+		category.getItems().add(item);
+	}
+}
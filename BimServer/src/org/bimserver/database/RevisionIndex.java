@@ -0,0 +1,268 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bimserver.models.store.DatabaseInformation;
+import org.bimserver.models.store.DatabaseInformationCategory;
+import org.bimserver.models.store.DatabaseInformationItem;
+import org.bimserver.models.store.StoreFactory;
+import org.bimserver.utils.BinUtils;
+import org.eclipse.emf.ecore.EClass;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Materialized result of scanning the class tables for one concrete revision. Records are keyed (pid, oid, -rid), so a scan
+ * for a revision has to walk all stored versions of every oid from the oid counter of the class on, the index contains only
+ * the (oid, rid) of the records that scan would convert, sorted by oid. Deletion markers are left out.
+ *
+ * The key is the pid, the rid, the cid and a page number, the value starts with the stop rid and the start oid the index was
+ * built for, followed by at most PAGE_SIZE (oid, rid) pairs. An index is only used for a query with the same pid, rid, stop
+ * rid and oid counter, other queries scan the tables like before. Revisions that have not been indexed (created before this
+ * index existed, or when building failed) are scanned as well.
+ */
+public class RevisionIndex {
+	private static final Logger LOGGER = LoggerFactory.getLogger(RevisionIndex.class);
+	public static final String REVISION_INDEX_TABLE = "INT-RevisionIndex";
+	private static final int PAGE_SIZE = 4096;
+	private static final int HEADER_SIZE = 4 + 8;
+	private static final int ENTRY_SIZE = 8 + 4;
+	private final Database database;
+	private final AtomicLong indexedReads = new AtomicLong();
+	private final AtomicLong scannedReads = new AtomicLong();
+	private final AtomicLong revisionsIndexed = new AtomicLong();
+
+	public RevisionIndex(Database database) {
+		this.database = database;
+	}
+
+	public static class Entries {
+		private final long[] oids;
+		private final int[] rids;
+		private final int size;
+
+		public Entries(long[] oids, int[] rids, int size) {
+			this.oids = oids;
+			this.rids = rids;
+			this.size = size;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public long getOid(int index) {
+			return oids[index];
+		}
+
+		public int getRid(int index) {
+			return rids[index];
+		}
+	}
+
+	/**
+	 * @return The visible records of the given class, or null when there is no index for exactly this query
+	 */
+	public Entries get(int pid, int rid, int stopRid, EClass eClass, long startOid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		short cid = databaseSession.getCid(eClass);
+		byte[] prefix = createKey(pid, rid, cid);
+		SearchingRecordIterator recordIterator = database.getKeyValueStore().getRecordIterator(REVISION_INDEX_TABLE, prefix, prefix, databaseSession);
+		try {
+			long[] oids = new long[0];
+			int[] rids = new int[0];
+			int size = 0;
+			Record record = recordIterator.next();
+			if (record == null) {
+				return null;
+			}
+			while (record != null) {
+				ByteBuffer value = ByteBuffer.wrap(record.getValue());
+				if (value.getInt() != stopRid || value.getLong() != startOid) {
+					return null;
+				}
+				int count = value.remaining() / ENTRY_SIZE;
+				if (size + count > oids.length) {
+					oids = Arrays.copyOf(oids, size + count);
+					rids = Arrays.copyOf(rids, size + count);
+				}
+				for (int i = 0; i < count; i++) {
+					oids[size] = value.getLong();
+					rids[size] = value.getInt();
+					size++;
+				}
+				record = recordIterator.next();
+			}
+			return new Entries(oids, rids, size);
+		} finally {
+			recordIterator.close();
+		}
+	}
+
+	/**
+	 * Builds the index of a concrete revision in a session of its own, should be called after the records of the revision have been committed.
+	 * Failures are logged, reading the revision falls back to scanning in that case.
+	 */
+	public void build(int pid, int rid, int stopRid, Map<EClass, Long> oidCounters) {
+		DatabaseSession databaseSession = database.createSession();
+		try {
+			build(pid, rid, stopRid, oidCounters, databaseSession);
+			databaseSession.commit();
+			revisionsIndexed.incrementAndGet();
+		} catch (Exception e) {
+			LOGGER.error("Could not index revision " + rid + " of project " + pid, e);
+		} finally {
+			databaseSession.close();
+		}
+	}
+
+	public void build(int pid, int rid, int stopRid, Map<EClass, Long> oidCounters, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		KeyValueStore keyValueStore = database.getKeyValueStore();
+		delete(pid, rid, databaseSession);
+		for (EClass eClass : oidCounters.keySet()) {
+			String tableName = eClass.getEPackage().getName() + "_" + eClass.getName();
+			if (!keyValueStore.containsTable(tableName)) {
+				continue;
+			}
+			long startOid = oidCounters.get(eClass);
+			short cid = databaseSession.getCid(eClass);
+			ByteBuffer page = createPage(stopRid, startOid);
+			int pageNumber = 0;
+			ByteBuffer start = ByteBuffer.allocate(12);
+			start.putInt(pid);
+			start.putLong(startOid + 1);
+			SearchingRecordIterator recordIterator = keyValueStore.getRecordIterator(tableName, BinUtils.intToByteArray(pid), start.array(), databaseSession);
+			try {
+				ByteBuffer nextKeyStart = ByteBuffer.allocate(12);
+				Record record = recordIterator.next();
+				while (record != null) {
+					ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+					keyBuffer.getInt();
+					long keyOid = keyBuffer.getLong();
+					int keyRid = -keyBuffer.getInt();
+					if (keyRid <= rid && keyRid >= stopRid) {
+						byte[] value = record.getValue();
+						if (value.length != 1 || value[0] != -1) {
+							if (!page.hasRemaining()) {
+								keyValueStore.store(REVISION_INDEX_TABLE, createKey(pid, rid, cid, pageNumber++), page.array(), databaseSession);
+								page = createPage(stopRid, startOid);
+							}
+							page.putLong(keyOid);
+							page.putInt(keyRid);
+						}
+						nextKeyStart.position(0);
+						nextKeyStart.putInt(pid);
+						nextKeyStart.putLong(keyOid + 1);
+						record = recordIterator.next(nextKeyStart.array());
+					} else {
+						record = recordIterator.next();
+					}
+				}
+			} finally {
+				recordIterator.close();
+			}
+			// The last page is always stored, an empty page 0 tells that the revision has no visible objects of this class
+			keyValueStore.store(REVISION_INDEX_TABLE, createKey(pid, rid, cid, pageNumber), page.array(), 0, page.position(), databaseSession);
+		}
+	}
+
+	/**
+	 * Removes the index of a concrete revision, for example before records of the revision are changed
+	 */
+	public void delete(int pid, int rid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		KeyValueStore keyValueStore = database.getKeyValueStore();
+		byte[] prefix = createKey(pid, rid);
+		List<byte[]> keys = new ArrayList<byte[]>();
+		SearchingRecordIterator recordIterator = keyValueStore.getRecordIterator(REVISION_INDEX_TABLE, prefix, prefix, databaseSession);
+		try {
+			Record record = recordIterator.next();
+			while (record != null) {
+				keys.add(record.getKey());
+				record = recordIterator.next();
+			}
+		} finally {
+			recordIterator.close();
+		}
+		for (byte[] key : keys) {
+			keyValueStore.delete(REVISION_INDEX_TABLE, key, databaseSession);
+		}
+	}
+
+	private ByteBuffer createPage(int stopRid, long startOid) {
+		ByteBuffer page = ByteBuffer.allocate(HEADER_SIZE + PAGE_SIZE * ENTRY_SIZE);
+		page.putInt(stopRid);
+		page.putLong(startOid);
+		return page;
+	}
+
+	private byte[] createKey(int pid, int rid) {
+		ByteBuffer key = ByteBuffer.allocate(8);
+		key.putInt(pid);
+		key.putInt(rid);
+		return key.array();
+	}
+
+	private byte[] createKey(int pid, int rid, short cid) {
+		ByteBuffer key = ByteBuffer.allocate(10);
+		key.putInt(pid);
+		key.putInt(rid);
+		key.putShort(cid);
+		return key.array();
+	}
+
+	private byte[] createKey(int pid, int rid, short cid, int page) {
+		ByteBuffer key = ByteBuffer.allocate(14);
+		key.putInt(pid);
+		key.putInt(rid);
+		key.putShort(cid);
+		key.putInt(page);
+		return key.array();
+	}
+
+	public void incrementIndexedReads(long reads) {
+		indexedReads.addAndGet(reads);
+	}
+
+	public void incrementScannedReads(long reads) {
+		scannedReads.addAndGet(reads);
+	}
+
+	public void addDatabaseInformation(DatabaseInformation databaseInformation) {
+		DatabaseInformationCategory category = StoreFactory.eINSTANCE.createDatabaseInformationCategory();
+		category.setTitle("Revision index");
+		addItem(category, "Pages", "" + database.getKeyValueStore().count(REVISION_INDEX_TABLE));
+		addItem(category, "Revisions indexed since startup", "" + revisionsIndexed.get());
+		addItem(category, "Indexed reads since startup", "" + indexedReads.get());
+		addItem(category, "Scanned reads since startup", "" + scannedReads.get());
+		databaseInformation.getCategories().add(category);
+	}
+
+	private void addItem(DatabaseInformationCategory category, String key, String value) {
+		DatabaseInformationItem item = StoreFactory.eINSTANCE.createDatabaseInformationItem();
+		item.setKey(key);
+		item.setValue(value);
+		category.getItems().add(item);
+	}
+}
@@ -0,0 +1,986 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bimserver.database.query.conditions.AndCondition;
+import org.bimserver.database.query.conditions.AttributeCondition;
+import org.bimserver.database.query.conditions.Condition;
+import org.bimserver.database.query.conditions.HasReferenceToCondition;
+import org.bimserver.emf.IdEObject;
+import org.bimserver.models.store.DatabaseInformation;
+import org.bimserver.models.store.DatabaseInformationCategory;
+import org.bimserver.models.store.DatabaseInformationItem;
+import org.bimserver.models.store.StoreFactory;
+import org.bimserver.models.store.StorePackage;
+import org.bimserver.shared.exceptions.ServiceException;
+import org.bimserver.shared.exceptions.UserException;
+import org.bimserver.utils.BinUtils;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EClassifier;
+import org.eclipse.emf.ecore.EDataType;
+import org.eclipse.emf.ecore.EEnum;
+import org.eclipse.emf.ecore.EEnumLiteral;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.EcorePackage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.primitives.UnsignedBytes;
+
+/*
+ * Secondary indexes on the values of features, declared with IndexDefinitions. Every index has a table with sorted duplicates, the key is the pid
+ * followed by the (length prefixed) values of the indexed features, the values are the oids of the objects that have (or had) those values.
+ *
+ * Entries are added when records are committed and only removed when their project is deleted, so an index can return objects that do not match
+ * anymore, or are not visible in the revision that is queried. Lookups therefore only produce candidates, callers load them with the query and
+ * evaluate the condition again. This keeps one index valid for all revisions of a project.
+ *
+ * Indexes that are declared on a database with existing data are built in the background, they are only used for lookups when the build has
+ * finished (recorded in INT-IndexStatus). Entries for new commits are written from the start, so nothing committed during the build is missed.
+ *
+ * The entries of a deleted project are pruned in the background, and added again when the project is undeleted. Both are recorded per project
+ * in INT-IndexStatus, lookups in such a project scan until the entries have been restored.
+ *
+ * The indexes on IFC objects are only maintained when the ifcIndexes server setting is on. Turning it off also forgets that they have been
+ * built, so they are built again when it is turned back on. Lookups that produce more than MAX_CANDIDATES candidates scan instead.
+ */
+public class SecondaryIndexes {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SecondaryIndexes.class);
+	public static final String INDEX_STATUS_TABLE = "INT-IndexStatus";
+	private static final String PROJECT_STATUS_PREFIX = "Project ";
+	private static final byte PROJECT_DELETED = 1;
+	private static final byte PROJECT_RESTORING = 0;
+	private static final int BUILD_CHUNK_SIZE = 10000;
+	// Every candidate costs a read of its record and a visibility check, with more candidates than this reading the objects of the classes is cheaper
+	public static final int MAX_CANDIDATES = 1000;
+	private static final EntryComparator ENTRY_COMPARATOR = new EntryComparator();
+	private final Database database;
+	private final List<IndexDefinition> declared = new ArrayList<IndexDefinition>();
+	private final List<IndexDefinition> definitions = new ArrayList<IndexDefinition>();
+	private final Map<EClass, List<IndexDefinition>> definitionsPerClass = new HashMap<EClass, List<IndexDefinition>>();
+	private final Set<IndexDefinition> built = Collections.newSetFromMap(new ConcurrentHashMap<IndexDefinition, Boolean>());
+	// Projects without (complete) entries, true for deleted projects and false for projects of which the entries are being restored
+	private final Map<Integer, Boolean> unindexedProjects = new ConcurrentHashMap<Integer, Boolean>();
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong candidates = new AtomicLong();
+	private final AtomicLong entriesWritten = new AtomicLong();
+	private final AtomicLong scannedLookups = new AtomicLong();
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "SecondaryIndexBuilder");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private boolean started;
+	private volatile boolean closed;
+	// The ifcIndexes setting as last seen, null until the server settings are available
+	private volatile Boolean ifcIndexesEnabled;
+
+	public SecondaryIndexes(Database database) {
+		this.database = database;
+		declare(new IndexDefinition("store", "User", false, "token"));
+		declare(new IndexDefinition("store", "User", false, "username"));
+		declare(new IndexDefinition("store", "Revision", false, "user"));
+		declare(new IndexDefinition("store", "Checkout", false, "user"));
+		declare(new IndexDefinition("store", "Checkout", false, "revision"));
+		declare(new IndexDefinition("store", "Project", false, "hasAuthorizedUsers"));
+		declare(new IndexDefinition("store", "PluginDescriptor", false, "pluginClassName"));
+		for (String schema : new String[] { "ifc2x3tc1", "ifc4" }) {
+			declare(new IndexDefinition(schema, "IfcRoot", true, "GlobalId"));
+			declare(new IndexDefinition(schema, "IfcRoot", true, "Name"));
+			declare(new IndexDefinition(schema, "IfcRelContainedInSpatialStructure", false, "RelatingStructure"));
+			declare(new IndexDefinition(schema, "IfcRelDefinesByProperties", false, "RelatingPropertyDefinition"));
+			declare(new IndexDefinition(schema, "IfcPropertySingleValue", false, "Name"));
+		}
+	}
+
+	/**
+	 * Indexes have to be declared before the database is initialized
+	 */
+	public void declare(IndexDefinition indexDefinition) {
+		declared.add(indexDefinition);
+	}
+
+	/**
+	 * Opens (or creates) the tables of all declared indexes that exist in this database, should be called after the classes have been registered
+	 */
+	public void init(DatabaseSession databaseSession) throws BimserverDatabaseException {
+		KeyValueStore keyValueStore = database.getKeyValueStore();
+		if (keyValueStore.containsTable(INDEX_STATUS_TABLE)) {
+			keyValueStore.openTable(INDEX_STATUS_TABLE);
+		} else {
+			keyValueStore.createTable(INDEX_STATUS_TABLE, databaseSession);
+		}
+		for (IndexDefinition indexDefinition : declared) {
+			if (!indexDefinition.resolve(database)) {
+				continue;
+			}
+			if (keyValueStore.containsTable(indexDefinition.getTableName())) {
+				keyValueStore.openIndexTable(indexDefinition.getTableName());
+			} else {
+				keyValueStore.createIndexTable(indexDefinition.getTableName(), databaseSession);
+			}
+			if (keyValueStore.get(INDEX_STATUS_TABLE, BinUtils.stringToByteArray(indexDefinition.getName()), databaseSession) != null) {
+				built.add(indexDefinition);
+			}
+			definitions.add(indexDefinition);
+			for (EClass eClass : indexDefinition.getEClasses()) {
+				List<IndexDefinition> list = definitionsPerClass.get(eClass);
+				if (list == null) {
+					list = new ArrayList<IndexDefinition>();
+					definitionsPerClass.put(eClass, list);
+				}
+				list.add(indexDefinition);
+			}
+		}
+		RecordIterator recordIterator = keyValueStore.getRecordIterator(INDEX_STATUS_TABLE, databaseSession);
+		try {
+			byte[] prefix = BinUtils.stringToByteArray(PROJECT_STATUS_PREFIX);
+			Record record = recordIterator.next();
+			while (record != null) {
+				byte[] key = record.getKey();
+				if (key.length > prefix.length && Arrays.equals(Arrays.copyOf(key, prefix.length), prefix)) {
+					int pid = Integer.parseInt(new String(key, prefix.length, key.length - prefix.length, Charsets.UTF_8));
+					unindexedProjects.put(pid, record.getValue()[0] == PROJECT_DELETED);
+				}
+				record = recordIterator.next();
+			}
+		} finally {
+			recordIterator.close();
+		}
+	}
+
+	/**
+	 * Starts building the indexes that have not been built yet on a background thread, on which the entries of deleted and undeleted projects that
+	 * were not finished before the last shutdown are also pruned or restored
+	 */
+	public synchronized void startBuilding() {
+		if (started) {
+			return;
+		}
+		started = true;
+		for (IndexDefinition indexDefinition : definitions) {
+			if (!built.contains(indexDefinition) && !isIfcIndex(indexDefinition)) {
+				scheduleBuild(indexDefinition, Collections.<DatabaseSession>emptySet());
+			}
+		}
+		// Builds or forgets the IFC indexes, or leaves that to the first commit or lookup when the server settings are not available yet
+		checkIfcIndexes();
+		for (Map.Entry<Integer, Boolean> entry : unindexedProjects.entrySet()) {
+			if (entry.getValue()) {
+				schedulePrune(entry.getKey());
+			} else {
+				scheduleRestore(entry.getKey());
+			}
+		}
+	}
+
+	/*
+	 * Follows changes of the ifcIndexes setting. Objects that are committed while it is off get no entries, so the IFC indexes are not used
+	 * anymore and will be built again when it is turned on.
+	 */
+	private void checkIfcIndexes() {
+		Boolean enabled = database.isIfcIndexesEnabled();
+		if (enabled == null || enabled.equals(ifcIndexesEnabled)) {
+			return;
+		}
+		synchronized (this) {
+			if (!started || enabled.equals(ifcIndexesEnabled)) {
+				return;
+			}
+			ifcIndexesEnabled = enabled;
+			if (enabled) {
+				// Sessions that are open right now might still commit objects without entries, the builds wait until they have been closed
+				Set<DatabaseSession> openSessions = database.getOpenSessions();
+				for (IndexDefinition indexDefinition : definitions) {
+					if (isIfcIndex(indexDefinition) && !built.contains(indexDefinition)) {
+						scheduleBuild(indexDefinition, openSessions);
+					}
+				}
+			} else {
+				final List<IndexDefinition> forgotten = new ArrayList<IndexDefinition>();
+				for (IndexDefinition indexDefinition : definitions) {
+					if (isIfcIndex(indexDefinition) && built.remove(indexDefinition)) {
+						forgotten.add(indexDefinition);
+					}
+				}
+				if (!forgotten.isEmpty()) {
+					submit(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								forget(forgotten);
+							} catch (Exception e) {
+								LOGGER.error("", e);
+							}
+						}
+					});
+				}
+			}
+		}
+	}
+
+	private boolean isIfcIndex(IndexDefinition indexDefinition) {
+		return !indexDefinition.getPackageName().equals(StorePackage.eNAME);
+	}
+
+	/**
+	 * Stops the builder (the index that is being built is continued from the start on the next startup), waits for the current chunk to finish
+	 */
+	public void close() {
+		closed = true;
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits until the builds, prunes and restores that have been scheduled so far have finished
+	 */
+	public void awaitScheduled() throws InterruptedException {
+		Future<?> future;
+		synchronized (this) {
+			if (!started || closed) {
+				return;
+			}
+			future = executor.submit(new Runnable() {
+				@Override
+				public void run() {
+				}
+			});
+		}
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			LOGGER.error("", e);
+		}
+	}
+
+	/**
+	 * Has to be called in the session that deletes the project, the entries of the project are pruned in the background after the commit
+	 */
+	public void projectDeleted(final int pid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		database.getKeyValueStore().store(INDEX_STATUS_TABLE, getProjectStatusKey(pid), new byte[] { PROJECT_DELETED }, databaseSession);
+		databaseSession.addPostCommitAction(new PostCommitAction() {
+			@Override
+			public void execute() throws UserException {
+				unindexedProjects.put(pid, true);
+				schedulePrune(pid);
+			}
+		});
+	}
+
+	/**
+	 * Has to be called in the session that undeletes the project, the entries of the project are restored in the background after the commit
+	 */
+	public void projectUndeleted(final int pid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		if (database.getKeyValueStore().get(INDEX_STATUS_TABLE, getProjectStatusKey(pid), databaseSession) == null) {
+			// Deleted before entries were pruned, so nothing is missing
+			return;
+		}
+		database.getKeyValueStore().store(INDEX_STATUS_TABLE, getProjectStatusKey(pid), new byte[] { PROJECT_RESTORING }, databaseSession);
+		databaseSession.addPostCommitAction(new PostCommitAction() {
+			@Override
+			public void execute() throws UserException {
+				unindexedProjects.put(pid, false);
+				scheduleRestore(pid);
+			}
+		});
+	}
+
+	/**
+	 * @return Whether lookups in the given project use the indexes, false while the project is deleted or its entries are being restored
+	 */
+	public boolean isIndexed(int pid) {
+		return !unindexedProjects.containsKey(pid);
+	}
+
+	private byte[] getProjectStatusKey(int pid) {
+		return BinUtils.stringToByteArray(PROJECT_STATUS_PREFIX + pid);
+	}
+
+	private void schedulePrune(final int pid) {
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					prune(pid);
+				} catch (Exception e) {
+					LOGGER.error("Could not prune the index entries of project " + pid, e);
+				}
+			}
+		});
+	}
+
+	private void scheduleRestore(final int pid) {
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					restore(pid);
+				} catch (Exception e) {
+					LOGGER.error("Could not restore the index entries of project " + pid + ", queries in this project will scan instead", e);
+				}
+			}
+		});
+	}
+
+	private void scheduleBuild(final IndexDefinition indexDefinition, final Set<DatabaseSession> openSessions) {
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					awaitClosed(openSessions);
+					build(indexDefinition);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (Exception e) {
+					LOGGER.error("Could not build index " + indexDefinition.getName() + ", queries will scan instead", e);
+				}
+			}
+		});
+	}
+
+	private void awaitClosed(Set<DatabaseSession> sessions) throws InterruptedException {
+		Set<DatabaseSession> waitingFor = new HashSet<DatabaseSession>();
+		for (DatabaseSession databaseSession : sessions) {
+			if (!databaseSession.isReadOnly()) {
+				waitingFor.add(databaseSession);
+			}
+		}
+		while (!closed) {
+			waitingFor.retainAll(database.getOpenSessions());
+			if (waitingFor.isEmpty()) {
+				return;
+			}
+			Thread.sleep(100);
+		}
+	}
+
+	private synchronized void submit(Runnable runnable) {
+		// Before startBuilding the database is still being initialized, the tasks are scheduled from the status table when it starts
+		if (started && !closed) {
+			executor.submit(runnable);
+		}
+	}
+
+	private void build(IndexDefinition indexDefinition) throws BimserverDatabaseException {
+		if (closed || (isIfcIndex(indexDefinition) && ifcIndexesEnabled != Boolean.TRUE)) {
+			return;
+		}
+		long start = System.nanoTime();
+		LOGGER.info("Building index " + indexDefinition.getName());
+		long entries = 0;
+		for (EClass eClass : indexDefinition.getEClasses()) {
+			entries += index(eClass, Collections.singletonList(indexDefinition), new byte[0]);
+			if (closed) {
+				return;
+			}
+		}
+		KeyValueStore keyValueStore = database.getKeyValueStore();
+		DatabaseSession databaseSession = database.createSession();
+		try {
+			keyValueStore.store(INDEX_STATUS_TABLE, BinUtils.stringToByteArray(indexDefinition.getName()), BinUtils.longToByteArray(new Date().getTime()), databaseSession);
+			databaseSession.commit();
+		} catch (ServiceException e) {
+			throw new BimserverDatabaseException(e);
+		} finally {
+			databaseSession.close();
+		}
+		synchronized (this) {
+			if (isIfcIndex(indexDefinition) && ifcIndexesEnabled != Boolean.TRUE) {
+				// Turned off during the build, the status is removed again by the forget that has been scheduled
+				return;
+			}
+			built.add(indexDefinition);
+		}
+		LOGGER.info("Index " + indexDefinition.getName() + " built, " + entries + " entries (" + ((System.nanoTime() - start) / 1000000) + " ms)");
+	}
+
+	/*
+	 * Removes the status of indexes that are not maintained anymore, the entries stay until the index is built again (which adds the missing ones)
+	 */
+	private void forget(List<IndexDefinition> indexDefinitions) throws BimserverDatabaseException {
+		DatabaseSession databaseSession = database.createSession();
+		try {
+			for (IndexDefinition indexDefinition : indexDefinitions) {
+				database.getKeyValueStore().delete(INDEX_STATUS_TABLE, BinUtils.stringToByteArray(indexDefinition.getName()), databaseSession);
+			}
+			databaseSession.commit();
+		} catch (ServiceException e) {
+			throw new BimserverDatabaseException(e);
+		} finally {
+			databaseSession.close();
+		}
+		LOGGER.info("IFC indexes are not maintained anymore, " + indexDefinitions.size() + " indexes will be built again when they are turned on");
+	}
+
+	/*
+	 * Removes all entries of the given project, stops when the project is undeleted in the meantime (the restore that follows adds them again)
+	 */
+	private void prune(int pid) throws BimserverDatabaseException {
+		long start = System.nanoTime();
+		KeyValueStore keyValueStore = database.getKeyValueStore();
+		byte[] prefix = BinUtils.intToByteArray(pid);
+		long entries = 0;
+		for (IndexDefinition indexDefinition : definitions) {
+			boolean done = false;
+			int conflicts = 0;
+			while (!done) {
+				if (closed || unindexedProjects.get(pid) != Boolean.TRUE) {
+					return;
+				}
+				DatabaseSession databaseSession = database.createSession();
+				try {
+					// The pruned entries are gone, so every chunk starts at the beginning of the project again
+					List<Record> records = readChunk(indexDefinition.getTableName(), prefix, null, databaseSession);
+					keyValueStore.delete(indexDefinition.getTableName(), records, databaseSession);
+					databaseSession.commit();
+					entries += records.size();
+					done = records.size() < BUILD_CHUNK_SIZE;
+					conflicts = 0;
+				} catch (BimserverLockConflictException e) {
+					if (++conflicts > 10) {
+						throw e;
+					}
+				} catch (ServiceException e) {
+					throw new BimserverDatabaseException(e);
+				} finally {
+					databaseSession.close();
+				}
+			}
+		}
+		LOGGER.info("Pruned " + entries + " index entries of project " + pid + " (" + ((System.nanoTime() - start) / 1000000) + " ms)");
+	}
+
+	/*
+	 * Adds the entries of all records of the given project again, the project keeps scanning until all of them have been added
+	 */
+	private void restore(int pid) throws BimserverDatabaseException {
+		long start = System.nanoTime();
+		byte[] prefix = BinUtils.intToByteArray(pid);
+		long entries = 0;
+		for (Map.Entry<EClass, List<IndexDefinition>> entry : definitionsPerClass.entrySet()) {
+			if (closed || unindexedProjects.get(pid) != Boolean.FALSE) {
+				// Deleted again, the prune that follows removes what has been added
+				return;
+			}
+			if (entry.getKey().getEPackage() != StorePackage.eINSTANCE && ifcIndexesEnabled == Boolean.FALSE) {
+				continue;
+			}
+			entries += index(entry.getKey(), entry.getValue(), prefix);
+		}
+		if (closed) {
+			return;
+		}
+		KeyValueStore keyValueStore = database.getKeyValueStore();
+		DatabaseSession databaseSession = database.createSession();
+		try {
+			byte[] status = keyValueStore.get(INDEX_STATUS_TABLE, getProjectStatusKey(pid), databaseSession);
+			if (status == null || status[0] != PROJECT_RESTORING) {
+				return;
+			}
+			keyValueStore.delete(INDEX_STATUS_TABLE, getProjectStatusKey(pid), databaseSession);
+			databaseSession.commit();
+		} catch (ServiceException e) {
+			throw new BimserverDatabaseException(e);
+		} finally {
+			databaseSession.close();
+		}
+		unindexedProjects.remove(pid, false);
+		LOGGER.info("Restored " + entries + " index entries of project " + pid + " (" + ((System.nanoTime() - start) / 1000000) + " ms)");
+	}
+
+	/*
+	 * Adds the entries for the records of a class that start with the given prefix. Every chunk is read and indexed in a session of its own, so
+	 * this never holds many locks at the same time. Returns early when the indexes are closed.
+	 */
+	private long index(EClass eClass, List<IndexDefinition> indexDefinitions, byte[] prefix) throws BimserverDatabaseException {
+		String tableName = eClass.getEPackage().getName() + "_" + eClass.getName();
+		if (!database.getKeyValueStore().containsTable(tableName)) {
+			return 0;
+		}
+		long entries = 0;
+		byte[] lastKey = null;
+		boolean done = false;
+		int conflicts = 0;
+		while (!done) {
+			if (closed) {
+				return entries;
+			}
+			DatabaseSession databaseSession = database.createSession();
+			try {
+				List<Record> records = readChunk(tableName, prefix, lastKey, databaseSession);
+				long chunkEntries = 0;
+				if (!records.isEmpty()) {
+					for (IndexDefinition indexDefinition : indexDefinitions) {
+						chunkEntries += store(indexDefinition, eClass, records, databaseSession);
+					}
+				}
+				databaseSession.commit();
+				if (!records.isEmpty()) {
+					lastKey = records.get(records.size() - 1).getKey();
+				}
+				entries += chunkEntries;
+				done = records.size() < BUILD_CHUNK_SIZE;
+				conflicts = 0;
+			} catch (BimserverLockConflictException e) {
+				// Commits write to the same index, the chunk is tried again
+				if (++conflicts > 10) {
+					throw e;
+				}
+			} catch (ServiceException e) {
+				throw new BimserverDatabaseException(e);
+			} finally {
+				databaseSession.close();
+			}
+		}
+		return entries;
+	}
+
+	/*
+	 * At most BUILD_CHUNK_SIZE records that start with the given prefix, after the given key (or from the start of the prefix when null)
+	 */
+	private List<Record> readChunk(String tableName, byte[] prefix, byte[] lastKey, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		List<Record> records = new ArrayList<Record>();
+		SearchingRecordIterator recordIterator = database.getKeyValueStore().getRecordIterator(tableName, prefix, lastKey == null ? prefix : lastKey, databaseSession);
+		try {
+			Record record = recordIterator.next();
+			if (record != null && lastKey != null && Arrays.equals(record.getKey(), lastKey)) {
+				record = recordIterator.next();
+			}
+			while (record != null) {
+				records.add(record);
+				if (records.size() == BUILD_CHUNK_SIZE) {
+					break;
+				}
+				record = recordIterator.next();
+			}
+		} finally {
+			recordIterator.close();
+		}
+		return records;
+	}
+
+	/**
+	 * Adds the entries for a run of records of one class that is being committed
+	 */
+	public void update(EClass eClass, List<Record> records, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		List<IndexDefinition> list = definitionsPerClass.get(eClass);
+		if (list == null) {
+			return;
+		}
+		if (eClass.getEPackage() != StorePackage.eINSTANCE) {
+			checkIfcIndexes();
+			if (ifcIndexesEnabled == Boolean.FALSE) {
+				return;
+			}
+		}
+		for (IndexDefinition indexDefinition : list) {
+			store(indexDefinition, eClass, records, databaseSession);
+		}
+	}
+
+	private long store(IndexDefinition indexDefinition, EClass eClass, List<Record> records, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		List<Record> entries = new ArrayList<Record>();
+		for (Record record : records) {
+			byte[] value = record.getValue();
+			if (value.length == 1 && value[0] == -1) {
+				// Deletion marker
+				continue;
+			}
+			ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+			int pid = keyBuffer.getInt();
+			if (unindexedProjects.get(pid) == Boolean.TRUE) {
+				continue;
+			}
+			long oid = keyBuffer.getLong();
+			List<List<byte[]>> values = extractValues(indexDefinition, eClass, database.getRecordCodec().decode(ByteBuffer.wrap(value), eClass));
+			byte[] oidBytes = BinUtils.longToByteArray(oid);
+			for (byte[] key : createKeys(pid, values)) {
+				entries.add(new ByteArrayRecord(key, oidBytes));
+			}
+		}
+		Collections.sort(entries, ENTRY_COMPARATOR);
+		database.getKeyValueStore().store(indexDefinition.getTableName(), entries, databaseSession);
+		entriesWritten.addAndGet(entries.size());
+		return entries.size();
+	}
+
+	/*
+	 * Reads the values of the indexed features from a record in the layout of DatabaseSession.convertObjectToByteArray, one list of values per
+	 * feature (a list with a null value for unset attributes and null references)
+	 */
+	private List<List<byte[]>> extractValues(IndexDefinition indexDefinition, EClass eClass, ByteBuffer buffer) throws BimserverDatabaseException {
+		List<EStructuralFeature> features = indexDefinition.getFeatures();
+		Map<EStructuralFeature, List<byte[]>> found = new HashMap<EStructuralFeature, List<byte[]>>();
+		byte unsettedLength = buffer.get();
+		byte[] unsetted = new byte[unsettedLength];
+		buffer.get(unsetted);
+		int fieldCounter = 0;
+		for (EStructuralFeature feature : eClass.getEAllStructuralFeatures()) {
+			if (found.size() == features.size()) {
+				break;
+			}
+			boolean isUnsetted = (unsetted[fieldCounter / 8] & (1 << (fieldCounter % 8))) != 0;
+			fieldCounter++;
+			boolean indexed = features.contains(feature);
+			List<byte[]> values = new ArrayList<byte[]>();
+			if (!isUnsetted) {
+				if (feature.isMany()) {
+					readList(feature, buffer, values);
+				} else if (feature.getEType() instanceof EEnum) {
+					int value = buffer.getInt();
+					values.add(value == -1 ? null : BinUtils.intToByteArray(value));
+				} else if (feature.getEType() instanceof EClass) {
+					values.add(readReference(buffer));
+				} else if (feature.getEType() instanceof EDataType) {
+					values.add(readPrimitive(feature.getEType(), buffer));
+				}
+			} else if (!feature.isMany()) {
+				values.add(null);
+			}
+			if (indexed) {
+				found.put(feature, values);
+			}
+		}
+		List<List<byte[]>> result = new ArrayList<List<byte[]>>(features.size());
+		for (EStructuralFeature feature : features) {
+			List<byte[]> values = found.get(feature);
+			result.add(values == null ? Collections.<byte[]>singletonList(null) : values);
+		}
+		return result;
+	}
+
+	private void readList(EStructuralFeature feature, ByteBuffer buffer, List<byte[]> values) throws BimserverDatabaseException {
+		if (feature.getEType() instanceof EEnum) {
+			// Lists of enums are not stored
+		} else if (feature.getEType() instanceof EClass) {
+			int size = buffer.getInt();
+			for (int i = 0; i < size; i++) {
+				if (feature.getEAnnotation("twodimensionalarray") != null) {
+					readList(((EClass) feature.getEType()).getEStructuralFeature("List"), buffer, new ArrayList<byte[]>());
+				} else {
+					byte[] oid = readReference(buffer);
+					if (oid != null) {
+						values.add(oid);
+					}
+				}
+			}
+		} else if (feature.getEType() instanceof EDataType) {
+			int size = buffer.getInt();
+			for (int i = 0; i < size; i++) {
+				readPrimitive(feature.getEType(), buffer);
+			}
+		}
+	}
+
+	/*
+	 * @return The oid of the referenced object, null for null references and embedded (wrapped) values
+	 */
+	private byte[] readReference(ByteBuffer buffer) throws BimserverDatabaseException {
+		short cid = buffer.getShort();
+		if (cid < -1) {
+			EClass wrappedClass = database.getEClassForCid((short) -cid);
+			if (wrappedClass == null) {
+				throw new BimserverDatabaseException("No class for cid " + (-cid));
+			}
+			readPrimitive(wrappedClass.getEStructuralFeature("wrappedValue").getEType(), buffer);
+			return null;
+		} else if (cid == -1) {
+			return null;
+		}
+		byte[] oid = new byte[8];
+		buffer.get(oid);
+		return oid;
+	}
+
+	private byte[] readPrimitive(EClassifier classifier, ByteBuffer buffer) throws BimserverDatabaseException {
+		int size;
+		if (classifier == EcorePackage.eINSTANCE.getEString() || classifier == EcorePackage.eINSTANCE.getEByteArray()) {
+			size = buffer.getInt();
+			if (size == -1) {
+				return null;
+			}
+		} else if (classifier == EcorePackage.eINSTANCE.getEInt() || classifier == EcorePackage.eINSTANCE.getEIntegerObject() || classifier == EcorePackage.eINSTANCE.getEFloat()
+				|| classifier == EcorePackage.eINSTANCE.getEFloatObject() || classifier instanceof EEnum) {
+			size = 4;
+		} else if (classifier == EcorePackage.eINSTANCE.getELong() || classifier == EcorePackage.eINSTANCE.getELongObject() || classifier == EcorePackage.eINSTANCE.getEDate()
+				|| classifier == EcorePackage.eINSTANCE.getEDouble() || classifier == EcorePackage.eINSTANCE.getEDoubleObject()) {
+			size = 8;
+		} else if (classifier == EcorePackage.eINSTANCE.getEBoolean() || classifier == EcorePackage.eINSTANCE.getEBooleanObject()) {
+			size = 1;
+		} else {
+			throw new BimserverDatabaseException("Unsupported type " + classifier.getName());
+		}
+		byte[] result = new byte[size];
+		buffer.get(result);
+		return result;
+	}
+
+	/*
+	 * One key per combination of values, only one of the features can have more than one value
+	 */
+	private List<byte[]> createKeys(int pid, List<List<byte[]>> values) {
+		List<byte[]> result = new ArrayList<byte[]>();
+		int manyIndex = -1;
+		int count = 1;
+		for (int i = 0; i < values.size(); i++) {
+			if (values.get(i).size() != 1) {
+				manyIndex = i;
+				count = values.get(i).size();
+			}
+		}
+		for (int n = 0; n < count; n++) {
+			List<byte[]> components = new ArrayList<byte[]>(values.size());
+			for (int i = 0; i < values.size(); i++) {
+				components.add(values.get(i).get(i == manyIndex ? n : 0));
+			}
+			result.add(createKey(pid, components));
+		}
+		return result;
+	}
+
+	private byte[] createKey(int pid, List<byte[]> components) {
+		int size = 4;
+		for (byte[] component : components) {
+			size += 4 + (component == null ? 0 : component.length);
+		}
+		ByteBuffer key = ByteBuffer.allocate(size);
+		key.putInt(pid);
+		for (byte[] component : components) {
+			if (component == null) {
+				key.putInt(-1);
+			} else {
+				key.putInt(component.length);
+				key.put(component);
+			}
+		}
+		return key.array();
+	}
+
+	/**
+	 * Looks up the objects that might match the given condition, using an index that covers all the given classes and for which the condition
+	 * requires an exact value for every indexed feature.
+	 *
+	 * @return The oids of the candidates, or null when no index can be used for this condition or it gives more than MAX_CANDIDATES candidates
+	 */
+	public Set<Long> find(Set<EClass> eClasses, Condition condition, int pid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		Map<EStructuralFeature, Object> constraints = new HashMap<EStructuralFeature, Object>();
+		collectConstraints(condition, constraints);
+		return find(eClasses, constraints, pid, databaseSession);
+	}
+
+	/**
+	 * Looks up the objects of the given classes that might have the given value for the given feature
+	 *
+	 * @return The oids of the candidates, or null when there is no index for this feature or it gives more than MAX_CANDIDATES candidates
+	 */
+	public Set<Long> find(Set<EClass> eClasses, EStructuralFeature feature, Object value, int pid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		return find(eClasses, Collections.singletonMap(feature, value), pid, databaseSession);
+	}
+
+	private Set<Long> find(Set<EClass> eClasses, Map<EStructuralFeature, Object> constraints, int pid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		if (constraints.isEmpty() || eClasses.isEmpty() || !isIndexed(pid)) {
+			return null;
+		}
+		checkIfcIndexes();
+		IndexDefinition best = null;
+		List<byte[]> bestComponents = null;
+		for (IndexDefinition indexDefinition : definitions) {
+			if (!built.contains(indexDefinition) || !covers(indexDefinition, eClasses)) {
+				continue;
+			}
+			if (best != null && best.getFeatures().size() >= indexDefinition.getFeatures().size()) {
+				continue;
+			}
+			List<byte[]> components = new ArrayList<byte[]>();
+			for (EStructuralFeature feature : indexDefinition.getFeatures()) {
+				if (!constraints.containsKey(feature)) {
+					components = null;
+					break;
+				}
+				Object value = constraints.get(feature);
+				if (value == null && !(feature instanceof EReference) && IndexDefinition.getValueSize(feature) != -1 && !(feature.getEType() instanceof EEnum)) {
+					// Null values of primitives (other than strings) are not stored as null
+					components = null;
+					break;
+				}
+				byte[] component = toBytes(feature, value);
+				if (component == null && value != null) {
+					components = null;
+					break;
+				}
+				components.add(component);
+			}
+			if (components != null) {
+				best = indexDefinition;
+				bestComponents = components;
+			}
+		}
+		if (best == null) {
+			return null;
+		}
+		List<byte[]> duplicates = database.getKeyValueStore().getDuplicates(best.getTableName(), createKey(pid, bestComponents), MAX_CANDIDATES, databaseSession);
+		if (duplicates == null) {
+			// Too many candidates (a common name for example), or the index could not be read
+			scannedLookups.incrementAndGet();
+			return null;
+		}
+		lookups.incrementAndGet();
+		Set<Long> result = new LinkedHashSet<Long>();
+		for (byte[] oid : duplicates) {
+			result.add(BinUtils.byteArrayToLong(oid));
+		}
+		candidates.addAndGet(result.size());
+		return result;
+	}
+
+	/*
+	 * Classes without a table (abstract classes for example) have no objects, so they do not have to be in the index
+	 */
+	private boolean covers(IndexDefinition indexDefinition, Set<EClass> eClasses) {
+		for (EClass eClass : eClasses) {
+			if (!indexDefinition.getEClasses().contains(eClass) && database.getClasses().contains(eClass)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Only the parts of a condition that every match has to fulfill (so no Not or Or) give usable constraints
+	 */
+	private void collectConstraints(Condition condition, Map<EStructuralFeature, Object> constraints) {
+		if (condition instanceof AndCondition) {
+			collectConstraints(((AndCondition) condition).getConditionA(), constraints);
+			collectConstraints(((AndCondition) condition).getConditionB(), constraints);
+		} else if (condition instanceof AttributeCondition) {
+			AttributeCondition attributeCondition = (AttributeCondition) condition;
+			if (attributeCondition.getLiteral() != null) {
+				constraints.put(attributeCondition.getAttribute(), attributeCondition.getLiteral().getValue());
+			}
+		} else if (condition instanceof HasReferenceToCondition) {
+			HasReferenceToCondition hasReferenceToCondition = (HasReferenceToCondition) condition;
+			if (hasReferenceToCondition.getReferencingObject() != null) {
+				constraints.put(hasReferenceToCondition.getReference(), hasReferenceToCondition.getReferencingObject());
+			}
+		}
+	}
+
+	/*
+	 * The bytes of a value the way they are stored in a record, null when the value can not be converted
+	 */
+	private byte[] toBytes(EStructuralFeature feature, Object value) {
+		if (value == null) {
+			return null;
+		}
+		if (feature instanceof EReference) {
+			if (value instanceof IdEObject) {
+				return BinUtils.longToByteArray(((IdEObject) value).getOid());
+			}
+			return null;
+		}
+		EClassifier type = feature.getEType();
+		if (type instanceof EEnum) {
+			EEnumLiteral eEnumLiteral = ((EEnum) type).getEEnumLiteralByLiteral(value.toString());
+			return eEnumLiteral == null ? null : BinUtils.intToByteArray(eEnumLiteral.getValue());
+		} else if (type == EcorePackage.eINSTANCE.getEString() && value instanceof String) {
+			return ((String) value).getBytes(Charsets.UTF_8);
+		} else if ((type == EcorePackage.eINSTANCE.getEInt() || type == EcorePackage.eINSTANCE.getEIntegerObject()) && value instanceof Integer) {
+			return BinUtils.intToByteArray((Integer) value);
+		} else if ((type == EcorePackage.eINSTANCE.getELong() || type == EcorePackage.eINSTANCE.getELongObject()) && value instanceof Long) {
+			return BinUtils.longToByteArray((Long) value);
+		} else if (type == EcorePackage.eINSTANCE.getEDate() && value instanceof Date) {
+			return BinUtils.longToByteArray(((Date) value).getTime());
+		} else if ((type == EcorePackage.eINSTANCE.getEBoolean() || type == EcorePackage.eINSTANCE.getEBooleanObject()) && value instanceof Boolean) {
+			return new byte[] { ((Boolean) value) ? (byte) 1 : (byte) 0 };
+		}
+		return null;
+	}
+
+	public void addDatabaseInformation(DatabaseInformation databaseInformation) {
+		DatabaseInformationCategory category = StoreFactory.eINSTANCE.createDatabaseInformationCategory();
+		category.setTitle("Secondary indexes");
+		for (IndexDefinition indexDefinition : definitions) {
+			String status;
+			if (built.contains(indexDefinition)) {
+				status = database.getKeyValueStore().count(indexDefinition.getTableName()) + " entries";
+			} else if (isIfcIndex(indexDefinition) && ifcIndexesEnabled != Boolean.TRUE) {
+				status = "Not maintained (ifcIndexes setting)";
+			} else {
+				status = "Building";
+			}
+			addItem(category, indexDefinition.getName(), status);
+		}
+		addItem(category, "Projects without entries", "" + unindexedProjects.size());
+		addItem(category, "Lookups since startup", "" + lookups.get());
+		addItem(category, "Candidates since startup", "" + candidates.get());
+		addItem(category, "Lookups with too many candidates since startup", "" + scannedLookups.get());
+		addItem(category, "Entries written since startup", "" + entriesWritten.get());
+		databaseInformation.getCategories().add(category);
+	}
+
+	private void addItem(DatabaseInformationCategory category, String key, String value) {
+		DatabaseInformationItem item = StoreFactory.eINSTANCE.createDatabaseInformationItem();
+		item.setKey(key);
+		item.setValue(value);
+		category.getItems().add(item);
+	}
+
+	private static class EntryComparator implements Comparator<Record> {
+		private final Comparator<byte[]> bytesComparator = UnsignedBytes.lexicographicalComparator();
+
+		@Override
+		public int compare(Record o1, Record o2) {
+			int result = bytesComparator.compare(o1.getKey(), o2.getKey());
+			if (result == 0) {
+				return bytesComparator.compare(o1.getValue(), o2.getValue());
+			}
+			return result;
+		}
+	}
+}
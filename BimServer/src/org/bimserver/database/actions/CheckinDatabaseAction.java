@@ -17,22 +17,31 @@ package org.bimserver.database.actions;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.bimserver.BimServer;
 import org.bimserver.GeometryCache;
 import org.bimserver.GeometryGenerator;
+import org.bimserver.RevisionDelta;
 import org.bimserver.SummaryMap;
 import org.bimserver.database.BimserverDatabaseException;
 import org.bimserver.database.BimserverLockConflictException;
 import org.bimserver.database.DatabaseSession;
 import org.bimserver.database.PostCommitAction;
 import org.bimserver.database.Query;
+import org.bimserver.database.Query.Deep;
 import org.bimserver.emf.IdEObject;
 import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.ifc.BasicIfcModel;
 import org.bimserver.mail.MailSystem;
 import org.bimserver.models.log.AccessMethod;
 import org.bimserver.models.log.NewRevisionAdded;
@@ -42,10 +51,13 @@ import org.bimserver.models.store.ModelCheckerInstance;
 import org.bimserver.models.store.ModelCheckerResult;
 import org.bimserver.models.store.Project;
 import org.bimserver.models.store.Revision;
+import org.bimserver.models.store.ServerSettings;
 import org.bimserver.models.store.Service;
 import org.bimserver.models.store.User;
 import org.bimserver.notifications.NewRevisionNotification;
+import org.bimserver.plugins.deserializers.ByteProgressReporter;
 import org.bimserver.plugins.deserializers.DeserializeException;
+import org.bimserver.plugins.deserializers.Deserializer;
 import org.bimserver.plugins.modelchecker.ModelChecker;
 import org.bimserver.plugins.modelchecker.ModelCheckerPlugin;
 import org.bimserver.shared.exceptions.UserException;
@@ -68,6 +80,9 @@ public class CheckinDatabaseAction extends GenericCheckinDatabaseAction {
 	private final GeometryCache geometryCache = new GeometryCache();
 	private String fileName;
 	private long fileSize;
+	private Deserializer deserializer;
+	private Path file;
+	private UserException readError;
 
 	public CheckinDatabaseAction(BimServer bimServer, DatabaseSession databaseSession, AccessMethod accessMethod, long poid, Authorization authorization, IfcModelInterface ifcModel,
 			String comment, String fileName, boolean merge) {
@@ -80,6 +95,33 @@ public class CheckinDatabaseAction extends GenericCheckinDatabaseAction {
 		this.merge = merge;
 	}
 
+	/**
+	 * The model is read from the given file when the action is executed, this way checkins waiting in the queue do not hold their models in memory
+	 */
+	public CheckinDatabaseAction(BimServer bimServer, DatabaseSession databaseSession, AccessMethod accessMethod, long poid, Authorization authorization, Deserializer deserializer, Path file,
+			String comment, String fileName, boolean merge) throws IOException {
+		this(bimServer, databaseSession, accessMethod, poid, authorization, (IfcModelInterface) null, comment, fileName, merge);
+		this.deserializer = deserializer;
+		this.file = file;
+		this.fileSize = Files.size(file);
+	}
+
+	/**
+	 * The file is only read when the action is executed, so a file that cannot be read fails the checkin instead of the service call that uploaded it
+	 * 
+	 * @return The reason the file could not be read, or null
+	 */
+	public UserException getReadError() {
+		return readError;
+	}
+
+	/**
+	 * @return The size of the uploaded file, or 0 when the model was passed in directly
+	 */
+	public long getFileSize() {
+		return fileSize;
+	}
+
 	@Override
 	public ConcreteRevision execute() throws UserException, BimserverDatabaseException {
 		try {
@@ -88,6 +130,22 @@ public class CheckinDatabaseAction extends GenericCheckinDatabaseAction {
 			} else {
 				setProgress("Deserializing IFC file...", 0);
 			}
+			if (getModel() == null && deserializer != null) {
+				// Kept after the first attempt, a retry of this action does not have to read the file again
+				try {
+					setModel(deserializer.read(file, new ByteProgressReporter() {
+						@Override
+						public void progress(long byteNumber) {
+							if (fileSize > 0) {
+								setProgress("Deserializing IFC file...", (int) (byteNumber * 100 / fileSize));
+							}
+						}
+					}));
+				} catch (DeserializeException e) {
+					readError = new UserException("Could not read " + fileName + ": " + e.getMessage(), e);
+					throw readError;
+				}
+			}
 			if (getModel().size() == 0) {
 				throw new DeserializeException("Cannot checkin empty model");
 			}
@@ -131,6 +189,7 @@ public class CheckinDatabaseAction extends GenericCheckinDatabaseAction {
 				}
 			}
 			
+			ConcreteRevision previousConcreteRevision = project.getLastConcreteRevision();
 			CreateRevisionResult result = createNewConcreteRevision(getDatabaseSession(), size, project, user, comment.trim());
 			concreteRevision = result.getConcreteRevision();
 			IfcHeader ifcHeader = getModel().getModelMetaData().getIfcHeader();
@@ -172,15 +231,31 @@ public class CheckinDatabaseAction extends GenericCheckinDatabaseAction {
 
 			ifcModel.fixOidsFlat(getDatabaseSession());
 
-			if (bimServer.getServerSettingsCache().getServerSettings().isGenerateGeometryOnCheckin()) {
+			ServerSettings serverSettings = bimServer.getServerSettingsCache().getServerSettings();
+			boolean incrementalGeometry = serverSettings.isGenerateGeometryOnCheckin() && serverSettings.isIncrementalGeometry();
+			IfcModelInterface previousModel = null;
+			RevisionDelta revisionDelta = null;
+			if (previousConcreteRevision != null && !merge) {
+				// Revisions without oid counters are read from the start of the table, a delta on top of them would hide the unchanged objects
+				boolean deltaCheckin = serverSettings.isDeltaCheckins() && previousConcreteRevision.getOidCounters() != null;
+				if (incrementalGeometry || deltaCheckin) {
+					previousModel = loadPreviousModel(previousConcreteRevision);
+				}
+				if (deltaCheckin) {
+					revisionDelta = new RevisionDelta(ifcModel, previousModel);
+					revisionDelta.reuseOids();
+				}
+			}
+
+			if (serverSettings.isGenerateGeometryOnCheckin()) {
 				setProgress("Generating Geometry...", -1);
-				new GeometryGenerator(bimServer).generateGeometry(authorization.getUoid(), bimServer.getPluginManager(), getDatabaseSession(), ifcModel, project.getId(), concreteRevision.getId(), true, geometryCache);
+				new GeometryGenerator(bimServer).generateGeometry(authorization.getUoid(), bimServer.getPluginManager(), getDatabaseSession(), ifcModel, project.getId(), concreteRevision.getId(), true, geometryCache, incrementalGeometry ? previousModel : null);
 				for (Revision other : concreteRevision.getRevisions()) {
 					other.setHasGeometry(true);
 				}
 			}
 
-			if (nrConcreteRevisionsBefore != 0 && !merge) {
+			if (nrConcreteRevisionsBefore != 0 && !merge && revisionDelta == null) {
 				// There already was a revision, lets delete it (only when not merging)
 				concreteRevision.setClear(true);
 			}
@@ -193,17 +268,39 @@ public class CheckinDatabaseAction extends GenericCheckinDatabaseAction {
 				}
 			}
 			ByteBuffer buffer = ByteBuffer.allocate(10 * s);
+			Map<EClass, Long> previousOidCounters = new HashMap<>();
+			if (revisionDelta != null) {
+				// Unchanged objects keep their oid, so the objects of this revision start where the objects of the previous revision started
+				previousOidCounters = Query.readOidCounters(previousConcreteRevision, getDatabaseSession());
+			}
+			final Map<EClass, Long> oidCounters = new HashMap<>();
 			for (EClass eClass : eClasses) {
 				long oid = startOids.get(eClass);
+				if (previousOidCounters.containsKey(eClass)) {
+					oid = Math.min(oid, previousOidCounters.get(eClass));
+				}
 				if (!DatabaseSession.perRecordVersioning(eClass)) {
 					buffer.putShort(getDatabaseSession().getCid(eClass));
 					buffer.putLong(oid);
+					oidCounters.put(eClass, oid);
 				}
 			}
 			
 			concreteRevision.setOidCounters(buffer.array());
 
-			if (ifcModel != null) {
+			if (revisionDelta != null) {
+				revisionDelta.compare();
+				for (IdEObject unchanged : revisionDelta.getUnchangedObjects()) {
+					// The geometry generator stores the products it generated geometry for
+					getDatabaseSession().removeFromCommit(unchanged);
+				}
+				getDatabaseSession().store(revisionDelta.getChangedObjects(), project.getId(), concreteRevision.getId());
+				List<IdEObject> removedObjects = revisionDelta.getRemovedObjects();
+				for (IdEObject removed : removedObjects) {
+					getDatabaseSession().delete(removed, concreteRevision.getId());
+				}
+				LOGGER.info("Delta checkin: " + revisionDelta.getUnchangedObjects().size() + " unchanged, " + revisionDelta.getChangedObjects().size() + " new or changed, " + removedObjects.size() + " removed");
+			} else if (ifcModel != null) {
 				getDatabaseSession().store(ifcModel.getValues(), project.getId(), concreteRevision.getId());
 			}
 			getDatabaseSession().addPostCommitAction(new PostCommitAction() {
@@ -212,6 +309,16 @@ public class CheckinDatabaseAction extends GenericCheckinDatabaseAction {
 					bimServer.getNotificationsManager().notify(new NewRevisionNotification(bimServer, project.getOid(), revision.getOid()));
 				}
 			});
+			final int pid = project.getId();
+			final int rid = concreteRevision.getId();
+			final int stopRid = AbstractDownloadDatabaseAction.findHighestStopRid(project, concreteRevision);
+			getDatabaseSession().addPostCommitAction(new PostCommitAction() {
+				@Override
+				public void execute() throws UserException {
+					// Only possible once the records are committed, downloads scan the tables until the index exists
+					bimServer.getDatabase().getRevisionIndex().build(pid, rid, stopRid, oidCounters);
+				}
+			});
 
 			getDatabaseSession().store(concreteRevision);
 			getDatabaseSession().store(project);
@@ -231,6 +338,15 @@ public class CheckinDatabaseAction extends GenericCheckinDatabaseAction {
 	public String getFileName() {
 		return fileName;
 	}
+
+	private IfcModelInterface loadPreviousModel(ConcreteRevision previousConcreteRevision) throws BimserverDatabaseException {
+		PackageMetaData packageMetaData = getModel().getPackageMetaData();
+		IfcModelInterface previousModel = new BasicIfcModel(packageMetaData, null);
+		Query query = new Query(packageMetaData, project.getId(), previousConcreteRevision.getId(), -1, null, Deep.YES, AbstractDownloadDatabaseAction.findHighestStopRid(project, previousConcreteRevision));
+		query.updateOidCounters(previousConcreteRevision, getDatabaseSession());
+		getDatabaseSession().getMap(previousModel, query);
+		return previousModel;
+	}
 	
 	private IfcModelInterface checkinMerge(Revision lastRevision) throws BimserverLockConflictException, BimserverDatabaseException, UserException {
 //		IfcModelSet ifcModelSet = new IfcModelSet();
@@ -51,6 +51,7 @@ import org.bimserver.shared.exceptions.UserException;
 import org.bimserver.webservices.LongTransaction;
 import org.bimserver.webservices.NoTransactionException;
 import org.bimserver.webservices.authorization.Authorization;
+import org.eclipse.emf.ecore.EClass;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -175,6 +176,16 @@ public class CommitTransactionDatabaseAction extends GenericCheckinDatabaseActio
 
 		if (oldLastRevision != null) {
 			concreteRevision.setOidCounters(oldLastRevision.getConcreteRevisions().get(0).getOidCounters());
+			final Map<EClass, Long> oidCounters = Query.readOidCounters(concreteRevision, getDatabaseSession());
+			final int pid = project.getId();
+			final int rid = concreteRevision.getId();
+			final int stopRid = AbstractDownloadDatabaseAction.findHighestStopRid(project, concreteRevision);
+			getDatabaseSession().addPostCommitAction(new PostCommitAction() {
+				@Override
+				public void execute() throws UserException {
+					bimServer.getDatabase().getRevisionIndex().build(pid, rid, stopRid, oidCounters);
+				}
+			});
 		}
 		concreteRevision.setSummary(summaryMap.toRevisionSummary(getDatabaseSession()));
 
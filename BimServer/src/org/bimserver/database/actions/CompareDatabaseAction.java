@@ -27,7 +27,9 @@ import org.bimserver.models.log.AccessMethod;
 import org.bimserver.models.store.CompareResult;
 import org.bimserver.models.store.CompareType;
 import org.bimserver.models.store.ModelComparePluginConfiguration;
+import org.bimserver.models.store.Revision;
 import org.bimserver.models.store.StorePackage;
+import org.bimserver.models.store.User;
 import org.bimserver.plugins.PluginConfiguration;
 import org.bimserver.plugins.modelcompare.ModelCompareException;
 import org.bimserver.plugins.modelcompare.ModelComparePlugin;
@@ -72,11 +74,27 @@ public class CompareDatabaseAction extends BimDatabaseAction<CompareResult> {
 		}
 	}
 
+	private void checkRights(long roid) throws UserException, BimserverDatabaseException {
+		Revision revision = getRevisionByRoid(roid);
+		if (revision == null) {
+			throw new UserException("Revision with oid " + roid + " not found");
+		}
+		try {
+			authorization.canDownload(roid);
+		} catch (UserException e) {
+			User user = getUserByUoid(authorization.getUoid());
+			if (!authorization.hasRightsOnProjectOrSuperProjectsOrSubProjects(user, revision.getProject())) {
+				throw new UserException("User has insufficient rights to download revisions from this project");
+			}
+		}
+	}
+
 	@Override
 	public CompareResult execute() throws UserException, BimserverLockConflictException, BimserverDatabaseException, ServerException {
-		CompareResult compareResults = null;// bimServer.getCompareCache().getCompareResults(roid1,
-											// roid2, sCompareType,
-											// sCompareIdentifier);
+		// A cached result skips the downloads, so their rights checks are done here
+		checkRights(roid1);
+		checkRights(roid2);
+		CompareResult compareResults = bimServer.getCompareCache().getCompareResults(roid1, roid2, sCompareType, mcid);
 		if (compareResults == null) {
 			IfcModelInterface model1 = new DownloadDatabaseAction(bimServer, getDatabaseSession(), getAccessMethod(), roid1, -1, serializerOid, authorization, null).execute();
 			IfcModelInterface model2 = new DownloadDatabaseAction(bimServer, getDatabaseSession(), getAccessMethod(), roid2, -1, serializerOid, authorization, null).execute();
@@ -85,7 +103,7 @@ public class CompareDatabaseAction extends BimDatabaseAction<CompareResult> {
 			} catch (ModelCompareException e) {
 				throw new UserException(e);
 			}
-//			bimServer.getCompareCache().storeResults(roid1, roid2, sCompareType, sCompareIdentifier, compareResults);
+			bimServer.getCompareCache().storeResults(roid1, roid2, sCompareType, mcid, compareResults);
 		}
 		return compareResults;
 	}
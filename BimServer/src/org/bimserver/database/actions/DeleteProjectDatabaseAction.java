@@ -71,8 +71,9 @@ public class DeleteProjectDatabaseAction extends BimDatabaseAction<Boolean> {
 		}
 	}
 	
-	private void delete(Project project) {
+	private void delete(Project project) throws BimserverDatabaseException {
 		project.setState(ObjectState.DELETED);
+		bimServer.getDatabase().getSecondaryIndexes().projectDeleted(project.getId(), getDatabaseSession());
 		for (Project subProject : project.getSubProjects()) {
 			delete(subProject);
 		}
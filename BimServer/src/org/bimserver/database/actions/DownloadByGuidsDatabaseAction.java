@@ -92,8 +92,7 @@ public class DownloadByGuidsDatabaseAction extends AbstractDownloadDatabaseActio
 			for (String guid : guids) {
 				if (!foundGuids.contains(guid)) {
 					for (ConcreteRevision concreteRevision : virtualRevision.getConcreteRevisions()) {
-						ObjectIdentifier objectIdentifier = getDatabaseSession().getOidOfGuid(concreteRevision.getProject().getSchema(), guid, concreteRevision.getProject().getId(),
-								concreteRevision.getId());
+						ObjectIdentifier objectIdentifier = getDatabaseSession().getOidOfGuid(concreteRevision, guid);
 						if (objectIdentifier != null) {
 							foundGuids.add(guid);
 							if (!map.containsKey(concreteRevision)) {
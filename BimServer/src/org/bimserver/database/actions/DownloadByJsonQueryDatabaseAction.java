@@ -33,6 +33,14 @@ import org.bimserver.database.BimserverLockConflictException;
 import org.bimserver.database.DatabaseSession;
 import org.bimserver.database.Query;
 import org.bimserver.database.Query.Deep;
+import org.bimserver.database.query.conditions.AttributeCondition;
+import org.bimserver.database.query.conditions.Condition;
+import org.bimserver.database.query.conditions.HasReferenceToCondition;
+import org.bimserver.database.query.conditions.LiteralCondition;
+import org.bimserver.database.query.literals.BooleanLiteral;
+import org.bimserver.database.query.literals.EnumLiteral;
+import org.bimserver.database.query.literals.IntegerLiteral;
+import org.bimserver.database.query.literals.StringLiteral;
 import org.bimserver.emf.IdEObject;
 import org.bimserver.emf.IfcModelInterface;
 import org.bimserver.emf.IfcModelInterfaceException;
@@ -51,9 +59,14 @@ import org.bimserver.plugins.ModelHelper;
 import org.bimserver.plugins.modelmerger.MergeException;
 import org.bimserver.shared.exceptions.UserException;
 import org.bimserver.webservices.authorization.Authorization;
+import org.eclipse.emf.ecore.EAttribute;
 import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EClassifier;
+import org.eclipse.emf.ecore.EEnum;
+import org.eclipse.emf.ecore.EEnumLiteral;
 import org.eclipse.emf.ecore.EReference;
 import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.EcorePackage;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -177,11 +190,77 @@ public class DownloadByJsonQueryDatabaseAction extends AbstractDownloadDatabaseA
 			if (typeQuery.has("includeAllSubtypes") && typeQuery.get("includeAllSubtypes").getAsBoolean()) {
 				eClasses.addAll(packageMetaData.getAllSubClasses((EClass)typeClass));
 			}
-			getDatabaseSession().getAllOfTypes(model, eClasses, queryInterface);
-			if (typeQuery.has("include")) {
-				processInclude(query, typeQuery, model, queryInterface, model.getAllWithSubTypes(typeClass));
+			if (typeQuery.has("where")) {
+				Condition condition = createCondition(typeClass, typeQuery.get("where").getAsJsonObject(), queryInterface);
+				List<IdEObject> objects = getDatabaseSession().getAllOfTypes(model, eClasses, condition, queryInterface);
+				if (typeQuery.has("include")) {
+					processInclude(query, typeQuery, model, queryInterface, objects);
+				}
+			} else {
+				getDatabaseSession().getAllOfTypes(model, eClasses, queryInterface);
+				if (typeQuery.has("include")) {
+					processInclude(query, typeQuery, model, queryInterface, model.getAllWithSubTypes(typeClass));
+				}
+			}
+		}
+	}
+
+	/*
+	 * A "where" object requires an exact value for every field it names, attributes are given as JSON values (enums by their literal), references
+	 * by the oid of the referenced object
+	 */
+	private Condition createCondition(EClass typeClass, JsonObject where, QueryInterface queryInterface) throws BimserverDatabaseException {
+		Condition condition = null;
+		for (Map.Entry<String, JsonElement> entry : where.entrySet()) {
+			EStructuralFeature eStructuralFeature = typeClass.getEStructuralFeature(entry.getKey());
+			if (eStructuralFeature == null) {
+				throw new BimserverDatabaseException("No field with name '" + entry.getKey() + "' found in class '" + typeClass.getName() + "'");
+			}
+			if (eStructuralFeature.isMany() && eStructuralFeature instanceof EAttribute) {
+				throw new BimserverDatabaseException("Field '" + entry.getKey() + "' can not be used in a where, lists of values are not supported");
+			}
+			JsonElement value = entry.getValue();
+			Condition fieldCondition = null;
+			if (eStructuralFeature instanceof EReference) {
+				if (!value.isJsonPrimitive()) {
+					throw new BimserverDatabaseException("Field '" + entry.getKey() + "' is a reference, an oid is required");
+				}
+				IdEObject referencedObject = getDatabaseSession().get(value.getAsLong(), queryInterface);
+				if (referencedObject == null) {
+					throw new BimserverDatabaseException("No object with oid " + value.getAsLong() + " found");
+				}
+				fieldCondition = new HasReferenceToCondition((EReference) eStructuralFeature, referencedObject);
+			} else {
+				fieldCondition = new AttributeCondition((EAttribute) eStructuralFeature, createLiteral((EAttribute) eStructuralFeature, value));
+			}
+			condition = condition == null ? fieldCondition : condition.and(fieldCondition);
+		}
+		if (condition == null) {
+			throw new BimserverDatabaseException("Empty where");
+		}
+		return condition;
+	}
+
+	private LiteralCondition createLiteral(EAttribute eAttribute, JsonElement value) throws BimserverDatabaseException {
+		EClassifier type = eAttribute.getEType();
+		if (value.isJsonNull()) {
+			if (type == EcorePackage.eINSTANCE.getEString()) {
+				return new StringLiteral(null);
+			}
+		} else if (type == EcorePackage.eINSTANCE.getEString()) {
+			return new StringLiteral(value.getAsString());
+		} else if (type == EcorePackage.eINSTANCE.getEInt() || type == EcorePackage.eINSTANCE.getEIntegerObject()) {
+			return new IntegerLiteral(value.getAsInt());
+		} else if (type == EcorePackage.eINSTANCE.getEBoolean() || type == EcorePackage.eINSTANCE.getEBooleanObject()) {
+			return new BooleanLiteral(value.getAsBoolean());
+		} else if (type instanceof EEnum) {
+			EEnumLiteral eEnumLiteral = ((EEnum) type).getEEnumLiteralByLiteral(value.getAsString());
+			if (eEnumLiteral == null) {
+				throw new BimserverDatabaseException("'" + value.getAsString() + "' is not a value of " + type.getName());
 			}
+			return new EnumLiteral((Enum<?>) eEnumLiteral.getInstance());
 		}
+		throw new BimserverDatabaseException("Field '" + eAttribute.getName() + "' of type " + type.getName() + " can not be used in a where");
 	}
 
 	private void processInclude(JsonObject query, JsonObject queryPart, IfcModelInterface model, QueryInterface queryInterface, List<IdEObject> objects) throws BimserverDatabaseException, IfcModelInterfaceException {
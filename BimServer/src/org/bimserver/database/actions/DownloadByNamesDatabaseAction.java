@@ -93,8 +93,7 @@ public class DownloadByNamesDatabaseAction extends AbstractDownloadDatabaseActio
 				if (!foundNames.contains(name)) {
 					for (ConcreteRevision concreteRevision : virtualRevision.getConcreteRevisions()) {
 						try {
-							for (ObjectIdentifier objectIdentifier : getDatabaseSession().getOidsOfName(concreteRevision.getProject().getSchema(), name, concreteRevision.getProject().getId(),
-									concreteRevision.getId())) {
+							for (ObjectIdentifier objectIdentifier : getDatabaseSession().getOidsOfName(concreteRevision, name)) {
 								foundNames.add(name);
 								if (!map.containsKey(concreteRevision)) {
 									map.put(concreteRevision, new HashSet<Long>());
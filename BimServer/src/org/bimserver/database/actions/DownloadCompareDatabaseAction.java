@@ -112,18 +112,18 @@ public class DownloadCompareDatabaseAction extends AbstractDownloadDatabaseActio
 			Revision revision1 = getRevisionByRoid(roid1);
 			Revision revision2 = getRevisionByRoid(roid2);
 			Project project = revision1.getProject();
-			CompareResult compareResults = null;// bimServer.getCompareCache().getCompareResults(roid1,
-												// roid2, compareType,
-												// compareIdentifier);
+			CompareResult compareResults = getBimServer().getCompareCache().getCompareResults(roid1, roid2, compareType, mcid);
 			IfcModelInterface model1 = new DownloadDatabaseAction(getBimServer(), getDatabaseSession(), getAccessMethod(), roid1, -1, -1, getAuthorization(), null).execute();
 			IfcModelInterface model2 = new DownloadDatabaseAction(getBimServer(), getDatabaseSession(), getAccessMethod(), roid2, -1, -1, getAuthorization(), null).execute();
 
-			try {
-				compareResults = getModelCompare().compare(model1, model2, compareType);
-			} catch (ModelCompareException e) {
-				throw new UserException(e);
+			if (compareResults == null) {
+				try {
+					compareResults = getModelCompare().compare(model1, model2, compareType);
+				} catch (ModelCompareException e) {
+					throw new UserException(e);
+				}
+				getBimServer().getCompareCache().storeResults(roid1, roid2, compareType, mcid, compareResults);
 			}
-//			bimServer.getCompareCache().storeResults(roid1, roid2, compareType, compareIdentifier, compareResults);
 
 			ModelMerger merger = getBimServer().getMergerFactory().createMerger(getDatabaseSession(), getAuthorization().getUoid());
 			IfcModelInterface mergedModel = new ServerIfcModel(null, null, getDatabaseSession()); // TODO
@@ -49,7 +49,7 @@ public class GetDataObjectByGuidDatabaseAction extends BimDatabaseAction<DataObj
 		Revision virtualRevision = getRevisionByRoid(roid);
 		ObjectIdentifier objectIdentifier = null;
 		for (ConcreteRevision concreteRevision : virtualRevision.getConcreteRevisions()) {
-			objectIdentifier = getDatabaseSession().getOidOfGuid(concreteRevision.getProject().getSchema(), guid, concreteRevision.getProject().getId(), concreteRevision.getId());
+			objectIdentifier = getDatabaseSession().getOidOfGuid(concreteRevision, guid);
 			if (objectIdentifier != null) {
 				long oidOfGuid = objectIdentifier.getOid();
 				if (oidOfGuid != -1) {
@@ -56,6 +56,7 @@ public class UndeleteProjectDatabaseAction extends BimDatabaseAction<Boolean> {
 		}
 		if (actingUser.getUserType() == UserType.ADMIN || actingUser.getHasRightsOn().contains(project)) {
 			project.setState(ObjectState.ACTIVE);
+			bimServer.getDatabase().getSecondaryIndexes().projectUndeleted(project.getId(), getDatabaseSession());
 			final ProjectUndeleted projectUndeleted = getDatabaseSession().create(ProjectUndeleted.class);
 			projectUndeleted.setAccessMethod(getAccessMethod());
 			projectUndeleted.setDate(new Date());
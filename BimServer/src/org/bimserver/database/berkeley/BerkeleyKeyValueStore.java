@@ -44,15 +44,18 @@ import org.bimserver.utils.PathUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.sleepycat.je.CheckpointConfig;
 import com.sleepycat.je.Cursor;
 import com.sleepycat.je.CursorConfig;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseConfig;
 import com.sleepycat.je.DatabaseEntry;
 import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.Durability;
 import com.sleepycat.je.Environment;
 import com.sleepycat.je.EnvironmentConfig;
 import com.sleepycat.je.EnvironmentLockedException;
+import com.sleepycat.je.EnvironmentMutableConfig;
 import com.sleepycat.je.JEVersion;
 import com.sleepycat.je.LockConflictException;
 import com.sleepycat.je.LockMode;
@@ -63,6 +66,7 @@ import com.sleepycat.je.TransactionConfig;
 public class BerkeleyKeyValueStore implements KeyValueStore {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(BerkeleyKeyValueStore.class);
+	private static final String BULK_LOAD_MARKER = "bulkload.marker";
 	private Environment environment;
 	private long committedWrites;
 	private long reads;
@@ -75,8 +79,12 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 	private static final boolean MONITOR_CURSOR_STACK_TRACES = false;
 	private final AtomicLong cursorCounter = new AtomicLong();
 	private final Map<Long, StackTraceElement[]> openCursors = new ConcurrentHashMap<>();
+	private final Path dataDir;
+	private int bulkLoads;
+	private EnvironmentMutableConfig configBeforeBulkLoad;
 
 	public BerkeleyKeyValueStore(Path dataDir) throws DatabaseInitException {
+		this.dataDir = dataDir;
 		if (Files.isDirectory(dataDir)) {
 			try {
 				if (PathUtils.list(dataDir).size() > 0) {
@@ -123,6 +131,10 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 
 		cursorConfig = new CursorConfig();
 		cursorConfig.setReadCommitted(true);
+
+		if (Files.exists(dataDir.resolve(BULK_LOAD_MARKER))) {
+			LOGGER.error("A bulk load into this database was not completed, the database is consistent but data written during the bulk load may be missing. Run the import again, the marker is removed when a bulk load completes (\"" + dataDir.resolve(BULK_LOAD_MARKER).toString() + "\")");
+		}
 	}
 
 	public boolean isNew() {
@@ -138,6 +150,57 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 		return null;
 	}
 
+	/**
+	 * While bulk loading, commits are not synced to disk and the cleaner and checkpointer are not running. Recovery after a crash still leads to
+	 * a consistent database, but the most recent commits might be lost, so a marker file is kept in the database directory until {@link #endBulkLoad()}.
+	 * Bulk loads can be nested, the settings are restored when the outermost bulk load ends. The settings are those of the environment, so they apply to
+	 * every transaction, which is why {@link org.bimserver.database.Database#startBulkLoad()} refuses to start while other sessions are open.
+	 */
+	@Override
+	public synchronized void startBulkLoad() throws BimserverDatabaseException {
+		if (bulkLoads++ > 0) {
+			return;
+		}
+		try {
+			Files.write(dataDir.resolve(BULK_LOAD_MARKER), new byte[0]);
+			configBeforeBulkLoad = environment.getMutableConfig();
+			EnvironmentMutableConfig bulkLoadConfig = environment.getMutableConfig();
+			bulkLoadConfig.setDurability(Durability.COMMIT_NO_SYNC);
+			bulkLoadConfig.setConfigParam(EnvironmentConfig.ENV_RUN_CLEANER, "false");
+			bulkLoadConfig.setConfigParam(EnvironmentConfig.ENV_RUN_CHECKPOINTER, "false");
+			environment.setMutableConfig(bulkLoadConfig);
+			LOGGER.warn("Bulk load started, until it ends commits of all sessions are not synced to disk and the cleaner and checkpointer are not running");
+		} catch (IOException e) {
+			bulkLoads--;
+			throw new BimserverDatabaseException(e);
+		} catch (DatabaseException e) {
+			bulkLoads--;
+			throw new BimserverDatabaseException(e);
+		}
+	}
+
+	/**
+	 * Restores the settings from before {@link #startBulkLoad()}, writes all data to disk with one sync and a forced checkpoint and only then removes the marker
+	 */
+	@Override
+	public synchronized void endBulkLoad() throws BimserverDatabaseException {
+		if (bulkLoads == 0 || --bulkLoads > 0) {
+			return;
+		}
+		try {
+			environment.setMutableConfig(configBeforeBulkLoad);
+			configBeforeBulkLoad = null;
+			environment.flushLog(true);
+			environment.checkpoint(new CheckpointConfig().setForce(true));
+			Files.deleteIfExists(dataDir.resolve(BULK_LOAD_MARKER));
+			LOGGER.info("Bulk load done");
+		} catch (IOException e) {
+			throw new BimserverDatabaseException(e);
+		} catch (DatabaseException e) {
+			throw new BimserverDatabaseException(e);
+		}
+	}
+
 	public boolean createTable(String tableName, DatabaseSession databaseSession) throws BimserverDatabaseException {
 		if (tables.containsKey(tableName)) {
 			throw new BimserverDatabaseException("Table " + tableName + " already created");
@@ -222,6 +285,37 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 		return null;
 	}
 
+	/**
+	 * Read-only sessions read the records of committed revisions without taking locks, so they never wait for (or block) a checkin that is writing new records in the same tables
+	 * 
+	 * @param key The key (or key prefix) that will be read, null for a full table scan
+	 */
+	private CursorConfig getCursorConfig(String tableName, byte[] key, DatabaseSession databaseSession) {
+		if (databaseSession != null && databaseSession.isUncommittedReadAllowed(tableName, key)) {
+			return CursorConfig.READ_UNCOMMITTED;
+		}
+		return cursorConfig;
+	}
+
+	private CursorConfig getCursorConfig(String tableName, List<byte[]> keys, DatabaseSession databaseSession) {
+		if (databaseSession == null) {
+			return cursorConfig;
+		}
+		for (byte[] key : keys) {
+			if (!databaseSession.isUncommittedReadAllowed(tableName, key)) {
+				return cursorConfig;
+			}
+		}
+		return CursorConfig.READ_UNCOMMITTED;
+	}
+
+	private LockMode getLockMode(String tableName, byte[] key, DatabaseSession databaseSession) {
+		if (databaseSession != null && databaseSession.isUncommittedReadAllowed(tableName, key)) {
+			return LockMode.READ_UNCOMMITTED;
+		}
+		return LockMode.DEFAULT;
+	}
+
 	public void close() {
 		for (Database database : tables.values()) {
 			try {
@@ -244,7 +338,7 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 		DatabaseEntry key = new DatabaseEntry(keyBytes);
 		DatabaseEntry value = new DatabaseEntry();
 		try {
-			OperationStatus operationStatus = getDatabase(tableName).get(getTransaction(databaseSession), key, value, LockMode.DEFAULT);
+			OperationStatus operationStatus = getDatabase(tableName).get(getTransaction(databaseSession), key, value, getLockMode(tableName, keyBytes, databaseSession));
 			if (operationStatus == OperationStatus.SUCCESS) {
 				return value.getData();
 			}
@@ -256,14 +350,22 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 
 	@Override
 	public List<byte[]> getDuplicates(String tableName, byte[] keyBytes, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		return getDuplicates(tableName, keyBytes, Integer.MAX_VALUE, databaseSession);
+	}
+
+	@Override
+	public List<byte[]> getDuplicates(String tableName, byte[] keyBytes, int maxSize, DatabaseSession databaseSession) throws BimserverDatabaseException {
 		DatabaseEntry key = new DatabaseEntry(keyBytes);
 		DatabaseEntry value = new DatabaseEntry();
 		try {
-			Cursor cursor = getDatabase(tableName).openCursor(getTransaction(databaseSession), cursorConfig);
+			Cursor cursor = getDatabase(tableName).openCursor(getTransaction(databaseSession), getCursorConfig(tableName, keyBytes, databaseSession));
 			try {
 				OperationStatus operationStatus = cursor.getSearchKey(key, value, LockMode.DEFAULT);
 				List<byte[]> result = new ArrayList<byte[]>();
 				while (operationStatus == OperationStatus.SUCCESS) {
+					if (result.size() == maxSize) {
+						return null;
+					}
 					result.add(value.getData());
 					operationStatus = cursor.getNextDup(key, value, LockMode.DEFAULT);
 				}
@@ -304,7 +406,7 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 	public RecordIterator getRecordIterator(String tableName, DatabaseSession databaseSession) throws BimserverDatabaseException {
 		Cursor cursor = null;
 		try {
-			cursor = getDatabase(tableName).openCursor(getTransaction(databaseSession), cursorConfig);
+			cursor = getDatabase(tableName).openCursor(getTransaction(databaseSession), getCursorConfig(tableName, (byte[]) null, databaseSession));
 			BerkeleyRecordIterator berkeleyRecordIterator = new BerkeleyRecordIterator(cursor, this, cursorCounter.incrementAndGet());
 			if (MONITOR_CURSOR_STACK_TRACES) {
 				openCursors.put(berkeleyRecordIterator.getCursorId(), new Exception().getStackTrace());
@@ -320,7 +422,7 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 	public SearchingRecordIterator getRecordIterator(String tableName, byte[] mustStartWith, byte[] startSearchingAt, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
 		Cursor cursor = null;
 		try {
-			cursor = getDatabase(tableName).openCursor(getTransaction(databaseSession), cursorConfig);
+			cursor = getDatabase(tableName).openCursor(getTransaction(databaseSession), getCursorConfig(tableName, mustStartWith, databaseSession));
 			BerkeleySearchingRecordIterator berkeleySearchingRecordIterator = new BerkeleySearchingRecordIterator(cursor, this, cursorCounter.incrementAndGet(), mustStartWith, startSearchingAt);
 			if (MONITOR_CURSOR_STACK_TRACES) {
 				openCursors.put(berkeleySearchingRecordIterator.getCursorId(), new Exception().getStackTrace());
@@ -472,15 +574,129 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 			Database database = getDatabase(tableName);
 			OperationStatus putNoOverwrite = database.putNoOverwrite(getTransaction(databaseSession), dbKey, dbValue);
 			if (putNoOverwrite == OperationStatus.KEYEXIST) {
-				ByteBuffer keyBuffer = ByteBuffer.wrap(key);
-				if (key.length == 16) {
-					int pid = keyBuffer.getInt();
-					long oid = keyBuffer.getLong();
-					int rid = -keyBuffer.getInt();
-					throw new BimserverConcurrentModificationDatabaseException("Key exists: pid: " + pid + ", oid: " + oid + ", rid: " + rid);
-				} else {
-					throw new BimserverConcurrentModificationDatabaseException("Key exists: " );
+				throw createKeyExistsException(key);
+			}
+		} catch (LockConflictException e) {
+			throw new BimserverLockConflictException(e);
+		} catch (DatabaseException e) {
+			throw new BimserverDatabaseException("", e);
+		}
+	}
+
+	private BimserverConcurrentModificationDatabaseException createKeyExistsException(byte[] key) {
+		ByteBuffer keyBuffer = ByteBuffer.wrap(key);
+		if (key.length == 16) {
+			int pid = keyBuffer.getInt();
+			long oid = keyBuffer.getLong();
+			int rid = -keyBuffer.getInt();
+			return new BimserverConcurrentModificationDatabaseException("Key exists: pid: " + pid + ", oid: " + oid + ", rid: " + rid);
+		} else {
+			return new BimserverConcurrentModificationDatabaseException("Key exists: " );
+		}
+	}
+
+	@Override
+	public void storeNoOverwrite(String tableName, List<? extends Record> records, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException, BimserverConcurrentModificationDatabaseException {
+		if (records.isEmpty()) {
+			return;
+		}
+		try {
+			// One cursor for the whole (sorted) run, this keeps the cursor close to the previously written key
+			Cursor cursor = getDatabase(tableName).openCursor(getTransaction(databaseSession), cursorConfig);
+			try {
+				DatabaseEntry dbKey = new DatabaseEntry();
+				DatabaseEntry dbValue = new DatabaseEntry();
+				for (Record record : records) {
+					dbKey.setData(record.getKey());
+					dbValue.setData(record.getValue());
+					if (cursor.putNoOverwrite(dbKey, dbValue) == OperationStatus.KEYEXIST) {
+						throw createKeyExistsException(record.getKey());
+					}
 				}
+			} finally {
+				cursor.close();
+			}
+		} catch (LockConflictException e) {
+			throw new BimserverLockConflictException(e);
+		} catch (DatabaseException e) {
+			throw new BimserverDatabaseException("", e);
+		}
+	}
+
+	@Override
+	public void store(String tableName, List<? extends Record> records, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException {
+		if (records.isEmpty()) {
+			return;
+		}
+		try {
+			Cursor cursor = getDatabase(tableName).openCursor(getTransaction(databaseSession), cursorConfig);
+			try {
+				DatabaseEntry dbKey = new DatabaseEntry();
+				DatabaseEntry dbValue = new DatabaseEntry();
+				for (Record record : records) {
+					dbKey.setData(record.getKey());
+					dbValue.setData(record.getValue());
+					cursor.put(dbKey, dbValue);
+				}
+			} finally {
+				cursor.close();
+			}
+		} catch (LockConflictException e) {
+			throw new BimserverLockConflictException(e);
+		} catch (DatabaseException e) {
+			throw new BimserverDatabaseException("", e);
+		}
+	}
+
+	@Override
+	public List<byte[]> get(String tableName, List<byte[]> keys, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException {
+		List<byte[]> result = new ArrayList<byte[]>(keys.size());
+		if (keys.isEmpty()) {
+			return result;
+		}
+		try {
+			Cursor cursor = getDatabase(tableName).openCursor(getTransaction(databaseSession), getCursorConfig(tableName, keys, databaseSession));
+			try {
+				DatabaseEntry dbKey = new DatabaseEntry();
+				for (byte[] key : keys) {
+					dbKey.setData(key);
+					DatabaseEntry value = new DatabaseEntry();
+					if (cursor.getSearchKey(dbKey, value, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+						result.add(value.getData());
+					} else {
+						result.add(null);
+					}
+				}
+			} finally {
+				cursor.close();
+			}
+		} catch (LockConflictException e) {
+			throw new BimserverLockConflictException(e);
+		} catch (DatabaseException e) {
+			throw new BimserverDatabaseException("", e);
+		}
+		return result;
+	}
+
+	@Override
+	public void delete(String indexTableName, List<? extends Record> records, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException {
+		if (records.isEmpty()) {
+			return;
+		}
+		try {
+			Cursor cursor = getDatabase(indexTableName).openCursor(getTransaction(databaseSession), cursorConfig);
+			try {
+				DatabaseEntry dbKey = new DatabaseEntry();
+				DatabaseEntry dbValue = new DatabaseEntry();
+				for (Record record : records) {
+					dbKey.setData(record.getKey());
+					dbValue.setData(record.getValue());
+					if (cursor.getSearchBoth(dbKey, dbValue, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+						cursor.delete();
+					}
+				}
+			} finally {
+				cursor.close();
 			}
 		} catch (LockConflictException e) {
 			throw new BimserverLockConflictException(e);
@@ -25,6 +25,7 @@ import org.bimserver.database.Database;
 import org.bimserver.database.DatabaseSession;
 import org.bimserver.database.KeyValueStore;
 import org.bimserver.database.Record;
+import org.bimserver.database.RecordCodec;
 import org.bimserver.database.RecordIterator;
 import org.eclipse.emf.ecore.EAttribute;
 import org.eclipse.emf.ecore.EClass;
@@ -56,7 +57,13 @@ public class NewAttributeChange implements Change {
 					try {
 						Record record = recordIterator.next();
 						while (record != null) {
-							ByteBuffer buffer = ByteBuffer.wrap(record.getValue());
+							// Compact records have the same unset bitmap, preceded by a format byte
+							byte[] value = record.getValue();
+							boolean compact = RecordCodec.isCompact(value);
+							if (compact) {
+								value = RecordCodec.getBody(value);
+							}
+							ByteBuffer buffer = ByteBuffer.wrap(value);
 
 							int nrStartBytesBefore = (int) Math.ceil(nrFeaturesBefore / 8.0);
 							int nrStartBytesAfter = (int) Math.ceil((nrFeaturesBefore + 1) / 8.0);
@@ -74,13 +81,13 @@ public class NewAttributeChange implements Change {
 							
 							int extra = 0;
 							
-							ByteBuffer newBuffer = ByteBuffer.allocate(record.getValue().length + (nrStartBytesAfter - nrStartBytesBefore) + extra);
+							ByteBuffer newBuffer = ByteBuffer.allocate(value.length + (nrStartBytesAfter - nrStartBytesBefore) + extra);
 							newBuffer.put((byte)nrStartBytesAfter);
 							newBuffer.put(unsetted);
 							buffer.position(1 + nrStartBytesBefore);
 							newBuffer.put(buffer);
 							
-							keyValueStore.store(subClass.getEPackage().getName() + "_" + subClass.getName(), record.getKey(), newBuffer.array(), databaseSession);
+							keyValueStore.store(subClass.getEPackage().getName() + "_" + subClass.getName(), record.getKey(), compact ? RecordCodec.fromBody(newBuffer.array()) : newBuffer.array(), databaseSession);
 							record = recordIterator.next();
 						}
 					} catch (BimserverDatabaseException e) {
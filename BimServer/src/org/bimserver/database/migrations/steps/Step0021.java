@@ -1,53 +1,38 @@
-package org.bimserver.cache;
-
-/******************************************************************************
- * Copyright (C) 2009-2015  BIMserver.org
- * 
- * This program is free software: you can redistribute it and/or modify
- * it under the terms of the GNU Affero General Public License as
- * published by the Free Software Foundation, either version 3 of the
- * License, or (at your option) any later version.
- * 
- * This program is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARRANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- * GNU Affero General Public License for more details.
- * 
- * You should have received a copy of the GNU Affero General Public License
- * along with this program.  If not, see <http://www.gnu.org/licenses/>.
- *****************************************************************************/
-
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+package org.bimserver.database.migrations.steps;
 
-public abstract class GenericCache<K extends GenericCacheKey, V extends GenericCacheValue> {
-	private static final Logger LOGGER = LoggerFactory.getLogger(GenericCache.class);
-	private final Map<K, V> cache = new HashMap<K, V>();
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
 
-	public GenericCache() {
-		
-	}
-	
-	protected void store(K key, V value) {
-		cache.put(key, value);
-	}
-	
-	protected V getValue(K key) {
-		return cache.get(key);
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.migrations.Migration;
+import org.bimserver.database.migrations.Schema;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EcorePackage;
+
+public class Step0021 extends Migration {
+
+	@Override
+	public void migrate(Schema schema, DatabaseSession databaseSession) {
+		EClass serverSettings = schema.getEClass("store", "ServerSettings");
+		schema.createEAttribute(serverSettings, "databaseScanThreads", EcorePackage.eINSTANCE.getEInt()).setDefaultValue(1);
 	}
-	
-	public synchronized void cleanup() {
-		Iterator<K> iterator = cache.keySet().iterator();
-		while (iterator.hasNext()) {
-			GenericCacheKey key = iterator.next();
-			if (cache.get(key).shouldCleanUp()) {
-				LOGGER.info("Removing one cache item");
-				iterator.remove();
-			}
-		}
+
+	@Override
+	public String getDescription() {
+		return "Extra setting databaseScanThreads";
 	}
 }
\ No newline at end of file
@@ -32,6 +32,14 @@ public class AndCondition extends Condition {
 		this.conditionB = conditionB;
 	}
 
+	public Condition getConditionA() {
+		return conditionA;
+	}
+
+	public Condition getConditionB() {
+		return conditionB;
+	}
+
 	@Override
 	public void getEClassRequirements(Set<EClass> classRequirements) {
 		conditionA.getEClassRequirements(classRequirements);
@@ -34,6 +34,14 @@ public class HasReferenceToCondition extends Condition {
 		this.referencingObject = referencingObject;
 	}
 
+	public EReference getReference() {
+		return reference;
+	}
+
+	public IdEObject getReferencingObject() {
+		return referencingObject;
+	}
+
 	@Override
 	public void getEClassRequirements(Set<EClass> classRequirements) {
 		classRequirements.add(reference.getEContainingClass());
@@ -41,7 +49,7 @@ public class HasReferenceToCondition extends Condition {
 
 	@Override
 	public boolean matches(IdEObject object) {
-		if (object.eClass().isSuperTypeOf(reference.getEContainingClass())) {
+		if (reference.getEContainingClass().isSuperTypeOf(object.eClass())) {
 			Object other = object.eGet(reference);
 			if (other instanceof EList<?>) {
 				EList<?> list = (EList<?>)other;
@@ -53,7 +61,7 @@ public class HasReferenceToCondition extends Condition {
 				}
 				return false;
 			} else {
-				return other == referencingObject;
+				return other == referencingObject || (other != null && ((IdEObject) other).getOid() == referencingObject.getOid());
 			}
 		}
 		return false;
@@ -24,6 +24,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bimserver.BimServer;
+import org.bimserver.database.BimserverDatabaseException;
 import org.bimserver.database.actions.ProgressListener;
 import org.bimserver.models.store.ActionState;
 import org.bimserver.models.store.LongActionState;
@@ -37,6 +38,9 @@ import org.slf4j.LoggerFactory;
 
 public abstract class LongAction<T extends LongActionKey> implements Reporter, ProgressListener {
 
+	public static final int PRIORITY_LOW = -1;
+	public static final int PRIORITY_NORMAL = 0;
+	public static final int PRIORITY_HIGH = 1;
 	private static final Logger LOGGER = LoggerFactory.getLogger(LongAction.class);
 	private final GregorianCalendar start;
 	private final AtomicInteger progress = new AtomicInteger(-1);
@@ -53,6 +57,8 @@ public abstract class LongAction<T extends LongActionKey> implements Reporter, P
 	private String title = "Unknown";
 	private int stage = 0;
 	private ProgressTopic progressTopic;
+	private volatile MemoryBudget.Reservation memoryReservation;
+	private volatile boolean memoryReservationHeld;
 
 	public LongAction(BimServer bimServer, String username, String userUsername, Authorization authorization) {
 		start = new GregorianCalendar();
@@ -66,6 +72,55 @@ public abstract class LongAction<T extends LongActionKey> implements Reporter, P
 	public void init(Thread thread) {
 	}
 
+	void setMemoryReservation(MemoryBudget.Reservation memoryReservation) {
+		this.memoryReservation = memoryReservation;
+	}
+
+	/**
+	 * Keeps the reserved memory after execute has returned, for a result that stays in memory until the client has fetched it. The caller has to release the
+	 * returned reservation when that is done, otherwise it is released when the action is removed.
+	 * 
+	 * @return null when this action has not been run by the LongActionManager
+	 */
+	protected MemoryBudget.Reservation holdMemoryReservation() {
+		memoryReservationHeld = true;
+		return memoryReservation;
+	}
+
+	void executed() {
+		if (!memoryReservationHeld) {
+			releaseMemoryReservation();
+		}
+	}
+
+	void releaseMemoryReservation() {
+		MemoryBudget.Reservation reservation = memoryReservation;
+		if (reservation != null) {
+			reservation.release();
+		}
+	}
+
+	/**
+	 * @return The lane of the LongActionManager this action is queued and run on
+	 */
+	public LongActionLane getLane() {
+		return LongActionLane.DOWNLOAD;
+	}
+
+	/**
+	 * @return The heap in bytes this action is expected to need, the action only starts when this fits in the memory budget of the LongActionManager
+	 */
+	public long estimateMemory(MemoryEstimator memoryEstimator) throws BimserverDatabaseException {
+		return 0;
+	}
+
+	/**
+	 * @return Queued actions with a higher priority are run first
+	 */
+	public int getPriority() {
+		return PRIORITY_NORMAL;
+	}
+
 	public void setProgressTopic(ProgressTopic progressTopic) {
 		this.progressTopic = progressTopic;
 	}
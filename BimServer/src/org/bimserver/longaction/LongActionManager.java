@@ -17,10 +17,23 @@ package org.bimserver.longaction;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
+import javax.activation.DataHandler;
+
+import org.bimserver.BimServer;
+import org.bimserver.database.BimserverDatabaseException;
+import org.bimserver.interfaces.objects.SCheckoutResult;
+import org.bimserver.interfaces.objects.SInterfaceMetric;
 import org.bimserver.models.store.ActionState;
+import org.bimserver.plugins.serializers.EmfSerializerDataSource;
 import org.bimserver.shared.exceptions.UserException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,28 +46,94 @@ public class LongActionManager {
 	private static final Logger LOGGER = LoggerFactory.getLogger(LongActionManager.class);
 	private static final int FIVE_MINUTES_IN_MS = 5000 * 60; // 5 minutes
 	private final BiMap<Long, LongAction<?>> actions = HashBiMap.create();
+	private final Map<LongActionLane, LongActionQueue> queues = new EnumMap<LongActionLane, LongActionQueue>(LongActionLane.class);
+	private final MemoryBudget memoryBudget;
+	private final MemoryEstimator memoryEstimator;
+	// Downloads that are queued or running, identical downloads of the same user started in the meantime wait for these and share their output
+	private final Map<DownloadKey, LongDownloadAction> inFlightDownloads = new HashMap<DownloadKey, LongDownloadAction>();
+	private final BimServer bimServer;
 	private volatile boolean running = true;
 
-	public synchronized void start(final LongAction<?> longAction) throws CannotBeScheduledException {
-		if (running) {
-			Thread thread = new Thread(new Runnable() {
-				@Override
-				public void run() {
-					longAction.execute();
-				}
-			}, "LongAction Runner");
-			longAction.init(thread);
-			thread.setDaemon(true);
-			thread.setName(longAction.getDescription());
-			actions.put(longAction.getProgressTopic().getKey().getId(), longAction);
-			thread.start();
-		} else {
+	public LongActionManager(BimServer bimServer) {
+		this(bimServer, Math.max(1, Runtime.getRuntime().availableProcessors() / 2), Math.max(2, Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * Every running action can hold a complete model in memory, so the number of actions running at the same time is bounded per lane, the rest waits in a queue.
+	 * On top of that the estimated memory of all running actions has to fit in the heap percentage of the server settings.
+	 */
+	public LongActionManager(BimServer bimServer, int maxRunningCheckins, int maxRunningDownloads) {
+		this.bimServer = bimServer;
+		memoryBudget = new MemoryBudget(bimServer);
+		memoryEstimator = new MemoryEstimator(bimServer.getMetaDataManager(), bimServer.getPluginManager());
+		for (LongActionLane lane : LongActionLane.values()) {
+			LongActionQueue longActionQueue = new LongActionQueue(lane, lane == LongActionLane.CHECKIN ? maxRunningCheckins : maxRunningDownloads, memoryBudget);
+			queues.put(lane, longActionQueue);
+			memoryBudget.addQueue(longActionQueue);
+		}
+	}
+
+	public void start(final LongAction<?> longAction) throws CannotBeScheduledException {
+		if (!running) {
 			throw new CannotBeScheduledException();
 		}
+		if (longAction instanceof LongDownloadAction) {
+			LongDownloadAction longDownloadAction = (LongDownloadAction) longAction;
+			synchronized (this) {
+				// The rights checks are done by the download itself, so only downloads of the same user can share one
+				DownloadKey downloadKey = new DownloadKey(longDownloadAction);
+				LongDownloadAction leader = inFlightDownloads.get(downloadKey);
+				if (leader != null) {
+					actions.put(longAction.getProgressTopic().getKey().getId(), longAction);
+					leader.addFollower(longDownloadAction);
+					longAction.updateProgress("Waiting for identical download", -1);
+					return;
+				}
+				inFlightDownloads.put(downloadKey, longDownloadAction);
+			}
+		}
+		submit(longAction);
+	}
+
+	private void submit(LongAction<?> longAction) throws CannotBeScheduledException {
+		// Estimating can read from the database, so this is done before taking the lock
+		long estimatedMemory = 0;
+		try {
+			estimatedMemory = longAction.estimateMemory(memoryEstimator);
+		} catch (BimserverDatabaseException e) {
+			LOGGER.error("", e);
+		}
+		synchronized (this) {
+			if (running) {
+				actions.put(longAction.getProgressTopic().getKey().getId(), longAction);
+				queues.get(longAction.getLane()).submit(longAction, estimatedMemory);
+			} else {
+				throw new CannotBeScheduledException();
+			}
+		}
 	}
 
 	public synchronized void shutdown() {
 		running = false;
+		for (LongActionQueue longActionQueue : queues.values()) {
+			longActionQueue.shutdown();
+		}
+	}
+
+	public int getQueueLength(LongActionLane lane) {
+		return queues.get(lane).getQueueLength();
+	}
+
+	public List<SInterfaceMetric> getMetrics() {
+		List<SInterfaceMetric> result = new ArrayList<SInterfaceMetric>();
+		long budget = memoryBudget.getBudget();
+		SInterfaceMetric memoryMetric = new SInterfaceMetric();
+		memoryMetric.setName("Long action memory (" + (memoryBudget.getReserved() / (1024 * 1024)) + "MB reserved of " + (budget == -1 ? "unlimited" : (budget / (1024 * 1024)) + "MB") + ")");
+		result.add(memoryMetric);
+		for (LongActionQueue longActionQueue : queues.values()) {
+			result.add(longActionQueue.getMetrics());
+		}
+		return result;
 	}
 
 	public synchronized LongAction<?> getLongAction(long id) {
@@ -71,6 +150,7 @@ public class LongActionManager {
 				GregorianCalendar stop = longAction.getStop();
 				if (now.getTimeInMillis() - stop.getTimeInMillis() > FIVE_MINUTES_IN_MS) {
 					LOGGER.info("Cleaning up long running action: " + longAction.getDescription() + " - " + longAction.getClass().getSimpleName());
+					release(longAction);
 					iterator.remove();
 				}
 			}
@@ -93,6 +173,8 @@ public class LongActionManager {
 		LongAction<?> longAction = actions.get(topicId);
 		if (longAction != null) {
 			LOGGER.debug("Cleaning up long running action: " + longAction.getDescription() + " (" + longAction.getProgressTopic().getKey().getId() + ")");
+			cancel(longAction);
+			release(longAction);
 			longAction.stop();
 			actions.remove(topicId);
 		} else {
@@ -102,7 +184,105 @@ public class LongActionManager {
 
 	public synchronized void remove(LongAction<?> action) {
 		LOGGER.info("Cleaning up long running action: " + action.getDescription());
+		cancel(action);
+		release(action);
 		action.stop();
 		actions.inverse().remove(action);
 	}
+
+	/*
+	 * Whatever the action still holds for a client that will not fetch it anymore
+	 */
+	private void release(LongAction<?> longAction) {
+		longAction.releaseMemoryReservation();
+		if (longAction instanceof LongDownloadAction) {
+			((LongDownloadAction) longAction).releaseShare();
+		}
+	}
+
+	private void cancel(LongAction<?> longAction) {
+		boolean cancelled = queues.get(longAction.getLane()).cancel(longAction);
+		if (cancelled) {
+			// The cancelled action may have been the one the other lanes were waiting for
+			memoryBudget.dispatchWaiting();
+		}
+		if (!cancelled && longAction instanceof LongDownloadAction) {
+			for (LongDownloadAction leader : inFlightDownloads.values()) {
+				if (leader.removeFollower((LongDownloadAction) longAction)) {
+					cancelled = true;
+					break;
+				}
+			}
+		}
+		if (cancelled) {
+			// Never started, so it will not signal completion by itself
+			longAction.done();
+		}
+	}
+
+	/**
+	 * Called by a download right before it signals completion. The downloads that were waiting for it get a DataSource on the shared output of its
+	 * serializer, when there is nothing to share (an error, a cached file or a messaging serializer) they are run like any other download.
+	 */
+	void downloadFinished(LongDownloadAction longDownloadAction) {
+		List<LongDownloadAction> followers;
+		synchronized (this) {
+			DownloadKey downloadKey = new DownloadKey(longDownloadAction);
+			if (inFlightDownloads.get(downloadKey) == longDownloadAction) {
+				inFlightDownloads.remove(downloadKey);
+			}
+			followers = longDownloadAction.takeFollowers();
+		}
+		if (followers.isEmpty()) {
+			return;
+		}
+		SCheckoutResult checkoutResult = longDownloadAction.getCheckoutResult();
+		SharedDownload sharedDownload = null;
+		if (longDownloadAction.getErrors().isEmpty() && checkoutResult != null && checkoutResult.getFile() != null && checkoutResult.getFile().getDataSource() instanceof EmfSerializerDataSource) {
+			try {
+				sharedDownload = new SharedDownload((EmfSerializerDataSource) checkoutResult.getFile().getDataSource(), bimServer.getPluginManager().getTempDir(), followers.size() + 1);
+				checkoutResult.setFile(new DataHandler(longDownloadAction.takeShare(sharedDownload)));
+				sharedDownload.start();
+			} catch (IOException e) {
+				LOGGER.error("", e);
+				sharedDownload = null;
+			}
+		}
+		for (LongDownloadAction follower : followers) {
+			if (sharedDownload != null) {
+				follower.useSharedDownload(checkoutResult, sharedDownload);
+			} else {
+				try {
+					submit(follower);
+				} catch (CannotBeScheduledException e) {
+					LOGGER.error("", e);
+					follower.done();
+				}
+			}
+		}
+	}
+
+	private static final class DownloadKey {
+		private final long uoid;
+		private final DownloadParameters downloadParameters;
+
+		public DownloadKey(LongDownloadAction longDownloadAction) {
+			this.uoid = longDownloadAction.getAuthorization().getUoid();
+			this.downloadParameters = longDownloadAction.downloadParameters;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * downloadParameters.hashCode() + (int) (uoid ^ (uoid >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof DownloadKey)) {
+				return false;
+			}
+			DownloadKey other = (DownloadKey) obj;
+			return uoid == other.uoid && downloadParameters.equals(other.downloadParameters);
+		}
+	}
 }
\ No newline at end of file
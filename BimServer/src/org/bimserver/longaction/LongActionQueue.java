@@ -0,0 +1,251 @@
+package org.bimserver.longaction;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bimserver.interfaces.objects.SInterfaceMetric;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the long actions of one lane on a bounded number of threads. Actions that cannot run yet are queued, the next action to run is the one with the
+ * highest priority, of those the one of the user with the fewest running actions, and of those the oldest one. That action also waits until its estimated
+ * memory fits in the MemoryBudget, the actions behind it (and the actions of other lanes) do not overtake it.
+ */
+class LongActionQueue {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LongActionQueue.class);
+	private final LongActionLane lane;
+	private final int maxRunning;
+	private final ExecutorService executorService;
+	private final MemoryBudget memoryBudget;
+	private final List<QueuedLongAction> queued = new ArrayList<QueuedLongAction>();
+	private final Map<String, Integer> runningPerUser = new HashMap<String, Integer>();
+	private final Map<String, LongActionStats> stats = new TreeMap<String, LongActionStats>();
+	private final Comparator<QueuedLongAction> order = new Comparator<QueuedLongAction>() {
+		@Override
+		public int compare(QueuedLongAction o1, QueuedLongAction o2) {
+			if (o1.priority != o2.priority) {
+				return o1.priority > o2.priority ? -1 : 1;
+			}
+			int running1 = getRunning(o1.user);
+			int running2 = getRunning(o2.user);
+			if (running1 != running2) {
+				return running1 < running2 ? -1 : 1;
+			}
+			return Long.compare(o1.sequence, o2.sequence);
+		}
+	};
+	private long sequence;
+	private int running;
+
+	private static class QueuedLongAction {
+		private final LongAction<?> longAction;
+		private final String user;
+		private final int priority;
+		private final long sequence;
+		private final long estimatedMemory;
+		private final long queuedNanos = System.nanoTime();
+		private int reportedPosition = -1;
+
+		public QueuedLongAction(LongAction<?> longAction, long sequence, long estimatedMemory) {
+			this.longAction = longAction;
+			this.estimatedMemory = estimatedMemory;
+			this.user = longAction.getUserUsername() == null ? "" : longAction.getUserUsername();
+			this.priority = longAction.getPriority();
+			this.sequence = sequence;
+		}
+	}
+
+	public LongActionQueue(final LongActionLane lane, int maxRunning, MemoryBudget memoryBudget) {
+		this.lane = lane;
+		this.maxRunning = maxRunning;
+		this.memoryBudget = memoryBudget;
+		ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(maxRunning, maxRunning, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "LongAction Runner " + lane.name().toLowerCase() + " " + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		threadPoolExecutor.allowCoreThreadTimeOut(true);
+		this.executorService = threadPoolExecutor;
+	}
+
+	public synchronized void submit(LongAction<?> longAction, long estimatedMemory) {
+		queued.add(new QueuedLongAction(longAction, sequence++, estimatedMemory));
+		dispatch();
+		reportPositions();
+	}
+
+	public synchronized void dispatchWaiting() {
+		if (!queued.isEmpty()) {
+			dispatch();
+			reportPositions();
+		}
+	}
+
+	/**
+	 * @return Whether the action was still waiting, in which case it will never be run
+	 */
+	public synchronized boolean cancel(LongAction<?> longAction) {
+		Iterator<QueuedLongAction> iterator = queued.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().longAction == longAction) {
+				iterator.remove();
+				if (queued.isEmpty()) {
+					memoryBudget.unblock(this);
+				}
+				reportPositions();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void shutdown() {
+		executorService.shutdown();
+	}
+
+	private int getRunning(String user) {
+		Integer nr = runningPerUser.get(user);
+		return nr == null ? 0 : nr;
+	}
+
+	private void dispatch() {
+		while (running < maxRunning && !queued.isEmpty()) {
+			final QueuedLongAction next = Collections.min(queued, order);
+			final MemoryBudget.Reservation reservation = memoryBudget.tryReserve(this, next.estimatedMemory);
+			if (reservation == null) {
+				break;
+			}
+			queued.remove(next);
+			running++;
+			runningPerUser.put(next.user, getRunning(next.user) + 1);
+			executorService.execute(new Runnable() {
+				@Override
+				public void run() {
+					LongActionQueue.this.run(next, reservation);
+				}
+			});
+		}
+	}
+
+	private void run(QueuedLongAction queuedLongAction, MemoryBudget.Reservation reservation) {
+		LongAction<?> longAction = queuedLongAction.longAction;
+		longAction.setMemoryReservation(reservation);
+		long startNanos = System.nanoTime();
+		synchronized (this) {
+			getStats(longAction).addWait(startNanos - queuedLongAction.queuedNanos);
+		}
+		Thread thread = Thread.currentThread();
+		String threadName = thread.getName();
+		thread.setName(longAction.getDescription());
+		boolean initialized = false;
+		try {
+			longAction.init(thread);
+			initialized = true;
+			longAction.execute();
+		} catch (Throwable e) {
+			LOGGER.error("", e);
+			if (!initialized) {
+				// The action never got to run, release anyone waiting for it
+				if (e instanceof Exception) {
+					longAction.error((Exception) e);
+				}
+				longAction.done();
+			}
+		} finally {
+			thread.setName(threadName);
+			synchronized (this) {
+				getStats(longAction).addRun(System.nanoTime() - startNanos);
+				running--;
+				int userRunning = getRunning(queuedLongAction.user) - 1;
+				if (userRunning == 0) {
+					runningPerUser.remove(queuedLongAction.user);
+				} else {
+					runningPerUser.put(queuedLongAction.user, userRunning);
+				}
+			}
+			// Also starts the next actions of all lanes that were waiting for memory, unless the action still holds its result in memory
+			longAction.executed();
+			// The thread is free either way
+			dispatchWaiting();
+		}
+	}
+
+	private LongActionStats getStats(LongAction<?> longAction) {
+		String name = longAction.getClass().getSimpleName();
+		LongActionStats longActionStats = stats.get(name);
+		if (longActionStats == null) {
+			longActionStats = new LongActionStats();
+			stats.put(name, longActionStats);
+		}
+		return longActionStats;
+	}
+
+	/**
+	 * Only the actions of which the position changed get a progress update, notifications are queued so this is cheap to do while holding the lock
+	 */
+	private void reportPositions() {
+		List<QueuedLongAction> positions = new ArrayList<QueuedLongAction>(queued);
+		Collections.sort(positions, order);
+		for (int i = 0; i < positions.size(); i++) {
+			QueuedLongAction queuedLongAction = positions.get(i);
+			int position = i + 1;
+			if (queuedLongAction.reportedPosition != position) {
+				queuedLongAction.reportedPosition = position;
+				queuedLongAction.longAction.updateProgress("Queued at position " + position, -1);
+			}
+		}
+	}
+
+	public synchronized int getQueueLength() {
+		return queued.size();
+	}
+
+	public synchronized int getNrRunning() {
+		return running;
+	}
+
+	public synchronized SInterfaceMetric getMetrics() {
+		SInterfaceMetric sInterfaceMetric = new SInterfaceMetric();
+		sInterfaceMetric.setName("Long actions " + lane.name().toLowerCase() + " (" + running + "/" + maxRunning + " running, " + queued.size() + " queued)");
+		for (Map.Entry<String, LongActionStats> entry : stats.entrySet()) {
+			sInterfaceMetric.getMethods().add(entry.getValue().getWaitMetric(entry.getKey() + " wait"));
+			sInterfaceMetric.getMethods().add(entry.getValue().getRunMetric(entry.getKey() + " run"));
+		}
+		return sInterfaceMetric;
+	}
+}
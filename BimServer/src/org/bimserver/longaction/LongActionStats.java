@@ -0,0 +1,79 @@
+package org.bimserver.longaction;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.util.Date;
+
+import org.bimserver.interfaces.objects.SMethodMetric;
+
+/**
+ * Wait and run times of one type of long action, guarded by the owning LongActionQueue
+ */
+class LongActionStats {
+	private long nrWaits;
+	private long totalWaitNanos;
+	private long shortestWaitNanos = Long.MAX_VALUE;
+	private long longestWaitNanos;
+	private Date lastWait;
+	private long nrRuns;
+	private long totalRunNanos;
+	private long shortestRunNanos = Long.MAX_VALUE;
+	private long longestRunNanos;
+	private Date lastRun;
+
+	public void addWait(long nanos) {
+		nrWaits++;
+		totalWaitNanos += nanos;
+		shortestWaitNanos = Math.min(shortestWaitNanos, nanos);
+		longestWaitNanos = Math.max(longestWaitNanos, nanos);
+		lastWait = new Date();
+	}
+
+	public void addRun(long nanos) {
+		nrRuns++;
+		totalRunNanos += nanos;
+		shortestRunNanos = Math.min(shortestRunNanos, nanos);
+		longestRunNanos = Math.max(longestRunNanos, nanos);
+		lastRun = new Date();
+	}
+
+	public SMethodMetric getWaitMetric(String name) {
+		return createMetric(name, nrWaits, totalWaitNanos, shortestWaitNanos, longestWaitNanos, lastWait);
+	}
+
+	public SMethodMetric getRunMetric(String name) {
+		return createMetric(name, nrRuns, totalRunNanos, shortestRunNanos, longestRunNanos, lastRun);
+	}
+
+	private SMethodMetric createMetric(String name, long count, long totalNanos, long shortestNanos, long longestNanos, Date last) {
+		SMethodMetric sMethodMetric = new SMethodMetric();
+		sMethodMetric.setName(name);
+		sMethodMetric.setNrCalls(count);
+		sMethodMetric.setLastCall(last);
+		if (count > 0) {
+			sMethodMetric.setAverageMs(totalNanos / count / 1000000);
+			sMethodMetric.setShortestMs(shortestNanos / 1000000);
+			sMethodMetric.setLongestMs(longestNanos / 1000000);
+		} else {
+			sMethodMetric.setAverageMs(0L);
+			sMethodMetric.setShortestMs(0L);
+			sMethodMetric.setLongestMs(0L);
+		}
+		return sMethodMetric;
+	}
+}
@@ -18,6 +18,7 @@ package org.bimserver.longaction;
  *****************************************************************************/
 
 import org.bimserver.BimServer;
+import org.bimserver.database.BimserverDatabaseException;
 import org.bimserver.database.DatabaseSession;
 import org.bimserver.database.ProgressHandler;
 import org.bimserver.database.actions.AbstractBranchDatabaseAction;
@@ -35,11 +36,39 @@ public class LongBranchAction extends LongAction<LongCheckinActionKey> {
 	private static final Logger LOGGER = LoggerFactory.getLogger(LongBranchAction.class);
 
 	private BimDatabaseAction<ConcreteRevision> action;
+	private final Long roid;
 
 	public LongBranchAction(BimServer bimServer, String username, String userUsername, Authorization authorization, AbstractBranchDatabaseAction action) {
 		super(bimServer, username, userUsername, authorization);
 		setProgressTopic(bimServer.getNotificationsManager().createProgressOnProjectTopic(authorization.getUoid(), action.getPoid(), SProgressTopicType.BRANCH, "Branching"));
 		this.action = action;
+		this.roid = action.getRoid();
+	}
+
+	@Override
+	public long estimateMemory(MemoryEstimator memoryEstimator) throws BimserverDatabaseException {
+		if (roid == null) {
+			return 0;
+		}
+		DatabaseSession session = getBimServer().getDatabase().createSession();
+		try {
+			return memoryEstimator.estimateRevision(session, roid);
+		} finally {
+			session.close();
+		}
+	}
+
+	@Override
+	public LongActionLane getLane() {
+		return LongActionLane.CHECKIN;
+	}
+
+	/**
+	 * Branching copies a whole revision and nobody is usually waiting for it, checkins go first
+	 */
+	@Override
+	public int getPriority() {
+		return PRIORITY_LOW;
 	}
 
 	@Override
@@ -54,19 +83,26 @@ public class LongBranchAction extends LongAction<LongCheckinActionKey> {
 			action.setDatabaseSession(session);
 			session.executeAndCommitAction(action, new ProgressHandler() {
 				private int count;
+				private int lastPercentage = -1;
 
 				@Override
 				public void progress(int current, int max) {
+					int percentage = max == 0 ? 100 : (int) (current * 100L / max);
+					if (percentage == lastPercentage) {
+						return;
+					}
+					lastPercentage = percentage;
 					if (count == 0) {
-						updateProgress("Storing data...", current * 100 / max);
+						updateProgress("Storing data...", percentage);
 					} else {
-						updateProgress("Storing data (" + (count + 1) + ")...", current * 100 / max);
+						updateProgress("Storing data (" + (count + 1) + ")...", percentage);
 					}
 				}
 
 				@Override
 				public void retry(int count) {
 					this.count = count;
+					lastPercentage = -1;
 				}
 			});
 		} catch (Exception e) {
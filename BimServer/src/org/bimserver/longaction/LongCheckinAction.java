@@ -22,6 +22,7 @@ import org.bimserver.database.DatabaseSession;
 import org.bimserver.database.ProgressHandler;
 import org.bimserver.database.actions.CheckinDatabaseAction;
 import org.bimserver.database.berkeley.BimserverConcurrentModificationDatabaseException;
+import org.bimserver.emf.IfcModelInterface;
 import org.bimserver.interfaces.objects.SProgressTopicType;
 import org.bimserver.models.store.ActionState;
 import org.bimserver.shared.exceptions.UserException;
@@ -50,19 +51,26 @@ public class LongCheckinAction extends LongAction<LongCheckinActionKey> {
 			checkinDatabaseAction.setDatabaseSession(session);
 			session.executeAndCommitAction(checkinDatabaseAction, new ProgressHandler() {
 				private int count;
+				private int lastPercentage = -1;
 
 				@Override
 				public void progress(int current, int max) {
+					int percentage = max == 0 ? 100 : (int) (current * 100L / max);
+					if (percentage == lastPercentage) {
+						return;
+					}
+					lastPercentage = percentage;
 					if (count == 0) {
-						updateProgress("Saving to database (" + fileName + ")", current * 100 / max);
+						updateProgress("Saving to database (" + fileName + ")", percentage);
 					} else {
-						updateProgress("Saving to database (" + fileName + ", " + count + " try)", current * 100 / max);
+						updateProgress("Saving to database (" + fileName + ", " + count + " try)", percentage);
 					}
 				}
 
 				@Override
 				public void retry(int count) {
 					this.count = count;
+					lastPercentage = -1;
 				}
 			});
 		} catch (Exception e) {
@@ -91,6 +99,23 @@ public class LongCheckinAction extends LongAction<LongCheckinActionKey> {
 		checkinDatabaseAction = null;
 	}
 
+	@Override
+	public long estimateMemory(MemoryEstimator memoryEstimator) {
+		if (checkinDatabaseAction.getFileSize() > 0) {
+			return memoryEstimator.estimateCheckin(checkinDatabaseAction.getFileSize());
+		}
+		IfcModelInterface model = checkinDatabaseAction.getModel();
+		if (model != null) {
+			return memoryEstimator.estimateModel(model.getPackageMetaData().getSchema().getEPackageName(), model.size());
+		}
+		return 0;
+	}
+
+	@Override
+	public LongActionLane getLane() {
+		return LongActionLane.CHECKIN;
+	}
+
 	@Override
 	public String getDescription() {
 		return getClass().getSimpleName();
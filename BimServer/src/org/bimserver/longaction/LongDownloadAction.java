@@ -17,6 +17,11 @@ package org.bimserver.longaction;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.activation.DataHandler;
+
 import org.bimserver.BimServer;
 import org.bimserver.database.BimserverDatabaseException;
 import org.bimserver.database.DatabaseSession;
@@ -33,6 +38,7 @@ import org.bimserver.database.actions.DownloadProjectsDatabaseAction;
 import org.bimserver.database.actions.DownloadQueryDatabaseAction;
 import org.bimserver.database.actions.ProgressListener;
 import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.interfaces.objects.SCheckoutResult;
 import org.bimserver.interfaces.objects.SProgressTopicType;
 import org.bimserver.models.log.AccessMethod;
 import org.bimserver.models.store.ActionState;
@@ -42,13 +48,23 @@ import org.bimserver.models.store.StorePackage;
 import org.bimserver.plugins.PluginConfiguration;
 import org.bimserver.plugins.objectidms.ObjectIDM;
 import org.bimserver.plugins.objectidms.ObjectIDMPlugin;
+import org.bimserver.plugins.serializers.EmfSerializerDataSource;
 import org.bimserver.shared.exceptions.UserException;
 import org.bimserver.webservices.authorization.Authorization;
 
 public class LongDownloadAction extends LongDownloadOrCheckoutAction implements ProgressListener {
 
+	/*
+	 * A revision download puts all objects in one model, so the object cache of the session does not need to keep every object alive
+	 */
+	private static final int DOWNLOAD_REVISION_OBJECT_CACHE_SIZE = 250000;
+
 	private BimDatabaseAction<? extends IfcModelInterface> action;
 	private DatabaseSession session;
+	// Identical downloads that started while this one was running, guarded by the LongActionManager
+	private final List<LongDownloadAction> followers = new ArrayList<LongDownloadAction>();
+	private SharedDownload sharedDownload;
+	private EmfSerializerDataSource sharedDataSource;
 
 	public LongDownloadAction(BimServer bimServer, String username, String userUsername, DownloadParameters downloadParameters, Authorization authorization, AccessMethod accessMethod) {
 		super(bimServer, username, userUsername, downloadParameters, accessMethod, authorization);
@@ -102,9 +118,10 @@ public class LongDownloadAction extends LongDownloadOrCheckoutAction implements
 			}
 		}
 
-		session = getBimServer().getDatabase().createSession();
+		session = getBimServer().getDatabase().createReadOnlySession();
 		switch (downloadParameters.getDownloadType()) {
 		case DOWNLOAD_REVISION:
+			session.setObjectCacheMaxSize(DOWNLOAD_REVISION_OBJECT_CACHE_SIZE);
 			action = new DownloadDatabaseAction(getBimServer(), session, accessMethod, downloadParameters.getRoid(), downloadParameters.getIgnoreUoid(), downloadParameters.getSerializerOid(), getAuthorization(), objectIDM);
 			break;
 		case DOWNLOAD_BY_OIDS:
@@ -140,8 +157,54 @@ public class LongDownloadAction extends LongDownloadOrCheckoutAction implements
 		return "Download";
 	}
 	
+	void addFollower(LongDownloadAction follower) {
+		followers.add(follower);
+	}
+
+	boolean removeFollower(LongDownloadAction follower) {
+		return followers.remove(follower);
+	}
+
+	List<LongDownloadAction> takeFollowers() {
+		List<LongDownloadAction> result = new ArrayList<LongDownloadAction>(followers);
+		followers.clear();
+		return result;
+	}
+
+	/**
+	 * Finishes this download with the output of an identical download that was already running
+	 */
+	void useSharedDownload(SCheckoutResult sharedResult, SharedDownload sharedDownload) {
+		SCheckoutResult result = new SCheckoutResult();
+		result.setProjectName(sharedResult.getProjectName());
+		result.setRevisionNr(sharedResult.getRevisionNr());
+		result.setFile(new DataHandler(takeShare(sharedDownload)));
+		checkoutResult = result;
+		changeActionState(ActionState.STARTED, "Done preparing", 0);
+		done();
+	}
+
+	synchronized EmfSerializerDataSource takeShare(SharedDownload sharedDownload) {
+		this.sharedDownload = sharedDownload;
+		this.sharedDataSource = sharedDownload.createDataSource();
+		return sharedDataSource;
+	}
+
+	/**
+	 * Called when this action is removed, when the client never fetched the result the shared file would otherwise stay on disk
+	 */
+	synchronized void releaseShare() {
+		if (sharedDownload != null) {
+			sharedDownload.release(sharedDataSource);
+			sharedDownload = null;
+			sharedDataSource = null;
+		}
+	}
+
 	@Override
 	protected void done() {
+		// Before anyone waiting for this download is released, identical downloads that were waiting for this one take their share of the result
+		getBimServer().getLongActionManager().downloadFinished(this);
 		super.done();
 		// This is very important! The LongDownloadAction will probably live another 30 minutes 
 		// before it will be cleaned up (this is useful for clients asking for the progress/status of this download)
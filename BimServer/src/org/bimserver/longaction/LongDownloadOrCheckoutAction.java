@@ -62,6 +62,23 @@ public abstract class LongDownloadOrCheckoutAction extends LongAction<DownloadPa
 		this.downloadParameters = downloadParameters;
 	}
 
+	@Override
+	public long estimateMemory(MemoryEstimator memoryEstimator) throws BimserverDatabaseException {
+		if (downloadParameters.getRoids() == null) {
+			return 0;
+		}
+		if (getBimServer().getServerSettingsCache().getServerSettings().getCacheOutputFiles() && getBimServer().getDiskCacheManager().contains(downloadParameters)) {
+			// Will be streamed from the disk cache
+			return 0;
+		}
+		DatabaseSession session = getBimServer().getDatabase().createReadOnlySession();
+		try {
+			return memoryEstimator.estimateRevisions(session, downloadParameters.getRoids(), downloadParameters.getSerializerOid());
+		} finally {
+			session.close();
+		}
+	}
+
 	public SCheckoutResult getCheckoutResult() {
 		return checkoutResult;
 	}
@@ -81,10 +98,10 @@ public abstract class LongDownloadOrCheckoutAction extends LongAction<DownloadPa
 					if (getBimServer().getDiskCacheManager().contains(downloadParameters)) {
 						checkoutResult.setFile(new CachingDataHandler(getBimServer().getDiskCacheManager(), downloadParameters));
 					} else {
-						checkoutResult.setFile(new DataHandler(new CacheStoringEmfSerializerDataSource(serializer, getBimServer().getDiskCacheManager().startCaching(downloadParameters))));
+						checkoutResult.setFile(new DataHandler(releaseWhenStreamed(new CacheStoringEmfSerializerDataSource(serializer, getBimServer().getDiskCacheManager().startCaching(downloadParameters)))));
 					}
 				} else {
-					checkoutResult.setFile(new DataHandler(new EmfSerializerDataSource(serializer)));
+					checkoutResult.setFile(new DataHandler(releaseWhenStreamed(new EmfSerializerDataSource(serializer))));
 				}
 			} catch (SerializerException e) {
 				LOGGER.error("", e);
@@ -93,6 +110,17 @@ public abstract class LongDownloadOrCheckoutAction extends LongAction<DownloadPa
 		return checkoutResult;
 	}
 	
+	/*
+	 * The model stays in memory until the serializer has written it, so that is when the reserved memory is released
+	 */
+	private EmfSerializerDataSource releaseWhenStreamed(EmfSerializerDataSource dataSource) {
+		MemoryBudget.Reservation reservation = holdMemoryReservation();
+		if (reservation == null) {
+			return dataSource;
+		}
+		return new ReleasingDataSource(dataSource, reservation);
+	}
+
 	public MessagingSerializer getMessagingSerializer() {
 		return messagingSerializer;
 	}
@@ -132,6 +160,8 @@ public abstract class LongDownloadOrCheckoutAction extends LongAction<DownloadPa
 						} else if (serializerPluginConfiguration instanceof MessagingSerializerPluginConfiguration) {
 							try {
 								messagingSerializer = getBimServer().getSerializerFactory().createMessagingSerializer(getUserName(), ifcModel, renderEnginePlugin, downloadParameters);
+								// The client pulls the messages, the model is kept until this action is removed
+								holdMemoryReservation();
 							} catch (SerializerException e) {
 								e.printStackTrace();
 							}
@@ -0,0 +1,135 @@
+package org.bimserver.longaction;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bimserver.BimServer;
+
+/**
+ * The part of the heap that running long actions may reserve, shared by all lanes. An action is admitted when its estimate fits next to the reservations of
+ * the actions already running, or when nothing else is running, so actions estimated to be bigger than the budget still run, alone. When the next action of
+ * a lane does not fit, the other lanes do not admit anything until it has been admitted, otherwise a stream of small actions could keep it waiting forever.
+ */
+class MemoryBudget {
+	private final BimServer bimServer;
+	private final List<LongActionQueue> queues = new CopyOnWriteArrayList<LongActionQueue>();
+	private long reserved;
+	private LongActionQueue blockedQueue;
+
+	/**
+	 * Memory reserved for one action. Downloads keep it until their result has been streamed, so it is released by whoever is done with it first.
+	 */
+	class Reservation {
+		private final long bytes;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		private Reservation(long bytes) {
+			this.bytes = bytes;
+		}
+
+		/**
+		 * Must not be called while holding the lock of a queue
+		 */
+		public void release() {
+			if (released.compareAndSet(false, true)) {
+				MemoryBudget.this.release(bytes);
+			}
+		}
+	}
+
+	public MemoryBudget(BimServer bimServer) {
+		this.bimServer = bimServer;
+	}
+
+	public void addQueue(LongActionQueue longActionQueue) {
+		queues.add(longActionQueue);
+	}
+
+	/**
+	 * @return The budget in bytes, or -1 when there is no limit
+	 */
+	public long getBudget() {
+		if (bimServer == null || bimServer.getServerSettingsCache() == null) {
+			return -1;
+		}
+		int percentage = bimServer.getServerSettingsCache().getServerSettings().getLongActionHeapPercentage();
+		if (percentage <= 0) {
+			return -1;
+		}
+		return Runtime.getRuntime().maxMemory() / 100 * percentage;
+	}
+
+	/**
+	 * @return The reservation, or null when the action has to wait
+	 */
+	public synchronized Reservation tryReserve(LongActionQueue longActionQueue, long bytes) {
+		if (blockedQueue != null && blockedQueue != longActionQueue) {
+			return null;
+		}
+		long budget = getBudget();
+		if (budget != -1 && reserved > 0 && reserved + bytes > budget) {
+			blockedQueue = longActionQueue;
+			return null;
+		}
+		blockedQueue = null;
+		reserved += bytes;
+		return new Reservation(bytes);
+	}
+
+	/**
+	 * Called by a queue that has no more waiting actions
+	 */
+	public synchronized void unblock(LongActionQueue longActionQueue) {
+		if (blockedQueue == longActionQueue) {
+			blockedQueue = null;
+		}
+	}
+
+	private void release(long bytes) {
+		synchronized (this) {
+			reserved -= bytes;
+		}
+		dispatchWaiting();
+	}
+
+	/**
+	 * Must not be called while holding the lock of a queue, starts the waiting actions of all lanes that fit
+	 */
+	public void dispatchWaiting() {
+		LongActionQueue first;
+		synchronized (this) {
+			first = blockedQueue;
+		}
+		// The lane everyone is waiting for goes first, the other lanes can only continue once it has been admitted
+		if (first != null) {
+			first.dispatchWaiting();
+		}
+		for (LongActionQueue longActionQueue : queues) {
+			if (longActionQueue != first) {
+				longActionQueue.dispatchWaiting();
+			}
+		}
+	}
+
+	public synchronized long getReserved() {
+		return reserved;
+	}
+}
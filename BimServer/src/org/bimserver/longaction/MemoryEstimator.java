@@ -0,0 +1,142 @@
+package org.bimserver.longaction;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.bimserver.database.BimserverDatabaseException;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.Query;
+import org.bimserver.database.RecordSizeEstimater;
+import org.bimserver.emf.MetaDataManager;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.models.store.PluginConfiguration;
+import org.bimserver.models.store.Revision;
+import org.bimserver.models.store.StorePackage;
+import org.bimserver.plugins.Plugin;
+import org.bimserver.plugins.PluginManager;
+import org.bimserver.plugins.serializers.MessagingSerializerPlugin;
+import org.bimserver.plugins.serializers.SerializerPlugin;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EClassifier;
+import org.eclipse.emf.ecore.EPackage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rough estimates of the heap a long action needs, these are only used to decide whether an action can start, not to limit it
+ */
+public class MemoryEstimator {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MemoryEstimator.class);
+	// Objects in memory are a lot bigger than their records, think object headers, EMF feature arrays, lists and the maps of the model
+	private static final int IN_MEMORY_FACTOR = 4;
+	private static final int OBJECT_OVERHEAD = 200;
+	private static final int DEFAULT_RECORD_SIZE = 100;
+	// A deserialized STEP file takes about this many bytes per byte of the file
+	private static final int BYTES_PER_FILE_BYTE = 10;
+	// Serializers that need geometry also load the geometry data of every product
+	private static final int GEOMETRY_FACTOR = 2;
+	private final MetaDataManager metaDataManager;
+	private final PluginManager pluginManager;
+	private final Map<String, Long> bytesPerObject = new HashMap<String, Long>();
+
+	public MemoryEstimator(MetaDataManager metaDataManager, PluginManager pluginManager) {
+		this.metaDataManager = metaDataManager;
+		this.pluginManager = pluginManager;
+	}
+
+	public long estimateCheckin(long fileSize) {
+		return fileSize * BYTES_PER_FILE_BYTE;
+	}
+
+	public long estimateModel(String schema, long nrObjects) {
+		return nrObjects * getBytesPerObject(schema);
+	}
+
+	public long estimateRevision(DatabaseSession databaseSession, long roid) throws BimserverDatabaseException {
+		return estimateRevisions(databaseSession, Collections.singleton(roid), -1);
+	}
+
+	/**
+	 * @param serializerOid The serializer the revisions are downloaded with, or -1 when there is none
+	 */
+	public long estimateRevisions(DatabaseSession databaseSession, Set<Long> roids, long serializerOid) throws BimserverDatabaseException {
+		long result = 0;
+		for (Long roid : roids) {
+			Revision revision = databaseSession.get(StorePackage.eINSTANCE.getRevision(), roid, Query.getDefault());
+			if (revision != null && revision.getSize() != null) {
+				result += estimateModel(revision.getProject().getSchema(), revision.getSize());
+			}
+		}
+		if (serializerOid > 0 && needsGeometry(databaseSession, serializerOid)) {
+			result *= GEOMETRY_FACTOR;
+		}
+		return result;
+	}
+
+	private boolean needsGeometry(DatabaseSession databaseSession, long serializerOid) throws BimserverDatabaseException {
+		PluginConfiguration pluginConfiguration = databaseSession.get(StorePackage.eINSTANCE.getPluginConfiguration(), serializerOid, Query.getDefault());
+		if (pluginConfiguration == null) {
+			return false;
+		}
+		Plugin plugin = pluginManager.getPlugin(pluginConfiguration.getPluginDescriptor().getPluginClassName(), true);
+		if (plugin instanceof SerializerPlugin) {
+			return ((SerializerPlugin) plugin).needsGeometry();
+		} else if (plugin instanceof MessagingSerializerPlugin) {
+			return ((MessagingSerializerPlugin) plugin).needsGeometry();
+		}
+		return false;
+	}
+
+	/**
+	 * The average record size of the classes of the schema as guessed by the RecordSizeEstimater, scaled to the size of an object in memory
+	 */
+	private synchronized long getBytesPerObject(String schema) {
+		Long result = bytesPerObject.get(schema);
+		if (result == null) {
+			long average = DEFAULT_RECORD_SIZE;
+			PackageMetaData packageMetaData = schema == null ? null : metaDataManager.getPackageMetaData(schema);
+			if (packageMetaData != null) {
+				EPackage ePackage = packageMetaData.getEPackage();
+				RecordSizeEstimater recordSizeEstimater = new RecordSizeEstimater();
+				try {
+					recordSizeEstimater.init(Collections.singleton(ePackage));
+					long total = 0;
+					int nrClasses = 0;
+					for (EClassifier eClassifier : ePackage.getEClassifiers()) {
+						if (eClassifier instanceof EClass && !((EClass) eClassifier).isAbstract()) {
+							total += recordSizeEstimater.getEstimate((EClass) eClassifier);
+							nrClasses++;
+						}
+					}
+					average = nrClasses == 0 ? DEFAULT_RECORD_SIZE : total / nrClasses;
+				} catch (RuntimeException e) {
+					// The RecordSizeEstimater does not know every data type
+					LOGGER.warn("Could not estimate record sizes of " + schema + ", using default", e);
+					average = DEFAULT_RECORD_SIZE;
+				}
+			}
+			result = OBJECT_OVERHEAD + average * IN_MEMORY_FACTOR;
+			bytesPerObject.put(schema, result);
+		}
+		return result;
+	}
+}
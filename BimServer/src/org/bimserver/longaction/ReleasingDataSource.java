@@ -0,0 +1,75 @@
+package org.bimserver.longaction;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.bimserver.plugins.serializers.EmfSerializerDataSource;
+import org.bimserver.plugins.serializers.ProgressReporter;
+import org.bimserver.plugins.serializers.SerializerException;
+
+/*
+ * Releases the memory reserved for a download once the serialized model has been streamed, or once streaming failed
+ */
+class ReleasingDataSource extends EmfSerializerDataSource {
+
+	private final EmfSerializerDataSource dataSource;
+	private final MemoryBudget.Reservation reservation;
+
+	public ReleasingDataSource(EmfSerializerDataSource dataSource, MemoryBudget.Reservation reservation) {
+		super(dataSource.getSerializer());
+		this.dataSource = dataSource;
+		this.reservation = reservation;
+	}
+
+	@Override
+	public String getName() {
+		return dataSource.getName();
+	}
+
+	@Override
+	public String getContentType() {
+		return dataSource.getContentType();
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return new FilterInputStream(dataSource.getInputStream()) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					reservation.release();
+				}
+			}
+		};
+	}
+
+	@Override
+	public void writeToOutputStream(OutputStream outputStream, ProgressReporter progressReporter) throws SerializerException, IOException {
+		try {
+			dataSource.writeToOutputStream(outputStream, progressReporter);
+		} finally {
+			reservation.release();
+		}
+	}
+}
@@ -0,0 +1,258 @@
+package org.bimserver.longaction;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.bimserver.plugins.serializers.EmfSerializerDataSource;
+import org.bimserver.plugins.serializers.ProgressReporter;
+import org.bimserver.plugins.serializers.SerializerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lets identical downloads share one serializer run. The serializer writes to a temporary file on its own thread, every download reads that file while it
+ * grows. The file is removed when all downloads have been read.
+ */
+public class SharedDownload {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SharedDownload.class);
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private final EmfSerializerDataSource source;
+	private final Path file;
+	private int unreadConsumers;
+	private long written;
+	private boolean finished;
+	private Exception error;
+	private long progress;
+	private long max = -1;
+
+	public SharedDownload(EmfSerializerDataSource source, Path tempDir, int nrConsumers) throws IOException {
+		this.source = source;
+		this.unreadConsumers = nrConsumers;
+		this.file = Files.createTempFile(tempDir, "download", ".tmp");
+		// In case not every client picks up its download
+		file.toFile().deleteOnExit();
+	}
+
+	public void start() {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				produce();
+			}
+		}, "Shared download " + source.getName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void produce() {
+		try {
+			OutputStream outputStream = new BufferedOutputStream(new FilterOutputStream(Files.newOutputStream(file)) {
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+					written(len);
+				}
+
+				@Override
+				public void write(int b) throws IOException {
+					out.write(b);
+					written(1);
+				}
+			}, BUFFER_SIZE);
+			source.writeToOutputStream(outputStream, new ProgressReporter() {
+				@Override
+				public void update(long progress, long max) {
+					progress(progress, max);
+				}
+
+				@Override
+				public void setTitle(String stage) {
+				}
+			});
+			finish(null);
+		} catch (Exception e) {
+			LOGGER.error("", e);
+			finish(e);
+		}
+	}
+
+	private synchronized void written(long bytes) {
+		written += bytes;
+		notifyAll();
+	}
+
+	private synchronized void progress(long progress, long max) {
+		this.progress = progress;
+		this.max = max;
+	}
+
+	private synchronized void finish(Exception error) {
+		this.error = error;
+		finished = true;
+		notifyAll();
+	}
+
+	private synchronized void consumerDone() {
+		unreadConsumers--;
+		if (unreadConsumers == 0) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				LOGGER.error("", e);
+			}
+		}
+	}
+
+	/**
+	 * @return A data source for one of the downloads, each of them has to be read once or released
+	 */
+	public EmfSerializerDataSource createDataSource() {
+		return new Consumer();
+	}
+
+	/**
+	 * Gives up the share of a download that will not be read (anymore), the file is removed when this was the last one
+	 */
+	public void release(EmfSerializerDataSource dataSource) {
+		((Consumer) dataSource).closed();
+	}
+
+	private class Consumer extends EmfSerializerDataSource {
+		private boolean released;
+
+		public Consumer() {
+			super(source.getSerializer());
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			return new GrowingFileInputStream(this);
+		}
+
+		@Override
+		public void writeToOutputStream(OutputStream outputStream, ProgressReporter progressReporter) throws SerializerException, IOException {
+			InputStream inputStream = getInputStream();
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				long reportedProgress = -1;
+				int read = inputStream.read(buffer);
+				while (read != -1) {
+					outputStream.write(buffer, 0, read);
+					if (progressReporter != null) {
+						long currentProgress;
+						long currentMax;
+						synchronized (SharedDownload.this) {
+							currentProgress = progress;
+							currentMax = max;
+						}
+						if (currentMax > 0 && currentProgress != reportedProgress) {
+							progressReporter.update(currentProgress, currentMax);
+							reportedProgress = currentProgress;
+						}
+					}
+					read = inputStream.read(buffer);
+				}
+			} finally {
+				inputStream.close();
+			}
+			try {
+				outputStream.close();
+			} catch (EOFException e) {
+				// let this one slide
+			}
+		}
+
+		private void closed() {
+			boolean release;
+			synchronized (SharedDownload.this) {
+				release = !released;
+				released = true;
+			}
+			if (release) {
+				consumerDone();
+			}
+		}
+	}
+
+	/**
+	 * Reads the shared file up to the point the serializer has written, blocks when it has caught up with the serializer
+	 */
+	private class GrowingFileInputStream extends InputStream {
+		private final Consumer consumer;
+		private final FileChannel channel;
+		private long position;
+
+		public GrowingFileInputStream(Consumer consumer) throws IOException {
+			this.consumer = consumer;
+			this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int read = read(b, 0, 1);
+			return read == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			long available;
+			synchronized (SharedDownload.this) {
+				while (position >= written && !finished) {
+					try {
+						SharedDownload.this.wait();
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+				}
+				if (position >= written) {
+					if (error != null) {
+						throw new IOException(error);
+					}
+					return -1;
+				}
+				available = written - position;
+			}
+			int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, available)), position);
+			if (read > 0) {
+				position += read;
+			}
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+			consumer.closed();
+		}
+	}
+}
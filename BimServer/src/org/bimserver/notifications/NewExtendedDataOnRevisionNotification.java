@@ -68,6 +68,16 @@ public class NewExtendedDataOnRevisionNotification extends Notification {
 		return poid;
 	}
 
+	@Override
+	public Object getPartitionKey() {
+		return poid;
+	}
+
+	@Override
+	public boolean isRemote() {
+		return true;
+	}
+
 	@Override
 	public void process() throws BimserverDatabaseException, UserException, ServerException {
 		DatabaseSession session = getBimServer().getDatabase().createSession();
@@ -91,6 +91,16 @@ public class NewRevisionNotification extends Notification {
 		this.roid = roid;
 		this.soid = -1;
 	}
+
+	@Override
+	public Object getPartitionKey() {
+		return poid;
+	}
+
+	@Override
+	public boolean isRemote() {
+		return true;
+	}
 
 	@Override
 	public void process() throws BimserverDatabaseException, UserException, ServerException {
@@ -38,6 +38,20 @@ public abstract class Notification implements Runnable {
 	}
 	
 	public abstract void process() throws BimserverDatabaseException, UserException, ServerException;
+
+	/**
+	 * Notifications with equal partition keys are processed in the order they were queued
+	 */
+	public Object getPartitionKey() {
+		return getClass();
+	}
+
+	/**
+	 * Remote notifications call external services, they run in order on a separate pool with a timeout, so they do not hold up other notifications
+	 */
+	public boolean isRemote() {
+		return false;
+	}
 	
 	@Override
 	public void run() {
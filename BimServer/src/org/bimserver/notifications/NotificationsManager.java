@@ -30,6 +30,7 @@ import org.bimserver.client.DirectChannel;
 import org.bimserver.client.SimpleTokenHolder;
 import org.bimserver.client.json.JsonChannel;
 import org.bimserver.client.json.JsonSocketReflectorFactory;
+import org.bimserver.interfaces.objects.SInterfaceMetric;
 import org.bimserver.interfaces.objects.SLogAction;
 import org.bimserver.interfaces.objects.SProgressTopicType;
 import org.bimserver.models.store.ServerSettings;
@@ -117,6 +118,14 @@ public class NotificationsManager {
 		notificationsProcessor.termintate();
 	}
 
+	public void schedule(Runnable runnable, long delayMs) {
+		notificationsProcessor.schedule(runnable, delayMs);
+	}
+
+	public SInterfaceMetric getMetrics() {
+		return notificationsProcessor.getMetrics();
+	}
+
 	public NewRevisionTopic getNewRevisionTopic() {
 		return newRevisionTopic;
 	}
@@ -17,41 +17,362 @@ package org.bimserver.notifications;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.bimserver.BimServer;
+import org.bimserver.interfaces.objects.SInterfaceMetric;
+import org.bimserver.interfaces.objects.SMethodMetric;
+import org.bimserver.servlets.WebSocketBatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class NotificationsProcessor extends Thread {
+/**
+ * Runs notifications on a fixed number of lanes. Notifications are assigned to a lane by their partition key, so notifications with the same key are processed in
+ * the order they were queued, while a slow notification only holds up its own lane. Notifications that call remote services are handed over by their lane to
+ * a separate pool, where they run one at a time per partition key, in order. When all remote threads are busy they wait in the queue of their partition key.
+ * A remote notification that does not finish within the timeout is not interrupted, it may be in the middle of a database session, but the next one of its
+ * partition key is started on another thread. When a lane is full, the queueing thread waits. Websocket messages sent while a lane processes a run of
+ * notifications are sent as one frame per socket. Frames are sent at least every BATCH_FLUSH_MILLIS while the run lasts, and right after a progress
+ * notification, so slow notifications do not delay the messages of the ones before them.
+ */
+public class NotificationsProcessor {
 	private static final Logger LOGGER = LoggerFactory.getLogger(NotificationsProcessor.class);
-	private final LinkedBlockingQueue<Notification> queue = new LinkedBlockingQueue<>(1000000);
+	private static final int LANE_CAPACITY = 100000;
+	private static final int MAX_REMOTE_DELIVERIES = 32;
+	private static final int REMOTE_DELIVERY_TIMEOUT_SECONDS = 120;
+	private static final int MAX_BATCH = 100; // Notifications processed before the collected websocket messages are sent
+	private static final long BATCH_FLUSH_MILLIS = 20; // Longest time websocket messages are held back during a run
+	private final Lane[] lanes;
+	private final ThreadPoolExecutor remoteExecutor;
+	private final Map<Object, RemoteQueue> remoteQueues = new HashMap<>();
+	private final ScheduledExecutorService scheduler;
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong processNanos = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong producerWaits = new AtomicLong();
+	private final AtomicLong producerWaitNanos = new AtomicLong();
+	private final AtomicLong remoteDeliveries = new AtomicLong();
+	private final AtomicLong remoteTimeouts = new AtomicLong();
 	private volatile boolean running = true;
 
 	public NotificationsProcessor(BimServer bimServer) {
-	}
-
-	@Override
-	public void run() {
-		try {
-			while (running) {
-				queue.take().run();
+		int nrLanes = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+		lanes = new Lane[nrLanes];
+		for (int i = 0; i < nrLanes; i++) {
+			lanes[i] = new Lane(i);
+		}
+		final AtomicInteger threadCounter = new AtomicInteger();
+		// Only grows past MAX_REMOTE_DELIVERIES threads to replace threads of deliveries that timed out
+		remoteExecutor = new ThreadPoolExecutor(MAX_REMOTE_DELIVERIES, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "NotificationsProcessor-remote-" + threadCounter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
 			}
-		} catch (InterruptedException e) {
-			if (running) {
-				LOGGER.error("Unexpected interruption");
+		});
+		remoteExecutor.allowCoreThreadTimeOut(true);
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "NotificationsProcessor-scheduler");
+				thread.setDaemon(true);
+				return thread;
 			}
+		});
+	}
+
+	public void start() {
+		for (Lane lane : lanes) {
+			lane.start();
 		}
 	}
 
 	public void termintate() {
 		running = false;
-		interrupt();
+		for (Lane lane : lanes) {
+			lane.interrupt();
+		}
+		// Running remote notifications are not interrupted, they may be in the middle of a database session
+		remoteExecutor.shutdown();
+		scheduler.shutdownNow();
 	}
 
 	public void queue(Notification notification) {
-		if (!queue.offer(notification)) {
-			LOGGER.error("Notification queue is full!");
+		Object partitionKey = notification.getPartitionKey();
+		int hash = partitionKey == null ? 0 : partitionKey.hashCode();
+		lanes[(hash & Integer.MAX_VALUE) % lanes.length].queue(notification);
+	}
+
+	private void process(Notification notification) {
+		if (notification.isRemote()) {
+			runRemote(notification);
+		} else {
+			long start = System.nanoTime();
+			notification.run();
+			processNanos.addAndGet(System.nanoTime() - start);
+			processed.incrementAndGet();
+		}
+	}
+
+	/*
+	 * Never waits, so the lane can continue with the next notification
+	 */
+	private void runRemote(Notification notification) {
+		remoteDeliveries.incrementAndGet();
+		Object partitionKey = notification.getPartitionKey();
+		RemoteQueue remoteQueue;
+		synchronized (remoteQueues) {
+			remoteQueue = remoteQueues.get(partitionKey);
+			if (remoteQueue == null) {
+				remoteQueue = new RemoteQueue(partitionKey);
+				remoteQueues.put(partitionKey, remoteQueue);
+			}
+			remoteQueue.waiting.add(notification);
+			if (remoteQueue.active) {
+				// Started when the one before it has finished or timed out
+				return;
+			}
+			remoteQueue.active = true;
+		}
+		startNext(remoteQueue);
+	}
+
+	private void startNext(RemoteQueue remoteQueue) {
+		Notification notification;
+		synchronized (remoteQueues) {
+			notification = remoteQueue.waiting.poll();
+			if (notification == null) {
+				remoteQueue.active = false;
+				remoteQueues.remove(remoteQueue.partitionKey);
+				return;
+			}
+		}
+		try {
+			remoteExecutor.execute(new RemoteDelivery(remoteQueue, notification));
+		} catch (RejectedExecutionException e) {
+			if (running) {
+				throw e;
+			}
+		}
+	}
+
+	private void addRemoteThreads(int delta) {
+		synchronized (remoteExecutor) {
+			remoteExecutor.setCorePoolSize(remoteExecutor.getCorePoolSize() + delta);
+		}
+	}
+
+	/*
+	 * The remote notifications of one partition key that have not been started yet
+	 */
+	private static class RemoteQueue {
+		private final Object partitionKey;
+		private final ArrayDeque<Notification> waiting = new ArrayDeque<>();
+		private boolean active;
+
+		public RemoteQueue(Object partitionKey) {
+			this.partitionKey = partitionKey;
+		}
+	}
+
+	private class RemoteDelivery implements Runnable {
+		private final RemoteQueue remoteQueue;
+		private final Notification notification;
+		// Set by whichever comes first, the end of the notification or its timeout, that one starts the next notification of the partition key
+		private final AtomicBoolean finished = new AtomicBoolean();
+
+		public RemoteDelivery(RemoteQueue remoteQueue, Notification notification) {
+			this.remoteQueue = remoteQueue;
+			this.notification = notification;
+		}
+
+		@Override
+		public void run() {
+			ScheduledFuture<?> timeout = null;
+			try {
+				timeout = scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						timedOut();
+					}
+				}, REMOTE_DELIVERY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			} catch (RejectedExecutionException e) {
+				// Shutting down
+			}
+			long start = System.nanoTime();
+			try {
+				notification.run();
+			} finally {
+				processNanos.addAndGet(System.nanoTime() - start);
+				processed.incrementAndGet();
+				if (timeout != null) {
+					timeout.cancel(false);
+				}
+				if (finished.compareAndSet(false, true)) {
+					startNext(remoteQueue);
+				} else {
+					// The thread that took over from this one is not needed anymore
+					addRemoteThreads(-1);
+				}
+			}
+		}
+
+		private void timedOut() {
+			if (finished.compareAndSet(false, true)) {
+				remoteTimeouts.incrementAndGet();
+				LOGGER.warn(notification.getClass().getSimpleName() + " did not finish within " + REMOTE_DELIVERY_TIMEOUT_SECONDS + " seconds, continuing with the next notification of " + remoteQueue.partitionKey);
+				// This thread stays busy, so it is replaced for as long as the notification runs
+				addRemoteThreads(1);
+				startNext(remoteQueue);
+			}
+		}
+	}
+
+	public void schedule(Runnable runnable, long delayMs) {
+		if (running) {
+			scheduler.schedule(runnable, delayMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public SInterfaceMetric getMetrics() {
+		SInterfaceMetric sInterfaceMetric = new SInterfaceMetric();
+		int queued = 0;
+		for (Lane lane : lanes) {
+			queued += lane.queue.size();
+		}
+		int remoteWaiting = 0;
+		synchronized (remoteQueues) {
+			for (RemoteQueue remoteQueue : remoteQueues.values()) {
+				remoteWaiting += remoteQueue.waiting.size();
+			}
+		}
+		sInterfaceMetric.setName("Notifications (" + lanes.length + " lanes, " + queued + " queued, " + remoteWaiting + " remote waiting)");
+		sInterfaceMetric.getMethods().add(createMetric("processed", processed.get(), processNanos.get()));
+		sInterfaceMetric.getMethods().add(createMetric("coalesced progress", coalesced.get(), 0));
+		sInterfaceMetric.getMethods().add(createMetric("waited for full lane", producerWaits.get(), producerWaitNanos.get()));
+		sInterfaceMetric.getMethods().add(createMetric("remote", remoteDeliveries.get(), 0));
+		sInterfaceMetric.getMethods().add(createMetric("remote timed out", remoteTimeouts.get(), 0));
+		return sInterfaceMetric;
+	}
+
+	private SMethodMetric createMetric(String name, long count, long totalNanos) {
+		SMethodMetric sMethodMetric = new SMethodMetric();
+		sMethodMetric.setName(name);
+		sMethodMetric.setNrCalls(count);
+		sMethodMetric.setAverageMs(count > 0 ? totalNanos / count / 1000000 : 0L);
+		sMethodMetric.setShortestMs(0L);
+		sMethodMetric.setLongestMs(0L);
+		return sMethodMetric;
+	}
+
+	private class Lane extends Thread {
+		private final LinkedBlockingQueue<Notification> queue = new LinkedBlockingQueue<>(LANE_CAPACITY);
+		// Progress notifications that are queued but not yet started, a newer state for the same topic replaces the state of the queued one
+		private final Map<ProgressTopic, ProgressNotification> pendingProgress = new HashMap<>();
+
+		public Lane(int index) {
+			super("NotificationsProcessor-" + index);
+		}
+
+		public void queue(Notification notification) {
+			if (notification instanceof ProgressNotification) {
+				ProgressNotification progressNotification = (ProgressNotification) notification;
+				synchronized (pendingProgress) {
+					ProgressNotification pending = pendingProgress.get(progressNotification.getTopic());
+					if (pending != null) {
+						pending.setState(progressNotification.getState());
+						coalesced.incrementAndGet();
+						return;
+					}
+					pendingProgress.put(progressNotification.getTopic(), progressNotification);
+				}
+			}
+			if (queue.offer(notification)) {
+				return;
+			}
+			if (Thread.currentThread() instanceof Lane) {
+				// Waiting here could deadlock the lanes, the notification is processed by this thread instead
+				started(notification);
+				process(notification);
+				return;
+			}
+			long start = System.nanoTime();
+			try {
+				queue.put(notification);
+			} catch (InterruptedException e) {
+				LOGGER.error("Interrupted while waiting for notification queue", e);
+				Thread.currentThread().interrupt();
+			} finally {
+				producerWaits.incrementAndGet();
+				producerWaitNanos.addAndGet(System.nanoTime() - start);
+			}
+		}
+
+		private ScheduledFuture<?> scheduleFlush(final WebSocketBatch batch) {
+			try {
+				return scheduler.scheduleAtFixedRate(new Runnable() {
+					@Override
+					public void run() {
+						batch.send();
+					}
+				}, BATCH_FLUSH_MILLIS, BATCH_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// Shutting down, the batch is sent at the end of the run
+				return null;
+			}
+		}
+
+		private void started(Notification notification) {
+			if (notification instanceof ProgressNotification) {
+				synchronized (pendingProgress) {
+					pendingProgress.remove(((ProgressNotification) notification).getTopic());
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					Notification notification = queue.take();
+					ScheduledFuture<?> timedFlush = scheduleFlush(WebSocketBatch.begin());
+					try {
+						int batched = 0;
+						do {
+							started(notification);
+							process(notification);
+							batched++;
+							if (notification instanceof ProgressNotification) {
+								// Progress is sent right away, together with what has been collected before it
+								break;
+							}
+						} while (batched < MAX_BATCH && (notification = queue.poll()) != null);
+					} finally {
+						if (timedFlush != null) {
+							timedFlush.cancel(false);
+						}
+						WebSocketBatch.flush();
+					}
+				}
+			} catch (InterruptedException e) {
+				if (running) {
+					LOGGER.error("Unexpected interruption");
+				}
+			}
 		}
 	}
 }
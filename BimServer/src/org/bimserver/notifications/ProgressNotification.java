@@ -22,8 +22,8 @@ import org.bimserver.models.store.LongActionState;
 
 public class ProgressNotification extends Notification {
 
-	private LongActionState state;
-	private ProgressTopic topic;
+	private volatile LongActionState state;
+	private final ProgressTopic topic;
 
 	public ProgressNotification(BimServer bimServer, ProgressTopic topic, LongActionState state) {
 		super(bimServer);
@@ -31,6 +31,26 @@ public class ProgressNotification extends Notification {
 		this.state = state;
 	}
 
+	public ProgressTopic getTopic() {
+		return topic;
+	}
+
+	public LongActionState getState() {
+		return state;
+	}
+
+	/**
+	 * Replaces the state of a notification that has not been processed yet, only the latest state of a topic is of interest
+	 */
+	public void setState(LongActionState state) {
+		this.state = state;
+	}
+
+	@Override
+	public Object getPartitionKey() {
+		return topic;
+	}
+
 	@Override
 	public void process() {
 		topic.updateProgress(state);
@@ -31,12 +31,14 @@ import org.slf4j.LoggerFactory;
 public class ProgressTopic extends Topic {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(ProgressTopic.class);
-	private static final int RATE_LIMIT_NANO_SECONDS = 200000000; // 200ms
 	private SProgressTopicType type;
 	private String description;
 	private ProgressTopicKey key;
 	private volatile LongActionState lastProgress;
 	private long lastSent = -1;
+	// A state that was held back by the rate limit, it is sent when the interval has passed unless a newer state was sent before that
+	private LongActionState heldBack;
+	private boolean flushScheduled;
 
 	public ProgressTopic(NotificationsManager notificationsManager, ProgressTopicKey key, SProgressTopicType type, String description) {
 		super(notificationsManager);
@@ -53,14 +55,29 @@ public class ProgressTopic extends Topic {
 		try {
 			// Actually we should be keeping track of when we last sent a message to A SPECIFIC ENDPOINT, this way, new endpoints won't receive the message rights away
 			
-			boolean sendMessage = lastSent == -1 || (System.nanoTime() - lastSent > RATE_LIMIT_NANO_SECONDS && state.getProgress() != lastProgress.getProgress());
+			long intervalNanos = getNotificationsManager().getBimServer().getServerSettingsCache().getServerSettings().getProgressUpdateIntervalMs() * 1000000L;
+			long sinceLastSent = System.nanoTime() - lastSent;
+			boolean sendMessage = lastSent == -1 || (sinceLastSent >= intervalNanos && state.getProgress() != lastProgress.getProgress());
 			sendMessage |= state.getProgress() == 100;
 			sendMessage |= state.getState() == ActionState.FINISHED;
 			sendMessage |= state.getState() == ActionState.AS_ERROR;
 			sendMessage |= lastProgress != null && lastProgress.getStage() != state.getStage();
 			sendMessage |= lastProgress != null && !lastProgress.getTitle().equals(state.getTitle());
 
+			if (!sendMessage && state.getProgress() != lastProgress.getProgress()) {
+				heldBack = state;
+				if (!flushScheduled) {
+					flushScheduled = true;
+					getNotificationsManager().schedule(new Runnable() {
+						@Override
+						public void run() {
+							flushHeldBack();
+						}
+					}, Math.max(0, intervalNanos - sinceLastSent) / 1000000L);
+				}
+			}
 			if (sendMessage) {
+				heldBack = null;
 				try {
 //					System.out.println("Sending " + state.getProgress() + ", " + state.getState() + ", " + state.getTitle() + " to " + getEndPoints().size());
 					map(new Mapper(){
@@ -83,6 +100,13 @@ public class ProgressTopic extends Topic {
 			}
 		} catch (Exception e) {
 			LOGGER.error("", e);
+		}
+	}
+
+	private synchronized void flushHeldBack() {
+		flushScheduled = false;
+		if (heldBack != null) {
+			stageProgressUpdate(heldBack);
 		}
 	}
 
@@ -0,0 +1,337 @@
+package org.bimserver.renderengine;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bimserver.plugins.PluginConfiguration;
+import org.bimserver.plugins.renderengine.RenderEngine;
+import org.bimserver.plugins.renderengine.RenderEngineException;
+import org.bimserver.plugins.renderengine.RenderEngineModel;
+import org.bimserver.plugins.renderengine.RenderEnginePlugin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps render engines of one plugin and schema alive between jobs. At most maxEngines engines are borrowed at the same time, other borrowers wait
+ * in line. Engines are replaced after maxJobsPerEngine models have been opened, or after they failed.
+ */
+public class RenderEnginePool {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RenderEnginePool.class);
+	private final RenderEnginePlugin renderEnginePlugin;
+	private final String schema;
+	private final int maxEngines;
+	private final int maxJobsPerEngine;
+	private final Semaphore available;
+	private final LinkedBlockingDeque<PooledRenderEngine> idle = new LinkedBlockingDeque<>();
+	private final AtomicInteger busy = new AtomicInteger();
+	private final AtomicLong enginesStarted = new AtomicLong();
+	private final AtomicLong enginesRecycled = new AtomicLong();
+	private final AtomicLong crashes = new AtomicLong();
+	private final AtomicLong jobs = new AtomicLong();
+	private final AtomicLong busyNanoSeconds = new AtomicLong();
+	private volatile boolean closed;
+
+	public RenderEnginePool(RenderEnginePlugin renderEnginePlugin, String schema, int maxEngines, int maxJobsPerEngine) {
+		this.renderEnginePlugin = renderEnginePlugin;
+		this.schema = schema;
+		this.maxEngines = maxEngines;
+		this.maxJobsPerEngine = maxJobsPerEngine;
+		this.available = new Semaphore(maxEngines, true);
+	}
+
+	/**
+	 * Blocks until an engine is available, the returned engine has been initialized already. Closing the returned engine gives it back to the pool.
+	 */
+	public PooledRenderEngine borrowRenderEngine() throws RenderEngineException, InterruptedException {
+		if (closed) {
+			throw new RenderEngineException("Render engine pool has been closed");
+		}
+		available.acquire();
+		try {
+			PooledRenderEngine pooledRenderEngine = idle.pollFirst();
+			if (pooledRenderEngine == null) {
+				pooledRenderEngine = new PooledRenderEngine(startRenderEngine());
+			}
+			pooledRenderEngine.borrowed();
+			busy.incrementAndGet();
+			return pooledRenderEngine;
+		} catch (RenderEngineException e) {
+			available.release();
+			throw e;
+		}
+	}
+
+	private RenderEngine startRenderEngine() throws RenderEngineException {
+		RenderEngine renderEngine = renderEnginePlugin.createRenderEngine(new PluginConfiguration(), schema);
+		try {
+			renderEngine.init();
+		} catch (RenderEngineException e) {
+			crashes.incrementAndGet();
+			closeQuietly(renderEngine);
+			throw e;
+		}
+		enginesStarted.incrementAndGet();
+		return renderEngine;
+	}
+
+	private void giveBack(PooledRenderEngine pooledRenderEngine) {
+		busy.decrementAndGet();
+		busyNanoSeconds.addAndGet(System.nanoTime() - pooledRenderEngine.borrowedAt);
+		try {
+			if (pooledRenderEngine.failed) {
+				crashes.incrementAndGet();
+				closeQuietly(pooledRenderEngine.delegate);
+			} else if (pooledRenderEngine.jobs >= maxJobsPerEngine || closed) {
+				enginesRecycled.incrementAndGet();
+				closeQuietly(pooledRenderEngine.delegate);
+			} else {
+				// Last in first out, so engines that are not needed anymore stay idle
+				idle.offerFirst(pooledRenderEngine);
+			}
+		} finally {
+			available.release();
+		}
+	}
+
+	private void closeQuietly(RenderEngine renderEngine) {
+		try {
+			renderEngine.close();
+		} catch (RenderEngineException e) {
+			LOGGER.debug("", e);
+		}
+	}
+
+	/**
+	 * Closes the idle engines, borrowed engines are closed when they are given back
+	 */
+	public void close() {
+		closed = true;
+		PooledRenderEngine pooledRenderEngine = idle.pollFirst();
+		while (pooledRenderEngine != null) {
+			closeQuietly(pooledRenderEngine.delegate);
+			pooledRenderEngine = idle.pollFirst();
+		}
+	}
+
+	public int getMaxEngines() {
+		return maxEngines;
+	}
+
+	public int getQueueLength() {
+		return available.getQueueLength();
+	}
+
+	public int getBusyEngines() {
+		return busy.get();
+	}
+
+	public int getIdleEngines() {
+		return idle.size();
+	}
+
+	public long getEnginesStarted() {
+		return enginesStarted.get();
+	}
+
+	public long getEnginesRecycled() {
+		return enginesRecycled.get();
+	}
+
+	public long getCrashes() {
+		return crashes.get();
+	}
+
+	public long getJobs() {
+		return jobs.get();
+	}
+
+	public long getBusyNanoSeconds() {
+		return busyNanoSeconds.get();
+	}
+
+	@Override
+	public String toString() {
+		return renderEnginePlugin.getClass().getSimpleName() + " (" + schema + "): " + busy.get() + " busy, " + idle.size() + " idle, " + available.getQueueLength() + " waiting, " + jobs.get() + " jobs, " + enginesStarted.get() + " started, " + enginesRecycled.get() + " recycled, " + crashes.get() + " crashed, " + (busyNanoSeconds.get() / 1000000) + "ms busy";
+	}
+
+	/**
+	 * Opens a new stream on the same data every time
+	 */
+	public interface InputStreamSource {
+		InputStream open() throws IOException;
+	}
+
+	/**
+	 * Health check: when opening a model fails on an engine that has been idle in the pool, the engine is replaced by a new one and the model is
+	 * opened again, streams are only sent again when they support mark and reset. Borrowers should call markFailed when the engine stops working while they use it.
+	 */
+	public class PooledRenderEngine implements RenderEngine {
+		private RenderEngine delegate;
+		private int jobs;
+		private boolean failed;
+		private boolean used;
+		private long borrowedAt;
+
+		private PooledRenderEngine(RenderEngine delegate) {
+			this.delegate = delegate;
+		}
+
+		private void borrowed() {
+			borrowedAt = System.nanoTime();
+			used = false;
+		}
+
+		public void markFailed() {
+			failed = true;
+		}
+
+		private RenderEngineModel opened(RenderEngineModel renderEngineModel) {
+			jobs++;
+			used = true;
+			RenderEnginePool.this.jobs.incrementAndGet();
+			return renderEngineModel;
+		}
+
+		private void replace(RenderEngineException e) throws RenderEngineException {
+			if (used || jobs == 0) {
+				// The engine was new or already working for this borrower, trying again will not help
+				failed = true;
+				throw e;
+			}
+			LOGGER.info("Replacing render engine that stopped working: " + e.getMessage());
+			crashes.incrementAndGet();
+			closeQuietly(delegate);
+			failed = true;
+			delegate = startRenderEngine();
+			failed = false;
+			jobs = 0;
+		}
+
+		@Override
+		public RenderEngineModel openModel(File ifcFile) throws RenderEngineException {
+			try {
+				return opened(delegate.openModel(ifcFile));
+			} catch (RenderEngineException e) {
+				replace(e);
+				return opened(delegate.openModel(ifcFile));
+			}
+		}
+
+		@Override
+		public RenderEngineModel openModel(InputStream inputStream, int size) throws RenderEngineException {
+			if (inputStream.markSupported()) {
+				inputStream.mark(size);
+			}
+			try {
+				return opened(delegate.openModel(inputStream, size));
+			} catch (RenderEngineException e) {
+				resetOrFail(inputStream, e);
+				replace(e);
+				return opened(delegate.openModel(inputStream, size));
+			}
+		}
+
+		/**
+		 * Streams of unknown size are not marked, that could buffer the whole model on the heap. Use openModel(InputStreamSource) when the stream can be opened again.
+		 */
+		@Override
+		public RenderEngineModel openModel(InputStream inputStream) throws RenderEngineException {
+			try {
+				return opened(delegate.openModel(inputStream));
+			} catch (RenderEngineException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		/**
+		 * Opens a model from a stream of unknown size, the stream is opened again from the source when the engine has to be replaced
+		 */
+		public RenderEngineModel openModel(InputStreamSource source) throws RenderEngineException {
+			try {
+				return opened(openModel(delegate, source));
+			} catch (RenderEngineException e) {
+				replace(e);
+				return opened(openModel(delegate, source));
+			}
+		}
+
+		private RenderEngineModel openModel(RenderEngine renderEngine, InputStreamSource source) throws RenderEngineException {
+			try (InputStream inputStream = source.open()) {
+				return renderEngine.openModel(inputStream);
+			} catch (IOException e) {
+				failed = true;
+				throw new RenderEngineException(e);
+			}
+		}
+
+		private void resetOrFail(InputStream inputStream, RenderEngineException e) throws RenderEngineException {
+			if (!inputStream.markSupported()) {
+				// The stream cannot be read again
+				failed = true;
+				throw e;
+			}
+			try {
+				inputStream.reset();
+			} catch (IOException e1) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public RenderEngineModel openModel(byte[] bytes) throws RenderEngineException {
+			try {
+				return opened(delegate.openModel(bytes));
+			} catch (RenderEngineException e) {
+				replace(e);
+				return opened(delegate.openModel(bytes));
+			}
+		}
+
+		/**
+		 * Engines from the pool have been initialized already
+		 */
+		@Override
+		public void init() throws RenderEngineException {
+		}
+
+		/**
+		 * Gives the engine back to the pool
+		 */
+		public void returnToPool() {
+			giveBack(this);
+		}
+
+		/**
+		 * Gives the engine back to the pool, same as returnToPool
+		 */
+		@Override
+		public void close() throws RenderEngineException {
+			returnToPool();
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package org.bimserver.renderengine;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bimserver.plugins.renderengine.RenderEnginePlugin;
+
+/**
+ * One RenderEnginePool per render engine plugin and schema, shared by all geometry generation of the server
+ */
+public class RenderEnginePools {
+
+	public static final int DEFAULT_MAX_JOBS_PER_ENGINE = 100;
+	private final Map<RenderEnginePlugin, Map<String, RenderEnginePool>> pools = new HashMap<>();
+	private final int maxJobsPerEngine;
+
+	public RenderEnginePools(int maxJobsPerEngine) {
+		this.maxJobsPerEngine = maxJobsPerEngine;
+	}
+
+	/**
+	 * Returns the pool for the given plugin and schema, a pool with a different number of engines is replaced (for example after the server settings changed)
+	 */
+	public synchronized RenderEnginePool getPool(RenderEnginePlugin renderEnginePlugin, String schema, int maxEngines) {
+		Map<String, RenderEnginePool> schemaPools = pools.get(renderEnginePlugin);
+		if (schemaPools == null) {
+			schemaPools = new HashMap<>();
+			pools.put(renderEnginePlugin, schemaPools);
+		}
+		RenderEnginePool renderEnginePool = schemaPools.get(schema);
+		if (renderEnginePool == null || renderEnginePool.getMaxEngines() != maxEngines) {
+			if (renderEnginePool != null) {
+				renderEnginePool.close();
+			}
+			renderEnginePool = new RenderEnginePool(renderEnginePlugin, schema, maxEngines, maxJobsPerEngine);
+			schemaPools.put(schema, renderEnginePool);
+		}
+		return renderEnginePool;
+	}
+
+	public synchronized List<RenderEnginePool> getPools() {
+		List<RenderEnginePool> result = new ArrayList<>();
+		for (Map<String, RenderEnginePool> schemaPools : pools.values()) {
+			result.addAll(schemaPools.values());
+		}
+		return result;
+	}
+
+	public synchronized void close() {
+		for (RenderEnginePool renderEnginePool : getPools()) {
+			renderEnginePool.close();
+		}
+		pools.clear();
+	}
+}
@@ -36,7 +36,9 @@ public class JsonWebsocketReflector extends JsonReflector {
 	@Override
 	public JsonObject call(JsonObject request) {
 		LoggerFactory.getLogger(JsonWebsocketReflector.class).debug("WS: " + request);
-		streamingSocket.send(request);
+		if (!WebSocketBatch.add(streamingSocket, request)) {
+			streamingSocket.send(request);
+		}
 		return new JsonObject();
 	}
 
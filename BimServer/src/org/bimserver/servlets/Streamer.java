@@ -59,8 +59,9 @@ public class Streamer implements EndPoint {
 	public Streamer(StreamingSocketInterface streamingSocketInterface, BimServer bimServer) {
 		this.streamingSocketInterface = streamingSocketInterface;
 		this.bimServer = bimServer;
-		notificationInterface = bimServer.getReflectorFactory().createReflector(Bimsie1NotificationInterface.class, new JsonWebsocketReflector(bimServer.getServicesMap(), streamingSocketInterface));
-		remoteServiceInterface = bimServer.getReflectorFactory().createReflector(Bimsie1RemoteServiceInterface.class, new JsonWebsocketReflector(bimServer.getServicesMap(), streamingSocketInterface));
+		JsonWebsocketReflector reflector = new JsonWebsocketReflector(bimServer.getServicesMap(), streamingSocketInterface);
+		notificationInterface = bimServer.getReflectorFactory().createReflector(Bimsie1NotificationInterface.class, reflector);
+		remoteServiceInterface = bimServer.getReflectorFactory().createReflector(Bimsie1RemoteServiceInterface.class, reflector);
 	}
 
 	public void onOpen() {
@@ -0,0 +1,101 @@
+package org.bimserver.servlets;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.bimserver.shared.StreamingSocketInterface;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Collects the requests a thread sends over websockets between begin() and flush(), each socket then gets one frame with all requests for it. A frame
+ * with more than one request has a "requests" array instead of a single "request", which the JavaScript API (bimserverapi_BimServerWebSocket.js) and the
+ * Java client (WebSocketImpl) both handle; other clients have to do the same. The batch can also be sent while it is open, from any thread, so a long run does not hold
+ * back the requests collected at its start.
+ */
+public class WebSocketBatch {
+	private static final Logger LOGGER = LoggerFactory.getLogger(WebSocketBatch.class);
+	private static final ThreadLocal<WebSocketBatch> CURRENT = new ThreadLocal<>();
+	private Map<StreamingSocketInterface, JsonArray> requests = new LinkedHashMap<>();
+
+	public static WebSocketBatch begin() {
+		WebSocketBatch batch = new WebSocketBatch();
+		CURRENT.set(batch);
+		return batch;
+	}
+
+	/**
+	 * @return false when this thread has no batch open, the caller should send the request itself
+	 */
+	public static boolean add(StreamingSocketInterface streamingSocket, JsonObject requestObject) {
+		WebSocketBatch batch = CURRENT.get();
+		if (batch == null || !requestObject.has("request")) {
+			return false;
+		}
+		batch.collect(streamingSocket, requestObject.get("request"));
+		return true;
+	}
+
+	public static void flush() {
+		WebSocketBatch batch = CURRENT.get();
+		CURRENT.remove();
+		if (batch != null) {
+			batch.send();
+		}
+	}
+
+	private synchronized void collect(StreamingSocketInterface streamingSocket, JsonElement request) {
+		JsonArray socketRequests = requests.get(streamingSocket);
+		if (socketRequests == null) {
+			socketRequests = new JsonArray();
+			requests.put(streamingSocket, socketRequests);
+		}
+		socketRequests.add(request);
+	}
+
+	/**
+	 * Sends the requests collected so far, requests added later are collected for the next send. Sending happens while holding the lock, so the frames
+	 * of one batch reach a socket in the order the requests were added.
+	 */
+	public synchronized void send() {
+		if (requests.isEmpty()) {
+			return;
+		}
+		Map<StreamingSocketInterface, JsonArray> collected = requests;
+		requests = new LinkedHashMap<>();
+		for (Map.Entry<StreamingSocketInterface, JsonArray> entry : collected.entrySet()) {
+			JsonObject frame = new JsonObject();
+			if (entry.getValue().size() == 1) {
+				frame.add("request", entry.getValue().get(0));
+			} else {
+				frame.add("requests", entry.getValue());
+			}
+			try {
+				entry.getKey().send(frame);
+			} catch (Exception e) {
+				LOGGER.error("", e);
+			}
+		}
+	}
+}
@@ -26,6 +26,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -34,6 +35,8 @@ import org.bimserver.client.protocolbuffers.ProtocolBuffersBimServerClientFactor
 import org.bimserver.database.BimserverDatabaseException;
 import org.bimserver.database.DatabaseSession;
 import org.bimserver.database.Query;
+import org.bimserver.database.RevisionIndex;
+import org.bimserver.database.actions.AbstractDownloadDatabaseAction;
 import org.bimserver.database.actions.AddUserDatabaseAction;
 import org.bimserver.database.actions.BimDatabaseAction;
 import org.bimserver.database.actions.GetDatabaseInformationAction;
@@ -55,6 +58,7 @@ import org.bimserver.interfaces.objects.SVersion;
 import org.bimserver.models.log.AccessMethod;
 import org.bimserver.models.log.LogAction;
 import org.bimserver.models.store.ConcreteRevision;
+import org.bimserver.models.store.Revision;
 import org.bimserver.models.store.DatabaseInformation;
 import org.bimserver.models.store.PluginDescriptor;
 import org.bimserver.models.store.StorePackage;
@@ -67,6 +71,7 @@ import org.bimserver.webservices.SLogComparator;
 import org.bimserver.webservices.SMigrationComparator;
 import org.bimserver.webservices.SPluginDescriptorComparator;
 import org.bimserver.webservices.ServiceMap;
+import org.eclipse.emf.ecore.EClass;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -333,13 +338,26 @@ public class AdminServiceImpl extends GenericServiceImpl implements AdminInterfa
 		LOGGER.info("Regenerating geometry for concrete revision" + croid);
 		DatabaseSession session = getBimServer().getDatabase().createSession();
 		try {
-			session.setOverwriteEnabled(true); // Normally we wouldn't be allowed to change existing data
 			ConcreteRevision concreteRevision = session.get(StorePackage.eINSTANCE.getConcreteRevision(), croid, Query.getDefault());
+			session.setOverwriteEnabled(concreteRevision.getProject().getId()); // Normally we wouldn't be allowed to change existing data
 			PackageMetaData packageMetaData = getBimServer().getMetaDataManager().getPackageMetaData(concreteRevision.getProject().getSchema());
 			IfcModelInterface model = new BasicIfcModel(packageMetaData, null);
 			session.getMap(model, new Query(packageMetaData, concreteRevision.getProject().getId(), concreteRevision.getId(), -1));
-			new GeometryGenerator(getBimServer()).generateGeometry(getAuthorization().getUoid(), getBimServer().getPluginManager(), session, model, concreteRevision.getProject().getId(), concreteRevision.getId(), true, null);
+			GeometryGenerator geometryGenerator = new GeometryGenerator(getBimServer());
+			geometryGenerator.releaseStoredGeometry(session, model, concreteRevision.getProject().getId(), concreteRevision.getId());
+			geometryGenerator.generateGeometry(getAuthorization().getUoid(), getBimServer().getPluginManager(), session, model, concreteRevision.getProject().getId(), concreteRevision.getId(), true, null);
+			// The new geometry is stored with the rid of the revision, so the revision has to be indexed again
+			RevisionIndex revisionIndex = getBimServer().getDatabase().getRevisionIndex();
+			revisionIndex.delete(concreteRevision.getProject().getId(), concreteRevision.getId(), session);
+			Map<EClass, Long> oidCounters = Query.readOidCounters(concreteRevision, session);
+			int stopRid = AbstractDownloadDatabaseAction.findHighestStopRid(concreteRevision.getProject(), concreteRevision);
 			session.commit();
+			if (concreteRevision.getOidCounters() != null) {
+				revisionIndex.build(concreteRevision.getProject().getId(), concreteRevision.getId(), stopRid, oidCounters);
+			}
+			for (Revision revision : concreteRevision.getRevisions()) {
+				getBimServer().getDiskCacheManager().invalidateRevision(revision.getOid());
+			}
 		} catch (Exception e) {
 			handleException(e);
 		} finally {
@@ -349,6 +367,11 @@ public class AdminServiceImpl extends GenericServiceImpl implements AdminInterfa
 
 	@Override
 	public SMetrics getMetrics() {
-		return getBimServer().getMetricsRegistry().getMetrics();
+		SMetrics metrics = getBimServer().getMetricsRegistry().getMetrics();
+		metrics.getInterfaces().addAll(getBimServer().getLongActionManager().getMetrics());
+		metrics.getInterfaces().add(getBimServer().getDiskCacheManager().getMetrics());
+		metrics.getInterfaces().add(getBimServer().getCompareCache().getMetrics());
+		metrics.getInterfaces().add(getBimServer().getNotificationsManager().getMetrics());
+		return metrics;
 	}
 }
\ No newline at end of file
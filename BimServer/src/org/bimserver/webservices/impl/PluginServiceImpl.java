@@ -150,6 +150,7 @@ public class PluginServiceImpl extends GenericServiceImpl implements PluginInter
 		try {
 			SerializerPluginConfiguration convert = getBimServer().getSConverter().convertFromSObject(serializer, session);
 			session.executeAndCommitAction(new UpdateSerializerDatabaseAction(session, getInternalAccessMethod(), convert));
+			getBimServer().getDiskCacheManager().invalidateSerializer(serializer.getOid());
 		} catch (Exception e) {
 			handleException(e);
 		} finally {
@@ -261,6 +262,7 @@ public class PluginServiceImpl extends GenericServiceImpl implements PluginInter
 		try {
 			BimDatabaseAction<Void> action = new DeleteSerializerDatabaseAction(session, getInternalAccessMethod(), sid);
 			session.executeAndCommitAction(action);
+			getBimServer().getDiskCacheManager().invalidateSerializer(sid);
 		} catch (Exception e) {
 			handleException(e);
 		} finally {
@@ -458,6 +460,7 @@ public class PluginServiceImpl extends GenericServiceImpl implements PluginInter
 		try {
 			ModelComparePluginConfiguration convert = getBimServer().getSConverter().convertFromSObject(modelCompare, session);
 			session.executeAndCommitAction(new UpdateModelCompareDatabaseAction(session, getInternalAccessMethod(), convert));
+			getBimServer().getCompareCache().invalidateModelCompare(modelCompare.getOid());
 		} catch (Exception e) {
 			handleException(e);
 		} finally {
@@ -514,6 +517,7 @@ public class PluginServiceImpl extends GenericServiceImpl implements PluginInter
 		try {
 			BimDatabaseAction<Void> action = new DeleteModelCompareDatabaseAction(session, getInternalAccessMethod(), iid);
 			session.executeAndCommitAction(action);
+			getBimServer().getCompareCache().invalidateModelCompare(iid);
 		} catch (Exception e) {
 			handleException(e);
 		} finally {
@@ -711,6 +715,9 @@ public class PluginServiceImpl extends GenericServiceImpl implements PluginInter
 			ObjectType convertedSettings = getBimServer().getSConverter().convertFromSObject(settings, session);
 			SetPluginSettingsDatabaseAction action = new SetPluginSettingsDatabaseAction(session, getInternalAccessMethod(), poid, convertedSettings);
 			session.executeAndCommitAction(action);
+			// Serializer output and compare results depend on the settings of the plugin
+			getBimServer().getDiskCacheManager().invalidateSerializer(poid);
+			getBimServer().getCompareCache().invalidateModelCompare(poid);
 		} catch (Exception e) {
 			handleException(e);
 		} finally {
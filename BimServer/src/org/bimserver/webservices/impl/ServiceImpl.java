@@ -1,13 +1,13 @@
 package org.bimserver.webservices.impl;
 
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLDecoder;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -148,7 +148,6 @@ import org.bimserver.shared.exceptions.ServerException;
 import org.bimserver.shared.exceptions.UserException;
 import org.bimserver.shared.interfaces.ServiceInterface;
 import org.bimserver.shared.interfaces.SettingsInterface;
-import org.bimserver.utils.MultiplexingInputStream;
 import org.bimserver.utils.NetUtils;
 import org.bimserver.webservices.CheckoutComparator;
 import org.bimserver.webservices.SRevisionComparator;
@@ -207,18 +206,25 @@ public class ServiceImpl extends GenericServiceImpl implements ServiceInterface
 			if (deserializerObject == null) {
 				throw new UserException("Deserializer with oid " + deserializerOid + " not found");
 			}
-			OutputStream outputStream = Files.newOutputStream(file);
-			InputStream inputStream = new MultiplexingInputStream(dataHandler.getInputStream(), outputStream);
+			// Only spool the upload here, the model is read by the checkin when it runs so queued checkins do not keep models in memory
+			InputStream inputStream = dataHandler.getInputStream();
+			try {
+				Files.copy(inputStream, file, StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				inputStream.close();
+			}
 			Deserializer deserializer = getBimServer().getDeserializerFactory().createDeserializer(deserializerOid);
 			deserializer.init(getBimServer().getDatabase().getMetaDataManager().getPackageMetaData(project.getSchema()));
 			
-			IfcModelInterface model = deserializer.read(inputStream, fileName, 0, null);
-			
-			CheckinDatabaseAction checkinDatabaseAction = new CheckinDatabaseAction(getBimServer(), null, getInternalAccessMethod(), poid, getAuthorization(), model, comment, fileName, merge);
+			CheckinDatabaseAction checkinDatabaseAction = new CheckinDatabaseAction(getBimServer(), null, getInternalAccessMethod(), poid, getAuthorization(), deserializer, file, comment, fileName, merge);
 			LongCheckinAction longAction = new LongCheckinAction(getBimServer(), username, userUsername, getAuthorization(), checkinDatabaseAction);
 			getBimServer().getLongActionManager().start(longAction);
 			if (sync) {
 				longAction.waitForCompletion();
+				if (checkinDatabaseAction.getReadError() != null) {
+					// The file is read by the checkin itself now, a synchronous caller still gets the error
+					throw checkinDatabaseAction.getReadError();
+				}
 			}
 			return longAction.getProgressTopic().getKey().getId();
 		} catch (UserException e) {
@@ -269,18 +275,23 @@ public class ServiceImpl extends GenericServiceImpl implements ServiceInterface
 			if (deserializerObject == null) {
 				throw new UserException("Deserializer with oid " + deserializerOid + " not found");
 			}
-			OutputStream outputStream = Files.newOutputStream(file);
-			InputStream inputStream = new MultiplexingInputStream(input, outputStream);
+			try {
+				Files.copy(input, file, StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				input.close();
+			}
 			Deserializer deserializer = getBimServer().getDeserializerFactory().createDeserializer(deserializerOid);
 			deserializer.init(getBimServer().getDatabase().getMetaDataManager().getPackageMetaData("ifc2x3tc1"));
 
-			IfcModelInterface model = deserializer.read(inputStream, fileName, 0, null);
-			
-			CheckinDatabaseAction checkinDatabaseAction = new CheckinDatabaseAction(getBimServer(), null, getInternalAccessMethod(), poid, getAuthorization(), model, comment, fileName, merge);
+			CheckinDatabaseAction checkinDatabaseAction = new CheckinDatabaseAction(getBimServer(), null, getInternalAccessMethod(), poid, getAuthorization(), deserializer, file, comment, fileName, merge);
 			LongCheckinAction longAction = new LongCheckinAction(getBimServer(), username, userUsername, getAuthorization(), checkinDatabaseAction);
 			getBimServer().getLongActionManager().start(longAction);
 			if (sync) {
 				longAction.waitForCompletion();
+				if (checkinDatabaseAction.getReadError() != null) {
+					// The file is read by the checkin itself now, a synchronous caller still gets the error
+					throw checkinDatabaseAction.getReadError();
+				}
 			}
 			return longAction.getProgressTopic().getKey().getId();
 		} catch (UserException e) {
@@ -1503,8 +1514,12 @@ public class ServiceImpl extends GenericServiceImpl implements ServiceInterface
 	}
 
 	@Override
-	public void importData(String address, String username, String password, String path) {
-		new BimServerImporter(getBimServer(), address, username, password, path).start();
+	public void importData(String address, String username, String password, String path) throws ServerException, UserException {
+		try {
+			new BimServerImporter(getBimServer(), address, username, password, path).start();
+		} catch (BimserverDatabaseException e) {
+			throw new UserException(e.getMessage(), e);
+		}
 	}
 
 	@Override
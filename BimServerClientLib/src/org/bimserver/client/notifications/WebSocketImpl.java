@@ -17,6 +17,7 @@ package org.bimserver.client.notifications;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.IOException;
 import java.io.StringReader;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -87,20 +88,31 @@ public class WebSocketImpl {
 				} else if (object.has("endpointid")) {
 					socketNotificationsClient.setEndpointId(object.get("endpointid").getAsLong());
 					countDownLatch.countDown();
-				} else {
-					try {
-						socketNotificationsClient.handleIncoming(object.get("request").getAsJsonObject());
-					} catch (UserException e) {
-						LOGGER.error("", e);
-					} catch (JSONException e) {
-						LOGGER.error("", e);
-					} catch (ConvertException e) {
-						LOGGER.error("", e);
+				} else if (object.has("requests")) {
+					// The server sends the requests of one batch of notifications in one frame
+					for (JsonElement request : object.get("requests").getAsJsonArray()) {
+						handleIncoming(request.getAsJsonObject());
 					}
+				} else {
+					handleIncoming(object.get("request").getAsJsonObject());
 				}
 			}
 		} catch (Exception e) {
 			LOGGER.error("", e);
 		}
     }
+
+	private void handleIncoming(JsonObject request) {
+		try {
+			socketNotificationsClient.handleIncoming(request);
+		} catch (UserException e) {
+			LOGGER.error("", e);
+		} catch (JSONException e) {
+			LOGGER.error("", e);
+		} catch (ConvertException e) {
+			LOGGER.error("", e);
+		} catch (IOException e) {
+			LOGGER.error("", e);
+		}
+	}
 }
\ No newline at end of file
@@ -27,7 +27,9 @@ import org.bimserver.plugins.deserializers.Deserializer;
 public class Ifc4StepDeserializerPlugin extends IfcStepDeserializerPlugin {
 	@Override
 	public Deserializer createDeserializer(PluginConfiguration pluginConfiguration) {
-		return new Ifc4StepDeserializer(Schema.IFC4);
+		Ifc4StepDeserializer deserializer = new Ifc4StepDeserializer(Schema.IFC4);
+		deserializer.setParserThreads(getParserThreads(pluginConfiguration));
+		return deserializer;
 	}
 	
 	@Override
@@ -17,7 +17,13 @@ package org.bimserver.ifc.step.deserializer;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import org.bimserver.models.store.LongType;
 import org.bimserver.models.store.ObjectDefinition;
+import org.bimserver.models.store.ParameterDefinition;
+import org.bimserver.models.store.PrimitiveDefinition;
+import org.bimserver.models.store.PrimitiveEnum;
+import org.bimserver.models.store.StoreFactory;
+import org.bimserver.plugins.PluginConfiguration;
 import org.bimserver.plugins.PluginException;
 import org.bimserver.plugins.PluginManager;
 import org.bimserver.plugins.deserializers.DeserializerPlugin;
@@ -25,6 +31,7 @@ import org.bimserver.plugins.schema.SchemaException;
 
 public abstract class IfcStepDeserializerPlugin implements DeserializerPlugin {
 
+	private static final String PARSER_THREADS = "parserThreads";
 	boolean initialized = false;
 	
 	@Override
@@ -49,6 +56,29 @@ public abstract class IfcStepDeserializerPlugin implements DeserializerPlugin {
 
 	@Override
 	public ObjectDefinition getSettingsDefinition() {
-		return null;
+		ObjectDefinition objectDefinition = StoreFactory.eINSTANCE.createObjectDefinition();
+
+		ParameterDefinition parserThreadsParameter = StoreFactory.eINSTANCE.createParameterDefinition();
+		parserThreadsParameter.setName(PARSER_THREADS);
+		parserThreadsParameter.setDescription("Amount of threads used to parse the records of a file, 1 to parse on the reading thread");
+		PrimitiveDefinition longType = StoreFactory.eINSTANCE.createPrimitiveDefinition();
+		longType.setType(PrimitiveEnum.LONG);
+		parserThreadsParameter.setType(longType);
+		LongType defaultParserThreadsValue = StoreFactory.eINSTANCE.createLongType();
+		defaultParserThreadsValue.setValue(1);
+		parserThreadsParameter.setDefaultValue(defaultParserThreadsValue);
+		objectDefinition.getParameters().add(parserThreadsParameter);
+		return objectDefinition;
+	}
+
+	protected int getParserThreads(PluginConfiguration pluginConfiguration) {
+		if (pluginConfiguration == null) {
+			return 1;
+		}
+		Long parserThreads = pluginConfiguration.getLong(PARSER_THREADS);
+		if (parserThreads == null) {
+			return 1;
+		}
+		return (int) Math.min(parserThreads, Runtime.getRuntime().availableProcessors());
 	}
 }
\ No newline at end of file
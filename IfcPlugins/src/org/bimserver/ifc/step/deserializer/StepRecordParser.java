@@ -0,0 +1,691 @@
+package org.bimserver.ifc.step.deserializer;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IdEObjectImpl;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.emf.IfcModelInterfaceException;
+import org.bimserver.emf.MetaDataException;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.plugins.deserializers.DeserializeException;
+import org.bimserver.plugins.schema.Attribute;
+import org.bimserver.plugins.schema.EntityDefinition;
+import org.bimserver.plugins.schema.ExplicitAttribute;
+import org.bimserver.shared.ListWaitingObject;
+import org.bimserver.shared.SingleWaitingObject;
+import org.bimserver.shared.WaitingList;
+import org.bimserver.utils.StringUtils;
+import org.eclipse.emf.common.util.AbstractEList;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EClassifier;
+import org.eclipse.emf.ecore.EDataType;
+import org.eclipse.emf.ecore.EEnumLiteral;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.EcorePackage;
+import org.eclipse.emf.ecore.impl.EClassImpl;
+import org.eclipse.emf.ecore.impl.EEnumImpl;
+
+import com.google.common.base.Charsets;
+
+/*
+ * Converts the records of the DATA section of a STEP file to objects in two steps
+ * 
+ * - parse: creates the object and sets all values that do not depend on other records, only uses the record itself, so records can be parsed on multiple threads
+ * - link: adds the object to the model and sets the references to other records, has to be called in the order of the records in the file
+ * 
+ * Calling link directly after parse for every record gives exactly the same model as when the references are resolved during parsing, link replays the
+ * deferred operations in the order parse encountered them.
+ */
+public class StepRecordParser {
+	private static final String WRAPPED_VALUE = "wrappedValue";
+	private final PackageMetaData packageMetaData;
+	private ParsedRecord currentRecord;
+	private int lineNumber;
+
+	public StepRecordParser(PackageMetaData packageMetaData) {
+		this.packageMetaData = packageMetaData;
+	}
+
+	/**
+	 * EMF and the schema definitions initialize some of their meta data lazily, this makes sure that has happened before multiple threads start parsing
+	 */
+	public static void initMetaData(PackageMetaData packageMetaData) {
+		for (EClass eClass : packageMetaData.getEClasses()) {
+			for (EStructuralFeature eStructuralFeature : eClass.getEAllStructuralFeatures()) {
+				eClass.getEStructuralFeature(eStructuralFeature.getName());
+				eClass.getFeatureID(eStructuralFeature);
+				((EStructuralFeature.Internal) eStructuralFeature).getSettingDelegate();
+			}
+		}
+		for (EntityDefinition entityDefinition : packageMetaData.getSchemaDefinition().getEntities()) {
+			entityDefinition.getAttributesCached(true);
+		}
+	}
+
+	public ParsedRecord parse(String line, int lineNumber) throws DeserializeException, MetaDataException {
+		this.lineNumber = lineNumber;
+		int equalSignLocation = line.indexOf("=");
+		int lastIndexOfSemiColon = line.lastIndexOf(";");
+		if (lastIndexOfSemiColon == -1) {
+			throw new DeserializeException(lineNumber, "No semicolon found in line");
+		}
+		int indexOfFirstParen = line.indexOf("(", equalSignLocation);
+		if (indexOfFirstParen == -1) {
+			throw new DeserializeException(lineNumber, "No left parenthesis found in line");
+		}
+		int indexOfLastParen = line.lastIndexOf(")", lastIndexOfSemiColon);
+		if (indexOfLastParen == -1) {
+			throw new DeserializeException(lineNumber, "No right parenthesis found in line");
+		}
+		int recordNumber = parseInt(line, 1, equalSignLocation);
+		String name = line.substring(equalSignLocation + 1, indexOfFirstParen).trim();
+		EClass classifier = (EClass) packageMetaData.getEClassifierCaseInsensitive(name);
+		if (classifier == null) {
+			throw new DeserializeException(lineNumber, name + " is not a known entity");
+		}
+		IdEObject object = (IdEObject) packageMetaData.create(classifier);
+		((IdEObjectImpl) object).setExpressId(recordNumber);
+		currentRecord = new ParsedRecord(recordNumber, lineNumber, object);
+		String realData = line.substring(indexOfFirstParen + 1, indexOfLastParen);
+		int lastIndex = 0;
+		EntityDefinition entityBN = packageMetaData.getSchemaDefinition().getEntityBN(name);
+		if (entityBN == null) {
+			throw new DeserializeException(lineNumber, "Unknown entity " + name);
+		}
+		for (Attribute attribute : entityBN.getAttributesCached(true)) {
+			if (attribute instanceof ExplicitAttribute) {
+				if (!entityBN.isDerived(attribute.getName())) {
+					EStructuralFeature structuralFeature = classifier.getEStructuralFeature(attribute.getName());
+					if (structuralFeature == null) {
+						throw new DeserializeException(lineNumber, "Unknown feature " + classifier.getName() + "." + attribute.getName());
+					}
+					int nextIndex = StringUtils.nextString(realData, lastIndex);
+					String val = null;
+					try {
+						val = realData.substring(lastIndex, nextIndex - 1).trim();
+					} catch (Exception e) {
+						int expected = 0;
+						for (Attribute attribute2 : entityBN.getAttributesCached(true)) {
+							if (attribute2 instanceof ExplicitAttribute) {
+								expected++;
+							}
+						}
+						throw new DeserializeException(lineNumber, classifier.getName() + " expects " + expected + " fields, but less found");
+					}
+					lastIndex = nextIndex;
+					char firstChar = val.charAt(0);
+					if (firstChar == '$') {
+						object.eUnset(structuralFeature);
+						if (structuralFeature.getEType() == EcorePackage.eINSTANCE.getEDouble()) {
+							EStructuralFeature doubleStringFeature = classifier.getEStructuralFeature(attribute.getName() + "AsString");
+							object.eSet(doubleStringFeature, val);
+						}
+					} else if (firstChar == '#') {
+						readReference(val, object, structuralFeature);
+					} else if (firstChar == '.') {
+						readEnum(val, object, structuralFeature);
+					} else if (firstChar == '(') {
+						readList(val, object, structuralFeature);
+					} else if (firstChar == '*') {
+					} else {
+						if (!structuralFeature.isMany()) {
+							object.eSet(structuralFeature, convert(structuralFeature.getEType(), val));
+							if (structuralFeature.getEType() == EcorePackage.eINSTANCE.getEDouble()) {
+								EStructuralFeature doubleStringFeature = classifier.getEStructuralFeature(attribute.getName() + "AsString");
+								object.eSet(doubleStringFeature, val);
+							}
+						} else {
+							// It's not a list in the file, but it is in the
+							// schema??
+						}
+					}
+				} else {
+					int nextIndex = StringUtils.nextString(realData, lastIndex);
+					lastIndex = nextIndex;
+				}
+			}
+		}
+		ParsedRecord parsedRecord = currentRecord;
+		currentRecord = null;
+		return parsedRecord;
+	}
+
+	/**
+	 * Adds the parsed object to the model, and sets (or puts on the waiting list) the references that were deferred by parse
+	 */
+	public void link(ParsedRecord parsedRecord, IfcModelInterface model, WaitingList<Integer> waitingList) throws DeserializeException {
+		this.lineNumber = parsedRecord.getLineNumber();
+		IdEObject object = parsedRecord.getObject();
+		try {
+			model.add(parsedRecord.getRecordNumber(), object);
+			for (IdEObject inlineObject : parsedRecord.getInlineObjects()) {
+				model.add(-1, inlineObject);
+			}
+		} catch (IfcModelInterfaceException e) {
+			throw new DeserializeException(lineNumber, e);
+		}
+		for (Object operation : parsedRecord.getOperations()) {
+			if (operation instanceof SingleReference) {
+				SingleReference singleReference = (SingleReference) operation;
+				if (model.contains(singleReference.getReferenceId())) {
+					singleReference.getObject().eSet(singleReference.getStructuralFeature(), model.get(singleReference.getReferenceId()));
+				} else {
+					waitingList.add(singleReference.getReferenceId(), new SingleWaitingObject(lineNumber, singleReference.getObject(), singleReference.getStructuralFeature()));
+				}
+			} else {
+				fillList((ListContents) operation, model, waitingList);
+			}
+		}
+		if (waitingList.containsKey(parsedRecord.getRecordNumber())) {
+			waitingList.updateNode(parsedRecord.getRecordNumber(), object.eClass(), object);
+		}
+	}
+
+	private void readReference(String val, EObject object, EStructuralFeature structuralFeature) throws DeserializeException {
+		int referenceId;
+		try {
+			referenceId = parseInt(val, 1, val.length());
+		} catch (NumberFormatException e) {
+			throw new DeserializeException(lineNumber, "'" + val + "' is not a valid reference");
+		}
+		currentRecord.addOperation(new SingleReference(object, structuralFeature, referenceId));
+	}
+
+	/*
+	 * Lists without references are filled right away, lists with references are filled by link, values and references have to be added in their original order
+	 */
+	private void readList(String val, EObject object, EStructuralFeature structuralFeature) throws DeserializeException, MetaDataException {
+		ListContents listContents = parseList(val, object, structuralFeature);
+		if (listContents.hasReferences()) {
+			currentRecord.addOperation(listContents);
+		} else {
+			fillList(listContents, null, null);
+		}
+	}
+
+	private ListContents parseList(String val, EObject object, EStructuralFeature structuralFeature) throws DeserializeException, MetaDataException {
+		if (!structuralFeature.isMany()) {
+			throw new DeserializeException(lineNumber, "Field " + structuralFeature.getName() + " of " + structuralFeature.getEContainingClass().getName() + " is no aggregation");
+		}
+		if (structuralFeature.getEType() == EcorePackage.eINSTANCE.getEDouble()) {
+			EStructuralFeature doubleStringFeature = structuralFeature.getEContainingClass().getEStructuralFeature(structuralFeature.getName() + "AsString");
+			if (doubleStringFeature == null) {
+				throw new DeserializeException(lineNumber, "Field not found: " + structuralFeature.getName() + "AsString");
+			}
+		}
+		ListContents listContents = new ListContents(object, structuralFeature);
+		String realData = val.substring(1, val.length() - 1);
+		int lastIndex = 0;
+		while (lastIndex != realData.length() + 1) {
+			int nextIndex = StringUtils.nextString(realData, lastIndex);
+			String stringValue = realData.substring(lastIndex, nextIndex - 1).trim();
+			lastIndex = nextIndex;
+			if (stringValue.length() > 0) {
+				if (stringValue.charAt(0) == '#') {
+					listContents.add(parseInt(stringValue, 1, stringValue.length()));
+				} else if (stringValue.charAt(0) == '(') {
+					// Two dimensional list
+					IdEObject newObject = (IdEObject) packageMetaData.create((EClass) structuralFeature.getEType());
+					listContents.add(parseList(stringValue, newObject, newObject.eClass().getEStructuralFeature("List")));
+				} else {
+					listContents.add(new ListValue(convert(structuralFeature.getEType(), stringValue), stringValue));
+				}
+			} else {
+				listContents.add(null);
+			}
+		}
+		return listContents;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void fillList(ListContents listContents, IfcModelInterface model, WaitingList<Integer> waitingList) throws DeserializeException {
+		EObject object = listContents.getObject();
+		EStructuralFeature structuralFeature = listContents.getStructuralFeature();
+		AbstractEList list = (AbstractEList) object.eGet(structuralFeature);
+		AbstractEList doubleStringList = null;
+		if (structuralFeature.getEType() == EcorePackage.eINSTANCE.getEDouble()) {
+			EStructuralFeature doubleStringFeature = structuralFeature.getEContainingClass().getEStructuralFeature(structuralFeature.getName() + "AsString");
+			doubleStringList = (AbstractEList) object.eGet(doubleStringFeature);
+		}
+		int index = 0;
+		for (Object item : listContents.getItems()) {
+			if (item instanceof Integer) {
+				Integer referenceId = (Integer) item;
+				if (model.contains(referenceId)) {
+					EObject referencedObject = model.get(referenceId);
+					if (referencedObject != null) {
+						EClass referenceEClass = referencedObject.eClass();
+						if (((EClass) structuralFeature.getEType()).isSuperTypeOf(referenceEClass)) {
+							while (list.size() <= index) {
+								list.addUnique(referencedObject);
+							}
+							list.setUnique(index, referencedObject);
+						} else {
+							throw new DeserializeException(lineNumber, referenceEClass.getName() + " cannot be stored in " + structuralFeature.getName());
+						}
+					}
+				} else {
+					waitingList.add(referenceId, new ListWaitingObject(lineNumber, object, structuralFeature, index));
+				}
+			} else if (item instanceof ListContents) {
+				ListContents nestedContents = (ListContents) item;
+				fillList(nestedContents, model, waitingList);
+				list.addUnique(nestedContents.getObject());
+			} else if (item instanceof ListValue) {
+				Object convert = ((ListValue) item).getValue();
+				String stringValue = ((ListValue) item).getStringValue();
+				if (convert != null) {
+					while (list.size() <= index) {
+						if (doubleStringList != null) {
+							doubleStringList.addUnique(stringValue);
+						}
+						list.addUnique(convert);
+					}
+					if (doubleStringList != null) {
+						doubleStringList.setUnique(index, stringValue);
+					}
+					list.setUnique(index, convert);
+				}
+			}
+			index++;
+		}
+	}
+
+	/*
+	 * Parses the non-negative decimal integer (optionally surrounded by whitespace) between start and end, without creating a substring first
+	 */
+	private int parseInt(String value, int start, int end) throws NumberFormatException {
+		while (start < end && value.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && value.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		if (start == end || end - start > 10) {
+			throw new NumberFormatException("For input string: \"" + value.substring(start, end) + "\"");
+		}
+		long result = 0;
+		for (int i = start; i < end; i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				throw new NumberFormatException("For input string: \"" + value.substring(start, end) + "\"");
+			}
+			result = result * 10 + (c - '0');
+		}
+		if (result > Integer.MAX_VALUE) {
+			throw new NumberFormatException("For input string: \"" + value.substring(start, end) + "\"");
+		}
+		return (int) result;
+	}
+
+	private Object convertSimpleValue(Class<?> instanceClass, String value) throws DeserializeException {
+		if (!value.equals("")) {
+			if (instanceClass == Integer.class || instanceClass == int.class) {
+				return Integer.parseInt(value);
+			} else if (instanceClass == Long.class || instanceClass == long.class) {
+				return Long.parseLong(value);
+			} else if (instanceClass == Boolean.class || instanceClass == boolean.class) {
+				return Boolean.parseBoolean(value);
+			} else if (instanceClass == Double.class || instanceClass == double.class) {
+				try {
+					return Double.parseDouble(value);
+				} catch (NumberFormatException e) {
+					throw new DeserializeException(lineNumber, "Incorrect double floating point value: " + value, e);
+				}
+			} else if (instanceClass == String.class) {
+				if (value.startsWith("'") && value.endsWith("'")) {
+					return readString(value);
+				} else {
+					return value;
+				}
+			}
+		}
+		return null;
+	}
+
+	private String readString(String value) throws DeserializeException {
+		String result = value.substring(1, value.length() - 1);
+		// Replace all '' with '
+		while (result.contains("''")) {
+			int index = result.indexOf("''");
+			result = result.substring(0, index) + "'" + result.substring(index + 2);
+		}
+		while (result.contains("\\S\\")) {
+			int index = result.indexOf("\\S\\");
+			char x = result.charAt(index + 3);
+			ByteBuffer b = ByteBuffer.wrap(new byte[] { (byte) (x + 128) });
+			CharBuffer decode = Charsets.ISO_8859_1.decode(b);
+			result = result.substring(0, index) + decode.get() + result.substring(index + 4);
+		}
+		while (result.contains("\\X\\")) {
+			int index = result.indexOf("\\X\\");
+			int code = Integer.parseInt(result.substring(index + 3, index + 5), 16);
+			ByteBuffer b = ByteBuffer.wrap(new byte[] { (byte) (code) });
+			CharBuffer decode = Charsets.ISO_8859_1.decode(b);
+			result = result.substring(0, index) + decode.get() + result.substring(index + 5);
+		}
+		while (result.contains("\\X2\\")) {
+			int index = result.indexOf("\\X2\\");
+			int indexOfEnd = result.indexOf("\\X0\\");
+			if (indexOfEnd == -1) {
+				throw new DeserializeException(lineNumber, "\\X2\\ not closed with \\X0\\");
+			}
+			if ((indexOfEnd - index) % 4 != 0) {
+				throw new DeserializeException(lineNumber, "Number of hex chars in \\X2\\ definition not divisible by 4");
+			}
+			try {
+				ByteBuffer buffer = ByteBuffer.wrap(Hex.decodeHex(result.substring(index + 4, indexOfEnd).toCharArray()));
+				CharBuffer decode = Charsets.UTF_16BE.decode(buffer);
+				result = result.substring(0, index) + decode.toString() + result.substring(indexOfEnd + 4);
+			} catch (DecoderException e) {
+				throw new DeserializeException(lineNumber, e);
+			}
+		}
+		while (result.contains("\\X4\\")) {
+			int index = result.indexOf("\\X4\\");
+			int indexOfEnd = result.indexOf("\\X0\\");
+			if (indexOfEnd == -1) {
+				throw new DeserializeException(lineNumber, "\\X4\\ not closed with \\X0\\");
+			}
+			if ((indexOfEnd - index) % 8 != 0) {
+				throw new DeserializeException(lineNumber, "Number of hex chars in \\X4\\ definition not divisible by 8");
+			}
+			try {
+				ByteBuffer buffer = ByteBuffer.wrap(Hex.decodeHex(result.substring(index + 4, indexOfEnd).toCharArray()));
+				CharBuffer decode = Charset.forName("UTF-32").decode(buffer);
+				result = result.substring(0, index) + decode.toString() + result.substring(indexOfEnd + 4);
+			} catch (DecoderException e) {
+				throw new DeserializeException(lineNumber, e);
+			} catch (UnsupportedCharsetException e) {
+				throw new DeserializeException(lineNumber, "UTF-32 is not supported on your system", e);
+			}
+		}
+		// Replace all \\ with \
+		while (result.contains("\\\\")) {
+			int index = result.indexOf("\\\\");
+			result = result.substring(0, index) + "\\" + result.substring(index + 2);
+		}
+		return result;
+	}
+
+	private Object convert(EClassifier classifier, String value) throws DeserializeException, MetaDataException {
+		if (classifier != null) {
+			if (classifier instanceof EClassImpl) {
+				if (null != ((EClassImpl) classifier).getEStructuralFeature(WRAPPED_VALUE)) {
+					IdEObject newObject = (IdEObject) packageMetaData.create((EClass) classifier);
+					Class<?> instanceClass = newObject.eClass().getEStructuralFeature(WRAPPED_VALUE).getEType().getInstanceClass();
+					if (value.equals("")) {
+
+					} else {
+						if (instanceClass == Integer.class || instanceClass == int.class) {
+							try {
+								newObject.eSet(newObject.eClass().getEStructuralFeature(WRAPPED_VALUE), Integer.parseInt(value));
+							} catch (NumberFormatException e) {
+								throw new DeserializeException(lineNumber, value + " is not a valid integer value");
+							}
+						} else if (instanceClass == Long.class || instanceClass == long.class) {
+							newObject.eSet(newObject.eClass().getEStructuralFeature(WRAPPED_VALUE), Long.parseLong(value));
+						} else if (instanceClass == Boolean.class || instanceClass == boolean.class) {
+							newObject.eSet(newObject.eClass().getEStructuralFeature(WRAPPED_VALUE), value.equals(".T."));
+						} else if (instanceClass == Double.class || instanceClass == double.class) {
+							try {
+								newObject.eSet(newObject.eClass().getEStructuralFeature(WRAPPED_VALUE), Double.parseDouble(value));
+							} catch (NumberFormatException e) {
+								throw new DeserializeException(lineNumber, value + " is not a valid double floating point number");
+							}
+							newObject.eSet(newObject.eClass().getEStructuralFeature(WRAPPED_VALUE + "AsString"), value);
+						} else if (instanceClass == String.class) {
+							newObject.eSet(newObject.eClass().getEStructuralFeature(WRAPPED_VALUE), readString(value));
+						} else if (instanceClass.getName().equals("Tristate")) {
+							Object tristate = null;
+							if (value.equals(".T.")) {
+								tristate = packageMetaData.getEEnumLiteral("Tristate", "TRUE");
+							} else if (value.equals(".F.")) {
+								tristate = packageMetaData.getEEnumLiteral("Tristate", "FALSE");
+							} else if (value.equals(".U.")) {
+								tristate = packageMetaData.getEEnumLiteral("Tristate", "UNDEFINED");
+							}
+							newObject.eSet(newObject.eClass().getEStructuralFeature(WRAPPED_VALUE), tristate);
+						}
+					}
+					return newObject;
+				} else {
+					return processInline(classifier, value);
+				}
+			} else if (classifier instanceof EDataType) {
+				return convertSimpleValue(classifier.getInstanceClass(), value);
+			}
+		}
+		return null;
+	}
+
+	private Object processInline(EClassifier classifier, String value) throws DeserializeException, MetaDataException {
+		if (value.indexOf("(") != -1) {
+			String typeName = value.substring(0, value.indexOf("(")).trim();
+			String v = value.substring(value.indexOf("(") + 1, value.length() - 1);
+			EClassifier eClassifier = packageMetaData.getEClassifierCaseInsensitive(typeName);
+			if (eClassifier instanceof EClass) {
+				Object convert = convert(eClassifier, v);
+				currentRecord.addInlineObject((IdEObject) convert);
+				return convert;
+			} else {
+				throw new DeserializeException(lineNumber, typeName + " is not an existing IFC entity");
+			}
+		} else {
+			return convertSimpleValue(classifier.getInstanceClass(), value);
+		}
+	}
+
+	private void readEnum(String val, EObject object, EStructuralFeature structuralFeature) throws DeserializeException, MetaDataException {
+		if (val.equals(".T.")) {
+			if (structuralFeature.getEType().getName().equals("Tristate")) {
+				object.eSet(structuralFeature, packageMetaData.getEEnumLiteral("Tristate", "TRUE").getInstance());
+			} else if (structuralFeature.getEType().getName().equals("IfcBoolean")) {
+				EClass eClass = packageMetaData.getEClass("IfcBoolean");
+				EObject createIfcBoolean = packageMetaData.create(eClass);
+				createIfcBoolean.eSet(eClass.getEStructuralFeature("WrappedValue"), packageMetaData.getEEnumLiteral("Tristate", "TRUE").getInstance());
+				object.eSet(structuralFeature, createIfcBoolean);
+			} else if (structuralFeature.getEType() == EcorePackage.eINSTANCE.getEBoolean()) {
+				object.eSet(structuralFeature, true);
+			} else {
+				EClass eClass = packageMetaData.getEClass("IfcLogical");
+				EObject createIfcBoolean = packageMetaData.create(eClass);
+				createIfcBoolean.eSet(eClass.getEStructuralFeature("WrappedValue"), packageMetaData.getEEnumLiteral("Tristate", "TRUE").getInstance());
+				object.eSet(structuralFeature, createIfcBoolean);
+			}
+		} else if (val.equals(".F.")) {
+			if (structuralFeature.getEType().getName().equals("Tristate")) {
+				object.eSet(structuralFeature, packageMetaData.getEEnumLiteral("Tristate", "FALSE").getInstance());
+			} else if (structuralFeature.getEType().getName().equals("IfcBoolean")) {
+				EClass eClass = packageMetaData.getEClass("IfcBoolean");
+				EObject createIfcBoolean = packageMetaData.create(eClass);
+				createIfcBoolean.eSet(eClass.getEStructuralFeature("WrappedValue"), packageMetaData.getEEnumLiteral("Tristate", "FALSE").getInstance());
+				object.eSet(structuralFeature, createIfcBoolean);
+			} else if (structuralFeature.getEType() == EcorePackage.eINSTANCE.getEBoolean()) {
+				object.eSet(structuralFeature, false);
+			} else {
+				EClass eClass = packageMetaData.getEClass("IfcLogical");
+				EObject createIfcBoolean = packageMetaData.create(eClass);
+				createIfcBoolean.eSet(eClass.getEStructuralFeature("WrappedValue"), packageMetaData.getEEnumLiteral("Tristate", "FALSE").getInstance());
+				object.eSet(structuralFeature, createIfcBoolean);
+			}
+		} else if (val.equals(".U.")) {
+			if (structuralFeature.getEType().getName().equals("Tristate")) {
+				object.eSet(structuralFeature, packageMetaData.getEEnumLiteral("Tristate", "UNDEFINED").getInstance());
+			} else if (structuralFeature.getEType() == EcorePackage.eINSTANCE.getEBoolean()) {
+				object.eUnset(structuralFeature);
+			} else {
+				EClass eClass = packageMetaData.getEClass("IfcLogical");
+				EObject createIfcBoolean = packageMetaData.create(eClass);
+				createIfcBoolean.eSet(eClass.getEStructuralFeature("WrappedValue"), packageMetaData.getEEnumLiteral("Tristate", "UNDEFINED").getInstance());
+				object.eSet(structuralFeature, createIfcBoolean);
+			}
+		} else {
+			if (structuralFeature.getEType() instanceof EEnumImpl) {
+				String realEnumValue = val.substring(1, val.length() - 1);
+				EEnumLiteral enumValue = (((EEnumImpl) structuralFeature.getEType()).getEEnumLiteral(realEnumValue));
+				if (enumValue == null) {
+					throw new DeserializeException(lineNumber, "Enum type " + structuralFeature.getEType().getName() + " has no literal value '" + realEnumValue + "'");
+				}
+				object.eSet(structuralFeature, enumValue.getInstance());
+			} else {
+				throw new DeserializeException(lineNumber, "Value " + val + " indicates enum type but " + structuralFeature.getEType().getName() + " expected");
+			}
+		}
+	}
+
+	public static class ParsedRecord {
+		private final int recordNumber;
+		private final int lineNumber;
+		private final IdEObject object;
+		private List<IdEObject> inlineObjects = Collections.emptyList();
+		private List<Object> operations = Collections.emptyList();
+
+		public ParsedRecord(int recordNumber, int lineNumber, IdEObject object) {
+			this.recordNumber = recordNumber;
+			this.lineNumber = lineNumber;
+			this.object = object;
+		}
+
+		public int getRecordNumber() {
+			return recordNumber;
+		}
+
+		public int getLineNumber() {
+			return lineNumber;
+		}
+
+		public IdEObject getObject() {
+			return object;
+		}
+
+		public List<IdEObject> getInlineObjects() {
+			return inlineObjects;
+		}
+
+		public List<Object> getOperations() {
+			return operations;
+		}
+
+		private void addInlineObject(IdEObject inlineObject) {
+			if (inlineObjects.isEmpty()) {
+				inlineObjects = new ArrayList<IdEObject>(2);
+			}
+			inlineObjects.add(inlineObject);
+		}
+
+		private void addOperation(Object operation) {
+			if (operations.isEmpty()) {
+				operations = new ArrayList<Object>(4);
+			}
+			operations.add(operation);
+		}
+	}
+
+	private static class SingleReference {
+		private final EObject object;
+		private final EStructuralFeature structuralFeature;
+		private final int referenceId;
+
+		public SingleReference(EObject object, EStructuralFeature structuralFeature, int referenceId) {
+			this.object = object;
+			this.structuralFeature = structuralFeature;
+			this.referenceId = referenceId;
+		}
+
+		public EObject getObject() {
+			return object;
+		}
+
+		public EStructuralFeature getStructuralFeature() {
+			return structuralFeature;
+		}
+
+		public int getReferenceId() {
+			return referenceId;
+		}
+	}
+
+	/*
+	 * The items of a list in the order of the file: an Integer for a reference, a ListContents for a nested list, a ListValue for a value or null for an empty item
+	 */
+	private static class ListContents {
+		private final EObject object;
+		private final EStructuralFeature structuralFeature;
+		private final List<Object> items = new ArrayList<Object>();
+		private boolean hasReferences;
+
+		public ListContents(EObject object, EStructuralFeature structuralFeature) {
+			this.object = object;
+			this.structuralFeature = structuralFeature;
+		}
+
+		public void add(Object item) {
+			if (item instanceof Integer || (item instanceof ListContents && ((ListContents) item).hasReferences())) {
+				hasReferences = true;
+			}
+			items.add(item);
+		}
+
+		public EObject getObject() {
+			return object;
+		}
+
+		public EStructuralFeature getStructuralFeature() {
+			return structuralFeature;
+		}
+
+		public List<Object> getItems() {
+			return items;
+		}
+
+		public boolean hasReferences() {
+			return hasReferences;
+		}
+	}
+
+	private static class ListValue {
+		private final Object value;
+		private final String stringValue;
+
+		public ListValue(Object value, String stringValue) {
+			this.value = value;
+			this.stringValue = stringValue;
+		}
+
+		public Object getValue() {
+			return value;
+		}
+
+		public String getStringValue() {
+			return stringValue;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,170 @@
+package org.bimserver.ifc.step.deserializer;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+import com.google.common.base.Charsets;
+
+/*
+ * Reads the statements (everything up to and including a semicolon that is not part of a string or a comment) of a STEP file directly from the bytes of the stream.
+ * 
+ * - Line endings are removed and comments are skipped, statements that span multiple lines are returned as one
+ * - Every statement is decoded only once, without building a String per line first
+ * - The digest is updated with the raw bytes as they are read, leaving out the line endings so checksums of files stay the same as when they were hashed line by line
+ */
+public class StepStatementReader {
+	private static final int CHUNK_SIZE = 64 * 1024;
+	private final InputStream inputStream;
+	private final MessageDigest messageDigest;
+	private final byte[] chunk = new byte[CHUNK_SIZE];
+	private int chunkPosition;
+	private int chunkLimit;
+	private byte[] statement = new byte[1024];
+	private int statementLength;
+	private long bytesRead;
+	private int lineNumber;
+	private boolean inString;
+	private boolean inComment;
+	private boolean lastWasSlash;
+	private boolean lastWasStar;
+
+	public StepStatementReader(InputStream inputStream, MessageDigest messageDigest) {
+		this.inputStream = inputStream;
+		this.messageDigest = messageDigest;
+	}
+
+	/**
+	 * @return The next statement, trimmed, including the closing semicolon, or whatever is left after the last statement at the end of the stream. Returns null when the stream is exhausted
+	 * @throws IOException
+	 */
+	public String readStatement() throws IOException {
+		statementLength = 0;
+		while (true) {
+			if (chunkPosition == chunkLimit && !fill()) {
+				if (statementLength == 0) {
+					return null;
+				}
+				return decodeStatement();
+			}
+			byte b = chunk[chunkPosition++];
+			if (b == '\n') {
+				lineNumber++;
+				continue;
+			} else if (b == '\r') {
+				continue;
+			}
+			if (inComment) {
+				if (b == '/' && lastWasStar) {
+					inComment = false;
+				}
+				lastWasStar = b == '*';
+				continue;
+			}
+			if (inString) {
+				if (b == '\'') {
+					inString = false;
+				}
+			} else if (b == '\'') {
+				inString = true;
+			} else if (b == '*' && lastWasSlash) {
+				// The slash that was already added starts a comment
+				statementLength--;
+				lastWasSlash = false;
+				lastWasStar = false;
+				inComment = true;
+				continue;
+			}
+			lastWasSlash = !inString && b == '/';
+			append(b);
+			if (b == ';' && !inString) {
+				lastWasSlash = false;
+				return decodeStatement();
+			}
+		}
+	}
+
+	/**
+	 * @return The amount of bytes read from the stream so far
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * @return The (zero based) line the reader is on, for a statement that has just been returned this is the line its semicolon is on
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	private boolean fill() throws IOException {
+		int read = inputStream.read(chunk, 0, CHUNK_SIZE);
+		while (read == 0) {
+			read = inputStream.read(chunk, 0, CHUNK_SIZE);
+		}
+		if (read == -1) {
+			chunkPosition = 0;
+			chunkLimit = 0;
+			return false;
+		}
+		chunkPosition = 0;
+		chunkLimit = read;
+		bytesRead += read;
+		if (messageDigest != null) {
+			int runStart = 0;
+			for (int i = 0; i < read; i++) {
+				if (chunk[i] == '\n' || chunk[i] == '\r') {
+					if (i > runStart) {
+						messageDigest.update(chunk, runStart, i - runStart);
+					}
+					runStart = i + 1;
+				}
+			}
+			if (read > runStart) {
+				messageDigest.update(chunk, runStart, read - runStart);
+			}
+		}
+		return true;
+	}
+
+	private void append(byte b) {
+		if (statementLength == statement.length) {
+			byte[] newStatement = new byte[statement.length * 2];
+			System.arraycopy(statement, 0, newStatement, 0, statementLength);
+			statement = newStatement;
+		}
+		statement[statementLength++] = b;
+	}
+
+	private String decodeStatement() {
+		int start = 0;
+		int end = statementLength;
+		// Same as String.trim, all characters up to and including space are single byte characters in UTF-8
+		while (start < end && (statement[start] & 0xFF) <= ' ') {
+			start++;
+		}
+		while (end > start && (statement[end - 1] & 0xFF) <= ' ') {
+			end--;
+		}
+		return new String(statement, start, end - start, Charsets.UTF_8);
+	}
+}
\ No newline at end of file
@@ -24,9 +24,19 @@ import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.UnsupportedCharsetException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.codec.binary.Hex;
 import org.bimserver.emf.IdEObject;
@@ -50,8 +60,11 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Charsets;
 
+/**
+ * Writes the objects of the model in chunks. When it is safe to do so (all objects loaded and no express ids to be assigned), the chunks are serialized on a
+ * shared pool of workers, each into its own buffer, and written to the output in model order. The output is the same as when writing sequentially.
+ */
 public abstract class IfcStepSerializer extends IfcSerializer {
-	private static final byte[] NEW_LINE = "\n".getBytes(Charsets.UTF_8);
 	private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(IfcStepSerializer.class);
 	private static final boolean useIso8859_1 = false;
 	private static final EcorePackage ECORE_PACKAGE_INSTANCE = EcorePackage.eINSTANCE;
@@ -59,7 +72,6 @@ public abstract class IfcStepSerializer extends IfcSerializer {
 	private static final String OPEN_CLOSE_PAREN = "()";
 	private static final String ASTERISK = "*";
 	private static final String PAREN_CLOSE_SEMICOLON = ");";
-	private static final String DOT_0 = ".0";
 	private static final String DASH = "#";
 	private static final String IFC_LOGICAL = "IfcLogical";
 	private static final String IFC_BOOLEAN = "IfcBoolean";
@@ -73,15 +85,39 @@ public abstract class IfcStepSerializer extends IfcSerializer {
 	private static final String BOOLEAN_TRUE = ".T.";
 	private static final String DOLLAR = "$";
 	private static final String WRAPPED_VALUE = "wrappedValue";
+	private static final int CHUNK_SIZE = 1000; // objects
+	private static final int INITIAL_BUFFER_SIZE = 256 * 1024;
+	private static final int NR_WORKERS = Runtime.getRuntime().availableProcessors();
+	private static final ExecutorService WORKERS = Executors.newFixedThreadPool(NR_WORKERS, new ThreadFactory() {
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "IfcStepSerializer-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
 	
-	private Iterator<IdEObject> iterator;
 	private String headerSchema;
 	private long writeCounter;
-	private OutputStream outputStream;
+	private List<IdEObject> objects;
+	private int nextChunk;
+	private boolean parallel;
+	private int writerThreads = NR_WORKERS;
+	private final ArrayDeque<Future<StepWriter>> pending = new ArrayDeque<Future<StepWriter>>();
+	private final ArrayDeque<StepWriter> freeWriters = new ArrayDeque<StepWriter>();
 
 	public IfcStepSerializer(PluginConfiguration pluginConfiguration) {
 	}
 
+	/**
+	 * @param writerThreads The amount of chunks written at the same time, 1 writes on the calling thread. The output does not depend on this setting
+	 */
+	public void setWriterThreads(int writerThreads) {
+		this.writerThreads = Math.max(1, writerThreads);
+	}
+
 	protected void setHeaderSchema(String headerSchema) {
 		this.headerSchema = headerSchema;
 	}
@@ -89,31 +125,44 @@ public abstract class IfcStepSerializer extends IfcSerializer {
 	@Override
 	public void reset() {
 		setMode(Mode.HEADER);
+		for (Future<StepWriter> future : pending) {
+			future.cancel(false);
+		}
+		pending.clear();
+		objects = null;
+		writeCounter = 0;
 	}
 	
 	public boolean write(OutputStream outputStream, ProgressReporter progressReporter) throws SerializerException {
 		try {
-			this.outputStream = outputStream;
 			if (getMode() == Mode.HEADER) {
-				writeHeader();
+				StepWriter headerWriter = new StepWriter(1024);
+				writeHeader(headerWriter);
+				headerWriter.writeTo(outputStream);
 				setMode(Mode.BODY);
-				iterator = model.getValues().iterator();
+				startBody();
 				return true;
 			} else if (getMode() == Mode.BODY) {
-				if (iterator.hasNext()) {
-					write(iterator.next());
-					writeCounter++;
+				fillPipeline();
+				if (!pending.isEmpty()) {
+					StepWriter stepWriter = get(pending.poll());
+					stepWriter.writeTo(outputStream);
+					writeCounter += stepWriter.getNrObjects();
+					freeWriters.add(stepWriter);
 					if (progressReporter != null) {
 						progressReporter.update(writeCounter, model.size());
 					}
 				} else {
-					iterator = null;
+					objects = null;
+					freeWriters.clear();
 					setMode(Mode.FOOTER);
 					return write(outputStream, progressReporter);
 				}
 				return true;
 			} else if (getMode() == Mode.FOOTER) {
-				writeFooter();
+				StepWriter footerWriter = new StepWriter(64);
+				writeFooter(footerWriter);
+				footerWriter.writeTo(outputStream);
 				if (progressReporter != null) {
 					progressReporter.update(model.size(), model.size());
 				}
@@ -128,451 +177,607 @@ public abstract class IfcStepSerializer extends IfcSerializer {
 		}
 	}
 
-	private void writeFooter() throws IOException {
-		println("ENDSEC;");
-		println("END-ISO-10303-21;");
+	private void startBody() {
+		objects = new ArrayList<IdEObject>(model.getValues());
+		nextChunk = 0;
+		boolean allLoaded = true;
+		for (IdEObject object : objects) {
+			if (!object.isLoadedOrLoading()) {
+				// Loading happens through the model and is not thread safe
+				allLoaded = false;
+				break;
+			}
+		}
+		// Express ids are assigned in the order objects are written when normalizing oids, that order has to stay sequential
+		parallel = writerThreads > 1 && objects.size() > CHUNK_SIZE && allLoaded && !isNormalizeOids();
+		if (parallel) {
+			// EMF computes some of its meta data lazily, which is not thread safe
+			for (EClass eClass : getPackageMetaData().getEClasses()) {
+				eClass.getEAllStructuralFeatures();
+				eClass.getEStructuralFeature(WRAPPED_VALUE);
+			}
+		}
 	}
 
-	private void writeHeader() throws IOException {
+	/**
+	 * Starts chunks until the maximum number of chunks is pending, sequentially only one chunk is written at a time
+	 */
+	private void fillPipeline() {
+		int maxPending = parallel ? writerThreads * 2 : 1;
+		while (pending.size() < maxPending && (long) nextChunk * CHUNK_SIZE < objects.size()) {
+			final int start = nextChunk * CHUNK_SIZE;
+			final int end = Math.min(start + CHUNK_SIZE, objects.size());
+			nextChunk++;
+			final StepWriter stepWriter = freeWriters.isEmpty() ? new StepWriter(INITIAL_BUFFER_SIZE) : freeWriters.poll();
+			Callable<StepWriter> callable = new Callable<StepWriter>() {
+				@Override
+				public StepWriter call() throws SerializerException {
+					stepWriter.reset();
+					for (int i = start; i < end; i++) {
+						stepWriter.write(objects.get(i));
+					}
+					stepWriter.setNrObjects(end - start);
+					return stepWriter;
+				}
+			};
+			if (parallel) {
+				pending.add(WORKERS.submit(callable));
+			} else {
+				FutureTask<StepWriter> futureTask = new FutureTask<StepWriter>(callable);
+				futureTask.run();
+				pending.add(futureTask);
+			}
+		}
+	}
+
+	private StepWriter get(Future<StepWriter> future) throws SerializerException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new SerializerException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SerializerException) {
+				throw (SerializerException) e.getCause();
+			}
+			throw new SerializerException(e.getCause());
+		}
+	}
+
+	private void writeFooter(StepWriter stepWriter) {
+		stepWriter.println("ENDSEC;");
+		stepWriter.println("END-ISO-10303-21;");
+	}
+
+	private void writeHeader(StepWriter stepWriter) {
 		SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-		println("ISO-10303-21;");
-		println("HEADER;");
+		stepWriter.println("ISO-10303-21;");
+		stepWriter.println("HEADER;");
 		IfcHeader ifcHeader = getModel().getModelMetaData().getIfcHeader();
 		if (ifcHeader == null) {
 			Date date = new Date();
-			println("FILE_DESCRIPTION ((''), '2;1');");
-			println("FILE_NAME ('', '" + dateFormatter.format(date) + "', (''), (''), '', 'BIMserver', '');");
-			println("FILE_SCHEMA (('" + headerSchema + "'));");
+			stepWriter.println("FILE_DESCRIPTION ((''), '2;1');");
+			stepWriter.println("FILE_NAME ('', '" + dateFormatter.format(date) + "', (''), (''), '', 'BIMserver', '');");
+			stepWriter.println("FILE_SCHEMA (('" + headerSchema + "'));");
 		} else {
-			print("FILE_DESCRIPTION ((");
-			print(StringUtils.concat(ifcHeader.getDescription(), "'", ", "));
-			println("), '" + ifcHeader.getImplementationLevel() + "');");
-			println("FILE_NAME ('" + ifcHeader.getFilename() + "', '" + dateFormatter.format(ifcHeader.getTimeStamp()) + "', (" + StringUtils.concat(ifcHeader.getAuthor(), "'", ", ") + "), (" + StringUtils.concat(ifcHeader.getOrganization(), "'", ", ") + "), '" + ifcHeader.getPreProcessorVersion() + "', '" + ifcHeader.getOriginatingSystem() + "', '"	+ ifcHeader.getAuthorization() + "');");
+			stepWriter.print("FILE_DESCRIPTION ((");
+			stepWriter.print(StringUtils.concat(ifcHeader.getDescription(), "'", ", "));
+			stepWriter.println("), '" + ifcHeader.getImplementationLevel() + "');");
+			stepWriter.println("FILE_NAME ('" + ifcHeader.getFilename() + "', '" + dateFormatter.format(ifcHeader.getTimeStamp()) + "', (" + StringUtils.concat(ifcHeader.getAuthor(), "'", ", ") + "), (" + StringUtils.concat(ifcHeader.getOrganization(), "'", ", ") + "), '" + ifcHeader.getPreProcessorVersion() + "', '" + ifcHeader.getOriginatingSystem() + "', '"	+ ifcHeader.getAuthorization() + "');");
 
 			//	println("FILE_SCHEMA (('" + ifcHeader.getIfcSchemaVersion() + "'));");
-			println("FILE_SCHEMA (('" + headerSchema + "'));");
+			stepWriter.println("FILE_SCHEMA (('" + headerSchema + "'));");
 		}
-		println("ENDSEC;");
-		println("DATA;");
+		stepWriter.println("ENDSEC;");
+		stepWriter.println("DATA;");
 		// println("//This program comes with ABSOLUTELY NO WARRANTY.");
 		// println("//This is free software, and you are welcome to redistribute it under certain conditions. See www.bimserver.org <http://www.bimserver.org>");
 	}
 
-	private void println(String line) throws IOException {
-		byte[] bytes = line.getBytes(Charsets.UTF_8);
-		outputStream.write(bytes, 0, bytes.length);
-		outputStream.write(NEW_LINE, 0, NEW_LINE.length);
-	}
+	/**
+	 * Serializes objects into a growing byte buffer that is reused for every chunk it writes. Only reads the state of the serializer and the model, so
+	 * several writers can work at the same time.
+	 */
+	private class StepWriter {
+		private byte[] buffer;
+		private int size;
+		private int nrObjects;
 
-	private void print(String text) throws IOException {
-		byte[] bytes = text.getBytes(Charsets.UTF_8);
-		outputStream.write(bytes, 0, bytes.length);
-	}
-	
-	private void writePrimitive(Object val) throws SerializerException, IOException {
-		if (val.getClass().getSimpleName().equals("Tristate")) {
-			if (val.toString().equals("TRUE")) {
-				print(BOOLEAN_TRUE);
-			} else if (val.toString().equals("FALSE")) {
-				print(BOOLEAN_FALSE);
-			} else if (val.toString().equals("UNDEFINED")) {
-				print(BOOLEAN_UNDEFINED);
+		public StepWriter(int initialSize) {
+			buffer = new byte[initialSize];
+		}
+
+		public void reset() {
+			size = 0;
+			nrObjects = 0;
+		}
+
+		public int getNrObjects() {
+			return nrObjects;
+		}
+
+		public void setNrObjects(int nrObjects) {
+			this.nrObjects = nrObjects;
+		}
+
+		public void writeTo(OutputStream outputStream) throws IOException {
+			outputStream.write(buffer, 0, size);
+		}
+
+		private void ensureCapacity(int extra) {
+			if (size + extra > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
 			}
-		} else if (val instanceof Double) {
-			if (((Double)val).isInfinite() || (((Double)val).isNaN())) {
-				LOGGER.info("Serializing infinite or NaN double as 0.0");
-				print("0.0");
-			} else {
-				String string = val.toString();
-				if (string.endsWith(DOT_0)) {
-					print(string.substring(0, string.length() - 1));
-				} else {
-					print(string);
+		}
+
+		private void println(String line) {
+			print(line);
+			print('\n');
+		}
+
+		private void print(String text) {
+			int length = text.length();
+			ensureCapacity(length);
+			for (int i = 0; i < length; i++) {
+				char c = text.charAt(i);
+				if (c >= 128) {
+					// Only header fields and stored double strings can have non ASCII characters
+					byte[] bytes = text.substring(i).getBytes(Charsets.UTF_8);
+					ensureCapacity(bytes.length);
+					System.arraycopy(bytes, 0, buffer, size, bytes.length);
+					size += bytes.length;
+					return;
 				}
+				buffer[size++] = (byte) c;
 			}
-		} else if (val instanceof Boolean) {
-			Boolean bool = (Boolean)val;
-			if (bool) {
-				print(BOOLEAN_TRUE);
+		}
+
+		/**
+		 * Only to be used for ASCII characters
+		 */
+		private void print(char c) {
+			ensureCapacity(1);
+			buffer[size++] = (byte) c;
+		}
+
+		private void print(long value) {
+			if (value == Long.MIN_VALUE) {
+				print(String.valueOf(value));
+				return;
+			}
+			if (value < 0) {
+				print('-');
+				value = -value;
+			}
+			int digits = 1;
+			for (long rest = value / 10; rest > 0; rest /= 10) {
+				digits++;
+			}
+			ensureCapacity(digits);
+			for (int i = size + digits - 1; i >= size; i--) {
+				buffer[i] = (byte) ('0' + (value % 10));
+				value /= 10;
+			}
+			size += digits;
+		}
+
+		/**
+		 * Same as Double.toString without the trailing 0 of ".0", whole numbers below 10^7 (written by Double.toString as "x.0") are written without
+		 * creating a String
+		 */
+		private void printDouble(double value) {
+			if (value == (long) value && Math.abs(value) < 1e7 && (value != 0 || 1 / value > 0)) {
+				print((long) value);
+				print('.');
 			} else {
-				print(BOOLEAN_FALSE);
+				String string = Double.toString(value);
+				int length = string.endsWith(".0") ? string.length() - 1 : string.length();
+				ensureCapacity(length);
+				for (int i = 0; i < length; i++) {
+					buffer[size++] = (byte) string.charAt(i);
+				}
 			}
-		} else if (val instanceof String) {
-			print(SINGLE_QUOTE);
-			String stringVal = (String)val;
-			for (int i=0; i<stringVal.length(); i++) {
-				char c = stringVal.charAt(i);
-				if (c == '\'') {
-					print("\'\'");
-				} else if (c == '\\') {
-					print("\\\\");
-				} else if (c >= 32 && c <= 126) {
-					// ISO 8859-1
-					print("" + c);
-				} else if (c < 255) {
-					//  ISO 10646 and ISO 8859-1 are the same < 255 , using ISO_8859_1
-					print("\\X\\" + new String(Hex.encodeHex(Charsets.ISO_8859_1.encode(CharBuffer.wrap(new char[]{(char) c})).array())).toUpperCase());
+		}
+
+		private void writePrimitive(Object val) throws SerializerException {
+			if (val.getClass().getSimpleName().equals("Tristate")) {
+				if (val.toString().equals("TRUE")) {
+					print(BOOLEAN_TRUE);
+				} else if (val.toString().equals("FALSE")) {
+					print(BOOLEAN_FALSE);
+				} else if (val.toString().equals("UNDEFINED")) {
+					print(BOOLEAN_UNDEFINED);
+				}
+			} else if (val instanceof Double) {
+				if (((Double)val).isInfinite() || (((Double)val).isNaN())) {
+					LOGGER.info("Serializing infinite or NaN double as 0.0");
+					print("0.0");
+				} else {
+					printDouble((Double) val);
+				}
+			} else if (val instanceof Boolean) {
+				Boolean bool = (Boolean)val;
+				if (bool) {
+					print(BOOLEAN_TRUE);
 				} else {
-					if (useIso8859_1) {
-						// ISO 8859-1 with -128 offset
-						ByteBuffer encode = Charsets.ISO_8859_1.encode(new String(new char[]{(char) (c - 128)}));
-						print("\\S\\" + (char)encode.get());
+					print(BOOLEAN_FALSE);
+				}
+			} else if (val instanceof String) {
+				print(SINGLE_QUOTE);
+				String stringVal = (String)val;
+				for (int i=0; i<stringVal.length(); i++) {
+					char c = stringVal.charAt(i);
+					if (c == '\'') {
+						print("\'\'");
+					} else if (c == '\\') {
+						print("\\\\");
+					} else if (c >= 32 && c <= 126) {
+						// ISO 8859-1
+						print(c);
+					} else if (c < 255) {
+						//  ISO 10646 and ISO 8859-1 are the same < 255 , using ISO_8859_1
+						print("\\X\\" + new String(Hex.encodeHex(Charsets.ISO_8859_1.encode(CharBuffer.wrap(new char[]{(char) c})).array())).toUpperCase());
 					} else {
-						// The following code has not been tested (2012-04-25)
-						// Use UCS-2 or UCS-4
+						if (useIso8859_1) {
+							// ISO 8859-1 with -128 offset
+							ByteBuffer encode = Charsets.ISO_8859_1.encode(new String(new char[]{(char) (c - 128)}));
+							print("\\S\\" + (char)encode.get());
+						} else {
+							// The following code has not been tested (2012-04-25)
+							// Use UCS-2 or UCS-4
 						
-						// TODO when multiple sequential characters should be encoded in UCS-2 or UCS-4, we don't really need to add all those \X0\ \X2\ and \X4\ chars
-						if (Character.isLowSurrogate(c)) {
-							throw new SerializerException("Unexpected low surrogate range char");
-						} else if (Character.isHighSurrogate(c)) {
-							// We need UCS-4, this is probably never happening
-							if (i + 1 < stringVal.length()) {
-								char low = stringVal.charAt(i + 1);
-								if (!Character.isLowSurrogate(low)) {
-									throw new SerializerException("High surrogate char should be followed by char in low surrogate range");
-								}
-								try {
-									print("\\X4\\" + new String(Hex.encodeHex(Charset.forName("UTF-32").encode(new String(new char[]{c, low})).array())).toUpperCase() + "\\X0\\");
-								} catch (UnsupportedCharsetException e) {
-									throw new SerializerException(e);
+							// TODO when multiple sequential characters should be encoded in UCS-2 or UCS-4, we don't really need to add all those \X0\ \X2\ and \X4\ chars
+							if (Character.isLowSurrogate(c)) {
+								throw new SerializerException("Unexpected low surrogate range char");
+							} else if (Character.isHighSurrogate(c)) {
+								// We need UCS-4, this is probably never happening
+								if (i + 1 < stringVal.length()) {
+									char low = stringVal.charAt(i + 1);
+									if (!Character.isLowSurrogate(low)) {
+										throw new SerializerException("High surrogate char should be followed by char in low surrogate range");
+									}
+									try {
+										print("\\X4\\" + new String(Hex.encodeHex(Charset.forName("UTF-32").encode(new String(new char[]{c, low})).array())).toUpperCase() + "\\X0\\");
+									} catch (UnsupportedCharsetException e) {
+										throw new SerializerException(e);
+									}
+									i++;
+								} else {
+									throw new SerializerException("High surrogate char should be followed by char in low surrogate range, but end of string reached");
 								}
-								i++;
 							} else {
-								throw new SerializerException("High surrogate char should be followed by char in low surrogate range, but end of string reached");
+								// UCS-2 will do
+								print("\\X2\\" + new String(Hex.encodeHex(Charsets.UTF_16BE.encode(CharBuffer.wrap(new char[]{c})).array())).toUpperCase() + "\\X0\\");
 							}
-						} else {
-							// UCS-2 will do
-							print("\\X2\\" + new String(Hex.encodeHex(Charsets.UTF_16BE.encode(CharBuffer.wrap(new char[]{c})).array())).toUpperCase() + "\\X0\\");
 						}
 					}
 				}
+				print(SINGLE_QUOTE);
+			} else if (val instanceof Enumerator) {
+				print("." + val + ".");
+			} else {
+				print(val == null ? "$" : val.toString());
 			}
-			print(SINGLE_QUOTE);
-		} else if (val instanceof Enumerator) {
-			print("." + val + ".");
-		} else {
-			print(val == null ? "$" : val.toString());
 		}
-	}
 
-	private void write(IdEObject object) throws SerializerException, IOException {
-//		throw new SerializerException("test");
-		EClass eClass = object.eClass();
-		if (eClass.getEAnnotation("hidden") != null) {
-			return;
-		}
-		print(DASH);
-		int convertedKey = getExpressId(object);
-		if (convertedKey == -1) {
-			throw new SerializerException("Going to serialize an object with id -1 (" + object.eClass().getName() + ")");
-		}
-		print(String.valueOf(convertedKey));
-		print("= ");
-		String upperCase = getPackageMetaData().getUpperCase(eClass);
-		if (upperCase == null) {
-			throw new SerializerException("Type not found: " + eClass.getName());
-		}
-		print(upperCase);
-		print(OPEN_PAREN);
-		boolean isFirst = true;
-		EntityDefinition entityBN = getSchemaDefinition().getEntityBN(object.eClass().getName());
-		for (EStructuralFeature feature : eClass.getEAllStructuralFeatures()) {
-			if (feature.getEAnnotation("hidden") == null && (entityBN != null && (!entityBN.isDerived(feature.getName()) || entityBN.isDerivedOverride(feature.getName())))) {
-				EClassifier type = feature.getEType();
-				if (type instanceof EEnum) {
-					if (!isFirst) {
-						print(COMMA);
-					}
-					writeEnum(object, feature);
-					isFirst = false;
-				} else if (type instanceof EClass) {
-					if (!getPackageMetaData().isInverse(feature)) {
+		private void write(IdEObject object) throws SerializerException {
+	//		throw new SerializerException("test");
+			EClass eClass = object.eClass();
+			if (eClass.getEAnnotation("hidden") != null) {
+				return;
+			}
+			print(DASH);
+			int convertedKey = getExpressId(object);
+			if (convertedKey == -1) {
+				throw new SerializerException("Going to serialize an object with id -1 (" + object.eClass().getName() + ")");
+			}
+			print(convertedKey);
+			print("= ");
+			String upperCase = getPackageMetaData().getUpperCase(eClass);
+			if (upperCase == null) {
+				throw new SerializerException("Type not found: " + eClass.getName());
+			}
+			print(upperCase);
+			print(OPEN_PAREN);
+			boolean isFirst = true;
+			EntityDefinition entityBN = getSchemaDefinition().getEntityBN(object.eClass().getName());
+			for (EStructuralFeature feature : eClass.getEAllStructuralFeatures()) {
+				if (feature.getEAnnotation("hidden") == null && (entityBN != null && (!entityBN.isDerived(feature.getName()) || entityBN.isDerivedOverride(feature.getName())))) {
+					EClassifier type = feature.getEType();
+					if (type instanceof EEnum) {
 						if (!isFirst) {
 							print(COMMA);
 						}
-						writeEClass(object, feature);
+						writeEnum(object, feature);
+						isFirst = false;
+					} else if (type instanceof EClass) {
+						if (!getPackageMetaData().isInverse(feature)) {
+							if (!isFirst) {
+								print(COMMA);
+							}
+							writeEClass(object, feature);
+							isFirst = false;
+						}
+					} else if (type instanceof EDataType) {
+						if (!isFirst) {
+							print(COMMA);
+						}
+						writeEDataType(object, entityBN, feature);
 						isFirst = false;
 					}
-				} else if (type instanceof EDataType) {
-					if (!isFirst) {
-						print(COMMA);
-					}
-					writeEDataType(object, entityBN, feature);
-					isFirst = false;
 				}
 			}
+			println(PAREN_CLOSE_SEMICOLON);
 		}
-		println(PAREN_CLOSE_SEMICOLON);
-	}
 
-	private void writeEDataType(IdEObject object, EntityDefinition entityBN, EStructuralFeature feature) throws SerializerException, IOException {
-		if (entityBN != null && entityBN.isDerived(feature.getName())) {
-			print(ASTERISK);
-		} else if (feature.isMany()) {
-			writeList(object, feature);
-		} else {
-			writeObject(object, feature);
+		private void writeEDataType(IdEObject object, EntityDefinition entityBN, EStructuralFeature feature) throws SerializerException {
+			if (entityBN != null && entityBN.isDerived(feature.getName())) {
+				print(ASTERISK);
+			} else if (feature.isMany()) {
+				writeList(object, feature);
+			} else {
+				writeObject(object, feature);
+			}
 		}
-	}
 
-	private void writeEClass(IdEObject object, EStructuralFeature feature) throws SerializerException, IOException {
-		Object referencedObject = object.eGet(feature);
-		if (referencedObject instanceof IdEObject && ((IdEObject)referencedObject).eClass().getEAnnotation("wrapped") != null) {
-			writeWrappedValue(object, feature, ((EObject)referencedObject).eClass());
-		} else {
-			if (referencedObject instanceof EObject && model.contains((IdEObject) referencedObject)) {
-				print(DASH);
-				print(String.valueOf(getExpressId((IdEObject) referencedObject)));
+		private void writeEClass(IdEObject object, EStructuralFeature feature) throws SerializerException {
+			Object referencedObject = object.eGet(feature);
+			if (referencedObject instanceof IdEObject && ((IdEObject)referencedObject).eClass().getEAnnotation("wrapped") != null) {
+				writeWrappedValue(object, feature, ((EObject)referencedObject).eClass());
 			} else {
-				EntityDefinition entityBN = getSchemaDefinition().getEntityBN(object.eClass().getName());
-				if (entityBN != null && entityBN.isDerived(feature.getName())) {
-					print(ASTERISK);
-				} else if (feature.isMany()) {
-					writeList(object, feature);
+				if (referencedObject instanceof EObject && model.contains((IdEObject) referencedObject)) {
+					print(DASH);
+					print(getExpressId((IdEObject) referencedObject));
 				} else {
-					writeObject(object, feature);
+					EntityDefinition entityBN = getSchemaDefinition().getEntityBN(object.eClass().getName());
+					if (entityBN != null && entityBN.isDerived(feature.getName())) {
+						print(ASTERISK);
+					} else if (feature.isMany()) {
+						writeList(object, feature);
+					} else {
+						writeObject(object, feature);
+					}
 				}
 			}
 		}
-	}
 
-	private void writeObject(IdEObject object, EStructuralFeature feature) throws SerializerException, IOException {
-		Object ref = object.eGet(feature);
-		if (ref == null || (feature.isUnsettable() && !object.eIsSet(feature))) {
-			EClassifier type = feature.getEType();
-			if (type instanceof EClass) {
-				EStructuralFeature structuralFeature = ((EClass) type).getEStructuralFeature(WRAPPED_VALUE);
-				if (structuralFeature != null) {
-					String name = structuralFeature.getEType().getName();
-					if (name.equals(IFC_BOOLEAN) || name.equals(IFC_LOGICAL) || structuralFeature.getEType() == EcorePackage.eINSTANCE.getEBoolean()) {
-						print(BOOLEAN_UNDEFINED);
+		private void writeObject(IdEObject object, EStructuralFeature feature) throws SerializerException {
+			Object ref = object.eGet(feature);
+			if (ref == null || (feature.isUnsettable() && !object.eIsSet(feature))) {
+				EClassifier type = feature.getEType();
+				if (type instanceof EClass) {
+					EStructuralFeature structuralFeature = ((EClass) type).getEStructuralFeature(WRAPPED_VALUE);
+					if (structuralFeature != null) {
+						String name = structuralFeature.getEType().getName();
+						if (name.equals(IFC_BOOLEAN) || name.equals(IFC_LOGICAL) || structuralFeature.getEType() == EcorePackage.eINSTANCE.getEBoolean()) {
+							print(BOOLEAN_UNDEFINED);
+						} else {
+							print(DOLLAR);
+						}
 					} else {
 						print(DOLLAR);
 					}
 				} else {
-					print(DOLLAR);
+					if (type == EcorePackage.eINSTANCE.getEBoolean()) {
+						print(BOOLEAN_UNDEFINED);
+					} else if (feature.isMany()) {
+						print("()");
+					} else {
+						print(DOLLAR);
+					}
 				}
 			} else {
-				if (type == EcorePackage.eINSTANCE.getEBoolean()) {
-					print(BOOLEAN_UNDEFINED);
-				} else if (feature.isMany()) {
-					print("()");
+				if (ref instanceof EObject) {
+					writeEmbedded((EObject) ref);
+				} else if (feature.getEType() == ECORE_PACKAGE_INSTANCE.getEDouble()) {
+					writeDoubleValue((Double)ref, object, feature);
 				} else {
-					print(DOLLAR);
+					writePrimitive(ref);
 				}
 			}
-		} else {
-			if (ref instanceof EObject) {
-				writeEmbedded((EObject) ref);
-			} else if (feature.getEType() == ECORE_PACKAGE_INSTANCE.getEDouble()) {
-				writeDoubleValue((Double)ref, object, feature);
-			} else {
-				writePrimitive(ref);
-			}
 		}
-	}
 
-	private void writeDoubleValue(double value, EObject object, EStructuralFeature feature) throws SerializerException, IOException {
-		if (model.isUseDoubleStrings()) {
-			Object stringValue = object.eGet(object.eClass().getEStructuralFeature(feature.getName() + "AsString"));
-			if (stringValue != null) {
-				print((String)stringValue);
-				return;
+		private void writeDoubleValue(double value, EObject object, EStructuralFeature feature) throws SerializerException {
+			if (model.isUseDoubleStrings()) {
+				Object stringValue = object.eGet(object.eClass().getEStructuralFeature(feature.getName() + "AsString"));
+				if (stringValue != null) {
+					print((String)stringValue);
+					return;
+				}
 			}
+			writePrimitive(value);
 		}
-		writePrimitive(value);
-	}
 
-	private void writeEmbedded(EObject eObject) throws SerializerException, IOException {
-		EClass class1 = eObject.eClass();
-		print(getPackageMetaData().getUpperCase(class1));
-		print(OPEN_PAREN);
-		EStructuralFeature structuralFeature = class1.getEStructuralFeature(WRAPPED_VALUE);
-		if (structuralFeature != null) {
-			Object realVal = eObject.eGet(structuralFeature);
-			if (structuralFeature.getEType() == ECORE_PACKAGE_INSTANCE.getEDouble()) {
-				writeDoubleValue((Double)realVal, eObject, structuralFeature);
-			} else {
-				writePrimitive(realVal);
+		private void writeEmbedded(EObject eObject) throws SerializerException {
+			EClass class1 = eObject.eClass();
+			print(getPackageMetaData().getUpperCase(class1));
+			print(OPEN_PAREN);
+			EStructuralFeature structuralFeature = class1.getEStructuralFeature(WRAPPED_VALUE);
+			if (structuralFeature != null) {
+				Object realVal = eObject.eGet(structuralFeature);
+				if (structuralFeature.getEType() == ECORE_PACKAGE_INSTANCE.getEDouble()) {
+					writeDoubleValue((Double)realVal, eObject, structuralFeature);
+				} else {
+					writePrimitive(realVal);
+				}
 			}
+			print(CLOSE_PAREN);
 		}
-		print(CLOSE_PAREN);
-	}
 
-	private void writeList(IdEObject object, EStructuralFeature feature) throws SerializerException, IOException {
-		List<?> list = (List<?>) object.eGet(feature);
-		List<?> doubleStingList = null;
-		if (feature.getEType() == EcorePackage.eINSTANCE.getEDouble() && model.isUseDoubleStrings()) {
-			EStructuralFeature doubleStringFeature = feature.getEContainingClass().getEStructuralFeature(feature.getName() + "AsString");
-			if (doubleStringFeature == null) {
-				throw new SerializerException("Field " + feature.getName() + "AsString" + " not found");
-			}
-			doubleStingList = (List<?>) object.eGet(doubleStringFeature);
-		}
-		if (list.isEmpty()) {
-			if (!feature.isUnsettable()) {
-				print(OPEN_CLOSE_PAREN);
-			} else {
-				print("$");
-			}
-		} else {
-			print(OPEN_PAREN);
-			boolean first = true;
-			int index = 0;
-			for (Object listObject : list) {
-				if (!first) {
-					print(COMMA);
+		private void writeList(IdEObject object, EStructuralFeature feature) throws SerializerException {
+			List<?> list = (List<?>) object.eGet(feature);
+			List<?> doubleStingList = null;
+			if (feature.getEType() == EcorePackage.eINSTANCE.getEDouble() && model.isUseDoubleStrings()) {
+				EStructuralFeature doubleStringFeature = feature.getEContainingClass().getEStructuralFeature(feature.getName() + "AsString");
+				if (doubleStringFeature == null) {
+					throw new SerializerException("Field " + feature.getName() + "AsString" + " not found");
 				}
-				if ((listObject instanceof IdEObject) && model.contains((IdEObject)listObject)) {
-					IdEObject eObject = (IdEObject) listObject;
-					print(DASH);
-					print(String.valueOf(getExpressId(eObject)));
+				doubleStingList = (List<?>) object.eGet(doubleStringFeature);
+			}
+			if (list.isEmpty()) {
+				if (!feature.isUnsettable()) {
+					print(OPEN_CLOSE_PAREN);
 				} else {
-					if (listObject == null) {
-						print(DOLLAR);
+					print("$");
+				}
+			} else {
+				print(OPEN_PAREN);
+				boolean first = true;
+				int index = 0;
+				for (Object listObject : list) {
+					if (!first) {
+						print(COMMA);
+					}
+					if ((listObject instanceof IdEObject) && model.contains((IdEObject)listObject)) {
+						IdEObject eObject = (IdEObject) listObject;
+						print(DASH);
+						print(getExpressId(eObject));
 					} else {
-						if (listObject instanceof IdEObject && feature.getEType().getEAnnotation("wrapped") != null) {
-							IdEObject eObject = (IdEObject) listObject;
-							Object realVal = eObject.eGet(eObject.eClass().getEStructuralFeature("wrappedValue"));
-							if (realVal instanceof Double) {
-								if (model.isUseDoubleStrings()) {
-									Object stringVal = eObject.eGet(eObject.eClass().getEStructuralFeature("wrappedValueAsString"));
-									if (stringVal != null) {
-										print((String) stringVal);
+						if (listObject == null) {
+							print(DOLLAR);
+						} else {
+							if (listObject instanceof IdEObject && feature.getEType().getEAnnotation("wrapped") != null) {
+								IdEObject eObject = (IdEObject) listObject;
+								Object realVal = eObject.eGet(eObject.eClass().getEStructuralFeature("wrappedValue"));
+								if (realVal instanceof Double) {
+									if (model.isUseDoubleStrings()) {
+										Object stringVal = eObject.eGet(eObject.eClass().getEStructuralFeature("wrappedValueAsString"));
+										if (stringVal != null) {
+											print((String) stringVal);
+										} else {
+											writePrimitive(realVal);
+										}
 									} else {
 										writePrimitive(realVal);
 									}
 								} else {
 									writePrimitive(realVal);
 								}
-							} else {
-								writePrimitive(realVal);
-							}
-						} else if (listObject instanceof EObject) {
-							IdEObject eObject = (IdEObject) listObject;
-							EClass class1 = eObject.eClass();
-							EStructuralFeature structuralFeature = class1.getEStructuralFeature(WRAPPED_VALUE);
-							if (structuralFeature != null) {
-								Object realVal = eObject.eGet(structuralFeature);
-								print(getPackageMetaData().getUpperCase(class1));
-								print(OPEN_PAREN);
-								if (realVal instanceof Double) {
-									writeDoubleValue((Double)realVal, eObject, structuralFeature);
+							} else if (listObject instanceof EObject) {
+								IdEObject eObject = (IdEObject) listObject;
+								EClass class1 = eObject.eClass();
+								EStructuralFeature structuralFeature = class1.getEStructuralFeature(WRAPPED_VALUE);
+								if (structuralFeature != null) {
+									Object realVal = eObject.eGet(structuralFeature);
+									print(getPackageMetaData().getUpperCase(class1));
+									print(OPEN_PAREN);
+									if (realVal instanceof Double) {
+										writeDoubleValue((Double)realVal, eObject, structuralFeature);
+									} else {
+										writePrimitive(realVal);
+									}
+									print(CLOSE_PAREN);
 								} else {
-									writePrimitive(realVal);
+									if (feature.getEAnnotation("twodimensionalarray") != null) {
+										writeList(eObject, eObject.eClass().getEStructuralFeature("List"));
+									} else {
+										LOGGER.info("Unfollowable reference found from " + object + "(" + object.getOid() + ")." + feature.getName() + " to " + eObject + "(" + eObject.getOid() + ")");
+									}
 								}
-								print(CLOSE_PAREN);
 							} else {
-								if (feature.getEAnnotation("twodimensionalarray") != null) {
-									writeList(eObject, eObject.eClass().getEStructuralFeature("List"));
-								} else {
-									LOGGER.info("Unfollowable reference found from " + object + "(" + object.getOid() + ")." + feature.getName() + " to " + eObject + "(" + eObject.getOid() + ")");
-								}
-							}
-						} else {
-							if (doubleStingList != null) {
-								if (index < doubleStingList.size()) {
-									String val = (String)doubleStingList.get(index);
-									if (val == null) {
-										writePrimitive(listObject);
+								if (doubleStingList != null) {
+									if (index < doubleStingList.size()) {
+										String val = (String)doubleStingList.get(index);
+										if (val == null) {
+											writePrimitive(listObject);
+										} else {
+											print(val);
+										}
 									} else {
-										print(val);
+										writePrimitive(listObject);
 									}
 								} else {
 									writePrimitive(listObject);
 								}
-							} else {
-								writePrimitive(listObject);
 							}
 						}
 					}
+					first = false;
+					index++;
 				}
-				first = false;
-				index++;
+				print(CLOSE_PAREN);
 			}
-			print(CLOSE_PAREN);
 		}
-	}
 
-	private void writeWrappedValue(EObject object, EStructuralFeature feature, EClass ec) throws SerializerException, IOException {
-		Object get = object.eGet(feature);
-		boolean isWrapped = ec.getEAnnotation("wrapped") != null;
-		EStructuralFeature structuralFeature = ec.getEStructuralFeature(WRAPPED_VALUE);
-		if (get instanceof EObject) {
-			boolean isDefinedWrapped = feature.getEType().getEAnnotation("wrapped") != null;
-			EObject betweenObject = (EObject) get;
-			if (betweenObject != null) {
-				if (isWrapped && isDefinedWrapped) {
-					Object val = betweenObject.eGet(structuralFeature);
-					String name = structuralFeature.getEType().getName();
-					if ((name.equals(IFC_BOOLEAN) || name.equals(IFC_LOGICAL)) && val == null) {
-						print(BOOLEAN_UNDEFINED);
-					} else if (structuralFeature.getEType() == ECORE_PACKAGE_INSTANCE.getEDouble()) {
-						writeDoubleValue((Double)val, betweenObject, feature);
+		private void writeWrappedValue(EObject object, EStructuralFeature feature, EClass ec) throws SerializerException {
+			Object get = object.eGet(feature);
+			boolean isWrapped = ec.getEAnnotation("wrapped") != null;
+			EStructuralFeature structuralFeature = ec.getEStructuralFeature(WRAPPED_VALUE);
+			if (get instanceof EObject) {
+				boolean isDefinedWrapped = feature.getEType().getEAnnotation("wrapped") != null;
+				EObject betweenObject = (EObject) get;
+				if (betweenObject != null) {
+					if (isWrapped && isDefinedWrapped) {
+						Object val = betweenObject.eGet(structuralFeature);
+						String name = structuralFeature.getEType().getName();
+						if ((name.equals(IFC_BOOLEAN) || name.equals(IFC_LOGICAL)) && val == null) {
+							print(BOOLEAN_UNDEFINED);
+						} else if (structuralFeature.getEType() == ECORE_PACKAGE_INSTANCE.getEDouble()) {
+							writeDoubleValue((Double)val, betweenObject, feature);
+						} else {
+							writePrimitive(val);
+						}
 					} else {
-						writePrimitive(val);
+						writeEmbedded(betweenObject);
 					}
-				} else {
-					writeEmbedded(betweenObject);
 				}
-			}
-		} else if (get instanceof EList<?>) {
-			EList<?> list = (EList<?>) get;
-			if (list.isEmpty()) {
-				if (!feature.isUnsettable()) {
-					print(OPEN_CLOSE_PAREN);
-				} else {
-					print("$");
-				}
-			} else {
-				print(OPEN_PAREN);
-				boolean first = true;
-				for (Object o : list) {
-					if (!first) {
-						print(COMMA);
-					}
-					EObject object2 = (EObject) o;
-					Object val = object2.eGet(structuralFeature);
-					if (structuralFeature.getEType() == ECORE_PACKAGE_INSTANCE.getEDouble()) {
-						writeDoubleValue((Double)val, object2, structuralFeature);
+			} else if (get instanceof EList<?>) {
+				EList<?> list = (EList<?>) get;
+				if (list.isEmpty()) {
+					if (!feature.isUnsettable()) {
+						print(OPEN_CLOSE_PAREN);
 					} else {
-						writePrimitive(val);
+						print("$");
 					}
-					first = false;
-				}
-				print(CLOSE_PAREN);
-			}
-		} else {
-			if (get == null) {
-				EClassifier type = structuralFeature.getEType();
-				if (type.getName().equals("IfcBoolean") || type.getName().equals("IfcLogical") || type == ECORE_PACKAGE_INSTANCE.getEBoolean()) {
-					print(BOOLEAN_UNDEFINED);
 				} else {
-					EntityDefinition entityBN = getSchemaDefinition().getEntityBN(object.eClass().getName());
-					if (entityBN != null && entityBN.isDerived(feature.getName())) {
-						print(ASTERISK);
+					print(OPEN_PAREN);
+					boolean first = true;
+					for (Object o : list) {
+						if (!first) {
+							print(COMMA);
+						}
+						EObject object2 = (EObject) o;
+						Object val = object2.eGet(structuralFeature);
+						if (structuralFeature.getEType() == ECORE_PACKAGE_INSTANCE.getEDouble()) {
+							writeDoubleValue((Double)val, object2, structuralFeature);
+						} else {
+							writePrimitive(val);
+						}
+						first = false;
+					}
+					print(CLOSE_PAREN);
+				}
+			} else {
+				if (get == null) {
+					EClassifier type = structuralFeature.getEType();
+					if (type.getName().equals("IfcBoolean") || type.getName().equals("IfcLogical") || type == ECORE_PACKAGE_INSTANCE.getEBoolean()) {
+						print(BOOLEAN_UNDEFINED);
 					} else {
-						print(DOLLAR);
+						EntityDefinition entityBN = getSchemaDefinition().getEntityBN(object.eClass().getName());
+						if (entityBN != null && entityBN.isDerived(feature.getName())) {
+							print(ASTERISK);
+						} else {
+							print(DOLLAR);
+						}
 					}
 				}
 			}
 		}
-	}
 
-	private void writeEnum(EObject object, EStructuralFeature feature) throws SerializerException, IOException {
-		Object val = object.eGet(feature);
-		if (feature.getEType().getName().equals("Tristate")) {
-			writePrimitive( val);
-		} else {
-			if (val == null) {
-				print(DOLLAR);
+		private void writeEnum(EObject object, EStructuralFeature feature) throws SerializerException {
+			Object val = object.eGet(feature);
+			if (feature.getEType().getName().equals("Tristate")) {
+				writePrimitive( val);
 			} else {
-				if (((Enum<?>) val).toString().equals(NULL)) {
+				if (val == null) {
 					print(DOLLAR);
 				} else {
-					print(DOT);
-					print(val.toString());
-					print(DOT);
+					if (((Enum<?>) val).toString().equals(NULL)) {
+						print(DOLLAR);
+					} else {
+						print(DOT);
+						print(val.toString());
+						print(DOT);
+					}
 				}
 			}
 		}
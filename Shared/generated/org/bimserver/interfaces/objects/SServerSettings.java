@@ -57,6 +57,15 @@ public class SServerSettings implements SDataBase
 	private boolean reuseGeometry;
 	private boolean allowCreateValidatedUser;
 	private int renderEngineProcesses;
+	private int databaseScanThreads;
+	private boolean incrementalGeometry;
+	private boolean deltaCheckins;
+	private int longActionHeapPercentage;
+	private int cacheOutputFilesMaxMb;
+	private boolean compressCachedOutputFiles;
+	private boolean cacheCompareResults;
+	private int progressUpdateIntervalMs;
+	private boolean ifcIndexes;
 
 	public long getOid() {
 		return this.oid;
@@ -162,6 +171,33 @@ public class SServerSettings implements SDataBase
 		if (sField.getName().equals("renderEngineProcesses")) {
 			return getRenderEngineProcesses();
 		}
+		if (sField.getName().equals("databaseScanThreads")) {
+			return getDatabaseScanThreads();
+		}
+		if (sField.getName().equals("incrementalGeometry")) {
+			return isIncrementalGeometry();
+		}
+		if (sField.getName().equals("deltaCheckins")) {
+			return isDeltaCheckins();
+		}
+		if (sField.getName().equals("longActionHeapPercentage")) {
+			return getLongActionHeapPercentage();
+		}
+		if (sField.getName().equals("cacheOutputFilesMaxMb")) {
+			return getCacheOutputFilesMaxMb();
+		}
+		if (sField.getName().equals("compressCachedOutputFiles")) {
+			return isCompressCachedOutputFiles();
+		}
+		if (sField.getName().equals("cacheCompareResults")) {
+			return isCacheCompareResults();
+		}
+		if (sField.getName().equals("progressUpdateIntervalMs")) {
+			return getProgressUpdateIntervalMs();
+		}
+		if (sField.getName().equals("ifcIndexes")) {
+			return isIfcIndexes();
+		}
 		if (sField.getName().equals("oid")) {
 			return getOid();
 		}
@@ -277,6 +313,42 @@ public class SServerSettings implements SDataBase
 			setRenderEngineProcesses((Integer)val);
 			return;
 		}
+		if (sField.getName().equals("databaseScanThreads")) {
+			setDatabaseScanThreads((Integer)val);
+			return;
+		}
+		if (sField.getName().equals("incrementalGeometry")) {
+			setIncrementalGeometry((Boolean)val);
+			return;
+		}
+		if (sField.getName().equals("deltaCheckins")) {
+			setDeltaCheckins((Boolean)val);
+			return;
+		}
+		if (sField.getName().equals("longActionHeapPercentage")) {
+			setLongActionHeapPercentage((Integer)val);
+			return;
+		}
+		if (sField.getName().equals("cacheOutputFilesMaxMb")) {
+			setCacheOutputFilesMaxMb((Integer)val);
+			return;
+		}
+		if (sField.getName().equals("compressCachedOutputFiles")) {
+			setCompressCachedOutputFiles((Boolean)val);
+			return;
+		}
+		if (sField.getName().equals("cacheCompareResults")) {
+			setCacheCompareResults((Boolean)val);
+			return;
+		}
+		if (sField.getName().equals("progressUpdateIntervalMs")) {
+			setProgressUpdateIntervalMs((Integer)val);
+			return;
+		}
+		if (sField.getName().equals("ifcIndexes")) {
+			setIfcIndexes((Boolean)val);
+			return;
+		}
 		if (sField.getName().equals("oid")) {
 			setOid((Long)val);
 			return;
@@ -497,6 +569,78 @@ public class SServerSettings implements SDataBase
 		this.renderEngineProcesses = renderEngineProcesses;
 	}
 	
+	public int getDatabaseScanThreads() {
+		return databaseScanThreads;
+	}
+
+	public void setDatabaseScanThreads(int databaseScanThreads) {
+		this.databaseScanThreads = databaseScanThreads;
+	}
+	
+	public boolean isIncrementalGeometry() {
+		return incrementalGeometry;
+	}
+
+	public void setIncrementalGeometry(boolean incrementalGeometry) {
+		this.incrementalGeometry = incrementalGeometry;
+	}
+	
+	public boolean isDeltaCheckins() {
+		return deltaCheckins;
+	}
+
+	public void setDeltaCheckins(boolean deltaCheckins) {
+		this.deltaCheckins = deltaCheckins;
+	}
+	
+	public int getLongActionHeapPercentage() {
+		return longActionHeapPercentage;
+	}
+
+	public void setLongActionHeapPercentage(int longActionHeapPercentage) {
+		this.longActionHeapPercentage = longActionHeapPercentage;
+	}
+	
+	public int getCacheOutputFilesMaxMb() {
+		return cacheOutputFilesMaxMb;
+	}
+
+	public void setCacheOutputFilesMaxMb(int cacheOutputFilesMaxMb) {
+		this.cacheOutputFilesMaxMb = cacheOutputFilesMaxMb;
+	}
+	
+	public boolean isCompressCachedOutputFiles() {
+		return compressCachedOutputFiles;
+	}
+
+	public void setCompressCachedOutputFiles(boolean compressCachedOutputFiles) {
+		this.compressCachedOutputFiles = compressCachedOutputFiles;
+	}
+	
+	public boolean isCacheCompareResults() {
+		return cacheCompareResults;
+	}
+
+	public void setCacheCompareResults(boolean cacheCompareResults) {
+		this.cacheCompareResults = cacheCompareResults;
+	}
+	
+	public int getProgressUpdateIntervalMs() {
+		return progressUpdateIntervalMs;
+	}
+
+	public void setProgressUpdateIntervalMs(int progressUpdateIntervalMs) {
+		this.progressUpdateIntervalMs = progressUpdateIntervalMs;
+	}
+	
+	public boolean isIfcIndexes() {
+		return ifcIndexes;
+	}
+
+	public void setIfcIndexes(boolean ifcIndexes) {
+		this.ifcIndexes = ifcIndexes;
+	}
+	
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -53,6 +53,15 @@ import org.eclipse.emf.common.util.EList;
  *   <li>{@link org.bimserver.models.store.ServerSettings#isReuseGeometry <em>Reuse Geometry</em>}</li>
  *   <li>{@link org.bimserver.models.store.ServerSettings#isAllowCreateValidatedUser <em>Allow Create Validated User</em>}</li>
  *   <li>{@link org.bimserver.models.store.ServerSettings#getRenderEngineProcesses <em>Render Engine Processes</em>}</li>
+ *   <li>{@link org.bimserver.models.store.ServerSettings#getDatabaseScanThreads <em>Database Scan Threads</em>}</li>
+ *   <li>{@link org.bimserver.models.store.ServerSettings#isIncrementalGeometry <em>Incremental Geometry</em>}</li>
+ *   <li>{@link org.bimserver.models.store.ServerSettings#isDeltaCheckins <em>Delta Checkins</em>}</li>
+ *   <li>{@link org.bimserver.models.store.ServerSettings#getLongActionHeapPercentage <em>Long Action Heap Percentage</em>}</li>
+ *   <li>{@link org.bimserver.models.store.ServerSettings#getCacheOutputFilesMaxMb <em>Cache Output Files Max Mb</em>}</li>
+ *   <li>{@link org.bimserver.models.store.ServerSettings#isCompressCachedOutputFiles <em>Compress Cached Output Files</em>}</li>
+ *   <li>{@link org.bimserver.models.store.ServerSettings#isCacheCompareResults <em>Cache Compare Results</em>}</li>
+ *   <li>{@link org.bimserver.models.store.ServerSettings#getProgressUpdateIntervalMs <em>Progress Update Interval Ms</em>}</li>
+ *   <li>{@link org.bimserver.models.store.ServerSettings#isIfcIndexes <em>Ifc Indexes</em>}</li>
  * </ul>
  * </p>
  *
@@ -727,4 +736,247 @@ public interface ServerSettings extends IdEObject {
 	 */
 	void setRenderEngineProcesses(int value);
 
+	/**
+	 * Returns the value of the '<em><b>Database Scan Threads</b></em>' attribute.
+	 * The default value is <code>"1"</code>.
+	 * <!-- begin-user-doc -->
+	 * <p>
+	 * If the meaning of the '<em>Database Scan Threads</em>' attribute isn't clear,
+	 * there really should be more of a description here...
+	 * </p>
+	 * <!-- end-user-doc -->
+	 * @return the value of the '<em>Database Scan Threads</em>' attribute.
+	 * @see #setDatabaseScanThreads(int)
+	 * @see org.bimserver.models.store.StorePackage#getServerSettings_DatabaseScanThreads()
+	 * @model default="1"
+	 * @generated
+	 */
+	int getDatabaseScanThreads();
+
+	/**
+	 * Sets the value of the '{@link org.bimserver.models.store.ServerSettings#getDatabaseScanThreads <em>Database Scan Threads</em>}' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @param value the new value of the '<em>Database Scan Threads</em>' attribute.
+	 * @see #getDatabaseScanThreads()
+	 * @generated
+	 */
+	void setDatabaseScanThreads(int value);
+
+	/**
+	 * Returns the value of the '<em><b>Incremental Geometry</b></em>' attribute.
+	 * The default value is <code>"false"</code>.
+	 * <!-- begin-user-doc -->
+	 * <p>
+	 * If the meaning of the '<em>Incremental Geometry</em>' attribute isn't clear,
+	 * there really should be more of a description here...
+	 * </p>
+	 * <!-- end-user-doc -->
+	 * @return the value of the '<em>Incremental Geometry</em>' attribute.
+	 * @see #setIncrementalGeometry(boolean)
+	 * @see org.bimserver.models.store.StorePackage#getServerSettings_IncrementalGeometry()
+	 * @model default="false"
+	 * @generated
+	 */
+	boolean isIncrementalGeometry();
+
+	/**
+	 * Sets the value of the '{@link org.bimserver.models.store.ServerSettings#isIncrementalGeometry <em>Incremental Geometry</em>}' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @param value the new value of the '<em>Incremental Geometry</em>' attribute.
+	 * @see #isIncrementalGeometry()
+	 * @generated
+	 */
+	void setIncrementalGeometry(boolean value);
+
+	/**
+	 * Returns the value of the '<em><b>Delta Checkins</b></em>' attribute.
+	 * The default value is <code>"false"</code>.
+	 * <!-- begin-user-doc -->
+	 * <p>
+	 * If the meaning of the '<em>Delta Checkins</em>' attribute isn't clear,
+	 * there really should be more of a description here...
+	 * </p>
+	 * <!-- end-user-doc -->
+	 * @return the value of the '<em>Delta Checkins</em>' attribute.
+	 * @see #setDeltaCheckins(boolean)
+	 * @see org.bimserver.models.store.StorePackage#getServerSettings_DeltaCheckins()
+	 * @model default="false"
+	 * @generated
+	 */
+	boolean isDeltaCheckins();
+
+	/**
+	 * Sets the value of the '{@link org.bimserver.models.store.ServerSettings#isDeltaCheckins <em>Delta Checkins</em>}' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @param value the new value of the '<em>Delta Checkins</em>' attribute.
+	 * @see #isDeltaCheckins()
+	 * @generated
+	 */
+	void setDeltaCheckins(boolean value);
+
+	/**
+	 * Returns the value of the '<em><b>Long Action Heap Percentage</b></em>' attribute.
+	 * The default value is <code>"60"</code>.
+	 * <!-- begin-user-doc -->
+	 * <p>
+	 * If the meaning of the '<em>Long Action Heap Percentage</em>' attribute isn't clear,
+	 * there really should be more of a description here...
+	 * </p>
+	 * <!-- end-user-doc -->
+	 * @return the value of the '<em>Long Action Heap Percentage</em>' attribute.
+	 * @see #setLongActionHeapPercentage(int)
+	 * @see org.bimserver.models.store.StorePackage#getServerSettings_LongActionHeapPercentage()
+	 * @model default="60"
+	 * @generated
+	 */
+	int getLongActionHeapPercentage();
+
+	/**
+	 * Sets the value of the '{@link org.bimserver.models.store.ServerSettings#getLongActionHeapPercentage <em>Long Action Heap Percentage</em>}' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @param value the new value of the '<em>Long Action Heap Percentage</em>' attribute.
+	 * @see #getLongActionHeapPercentage()
+	 * @generated
+	 */
+	void setLongActionHeapPercentage(int value);
+
+	/**
+	 * Returns the value of the '<em><b>Cache Output Files Max Mb</b></em>' attribute.
+	 * The default value is <code>"10240"</code>.
+	 * <!-- begin-user-doc -->
+	 * <p>
+	 * If the meaning of the '<em>Cache Output Files Max Mb</em>' attribute isn't clear,
+	 * there really should be more of a description here...
+	 * </p>
+	 * <!-- end-user-doc -->
+	 * @return the value of the '<em>Cache Output Files Max Mb</em>' attribute.
+	 * @see #setCacheOutputFilesMaxMb(int)
+	 * @see org.bimserver.models.store.StorePackage#getServerSettings_CacheOutputFilesMaxMb()
+	 * @model default="10240"
+	 * @generated
+	 */
+	int getCacheOutputFilesMaxMb();
+
+	/**
+	 * Sets the value of the '{@link org.bimserver.models.store.ServerSettings#getCacheOutputFilesMaxMb <em>Cache Output Files Max Mb</em>}' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @param value the new value of the '<em>Cache Output Files Max Mb</em>' attribute.
+	 * @see #getCacheOutputFilesMaxMb()
+	 * @generated
+	 */
+	void setCacheOutputFilesMaxMb(int value);
+
+	/**
+	 * Returns the value of the '<em><b>Compress Cached Output Files</b></em>' attribute.
+	 * The default value is <code>"false"</code>.
+	 * <!-- begin-user-doc -->
+	 * <p>
+	 * If the meaning of the '<em>Compress Cached Output Files</em>' attribute isn't clear,
+	 * there really should be more of a description here...
+	 * </p>
+	 * <!-- end-user-doc -->
+	 * @return the value of the '<em>Compress Cached Output Files</em>' attribute.
+	 * @see #setCompressCachedOutputFiles(boolean)
+	 * @see org.bimserver.models.store.StorePackage#getServerSettings_CompressCachedOutputFiles()
+	 * @model default="false"
+	 * @generated
+	 */
+	boolean isCompressCachedOutputFiles();
+
+	/**
+	 * Sets the value of the '{@link org.bimserver.models.store.ServerSettings#isCompressCachedOutputFiles <em>Compress Cached Output Files</em>}' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @param value the new value of the '<em>Compress Cached Output Files</em>' attribute.
+	 * @see #isCompressCachedOutputFiles()
+	 * @generated
+	 */
+	void setCompressCachedOutputFiles(boolean value);
+
+	/**
+	 * Returns the value of the '<em><b>Cache Compare Results</b></em>' attribute.
+	 * The default value is <code>"false"</code>.
+	 * <!-- begin-user-doc -->
+	 * <p>
+	 * If the meaning of the '<em>Cache Compare Results</em>' attribute isn't clear,
+	 * there really should be more of a description here...
+	 * </p>
+	 * <!-- end-user-doc -->
+	 * @return the value of the '<em>Cache Compare Results</em>' attribute.
+	 * @see #setCacheCompareResults(boolean)
+	 * @see org.bimserver.models.store.StorePackage#getServerSettings_CacheCompareResults()
+	 * @model default="false"
+	 * @generated
+	 */
+	boolean isCacheCompareResults();
+
+	/**
+	 * Sets the value of the '{@link org.bimserver.models.store.ServerSettings#isCacheCompareResults <em>Cache Compare Results</em>}' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @param value the new value of the '<em>Cache Compare Results</em>' attribute.
+	 * @see #isCacheCompareResults()
+	 * @generated
+	 */
+	void setCacheCompareResults(boolean value);
+
+	/**
+	 * Returns the value of the '<em><b>Progress Update Interval Ms</b></em>' attribute.
+	 * The default value is <code>"200"</code>.
+	 * <!-- begin-user-doc -->
+	 * <p>
+	 * If the meaning of the '<em>Progress Update Interval Ms</em>' attribute isn't clear,
+	 * there really should be more of a description here...
+	 * </p>
+	 * <!-- end-user-doc -->
+	 * @return the value of the '<em>Progress Update Interval Ms</em>' attribute.
+	 * @see #setProgressUpdateIntervalMs(int)
+	 * @see org.bimserver.models.store.StorePackage#getServerSettings_ProgressUpdateIntervalMs()
+	 * @model default="200"
+	 * @generated
+	 */
+	int getProgressUpdateIntervalMs();
+
+	/**
+	 * Sets the value of the '{@link org.bimserver.models.store.ServerSettings#getProgressUpdateIntervalMs <em>Progress Update Interval Ms</em>}' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @param value the new value of the '<em>Progress Update Interval Ms</em>' attribute.
+	 * @see #getProgressUpdateIntervalMs()
+	 * @generated
+	 */
+	void setProgressUpdateIntervalMs(int value);
+
+	/**
+	 * Returns the value of the '<em><b>Ifc Indexes</b></em>' attribute.
+	 * The default value is <code>"false"</code>.
+	 * <!-- begin-user-doc -->
+	 * <p>
+	 * If the meaning of the '<em>Ifc Indexes</em>' attribute isn't clear,
+	 * there really should be more of a description here...
+	 * </p>
+	 * <!-- end-user-doc -->
+	 * @return the value of the '<em>Ifc Indexes</em>' attribute.
+	 * @see #setIfcIndexes(boolean)
+	 * @see org.bimserver.models.store.StorePackage#getServerSettings_IfcIndexes()
+	 * @model default="false"
+	 * @generated
+	 */
+	boolean isIfcIndexes();
+
+	/**
+	 * Sets the value of the '{@link org.bimserver.models.store.ServerSettings#isIfcIndexes <em>Ifc Indexes</em>}' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @param value the new value of the '<em>Ifc Indexes</em>' attribute.
+	 * @see #isIfcIndexes()
+	 * @generated
+	 */
+	void setIfcIndexes(boolean value);
+
 } // ServerSettings
@@ -1176,6 +1176,87 @@ public interface StorePackage extends EPackage {
 	 */
 	int SERVER_SETTINGS__RENDER_ENGINE_PROCESSES = 25;
 
+	/**
+	 * The feature id for the '<em><b>Database Scan Threads</b></em>' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 * @ordered
+	 */
+	int SERVER_SETTINGS__DATABASE_SCAN_THREADS = 26;
+
+	/**
+	 * The feature id for the '<em><b>Incremental Geometry</b></em>' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 * @ordered
+	 */
+	int SERVER_SETTINGS__INCREMENTAL_GEOMETRY = 27;
+
+	/**
+	 * The feature id for the '<em><b>Delta Checkins</b></em>' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 * @ordered
+	 */
+	int SERVER_SETTINGS__DELTA_CHECKINS = 28;
+
+	/**
+	 * The feature id for the '<em><b>Long Action Heap Percentage</b></em>' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 * @ordered
+	 */
+	int SERVER_SETTINGS__LONG_ACTION_HEAP_PERCENTAGE = 29;
+
+	/**
+	 * The feature id for the '<em><b>Cache Output Files Max Mb</b></em>' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 * @ordered
+	 */
+	int SERVER_SETTINGS__CACHE_OUTPUT_FILES_MAX_MB = 30;
+
+	/**
+	 * The feature id for the '<em><b>Compress Cached Output Files</b></em>' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 * @ordered
+	 */
+	int SERVER_SETTINGS__COMPRESS_CACHED_OUTPUT_FILES = 31;
+
+	/**
+	 * The feature id for the '<em><b>Cache Compare Results</b></em>' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 * @ordered
+	 */
+	int SERVER_SETTINGS__CACHE_COMPARE_RESULTS = 32;
+
+	/**
+	 * The feature id for the '<em><b>Progress Update Interval Ms</b></em>' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 * @ordered
+	 */
+	int SERVER_SETTINGS__PROGRESS_UPDATE_INTERVAL_MS = 33;
+
+	/**
+	 * The feature id for the '<em><b>Ifc Indexes</b></em>' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 * @ordered
+	 */
+	int SERVER_SETTINGS__IFC_INDEXES = 34;
+
 	/**
 	 * The number of structural features of the '<em>Server Settings</em>' class.
 	 * <!-- begin-user-doc -->
@@ -1183,7 +1264,7 @@ public interface StorePackage extends EPackage {
 	 * @generated
 	 * @ordered
 	 */
-	int SERVER_SETTINGS_FEATURE_COUNT = 26;
+	int SERVER_SETTINGS_FEATURE_COUNT = 35;
 
 	/**
 	 * The meta object id for the '{@link org.bimserver.models.store.impl.UserSettingsImpl <em>User Settings</em>}' class.
@@ -8248,6 +8329,105 @@ public interface StorePackage extends EPackage {
 	 */
 	EAttribute getServerSettings_RenderEngineProcesses();
 
+	/**
+	 * Returns the meta object for the attribute '{@link org.bimserver.models.store.ServerSettings#getDatabaseScanThreads <em>Database Scan Threads</em>}'.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @return the meta object for the attribute '<em>Database Scan Threads</em>'.
+	 * @see org.bimserver.models.store.ServerSettings#getDatabaseScanThreads()
+	 * @see #getServerSettings()
+	 * @generated
+	 */
+	EAttribute getServerSettings_DatabaseScanThreads();
+
+	/**
+	 * Returns the meta object for the attribute '{@link org.bimserver.models.store.ServerSettings#isIncrementalGeometry <em>Incremental Geometry</em>}'.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @return the meta object for the attribute '<em>Incremental Geometry</em>'.
+	 * @see org.bimserver.models.store.ServerSettings#isIncrementalGeometry()
+	 * @see #getServerSettings()
+	 * @generated
+	 */
+	EAttribute getServerSettings_IncrementalGeometry();
+
+	/**
+	 * Returns the meta object for the attribute '{@link org.bimserver.models.store.ServerSettings#isDeltaCheckins <em>Delta Checkins</em>}'.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @return the meta object for the attribute '<em>Delta Checkins</em>'.
+	 * @see org.bimserver.models.store.ServerSettings#isDeltaCheckins()
+	 * @see #getServerSettings()
+	 * @generated
+	 */
+	EAttribute getServerSettings_DeltaCheckins();
+
+	/**
+	 * Returns the meta object for the attribute '{@link org.bimserver.models.store.ServerSettings#getLongActionHeapPercentage <em>Long Action Heap Percentage</em>}'.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @return the meta object for the attribute '<em>Long Action Heap Percentage</em>'.
+	 * @see org.bimserver.models.store.ServerSettings#getLongActionHeapPercentage()
+	 * @see #getServerSettings()
+	 * @generated
+	 */
+	EAttribute getServerSettings_LongActionHeapPercentage();
+
+	/**
+	 * Returns the meta object for the attribute '{@link org.bimserver.models.store.ServerSettings#getCacheOutputFilesMaxMb <em>Cache Output Files Max Mb</em>}'.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @return the meta object for the attribute '<em>Cache Output Files Max Mb</em>'.
+	 * @see org.bimserver.models.store.ServerSettings#getCacheOutputFilesMaxMb()
+	 * @see #getServerSettings()
+	 * @generated
+	 */
+	EAttribute getServerSettings_CacheOutputFilesMaxMb();
+
+	/**
+	 * Returns the meta object for the attribute '{@link org.bimserver.models.store.ServerSettings#isCompressCachedOutputFiles <em>Compress Cached Output Files</em>}'.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @return the meta object for the attribute '<em>Compress Cached Output Files</em>'.
+	 * @see org.bimserver.models.store.ServerSettings#isCompressCachedOutputFiles()
+	 * @see #getServerSettings()
+	 * @generated
+	 */
+	EAttribute getServerSettings_CompressCachedOutputFiles();
+
+	/**
+	 * Returns the meta object for the attribute '{@link org.bimserver.models.store.ServerSettings#isCacheCompareResults <em>Cache Compare Results</em>}'.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @return the meta object for the attribute '<em>Cache Compare Results</em>'.
+	 * @see org.bimserver.models.store.ServerSettings#isCacheCompareResults()
+	 * @see #getServerSettings()
+	 * @generated
+	 */
+	EAttribute getServerSettings_CacheCompareResults();
+
+	/**
+	 * Returns the meta object for the attribute '{@link org.bimserver.models.store.ServerSettings#getProgressUpdateIntervalMs <em>Progress Update Interval Ms</em>}'.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @return the meta object for the attribute '<em>Progress Update Interval Ms</em>'.
+	 * @see org.bimserver.models.store.ServerSettings#getProgressUpdateIntervalMs()
+	 * @see #getServerSettings()
+	 * @generated
+	 */
+	EAttribute getServerSettings_ProgressUpdateIntervalMs();
+
+	/**
+	 * Returns the meta object for the attribute '{@link org.bimserver.models.store.ServerSettings#isIfcIndexes <em>Ifc Indexes</em>}'.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @return the meta object for the attribute '<em>Ifc Indexes</em>'.
+	 * @see org.bimserver.models.store.ServerSettings#isIfcIndexes()
+	 * @see #getServerSettings()
+	 * @generated
+	 */
+	EAttribute getServerSettings_IfcIndexes();
+
 	/**
 	 * Returns the meta object for class '{@link org.bimserver.models.store.UserSettings <em>User Settings</em>}'.
 	 * <!-- begin-user-doc -->
@@ -13617,6 +13797,78 @@ public interface StorePackage extends EPackage {
 		 */
 		EAttribute SERVER_SETTINGS__RENDER_ENGINE_PROCESSES = eINSTANCE.getServerSettings_RenderEngineProcesses();
 
+		/**
+		 * The meta object literal for the '<em><b>Database Scan Threads</b></em>' attribute feature.
+		 * <!-- begin-user-doc -->
+		 * <!-- end-user-doc -->
+		 * @generated
+		 */
+		EAttribute SERVER_SETTINGS__DATABASE_SCAN_THREADS = eINSTANCE.getServerSettings_DatabaseScanThreads();
+
+		/**
+		 * The meta object literal for the '<em><b>Incremental Geometry</b></em>' attribute feature.
+		 * <!-- begin-user-doc -->
+		 * <!-- end-user-doc -->
+		 * @generated
+		 */
+		EAttribute SERVER_SETTINGS__INCREMENTAL_GEOMETRY = eINSTANCE.getServerSettings_IncrementalGeometry();
+
+		/**
+		 * The meta object literal for the '<em><b>Delta Checkins</b></em>' attribute feature.
+		 * <!-- begin-user-doc -->
+		 * <!-- end-user-doc -->
+		 * @generated
+		 */
+		EAttribute SERVER_SETTINGS__DELTA_CHECKINS = eINSTANCE.getServerSettings_DeltaCheckins();
+
+		/**
+		 * The meta object literal for the '<em><b>Long Action Heap Percentage</b></em>' attribute feature.
+		 * <!-- begin-user-doc -->
+		 * <!-- end-user-doc -->
+		 * @generated
+		 */
+		EAttribute SERVER_SETTINGS__LONG_ACTION_HEAP_PERCENTAGE = eINSTANCE.getServerSettings_LongActionHeapPercentage();
+
+		/**
+		 * The meta object literal for the '<em><b>Cache Output Files Max Mb</b></em>' attribute feature.
+		 * <!-- begin-user-doc -->
+		 * <!-- end-user-doc -->
+		 * @generated
+		 */
+		EAttribute SERVER_SETTINGS__CACHE_OUTPUT_FILES_MAX_MB = eINSTANCE.getServerSettings_CacheOutputFilesMaxMb();
+
+		/**
+		 * The meta object literal for the '<em><b>Compress Cached Output Files</b></em>' attribute feature.
+		 * <!-- begin-user-doc -->
+		 * <!-- end-user-doc -->
+		 * @generated
+		 */
+		EAttribute SERVER_SETTINGS__COMPRESS_CACHED_OUTPUT_FILES = eINSTANCE.getServerSettings_CompressCachedOutputFiles();
+
+		/**
+		 * The meta object literal for the '<em><b>Cache Compare Results</b></em>' attribute feature.
+		 * <!-- begin-user-doc -->
+		 * <!-- end-user-doc -->
+		 * @generated
+		 */
+		EAttribute SERVER_SETTINGS__CACHE_COMPARE_RESULTS = eINSTANCE.getServerSettings_CacheCompareResults();
+
+		/**
+		 * The meta object literal for the '<em><b>Progress Update Interval Ms</b></em>' attribute feature.
+		 * <!-- begin-user-doc -->
+		 * <!-- end-user-doc -->
+		 * @generated
+		 */
+		EAttribute SERVER_SETTINGS__PROGRESS_UPDATE_INTERVAL_MS = eINSTANCE.getServerSettings_ProgressUpdateIntervalMs();
+
+		/**
+		 * The meta object literal for the '<em><b>Ifc Indexes</b></em>' attribute feature.
+		 * <!-- begin-user-doc -->
+		 * <!-- end-user-doc -->
+		 * @generated
+		 */
+		EAttribute SERVER_SETTINGS__IFC_INDEXES = eINSTANCE.getServerSettings_IfcIndexes();
+
 		/**
 		 * The meta object literal for the '{@link org.bimserver.models.store.impl.UserSettingsImpl <em>User Settings</em>}' class.
 		 * <!-- begin-user-doc -->
@@ -57,6 +57,15 @@ import org.eclipse.emf.ecore.EClass;
  *   <li>{@link org.bimserver.models.store.impl.ServerSettingsImpl#isReuseGeometry <em>Reuse Geometry</em>}</li>
  *   <li>{@link org.bimserver.models.store.impl.ServerSettingsImpl#isAllowCreateValidatedUser <em>Allow Create Validated User</em>}</li>
  *   <li>{@link org.bimserver.models.store.impl.ServerSettingsImpl#getRenderEngineProcesses <em>Render Engine Processes</em>}</li>
+ *   <li>{@link org.bimserver.models.store.impl.ServerSettingsImpl#getDatabaseScanThreads <em>Database Scan Threads</em>}</li>
+ *   <li>{@link org.bimserver.models.store.impl.ServerSettingsImpl#isIncrementalGeometry <em>Incremental Geometry</em>}</li>
+ *   <li>{@link org.bimserver.models.store.impl.ServerSettingsImpl#isDeltaCheckins <em>Delta Checkins</em>}</li>
+ *   <li>{@link org.bimserver.models.store.impl.ServerSettingsImpl#getLongActionHeapPercentage <em>Long Action Heap Percentage</em>}</li>
+ *   <li>{@link org.bimserver.models.store.impl.ServerSettingsImpl#getCacheOutputFilesMaxMb <em>Cache Output Files Max Mb</em>}</li>
+ *   <li>{@link org.bimserver.models.store.impl.ServerSettingsImpl#isCompressCachedOutputFiles <em>Compress Cached Output Files</em>}</li>
+ *   <li>{@link org.bimserver.models.store.impl.ServerSettingsImpl#isCacheCompareResults <em>Cache Compare Results</em>}</li>
+ *   <li>{@link org.bimserver.models.store.impl.ServerSettingsImpl#getProgressUpdateIntervalMs <em>Progress Update Interval Ms</em>}</li>
+ *   <li>{@link org.bimserver.models.store.impl.ServerSettingsImpl#isIfcIndexes <em>Ifc Indexes</em>}</li>
  * </ul>
  * </p>
  *
@@ -544,4 +553,166 @@ public class ServerSettingsImpl extends IdEObjectImpl implements ServerSettings
 		eSet(StorePackage.Literals.SERVER_SETTINGS__RENDER_ENGINE_PROCESSES, newRenderEngineProcesses);
 	}
 
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	public int getDatabaseScanThreads() {
+		return (Integer) eGet(StorePackage.Literals.SERVER_SETTINGS__DATABASE_SCAN_THREADS, true);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	public void setDatabaseScanThreads(int newDatabaseScanThreads) {
+		eSet(StorePackage.Literals.SERVER_SETTINGS__DATABASE_SCAN_THREADS, newDatabaseScanThreads);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	public boolean isIncrementalGeometry() {
+		return (Boolean) eGet(StorePackage.Literals.SERVER_SETTINGS__INCREMENTAL_GEOMETRY, true);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	public void setIncrementalGeometry(boolean newIncrementalGeometry) {
+		eSet(StorePackage.Literals.SERVER_SETTINGS__INCREMENTAL_GEOMETRY, newIncrementalGeometry);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	public boolean isDeltaCheckins() {
+		return (Boolean) eGet(StorePackage.Literals.SERVER_SETTINGS__DELTA_CHECKINS, true);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	public void setDeltaCheckins(boolean newDeltaCheckins) {
+		eSet(StorePackage.Literals.SERVER_SETTINGS__DELTA_CHECKINS, newDeltaCheckins);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	public int getLongActionHeapPercentage() {
+		return (Integer) eGet(StorePackage.Literals.SERVER_SETTINGS__LONG_ACTION_HEAP_PERCENTAGE, true);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	public void setLongActionHeapPercentage(int newLongActionHeapPercentage) {
+		eSet(StorePackage.Literals.SERVER_SETTINGS__LONG_ACTION_HEAP_PERCENTAGE, newLongActionHeapPercentage);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	public int getCacheOutputFilesMaxMb() {
+		return (Integer) eGet(StorePackage.Literals.SERVER_SETTINGS__CACHE_OUTPUT_FILES_MAX_MB, true);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	public void setCacheOutputFilesMaxMb(int newCacheOutputFilesMaxMb) {
+		eSet(StorePackage.Literals.SERVER_SETTINGS__CACHE_OUTPUT_FILES_MAX_MB, newCacheOutputFilesMaxMb);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	public boolean isCompressCachedOutputFiles() {
+		return (Boolean) eGet(StorePackage.Literals.SERVER_SETTINGS__COMPRESS_CACHED_OUTPUT_FILES, true);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	public void setCompressCachedOutputFiles(boolean newCompressCachedOutputFiles) {
+		eSet(StorePackage.Literals.SERVER_SETTINGS__COMPRESS_CACHED_OUTPUT_FILES, newCompressCachedOutputFiles);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	public boolean isCacheCompareResults() {
+		return (Boolean) eGet(StorePackage.Literals.SERVER_SETTINGS__CACHE_COMPARE_RESULTS, true);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	public void setCacheCompareResults(boolean newCacheCompareResults) {
+		eSet(StorePackage.Literals.SERVER_SETTINGS__CACHE_COMPARE_RESULTS, newCacheCompareResults);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	public int getProgressUpdateIntervalMs() {
+		return (Integer) eGet(StorePackage.Literals.SERVER_SETTINGS__PROGRESS_UPDATE_INTERVAL_MS, true);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	public void setProgressUpdateIntervalMs(int newProgressUpdateIntervalMs) {
+		eSet(StorePackage.Literals.SERVER_SETTINGS__PROGRESS_UPDATE_INTERVAL_MS, newProgressUpdateIntervalMs);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	public boolean isIfcIndexes() {
+		return (Boolean) eGet(StorePackage.Literals.SERVER_SETTINGS__IFC_INDEXES, true);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	public void setIfcIndexes(boolean newIfcIndexes) {
+		eSet(StorePackage.Literals.SERVER_SETTINGS__IFC_INDEXES, newIfcIndexes);
+	}
+
 } //ServerSettingsImpl
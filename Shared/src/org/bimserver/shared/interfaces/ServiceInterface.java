@@ -65,7 +65,7 @@ public interface ServiceInterface extends PublicInterface {
 	 * @param fileSize The size of the file in bytes
 	 * @param file The actual file
 	 * @param merge Whether to use checkin merging (this will alter your model!)
-	 * @param sync Whether the call should return immediately (async) or wait for completion (sync)
+	 * @param sync Whether the call should return immediately (async) or wait for completion (sync), the file is only read once the checkin runs. A file that cannot be read is reported as an error of the checkin when async, and thrown as a UserException when sync
 	 * @return An id, which you can use for the getCheckinState method
 	 * @throws ServerException, UserException
 	 */
@@ -88,7 +88,7 @@ public interface ServiceInterface extends PublicInterface {
 	 * @param deserializerOid ObjectId of the deserializer to use, use getAllDeserializers to get a list of available deserializers
 	 * @param url A URL to the file
 	 * @param merge Whether to use checkin merging (this will alter your model!)
-	 * @param sync Whether the call should return immediately (async) or wait for completion (sync)
+	 * @param sync Whether the call should return immediately (async) or wait for completion (sync), the file is only read once the checkin runs. A file that cannot be read is reported as an error of the checkin when async, and thrown as a UserException when sync
 	 * @return An id, which you can use for the getCheckinState method
 	 * @throws ServerException, UserException
 	 */
@@ -54,7 +54,7 @@ public interface Bimsie1ServiceInterface extends PublicInterface {
 	 * @param deserializerOid ObjectId of the deserializer to use, use getAllDeserializers to get a list of available deserializers
 	 * @param fileSize The size of the file in bytes
 	 * @param ifcFile The actual file
-	 * @param sync Whether the call should return immediately (async) or wait for completion (sync)
+	 * @param sync Whether the call should return immediately (async) or wait for completion (sync), the file is only read once the checkin runs. A file that cannot be read is reported as an error of the checkin when async, and thrown as a UserException when sync
 	 * @return A topicId, which you can use for the Bimsie1NotificationRegistryInterface.getProgress method
 	 * @throws ServerException, UserException
 	 */
@@ -75,7 +75,7 @@ public interface Bimsie1ServiceInterface extends PublicInterface {
 	 * @param comment A comment
 	 * @param deserializerOid ObjectId of the deserializer to use, use getAllDeserializers to get a list of available deserializers
 	 * @param url A URL to the file
-	 * @param sync Whether the call should return immediately (async) or wait for completion (sync)
+	 * @param sync Whether the call should return immediately (async) or wait for completion (sync), the file is only read once the checkin runs. A file that cannot be read is reported as an error of the checkin when async, and thrown as a UserException when sync
 	 * @return A topicId, which you can use for the Bimsie1NotificationRegistryInterface.getProgress method
 	 * @throws ServerException, UserException
 	 */
@@ -33,7 +33,7 @@ import javax.mail.util.ByteArrayDataSource;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.IOUtils;
-import org.bimserver.plugins.serializers.CacheStoringEmfSerializerDataSource;
+import org.bimserver.plugins.serializers.EmfSerializerDataSource;
 import org.bimserver.plugins.serializers.SerializerException;
 import org.bimserver.shared.meta.SBase;
 import org.bimserver.shared.meta.SClass;
@@ -79,9 +79,9 @@ public class JsonConverter {
 		} else if (object instanceof DataHandler) {
 			DataHandler dataHandler = (DataHandler) object;
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			if (dataHandler.getDataSource() instanceof CacheStoringEmfSerializerDataSource) {
-				CacheStoringEmfSerializerDataSource cacheStoringEmfSerializerDataSource = (CacheStoringEmfSerializerDataSource) dataHandler.getDataSource();
-				cacheStoringEmfSerializerDataSource.writeToOutputStream(baos, null);
+			if (dataHandler.getDataSource() instanceof EmfSerializerDataSource) {
+				EmfSerializerDataSource emfSerializerDataSource = (EmfSerializerDataSource) dataHandler.getDataSource();
+				emfSerializerDataSource.writeToOutputStream(baos, null);
 				out.value(new String(Base64.encodeBase64(baos.toByteArray()), Charsets.UTF_8));
 			} else {
 				InputStream inputStream = dataHandler.getInputStream();
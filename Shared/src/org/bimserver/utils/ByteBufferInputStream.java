@@ -0,0 +1,75 @@
+package org.bimserver.utils;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the remaining bytes of a ByteBuffer, use ByteBuffer.duplicate() to let multiple streams read the same buffer
+ */
+public class ByteBufferInputStream extends InputStream {
+
+	private final ByteBuffer buffer;
+
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	@Override
+	public int read() {
+		if (!buffer.hasRemaining()) {
+			return -1;
+		}
+		return buffer.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		if (!buffer.hasRemaining()) {
+			return -1;
+		}
+		int read = Math.min(len, buffer.remaining());
+		buffer.get(b, off, read);
+		return read;
+	}
+
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		buffer.mark();
+	}
+
+	@Override
+	public synchronized void reset() {
+		buffer.reset();
+	}
+}
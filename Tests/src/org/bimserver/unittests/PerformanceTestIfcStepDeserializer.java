@@ -0,0 +1,75 @@
+package org.bimserver.unittests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Paths;
+
+import org.bimserver.LocalDevPluginLoader;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.emf.MetaDataManager;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.emf.Schema;
+import org.bimserver.plugins.PluginConfiguration;
+import org.bimserver.plugins.PluginException;
+import org.bimserver.plugins.PluginManager;
+import org.bimserver.plugins.deserializers.DeserializeException;
+import org.bimserver.plugins.deserializers.Deserializer;
+import org.bimserver.plugins.deserializers.DeserializerPlugin;
+import org.bimserver.tests.TestFile;
+import org.junit.Test;
+
+public class PerformanceTestIfcStepDeserializer {
+	private static final int RUNS = 5;
+
+	@Test
+	public void performanceTest() {
+		try {
+			PluginManager pluginManager = LocalDevPluginLoader.createPluginManager(Paths.get("home"));
+			DeserializerPlugin deserializerPlugin = pluginManager.getFirstDeserializer("ifc", Schema.IFC2X3TC1, true);
+			MetaDataManager metaDataManager = new MetaDataManager(pluginManager);
+			PackageMetaData packageMetaData = metaDataManager.getPackageMetaData("ifc2x3tc1");
+
+			for (TestFile testFile : new TestFile[] { TestFile.AC11, TestFile.JASMIN, TestFile.ADTHAUS }) {
+				long fileSize = testFile.getFile().toFile().length();
+				long best = Long.MAX_VALUE;
+				long size = 0;
+				// The first runs also warm up the JIT
+				for (int i = 0; i < RUNS; i++) {
+					Deserializer deserializer = deserializerPlugin.createDeserializer(new PluginConfiguration());
+					deserializer.init(packageMetaData);
+					long start = System.nanoTime();
+					IfcModelInterface model = deserializer.read(testFile.getFile());
+					best = Math.min(best, System.nanoTime() - start);
+					size = model.size();
+					assertTrue(model.getModelMetaData().getChecksum() != null);
+				}
+				System.out.println(testFile.getFile().getFileName() + ": " + size + " objects, best of " + RUNS + " runs " + (best / 1000000) + "ms, " + String.format("%.1f", (fileSize / 1048576.0) / (best / 1000000000.0)) + " MB/s");
+			}
+		} catch (PluginException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		} catch (DeserializeException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,124 @@
+package org.bimserver.unittests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.bimserver.database.ObjectCache;
+import org.bimserver.emf.IdEObjectImpl;
+import org.bimserver.emf.IdEObjectImpl.State;
+import org.junit.Test;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+
+/*
+ * Compares the ObjectCache with the HashBiMap based implementation it replaced, using oids that look like real oids (counter in the high bits, cid in the low 16 bits)
+ */
+public class PerformanceTestObjectCache {
+	private static final int NR_OBJECTS = 2000000;
+	private static final int RUNS = 5;
+
+	@Test
+	public void performanceTest() {
+		IdEObjectImpl[] objects = createObjects();
+		for (int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			BiMap<Long, IdEObjectImpl> biMap = HashBiMap.create();
+			for (IdEObjectImpl object : objects) {
+				if (!biMap.containsValue(object)) {
+					biMap.put(object.getOid(), object);
+				}
+			}
+			for (IdEObjectImpl object : objects) {
+				assertSame(object, biMap.get(object.getOid()));
+			}
+			long biMapTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			ObjectCache objectCache = new ObjectCache();
+			for (IdEObjectImpl object : objects) {
+				objectCache.put(object.getOid(), object);
+			}
+			for (IdEObjectImpl object : objects) {
+				assertSame(object, objectCache.get(object.getOid()));
+			}
+			long objectCacheTime = System.nanoTime() - start;
+			System.out.println("Run " + run + ", HashBiMap: " + (biMapTime / 1000000) + "ms, ObjectCache: " + (objectCacheTime / 1000000) + "ms");
+		}
+	}
+
+	@Test
+	public void testBoundedCache() {
+		IdEObjectImpl[] objects = createObjects();
+		ObjectCache objectCache = new ObjectCache(10000);
+		for (IdEObjectImpl object : objects) {
+			objectCache.put(object.getOid(), object);
+			assertTrue(objectCache.size() <= 10000);
+		}
+		assertEquals(NR_OBJECTS - objectCache.size(), objectCache.getEvictions());
+		for (IdEObjectImpl object : objects) {
+			if (objectCache.contains(object)) {
+				assertEquals(object.getOid(), objectCache.get(object));
+			}
+		}
+	}
+
+	/*
+	 * Objects that are not loaded yet cannot be evicted, the cache grows beyond its maximum without scanning the table on every put, and evicts again
+	 * once objects have been loaded
+	 */
+	@Test
+	public void testUnloadedObjects() {
+		IdEObjectImpl[] objects = createObjects();
+		ObjectCache objectCache = new ObjectCache(10000);
+		for (IdEObjectImpl object : objects) {
+			object.setLoadingState(State.TO_BE_LOADED);
+			objectCache.put(object.getOid(), object);
+		}
+		assertEquals(NR_OBJECTS, objectCache.size());
+		assertEquals(0, objectCache.getEvictions());
+
+		for (IdEObjectImpl object : objects) {
+			object.setLoaded();
+		}
+		// The next eviction pass starts when the cache has grown by a quarter
+		long oid = (long) NR_OBJECTS << 16;
+		while (objectCache.getEvictions() == 0) {
+			IdEObjectImpl object = new IdEObjectImpl();
+			oid += 1 << 16;
+			object.setOid(oid);
+			object.setLoaded();
+			objectCache.put(oid, object);
+		}
+		assertTrue(objectCache.size() <= 10000);
+	}
+
+	private IdEObjectImpl[] createObjects() {
+		IdEObjectImpl[] objects = new IdEObjectImpl[NR_OBJECTS];
+		for (int i = 0; i < NR_OBJECTS; i++) {
+			IdEObjectImpl object = new IdEObjectImpl();
+			object.setOid(((long) i << 16) + (i % 700));
+			object.setLoaded();
+			objects[i] = object;
+		}
+		return objects;
+	}
+}
@@ -0,0 +1,103 @@
+package org.bimserver.unittests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.bimserver.database.BimserverDatabaseException;
+import org.bimserver.database.actions.CheckinDatabaseAction;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.models.log.AccessMethod;
+import org.bimserver.plugins.deserializers.ByteProgressReporter;
+import org.bimserver.plugins.deserializers.DeserializeException;
+import org.bimserver.plugins.deserializers.Deserializer;
+import org.bimserver.shared.exceptions.UserException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * The service call only stores the uploaded file, the checkin reads it when it runs. A file that cannot be read has to fail the checkin and be kept for
+ * ServiceImpl, which throws it to callers that waited for the checkin (sync), async callers find it in the errors of the checkin.
+ */
+public class TestCheckinReadError {
+
+	private Path file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = Files.createTempFile("checkin", ".ifc");
+		Files.write(file, "ISO-10303-21;".getBytes());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.delete(file);
+	}
+
+	@Test
+	public void testReadErrorFailsCheckin() throws IOException, BimserverDatabaseException {
+		CheckinDatabaseAction checkinDatabaseAction = new CheckinDatabaseAction(null, null, AccessMethod.INTERNAL, 1, null, new FailingDeserializer(), file, "comment", "test.ifc", false);
+		assertNull(checkinDatabaseAction.getReadError());
+		try {
+			checkinDatabaseAction.execute();
+			fail("Checkin of an unreadable file succeeded");
+		} catch (UserException e) {
+			assertSame(e, checkinDatabaseAction.getReadError());
+			assertTrue(e.getMessage().contains("test.ifc"));
+			assertTrue(e.getMessage().contains("Unexpected end of file"));
+			assertNotNull(e.getCause());
+		}
+	}
+
+	private static class FailingDeserializer implements Deserializer {
+		@Override
+		public void init(PackageMetaData packageMetaData) {
+		}
+
+		@Override
+		public IfcModelInterface read(Path file, ByteProgressReporter progressReporter) throws DeserializeException {
+			throw new DeserializeException("Unexpected end of file");
+		}
+
+		@Override
+		public IfcModelInterface read(InputStream inputStream, String fileName, long fileSize, ByteProgressReporter progressReporter) throws DeserializeException {
+			throw new DeserializeException("Unexpected end of file");
+		}
+
+		@Override
+		public IfcModelInterface read(Path file) throws DeserializeException {
+			return read(file, null);
+		}
+
+		@Override
+		public IfcModelInterface read(InputStream inputStream, String fileName, long fileSize) throws DeserializeException {
+			return read(inputStream, fileName, fileSize, null);
+		}
+	}
+}
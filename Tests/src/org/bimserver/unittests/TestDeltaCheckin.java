@@ -0,0 +1,137 @@
+package org.bimserver.unittests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
+
+import org.bimserver.BimServer;
+import org.bimserver.BimServerConfig;
+import org.bimserver.LocalDevPluginLoader;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.actions.DownloadDatabaseAction;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.interfaces.objects.SDeserializerPluginConfiguration;
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.interfaces.objects.SServerSettings;
+import org.bimserver.models.ifc2x3tc1.IfcRoot;
+import org.bimserver.models.log.AccessMethod;
+import org.bimserver.models.store.ServerState;
+import org.bimserver.shared.LocalDevelopmentResourceFetcher;
+import org.bimserver.shared.interfaces.AdminInterface;
+import org.bimserver.shared.interfaces.ServiceInterface;
+import org.bimserver.shared.interfaces.SettingsInterface;
+import org.bimserver.shared.interfaces.bimsie1.Bimsie1AuthInterface;
+import org.bimserver.shared.interfaces.bimsie1.Bimsie1ServiceInterface;
+import org.bimserver.tests.TestFile;
+import org.bimserver.webservices.ServiceMap;
+import org.bimserver.webservices.impl.ServiceImpl;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/*
+ * With the deltaCheckins setting a second checkin of the same file only stores the objects that changed, everything else has to be
+ * found in the older records
+ */
+public class TestDeltaCheckin {
+
+	private static BimServer bimServer;
+	private static ServiceMap serviceMap;
+
+	@BeforeClass
+	public static void initClass() {
+		try {
+			BimServerConfig config = new BimServerConfig();
+			config.setHomeDir(Paths.get("home"));
+			config.setResourceFetcher(new LocalDevelopmentResourceFetcher(Paths.get("../")));
+			bimServer = new BimServer(config);
+			LocalDevPluginLoader.loadPlugins(bimServer.getPluginManager(), null);
+			bimServer.start();
+			if (bimServer.getServerInfo().getServerState() == ServerState.NOT_SETUP) {
+				bimServer.getService(AdminInterface.class).setup("http://localhost", "localhost", "no-reply@bimserver.org", "Administrator", "admin@bimserver.org", "admin");
+			}
+			String token = bimServer.getServiceFactory().get(AccessMethod.INTERNAL).get(Bimsie1AuthInterface.class).login("admin@bimserver.org", "admin");
+			serviceMap = bimServer.getServiceFactory().get(token, AccessMethod.INTERNAL);
+			SettingsInterface settingsInterface = serviceMap.get(SettingsInterface.class);
+			SServerSettings serverSettings = settingsInterface.getServerSettings();
+			serverSettings.setDeltaCheckins(true);
+			settingsInterface.setServerSettings(serverSettings);
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+
+	@AfterClass
+	public static void shutdownClass() {
+		bimServer.stop();
+	}
+
+	@Test
+	public void testDownloadAndGuidLookup() {
+		try {
+			Bimsie1ServiceInterface bimsie1ServiceInterface = serviceMap.getBimsie1ServiceInterface();
+			SProject project = bimsie1ServiceInterface.addProject("delta " + new Random().nextInt(), "ifc2x3tc1");
+			long roid1 = checkin(bimsie1ServiceInterface, project.getOid());
+			long roid2 = checkin(bimsie1ServiceInterface, project.getOid());
+
+			IfcModelInterface model1 = download(roid1);
+			IfcModelInterface model2 = download(roid2);
+			assertFalse(model1.getAllWithSubTypes(IfcRoot.class).isEmpty());
+			assertEquals(model1.size(), model2.size());
+			assertEquals(model1.getAllWithSubTypes(IfcRoot.class).size(), model2.getAllWithSubTypes(IfcRoot.class).size());
+
+			// Nothing changed, so every object of the second revision still has the record of the first one
+			ServiceInterface serviceInterface = serviceMap.get(ServiceInterface.class);
+			for (IfcRoot ifcRoot : model2.getAllWithSubTypes(IfcRoot.class)) {
+				assertEquals(ifcRoot.getOid(), (long) serviceInterface.getOidByGuid(roid2, ifcRoot.getGlobalId()));
+				assertEquals(ifcRoot.getOid(), (long) serviceInterface.getOidByGuid(roid1, ifcRoot.getGlobalId()));
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+
+	private long checkin(Bimsie1ServiceInterface bimsie1ServiceInterface, long poid) throws Exception {
+		Path sourceFile = TestFile.AC11.getFile();
+		SDeserializerPluginConfiguration deserializer = bimsie1ServiceInterface.getSuggestedDeserializerForExtension("ifc", poid);
+		bimsie1ServiceInterface.checkin(poid, "delta", deserializer.getOid(), Files.size(sourceFile), sourceFile.getFileName().toString(), new DataHandler(new FileDataSource(sourceFile.toFile())), true);
+		return bimsie1ServiceInterface.getProjectByPoid(poid).getLastRevisionId();
+	}
+
+	private IfcModelInterface download(long roid) throws Exception {
+		DatabaseSession session = bimServer.getDatabase().createSession();
+		try {
+			ServiceImpl service = (ServiceImpl) serviceMap.get(ServiceInterface.class);
+			return new DownloadDatabaseAction(bimServer, session, AccessMethod.INTERNAL, roid, -1, -1, service.getAuthorization(), null).execute();
+		} finally {
+			session.close();
+		}
+	}
+}
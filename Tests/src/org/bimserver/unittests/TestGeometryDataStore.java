@@ -0,0 +1,174 @@
+package org.bimserver.unittests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+import org.bimserver.database.BimserverDatabaseException;
+import org.bimserver.database.GeometryDataStore;
+import org.bimserver.database.berkeley.BerkeleyKeyValueStore;
+import org.bimserver.database.berkeley.DatabaseInitException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Follows the references of two revisions of one project to the same geometry through checkins, regeneration and release
+ */
+public class TestGeometryDataStore {
+	private static final String RECORD_TABLE = "geometry_GeometryData";
+	private static final int PID = 1;
+	private static final byte[] HASH = new byte[32];
+
+	private Path dataDir;
+	private BerkeleyKeyValueStore keyValueStore;
+	private GeometryDataStore geometryDataStore;
+
+	@Before
+	public void setUp() throws IOException, DatabaseInitException, BimserverDatabaseException {
+		dataDir = Files.createTempDirectory("geometrydatastore");
+		keyValueStore = new BerkeleyKeyValueStore(dataDir.resolve("database"));
+		keyValueStore.createTable(GeometryDataStore.GEOMETRY_DATA_TABLE, null);
+		keyValueStore.createTable(RECORD_TABLE, null);
+		geometryDataStore = new GeometryDataStore(keyValueStore);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		keyValueStore.close();
+		FileUtils.deleteDirectory(dataDir.toFile());
+	}
+
+	@Test
+	public void testRegenerateSharedRevision() throws BimserverDatabaseException {
+		checkin(10, 1);
+		assertEquals(10, geometryDataStore.reference(PID, HASH, 20, 2, 100, null));
+		assertEquals(2, geometryDataStore.get(PID, HASH, null).getReferences());
+
+		// Regenerating revision 1 releases its reference, revision 2 still needs the record
+		assertFalse(geometryDataStore.release(PID, HASH, 10, 1, null));
+		assertNotNull(record(10, 1));
+		assertEquals(10, geometryDataStore.reference(PID, HASH, 30, 1, 100, null));
+		assertEquals(2, geometryDataStore.get(PID, HASH, null).getReferences());
+
+		assertFalse(geometryDataStore.release(PID, HASH, 10, 1, null));
+		assertTrue(geometryDataStore.release(PID, HASH, 10, 1, null));
+		assertNull(geometryDataStore.get(PID, HASH, null));
+		assertNull(record(10, 1));
+	}
+
+	@Test
+	public void testRegenerateOlderRevision() throws BimserverDatabaseException {
+		// Revision 1 has been stored while geometry was not reused, so it owns its record
+		store(10, 1);
+		checkin(20, 2);
+
+		assertTrue(geometryDataStore.release(PID, HASH, 10, 1, null));
+		assertNull(record(10, 1));
+		assertEquals(1, geometryDataStore.get(PID, HASH, null).getReferences());
+
+		// Revision 1 cannot see the record of revision 2, so it keeps its new record without taking a reference
+		assertEquals(30, geometryDataStore.reference(PID, HASH, 30, 1, 100, null));
+		store(30, 1);
+		assertEquals(1, geometryDataStore.get(PID, HASH, null).getReferences());
+
+		assertTrue(geometryDataStore.release(PID, HASH, 30, 1, null));
+		assertNull(record(30, 1));
+		assertEquals(1, geometryDataStore.get(PID, HASH, null).getReferences());
+		assertNotNull(record(20, 2));
+
+		assertTrue(geometryDataStore.release(PID, HASH, 20, 2, null));
+		assertNull(geometryDataStore.get(PID, HASH, null));
+		assertNull(record(20, 2));
+	}
+
+	@Test
+	public void testRegenerateWhileNewerRevisionShares() throws BimserverDatabaseException {
+		// Incremental generation of revision 2 copied the geometry of revision 1
+		checkin(10, 1);
+		assertTrue(geometryDataStore.share(PID, HASH, 10, 1, 2, 100, null));
+		assertEquals(2, geometryDataStore.get(PID, HASH, null).getReferences());
+
+		// Regenerating revision 1 releases its reference, revision 2 still needs the record
+		assertFalse(geometryDataStore.release(PID, HASH, 10, 1, null));
+		assertNotNull(record(10, 1));
+		assertEquals(10, geometryDataStore.reference(PID, HASH, 30, 1, 100, null));
+
+		// Regenerating revision 2 releases the shared reference, revision 1 still refers to the record
+		assertFalse(geometryDataStore.releaseShared(PID, HASH, 10, null));
+		assertEquals(1, geometryDataStore.get(PID, HASH, null).getReferences());
+		assertNotNull(record(10, 1));
+	}
+
+	@Test
+	public void testShareUnindexedRecord() throws BimserverDatabaseException {
+		// Revision 1 has been stored while geometry was not reused, sharing it adds it to the index for both revisions
+		store(10, 1);
+		assertTrue(geometryDataStore.share(PID, HASH, 10, 1, 2, 100, null));
+		assertEquals(2, geometryDataStore.get(PID, HASH, null).getReferences());
+		assertEquals(1, geometryDataStore.get(PID, HASH, null).getRid());
+
+		assertFalse(geometryDataStore.release(PID, HASH, 10, 1, null));
+		assertNotNull(record(10, 1));
+		assertTrue(geometryDataStore.releaseShared(PID, HASH, 10, null));
+		assertNull(geometryDataStore.get(PID, HASH, null));
+		assertNull(record(10, 1));
+	}
+
+	@Test
+	public void testShareOwnedRecord() throws BimserverDatabaseException {
+		// Another record is indexed for the same geometry, the record of revision 1 cannot be shared and is not released by revision 3
+		store(10, 1);
+		checkin(20, 2);
+		assertFalse(geometryDataStore.share(PID, HASH, 10, 1, 3, 100, null));
+		assertFalse(geometryDataStore.releaseShared(PID, HASH, 10, null));
+		assertNotNull(record(10, 1));
+		assertEquals(1, geometryDataStore.get(PID, HASH, null).getReferences());
+	}
+
+	private void checkin(long oid, int rid) throws BimserverDatabaseException {
+		assertEquals(oid, geometryDataStore.reference(PID, HASH, oid, rid, 100, null));
+		store(oid, rid);
+	}
+
+	private void store(long oid, int rid) throws BimserverDatabaseException {
+		keyValueStore.store(RECORD_TABLE, recordKey(oid, rid), new byte[] { 1, 2, 3 }, null);
+	}
+
+	private byte[] record(long oid, int rid) throws BimserverDatabaseException {
+		return keyValueStore.get(RECORD_TABLE, recordKey(oid, rid), null);
+	}
+
+	private byte[] recordKey(long oid, int rid) {
+		ByteBuffer key = ByteBuffer.allocate(16);
+		key.putInt(PID);
+		key.putLong(oid);
+		key.putInt(-rid);
+		return key.array();
+	}
+}
@@ -0,0 +1,87 @@
+package org.bimserver.unittests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.bimserver.GeometryFingerprint;
+import org.bimserver.LocalDevPluginLoader;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.emf.MetaDataManager;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.emf.Schema;
+import org.bimserver.ifc.step.deserializer.Ifc2x3tc1StepDeserializer;
+import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Factory;
+import org.bimserver.models.ifc2x3tc1.IfcMaterial;
+import org.bimserver.models.ifc2x3tc1.IfcMaterialSelect;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcRelAssociatesMaterial;
+import org.bimserver.models.ifc2x3tc1.IfcRoot;
+import org.bimserver.tests.TestFile;
+import org.junit.Test;
+
+public class TestGeometryFingerprint {
+
+	@Test
+	public void testMaterial() {
+		try {
+			MetaDataManager metaDataManager = new MetaDataManager(LocalDevPluginLoader.createPluginManager(Paths.get("home")));
+			metaDataManager.init();
+			PackageMetaData packageMetaData = metaDataManager.getPackageMetaData("ifc2x3tc1");
+			Ifc2x3tc1StepDeserializer deserializer = new Ifc2x3tc1StepDeserializer(Schema.IFC2X3TC1);
+			deserializer.init(packageMetaData);
+			IfcModelInterface model = deserializer.read(TestFile.REVIT_QUANTITIES.getFile());
+			GeometryFingerprint geometryFingerprint = new GeometryFingerprint(packageMetaData);
+
+			IfcRelAssociatesMaterial relAssociatesMaterial = null;
+			IfcProduct product = null;
+			for (IfcRelAssociatesMaterial candidate : model.getAll(IfcRelAssociatesMaterial.class)) {
+				for (IfcRoot relatedObject : candidate.getRelatedObjects()) {
+					if (relatedObject instanceof IfcProduct && ((IfcProduct) relatedObject).getRepresentation() != null) {
+						relAssociatesMaterial = candidate;
+						product = (IfcProduct) relatedObject;
+					}
+				}
+			}
+			assertNotNull(product);
+			byte[] fingerprint = geometryFingerprint.fingerprint(model, product);
+
+			// Only the name of the product changes, not its geometry or colour
+			product.setName(product.getName() + " renamed");
+			assertArrayEquals(fingerprint, geometryFingerprint.fingerprint(model, product));
+
+			IfcMaterialSelect material = relAssociatesMaterial.getRelatingMaterial();
+			IfcMaterial otherMaterial = Ifc2x3tc1Factory.eINSTANCE.createIfcMaterial();
+			otherMaterial.setName("Other material");
+			relAssociatesMaterial.setRelatingMaterial(otherMaterial);
+			assertFalse(Arrays.equals(fingerprint, geometryFingerprint.fingerprint(model, product)));
+
+			relAssociatesMaterial.setRelatingMaterial(material);
+			assertArrayEquals(fingerprint, geometryFingerprint.fingerprint(model, product));
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+}
@@ -17,27 +17,45 @@ package org.bimserver.unittests;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 
 import org.bimserver.LocalDevPluginLoader;
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IdEObjectImpl;
+import org.bimserver.emf.IfcModelInterface;
 import org.bimserver.emf.IfcModelInterfaceException;
 import org.bimserver.emf.MetaDataManager;
 import org.bimserver.emf.PackageMetaData;
+import org.bimserver.emf.Schema;
 import org.bimserver.ifc.BasicIfcModel;
 import org.bimserver.ifc.IfcModel;
+import org.bimserver.ifc.step.deserializer.Ifc2x3tc1StepDeserializer;
+import org.bimserver.ifc.step.serializer.Ifc2x3tc1StepSerializer;
 import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Package;
 import org.bimserver.models.ifc2x3tc1.IfcWall;
 import org.bimserver.plugins.PluginConfiguration;
 import org.bimserver.plugins.PluginException;
 import org.bimserver.plugins.PluginManager;
+import org.bimserver.plugins.deserializers.DeserializeException;
 import org.bimserver.plugins.serializers.Serializer;
 import org.bimserver.plugins.serializers.SerializerException;
 import org.bimserver.plugins.serializers.SerializerPlugin;
+import org.bimserver.tests.TestFileConstants;
 import org.junit.Test;
 
 public class TestIfcStepSerializer {
+	// More than one chunk of objects, so the writer threads are used
+	private static final Path SOURCE_FILE = TestFileConstants.DATA_FOLDER.resolve("example.ifc");
+	// Written by the serializer from before it wrote in chunks, the output has to stay byte-identical
+	private static final Path EXPECTED_FOLDER = TestFileConstants.DATA_FOLDER.resolve("serialized");
+
 	@Test
 	public void testSerializer() throws IfcModelInterfaceException {
 		try {
@@ -60,4 +78,53 @@ public class TestIfcStepSerializer {
 			e.printStackTrace();
 		}
 	}
+
+	@Test
+	public void testExpectedOutput() {
+		try {
+			PluginManager pluginManager = LocalDevPluginLoader.createPluginManager(Paths.get("home"));
+			MetaDataManager metaDataManager = new MetaDataManager(pluginManager);
+			metaDataManager.init();
+			PackageMetaData packageMetaData = metaDataManager.getPackageMetaData("ifc2x3tc1");
+			for (boolean normalizeOids : new boolean[] { false, true }) {
+				for (boolean useDoubleStrings : new boolean[] { false, true }) {
+					byte[] expected = Files.readAllBytes(EXPECTED_FOLDER.resolve("example-" + (normalizeOids ? "normalized" : "oids") + "-" + (useDoubleStrings ? "doublestrings" : "doubles") + ".ifc"));
+					assertArrayEquals(expected, serialize(pluginManager, packageMetaData, normalizeOids, useDoubleStrings, 1));
+					// Normalizing oids always writes sequentially, the output must not change either way
+					assertArrayEquals(expected, serialize(pluginManager, packageMetaData, normalizeOids, useDoubleStrings, 4));
+				}
+			}
+		} catch (PluginException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		} catch (DeserializeException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		} catch (SerializerException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+
+	private byte[] serialize(PluginManager pluginManager, PackageMetaData packageMetaData, boolean normalizeOids, boolean useDoubleStrings, int writerThreads) throws DeserializeException, SerializerException {
+		Ifc2x3tc1StepDeserializer deserializer = new Ifc2x3tc1StepDeserializer(Schema.IFC2X3TC1);
+		deserializer.init(packageMetaData);
+		IfcModelInterface model = deserializer.read(SOURCE_FILE);
+		model.setUseDoubleStrings(useDoubleStrings);
+		if (normalizeOids) {
+			// Like a model read from the database, the express ids of the file are not known
+			for (IdEObject object : model.getValues()) {
+				((IdEObjectImpl) object).setExpressId(-1);
+			}
+		}
+		Ifc2x3tc1StepSerializer serializer = new Ifc2x3tc1StepSerializer(new PluginConfiguration());
+		serializer.setWriterThreads(writerThreads);
+		serializer.init(model, null, pluginManager, null, packageMetaData, normalizeOids);
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		serializer.writeToOutputStream(outputStream, null);
+		return outputStream.toByteArray();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,184 @@
+package org.bimserver.unittests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.bimserver.notifications.Notification;
+import org.bimserver.notifications.NotificationsProcessor;
+import org.bimserver.servlets.WebSocketBatch;
+import org.bimserver.shared.StreamingSocketInterface;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+/*
+ * Remote notifications run on a separate pool, those of one partition key still have to run one at a time in the order they were queued. Websocket
+ * messages of a lane are batched, but a slow notification must not hold back the messages of the notifications before it.
+ */
+public class TestNotificationsProcessor {
+	private static final int NR_KEYS = 4;
+	private static final int PER_KEY = 50;
+
+	@Test
+	public void testRemoteOrderPerPartitionKey() throws InterruptedException {
+		NotificationsProcessor notificationsProcessor = new NotificationsProcessor(null);
+		notificationsProcessor.start();
+		try {
+			CountDownLatch latch = new CountDownLatch(NR_KEYS * PER_KEY);
+			List<List<Integer>> processed = new ArrayList<>();
+			for (int key = 0; key < NR_KEYS; key++) {
+				processed.add(Collections.synchronizedList(new ArrayList<Integer>()));
+			}
+			Random random = new Random(1);
+			for (int i = 0; i < PER_KEY; i++) {
+				for (int key = 0; key < NR_KEYS; key++) {
+					notificationsProcessor.queue(new RemoteNotification(key, i, random.nextInt(3), processed.get(key), latch));
+				}
+			}
+			assertTrue(latch.await(60, TimeUnit.SECONDS));
+			for (int key = 0; key < NR_KEYS; key++) {
+				List<Integer> expected = new ArrayList<>();
+				for (int i = 0; i < PER_KEY; i++) {
+					expected.add(i);
+				}
+				assertEquals(expected, processed.get(key));
+			}
+		} finally {
+			notificationsProcessor.termintate();
+		}
+	}
+
+	@Test
+	public void testSlowNotificationDoesNotHoldBackFrames() throws InterruptedException {
+		NotificationsProcessor notificationsProcessor = new NotificationsProcessor(null);
+		notificationsProcessor.start();
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			CountDownLatch queued = new CountDownLatch(1);
+			final CountDownLatch sent = new CountDownLatch(1);
+			StreamingSocketInterface streamingSocket = new StreamingSocketInterface() {
+				@Override
+				public void send(JsonObject request) {
+					sent.countDown();
+				}
+
+				@Override
+				public void send(byte[] data, int start, int length) {
+				}
+
+				@Override
+				public void sendBlocking(byte[] data, int start, int length) {
+				}
+			};
+			// The first notification holds the lane until the others are queued, so all three are processed in one run
+			notificationsProcessor.queue(new LocalNotification(queued, null));
+			notificationsProcessor.queue(new LocalNotification(null, streamingSocket));
+			notificationsProcessor.queue(new LocalNotification(release, null));
+			queued.countDown();
+			// The last notification only finishes after this
+			assertTrue(sent.await(10, TimeUnit.SECONDS));
+		} finally {
+			release.countDown();
+			notificationsProcessor.termintate();
+		}
+	}
+
+	/*
+	 * Waits for a latch or sends a message over a websocket
+	 */
+	private static class LocalNotification extends Notification {
+		private final CountDownLatch waitFor;
+		private final StreamingSocketInterface streamingSocket;
+
+		public LocalNotification(CountDownLatch waitFor, StreamingSocketInterface streamingSocket) {
+			super(null);
+			this.waitFor = waitFor;
+			this.streamingSocket = streamingSocket;
+		}
+
+		@Override
+		public Object getPartitionKey() {
+			return "local";
+		}
+
+		@Override
+		public void process() {
+			if (waitFor != null) {
+				try {
+					waitFor.await(60, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (streamingSocket != null) {
+				JsonObject requestObject = new JsonObject();
+				requestObject.add("request", new JsonObject());
+				if (!WebSocketBatch.add(streamingSocket, requestObject)) {
+					streamingSocket.send(requestObject);
+				}
+			}
+		}
+	}
+
+	private static class RemoteNotification extends Notification {
+		private final int key;
+		private final int sequence;
+		private final int sleepMs;
+		private final List<Integer> processed;
+		private final CountDownLatch latch;
+
+		public RemoteNotification(int key, int sequence, int sleepMs, List<Integer> processed, CountDownLatch latch) {
+			super(null);
+			this.key = key;
+			this.sequence = sequence;
+			this.sleepMs = sleepMs;
+			this.processed = processed;
+			this.latch = latch;
+		}
+
+		@Override
+		public Object getPartitionKey() {
+			return key;
+		}
+
+		@Override
+		public boolean isRemote() {
+			return true;
+		}
+
+		@Override
+		public void process() {
+			try {
+				Thread.sleep(sleepMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			processed.add(sequence);
+			latch.countDown();
+		}
+	}
+}
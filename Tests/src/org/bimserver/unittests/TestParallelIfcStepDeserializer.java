@@ -0,0 +1,181 @@
+package org.bimserver.unittests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.commons.codec.binary.Hex;
+import org.bimserver.LocalDevPluginLoader;
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.emf.MetaDataManager;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.emf.Schema;
+import org.bimserver.ifc.step.deserializer.Ifc2x3tc1StepDeserializer;
+import org.bimserver.plugins.PluginException;
+import org.bimserver.plugins.deserializers.DeserializeException;
+import org.bimserver.tests.TestFile;
+import org.bimserver.tests.TestFileConstants;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+/*
+ * The expected models have been written with dump() from the models read by the deserializer before records were parsed on multiple threads,
+ * in full for a small file and as a SHA-256 digest of the dump for larger files
+ */
+public class TestParallelIfcStepDeserializer {
+	private static final Path EXPECTED_FOLDER = TestFileConstants.DATA_FOLDER.resolve("deserialized");
+	private PackageMetaData packageMetaData;
+
+	@Before
+	public void setUp() throws PluginException {
+		MetaDataManager metaDataManager = new MetaDataManager(LocalDevPluginLoader.createPluginManager(Paths.get("home")));
+		metaDataManager.init();
+		packageMetaData = metaDataManager.getPackageMetaData("ifc2x3tc1");
+	}
+
+	@Test
+	public void testExpectedModel() {
+		try {
+			List<String> expected = Files.readAllLines(EXPECTED_FOLDER.resolve(TestFile.REVIT_QUANTITIES.getFile().getFileName() + ".txt"), Charsets.UTF_8);
+			for (int parserThreads : new int[] { 1, 4 }) {
+				List<String> actual = dump(read(TestFile.REVIT_QUANTITIES, parserThreads));
+				for (int i = 0; i < Math.min(expected.size(), actual.size()); i++) {
+					assertEquals(parserThreads + " threads", expected.get(i), actual.get(i));
+				}
+				assertEquals(parserThreads + " threads", expected.size(), actual.size());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		} catch (DeserializeException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+
+	@Test
+	public void testExpectedDigests() {
+		try {
+			for (TestFile testFile : new TestFile[] { TestFile.AC11, TestFile.JASMIN, TestFile.NIEDRI }) {
+				String expected = new String(Files.readAllBytes(EXPECTED_FOLDER.resolve(testFile.getFile().getFileName() + ".sha256")), Charsets.UTF_8).trim();
+				for (int parserThreads : new int[] { 1, 4 }) {
+					assertEquals(testFile + ", " + parserThreads + " threads", expected, digest(dump(read(testFile, parserThreads))));
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		} catch (DeserializeException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+
+	private IfcModelInterface read(TestFile testFile, int parserThreads) throws DeserializeException {
+		Ifc2x3tc1StepDeserializer deserializer = new Ifc2x3tc1StepDeserializer(Schema.IFC2X3TC1);
+		deserializer.setParserThreads(parserThreads);
+		deserializer.init(packageMetaData);
+		return deserializer.read(testFile.getFile());
+	}
+
+	/*
+	 * One line per object in the order of the express ids, with the values of all features (also the inverses, so their order is checked too).
+	 * Objects in the model are written as references, inline values and nested lists in full.
+	 */
+	private static List<String> dump(IfcModelInterface model) {
+		List<String> lines = new ArrayList<String>();
+		for (Long oid : new TreeSet<Long>(model.keySet())) {
+			IdEObject object = model.get(oid);
+			StringBuilder line = new StringBuilder();
+			line.append("#").append(object.getExpressId()).append("=");
+			dumpObject(object, line);
+			lines.add(line.toString());
+		}
+		return lines;
+	}
+
+	private static void dumpObject(IdEObject object, StringBuilder line) {
+		line.append(object.eClass().getName()).append("(");
+		boolean first = true;
+		for (EStructuralFeature feature : object.eClass().getEAllStructuralFeatures()) {
+			if (!first) {
+				line.append(",");
+			}
+			first = false;
+			dumpValue(object.eGet(feature), line);
+		}
+		line.append(")");
+	}
+
+	private static void dumpValue(Object value, StringBuilder line) {
+		if (value == null) {
+			line.append("$");
+		} else if (value instanceof List) {
+			line.append("(");
+			boolean first = true;
+			for (Object item : (List<?>) value) {
+				if (!first) {
+					line.append(",");
+				}
+				first = false;
+				dumpValue(item, line);
+			}
+			line.append(")");
+		} else if (value instanceof IdEObject) {
+			IdEObject object = (IdEObject) value;
+			if (object.getExpressId() == -1) {
+				dumpObject(object, line);
+			} else {
+				line.append("#").append(object.getExpressId());
+			}
+		} else if (value instanceof String) {
+			line.append("'").append(value).append("'");
+		} else {
+			line.append(value);
+		}
+	}
+
+	private static String digest(List<String> lines) {
+		try {
+			MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+			for (String line : lines) {
+				messageDigest.update(line.getBytes(Charsets.UTF_8));
+				messageDigest.update((byte) '\n');
+			}
+			return new String(Hex.encodeHex(messageDigest.digest()));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package org.bimserver.unittests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.bimserver.LocalDevPluginLoader;
+import org.bimserver.database.Database;
+import org.bimserver.database.DatabaseRestartRequiredException;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.Query;
+import org.bimserver.database.berkeley.BerkeleyKeyValueStore;
+import org.bimserver.emf.MetaDataManager;
+import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Package;
+import org.bimserver.models.ifc4.Ifc4Package;
+import org.bimserver.plugins.PluginManager;
+import org.eclipse.emf.ecore.EPackage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Read-only sessions read the IFC object tables without locks, except for projects that have an open session rewriting committed records
+ */
+public class TestReadOnlySession {
+	private static final String WALL_TABLE = "ifc2x3tc1_IfcWall";
+
+	private Path dataDir;
+	private Database database;
+
+	@Before
+	public void setUp() throws Exception {
+		dataDir = Files.createTempDirectory("readonlysession");
+		PluginManager pluginManager = LocalDevPluginLoader.createPluginManager(Paths.get("home"));
+		MetaDataManager metaDataManager = new MetaDataManager(pluginManager);
+		metaDataManager.init();
+		Query.setPackageMetaDataForDefaultQuery(metaDataManager.getPackageMetaData("store"));
+		Set<EPackage> packages = new LinkedHashSet<EPackage>();
+		packages.add(Ifc2x3tc1Package.eINSTANCE);
+		packages.add(Ifc4Package.eINSTANCE);
+		database = new Database(null, packages, new BerkeleyKeyValueStore(dataDir.resolve("database")), metaDataManager);
+		try {
+			database.init();
+		} catch (DatabaseRestartRequiredException e) {
+			database.close();
+			database = new Database(null, packages, new BerkeleyKeyValueStore(dataDir.resolve("database")), metaDataManager);
+			database.init();
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		database.close();
+		FileUtils.deleteDirectory(dataDir.toFile());
+	}
+
+	@Test
+	public void testTables() throws Exception {
+		DatabaseSession readOnlySession = database.createReadOnlySession();
+		DatabaseSession session = database.createSession();
+		try {
+			assertTrue(readOnlySession.isUncommittedReadAllowed(WALL_TABLE, key(1)));
+			assertTrue(readOnlySession.isUncommittedReadAllowed(WALL_TABLE, null));
+			assertFalse(readOnlySession.isUncommittedReadAllowed("ifc2x3tc1_IfcRoot_GlobalId", key(1)));
+			assertFalse(readOnlySession.isUncommittedReadAllowed("store_Project", key(1)));
+			assertFalse(session.isUncommittedReadAllowed(WALL_TABLE, key(1)));
+		} finally {
+			session.close();
+			readOnlySession.close();
+		}
+	}
+
+	@Test
+	public void testOverwrite() throws Exception {
+		DatabaseSession readOnlySession = database.createReadOnlySession();
+		try {
+			DatabaseSession overwriteSession = database.createSession();
+			DatabaseSession otherOverwriteSession = database.createSession();
+			try {
+				overwriteSession.setOverwriteEnabled(1);
+				otherOverwriteSession.setOverwriteEnabled(1);
+				assertFalse(readOnlySession.isUncommittedReadAllowed(WALL_TABLE, key(1)));
+				assertTrue(readOnlySession.isUncommittedReadAllowed(WALL_TABLE, key(2)));
+				assertFalse(readOnlySession.isUncommittedReadAllowed(WALL_TABLE, null));
+			} finally {
+				overwriteSession.close();
+			}
+			try {
+				assertFalse(readOnlySession.isUncommittedReadAllowed(WALL_TABLE, key(1)));
+			} finally {
+				otherOverwriteSession.close();
+			}
+			assertTrue(readOnlySession.isUncommittedReadAllowed(WALL_TABLE, key(1)));
+			assertTrue(readOnlySession.isUncommittedReadAllowed(WALL_TABLE, null));
+		} finally {
+			readOnlySession.close();
+		}
+	}
+
+	private byte[] key(int pid) {
+		ByteBuffer buffer = ByteBuffer.allocate(16);
+		buffer.putInt(pid);
+		buffer.putLong(1);
+		buffer.putInt(-1);
+		return buffer.array();
+	}
+}
@@ -0,0 +1,342 @@
+package org.bimserver.unittests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.bimserver.database.BimserverDatabaseException;
+import org.bimserver.database.Database;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.RecordCodec;
+import org.bimserver.database.berkeley.BerkeleyKeyValueStore;
+import org.bimserver.database.migrations.Schema;
+import org.bimserver.database.migrations.Schema.Multiplicity;
+import org.eclipse.emf.ecore.EAnnotation;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EModelElement;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EcoreFactory;
+import org.eclipse.emf.ecore.EcorePackage;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Records are written in the layout of DatabaseSession (the legacy layout) and have to come back from the compact layout byte for byte
+ */
+public class TestRecordCodec {
+	private static final short THING_CID = 5;
+	private static final short WRAPPED_CID = 6;
+
+	private Schema schema;
+	private EClass thing;
+	private EClass wrapped;
+	private RecordCodec recordCodec;
+
+	@Before
+	public void setUp() {
+		schema = new Schema();
+		EPackage ePackage = schema.createEPackage("codectest");
+		wrapped = schema.createEClass(ePackage, "Wrapped");
+		annotate(wrapped, "wrapped");
+		schema.createEAttribute(wrapped, "wrappedValue", EcorePackage.eINSTANCE.getEDouble());
+		EClass row = schema.createEClass(ePackage, "Row");
+		schema.createEAttribute(row, "List", EcorePackage.eINSTANCE.getEDouble(), Multiplicity.MANY);
+
+		thing = schema.createEClass(ePackage, "Thing");
+		schema.createEAttribute(thing, "name", EcorePackage.eINSTANCE.getEString());
+		schema.createEAttribute(thing, "description", EcorePackage.eINSTANCE.getEString());
+		schema.createEAttribute(thing, "count", EcorePackage.eINSTANCE.getEInt());
+		schema.createEAttribute(thing, "big", EcorePackage.eINSTANCE.getELong());
+		schema.createEAttribute(thing, "value", EcorePackage.eINSTANCE.getEDouble());
+		schema.createEAttribute(thing, "ratio", EcorePackage.eINSTANCE.getEFloat());
+		schema.createEAttribute(thing, "flag", EcorePackage.eINSTANCE.getEBoolean());
+		schema.createEAttribute(thing, "data", EcorePackage.eINSTANCE.getEByteArray());
+		schema.createEAttribute(thing, "values", EcorePackage.eINSTANCE.getEDouble(), Multiplicity.MANY);
+		schema.createEAttribute(thing, "tags", EcorePackage.eINSTANCE.getEString(), Multiplicity.MANY);
+		schema.createEReference(thing, "owner", thing, Multiplicity.SINGLE);
+		schema.createEReference(thing, "parts", thing, Multiplicity.MANY);
+		schema.createEReference(thing, "measure", wrapped, Multiplicity.SINGLE);
+		annotate(schema.createEReference(thing, "rows", row, Multiplicity.MANY), "twodimensionalarray");
+		schema.clearUpdates();
+
+		recordCodec = new RecordCodec(null) {
+			@Override
+			protected EClass getEClassForCid(short cid) {
+				return cid == WRAPPED_CID ? wrapped : null;
+			}
+		};
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException, BimserverDatabaseException {
+		LegacyRecord record = new LegacyRecord(14);
+		record.string("Wall").string("Wall").putInt(-42).putLong(Long.MIN_VALUE).putDouble(3.0).putFloat(0.5f).put(1).bytes(new byte[] { 1, 2, 3 });
+		record.putInt(4).putDouble(-0D).putDouble(0.1).putDouble(Double.NaN).putDouble(-(double) (1L << 52));
+		record.putInt(3).string("a").string(null).string("a");
+		record.reference(THING_CID, oid(7, THING_CID));
+		// Decreasing oids, a null element and an oid with cid bits of another class
+		record.putInt(4).reference(THING_CID, oid(1000000, THING_CID)).reference(THING_CID, oid(3, THING_CID)).putShort(-1).reference(THING_CID, oid(4, (short) 77));
+		record.putShort(-WRAPPED_CID).putDouble(2.5);
+		record.putInt(2).putInt(2).putDouble(1).putDouble(1.5).putInt(0);
+		byte[] legacy = record.toByteArray();
+		assertTrue(assertRoundTrip(legacy, false).length < legacy.length);
+	}
+
+	@Test
+	public void testNullsAndUnset() throws IOException, BimserverDatabaseException {
+		// Only name and description are set, both null
+		LegacyRecord record = new LegacyRecord(14);
+		for (int i = 2; i < 14; i++) {
+			record.unset(i);
+		}
+		record.string(null).string(null);
+		assertRoundTrip(record.toByteArray(), false);
+	}
+
+	@Test
+	public void testLargeValues() throws IOException, BimserverDatabaseException {
+		LegacyRecord record = new LegacyRecord(14);
+		record.string("").string("\u00e9").putInt(Integer.MIN_VALUE).putLong(Long.MAX_VALUE).putDouble(Double.NEGATIVE_INFINITY).putFloat(-0f).put(0).bytes(new byte[0]);
+		record.putInt(6).putDouble(1L << 52).putDouble(Long.MAX_VALUE).putDouble(Double.MIN_VALUE).putDouble(-Double.MAX_VALUE).putDouble(1e300).putDouble(Double.longBitsToDouble(0x7ff8000000000001L));
+		record.putInt(0);
+		record.reference(THING_CID, Long.MAX_VALUE);
+		record.putInt(2).reference(THING_CID, Long.MIN_VALUE | THING_CID).reference(THING_CID, Long.MAX_VALUE);
+		record.putShort(-WRAPPED_CID).putDouble(-0D);
+		record.putInt(0);
+		assertRoundTrip(record.toByteArray(), false);
+	}
+
+	@Test
+	public void testDeflated() throws IOException, BimserverDatabaseException {
+		LegacyRecord record = new LegacyRecord(14);
+		record.string("Wall").string(null).putInt(1).putLong(2).putDouble(0.3).putFloat(1f).put(1).bytes(new byte[200]);
+		record.putInt(100);
+		for (int i = 0; i < 100; i++) {
+			record.putDouble(i / 10.0);
+		}
+		record.putInt(100);
+		for (int i = 0; i < 100; i++) {
+			record.string("Tag " + i);
+		}
+		record.reference(THING_CID, oid(1, THING_CID));
+		record.putInt(0);
+		record.putShort(-1);
+		record.putInt(0);
+		byte[] encoded = assertRoundTrip(record.toByteArray(), true);
+
+		// A truncated deflated record must not decode to a record with missing fields
+		try {
+			recordCodec.decode(ByteBuffer.wrap(Arrays.copyOf(encoded, encoded.length / 2)), thing);
+			fail("Truncated record decoded");
+		} catch (BimserverDatabaseException e) {
+		}
+	}
+
+	@Test
+	public void testLegacyRecordsAreReadAsTheyAre() throws IOException, BimserverDatabaseException {
+		ByteBuffer buffer = ByteBuffer.wrap(minimalRecord());
+		assertSame(buffer, recordCodec.decode(buffer, thing));
+		assertFalse(RecordCodec.isCompact(buffer.array()));
+	}
+
+	@Test
+	public void testNewAttributeChange() throws Exception {
+		testMigration(false);
+	}
+
+	@Test
+	public void testNewReferenceChange() throws Exception {
+		testMigration(true);
+	}
+
+	/*
+	 * Migrates the same record once in the legacy layout and once in the compact layout, afterwards the compact record has to decode to the migrated legacy record
+	 */
+	private void testMigration(boolean reference) throws Exception {
+		byte[] legacy = minimalRecord();
+		byte[] compact = recordCodec.encode(legacy, thing);
+		assertTrue(RecordCodec.isCompact(compact));
+
+		Path dataDir = Files.createTempDirectory("recordcodec");
+		BerkeleyKeyValueStore keyValueStore = new BerkeleyKeyValueStore(dataDir.resolve("database"));
+		try {
+			String tableName = "codectest_Thing";
+			keyValueStore.createTable(tableName, null);
+			keyValueStore.createTable("INT-Registry", null);
+			keyValueStore.store(tableName, key(1), legacy, null);
+			keyValueStore.store(tableName, key(2), compact, null);
+
+			if (reference) {
+				schema.createEReference(thing, "added", thing, Multiplicity.MANY);
+			} else {
+				schema.createEAttribute(thing, "added", EcorePackage.eINSTANCE.getEString());
+			}
+			Database database = new Database(null, Collections.<EPackage> emptySet(), keyValueStore, null);
+			DatabaseSession databaseSession = new DatabaseSession(database, keyValueStore.startTransaction());
+			try {
+				schema.upgradeDatabase(database, 1, databaseSession);
+				databaseSession.commit();
+			} finally {
+				databaseSession.close();
+			}
+
+			byte[] migratedLegacy = keyValueStore.get(tableName, key(1), null);
+			byte[] migratedCompact = keyValueStore.get(tableName, key(2), null);
+			assertEquals(reference ? legacy.length + 4 : legacy.length, migratedLegacy.length);
+			assertTrue(RecordCodec.isCompact(migratedCompact));
+			assertArrayEquals(migratedLegacy, toArray(recordCodec.decode(ByteBuffer.wrap(migratedCompact), thing)));
+		} finally {
+			keyValueStore.close();
+			FileUtils.deleteDirectory(dataDir.toFile());
+		}
+	}
+
+	private byte[] assertRoundTrip(byte[] legacy, boolean deflated) throws BimserverDatabaseException {
+		byte[] encoded = recordCodec.encode(legacy, thing);
+		assertTrue(RecordCodec.isCompact(encoded));
+		assertEquals(deflated ? RecordCodec.COMPACT_DEFLATED : RecordCodec.COMPACT, encoded[0]);
+		assertArrayEquals(legacy, toArray(recordCodec.decode(ByteBuffer.wrap(encoded), thing)));
+		return encoded;
+	}
+
+	/*
+	 * The bitmap has room for one more feature, the 14 features of Thing fit in 2 bytes and so does a 15th
+	 */
+	private byte[] minimalRecord() throws IOException {
+		LegacyRecord record = new LegacyRecord(14);
+		record.unset(1).unset(7).unset(8).unset(9).unset(12).unset(13);
+		record.string("Slab").putInt(1).putLong(2).putDouble(3).putFloat(4).put(0);
+		record.reference(THING_CID, oid(9, THING_CID)).putInt(1).reference(THING_CID, oid(10, THING_CID));
+		return record.toByteArray();
+	}
+
+	private long oid(long counter, short cid) {
+		return counter << 16 | (cid & 0xFFFF);
+	}
+
+	private byte[] key(long oid) {
+		ByteBuffer buffer = ByteBuffer.allocate(16);
+		buffer.putInt(1);
+		buffer.putLong(oid(oid, THING_CID));
+		buffer.putInt(-1);
+		return buffer.array();
+	}
+
+	private byte[] toArray(ByteBuffer buffer) {
+		byte[] result = new byte[buffer.remaining()];
+		buffer.duplicate().get(result);
+		return result;
+	}
+
+	private void annotate(EModelElement element, String source) {
+		EAnnotation annotation = EcoreFactory.eINSTANCE.createEAnnotation();
+		annotation.setSource(source);
+		element.getEAnnotations().add(annotation);
+	}
+
+	/*
+	 * Writes a record the way DatabaseSession.convertObjectToByteArray does, the fields have to be added in the order of the features
+	 */
+	private static class LegacyRecord {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final byte[] unsetted;
+
+		LegacyRecord(int nrFeatures, int... unset) {
+			unsetted = new byte[(nrFeatures + 7) / 8];
+			for (int feature : unset) {
+				unset(feature);
+			}
+		}
+
+		LegacyRecord unset(int feature) {
+			unsetted[feature / 8] |= 1 << (feature % 8);
+			return this;
+		}
+
+		LegacyRecord put(int value) throws IOException {
+			out.writeByte(value);
+			return this;
+		}
+
+		LegacyRecord putShort(int value) throws IOException {
+			out.writeShort(value);
+			return this;
+		}
+
+		LegacyRecord putInt(int value) throws IOException {
+			out.writeInt(value);
+			return this;
+		}
+
+		LegacyRecord putLong(long value) throws IOException {
+			out.writeLong(value);
+			return this;
+		}
+
+		LegacyRecord putFloat(float value) throws IOException {
+			out.writeInt(Float.floatToRawIntBits(value));
+			return this;
+		}
+
+		LegacyRecord putDouble(double value) throws IOException {
+			out.writeLong(Double.doubleToRawLongBits(value));
+			return this;
+		}
+
+		LegacyRecord string(String value) throws IOException {
+			if (value == null) {
+				return putInt(-1);
+			}
+			return bytes(value.getBytes("UTF-8"));
+		}
+
+		LegacyRecord bytes(byte[] value) throws IOException {
+			out.writeInt(value.length);
+			out.write(value);
+			return this;
+		}
+
+		LegacyRecord reference(short cid, long oid) throws IOException {
+			return putShort(cid).putLong(oid);
+		}
+
+		byte[] toByteArray() {
+			ByteBuffer buffer = ByteBuffer.allocate(1 + unsetted.length + bytes.size());
+			buffer.put((byte) unsetted.length);
+			buffer.put(unsetted);
+			buffer.put(bytes.toByteArray());
+			return buffer.array();
+		}
+	}
+}
@@ -0,0 +1,313 @@
+package org.bimserver.unittests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.bimserver.LocalDevPluginLoader;
+import org.bimserver.database.Database;
+import org.bimserver.database.DatabaseRestartRequiredException;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.ObjectIdentifier;
+import org.bimserver.database.Query;
+import org.bimserver.database.Query.Deep;
+import org.bimserver.database.Record;
+import org.bimserver.database.SearchingRecordIterator;
+import org.bimserver.database.SecondaryIndexes;
+import org.bimserver.database.berkeley.BerkeleyKeyValueStore;
+import org.bimserver.database.query.conditions.AttributeCondition;
+import org.bimserver.database.query.literals.StringLiteral;
+import org.bimserver.emf.IdEObjectImpl;
+import org.bimserver.emf.MetaDataManager;
+import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Factory;
+import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Package;
+import org.bimserver.models.ifc2x3tc1.IfcRoot;
+import org.bimserver.models.ifc2x3tc1.IfcWall;
+import org.bimserver.models.ifc4.Ifc4Package;
+import org.bimserver.models.store.ConcreteRevision;
+import org.bimserver.models.store.Project;
+import org.bimserver.models.store.StorePackage;
+import org.bimserver.plugins.PluginManager;
+import org.bimserver.utils.BinUtils;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EPackage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Lookups through the secondary indexes only produce candidates, so they have to give the same results as the scans they replace. The results
+ * are compared while the project is indexed, while it is deleted (the entries are pruned and lookups scan) and after it has been undeleted.
+ */
+public class TestSecondaryIndexes {
+	private static final String GUID_INDEX_TABLE = "INT-Index-ifc2x3tc1_IfcRoot+_GlobalId";
+	private static final int WALLS = 20;
+
+	private Path dataDir;
+	private MetaDataManager metaDataManager;
+	private Database database;
+	private int pid;
+	private long[] revisionOids = new long[2];
+	private final List<String> guids = new ArrayList<String>();
+	private final List<String> names = new ArrayList<String>();
+
+	@Before
+	public void setUp() throws Exception {
+		dataDir = Files.createTempDirectory("secondaryindexes");
+		PluginManager pluginManager = LocalDevPluginLoader.createPluginManager(Paths.get("home"));
+		metaDataManager = new MetaDataManager(pluginManager);
+		metaDataManager.init();
+		Query.setPackageMetaDataForDefaultQuery(metaDataManager.getPackageMetaData("store"));
+		database = openDatabase();
+		database.getSecondaryIndexes().awaitScheduled();
+		createProject();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		database.close();
+		FileUtils.deleteDirectory(dataDir.toFile());
+	}
+
+	@Test
+	public void testDeleteAndUndelete() throws Exception {
+		assertTrue(database.getSecondaryIndexes().isIndexed(pid));
+		int entries = countEntries();
+		assertEquals(WALLS + 1, entries);
+		Map<String, Set<Long>> indexed = lookup();
+		assertEquals(4, indexed.get("1 name Wall 0").size());
+		assertEquals(3, indexed.get("2 name Wall 0").size());
+		assertEquals(5, indexed.get("2 name Wall 1").size());
+		assertEquals(1, indexed.get("2 name Renamed").size());
+		assertEquals(0, indexed.get("1 name Renamed").size());
+		assertEquals(indexed.get("2 guid wall-0"), indexed.get("2 name Renamed"));
+		assertEquals(0, indexed.get("1 guid wall-new").size());
+		assertEquals(1, indexed.get("2 guid wall-new").size());
+
+		setDeleted(true);
+		database.getSecondaryIndexes().awaitScheduled();
+		assertFalse(database.getSecondaryIndexes().isIndexed(pid));
+		assertEquals(0, countEntries());
+		assertEquals(indexed, lookup());
+
+		setDeleted(false);
+		database.getSecondaryIndexes().awaitScheduled();
+		assertTrue(database.getSecondaryIndexes().isIndexed(pid));
+		assertEquals(entries, countEntries());
+		assertEquals(indexed, lookup());
+	}
+
+	@Test
+	public void testDeletedAfterRestart() throws Exception {
+		Map<String, Set<Long>> indexed = lookup();
+		setDeleted(true);
+		database.close();
+
+		database = openDatabase();
+		database.getSecondaryIndexes().awaitScheduled();
+		assertFalse(database.getSecondaryIndexes().isIndexed(pid));
+		assertEquals(0, countEntries());
+		assertEquals(indexed, lookup());
+
+		setDeleted(false);
+		database.getSecondaryIndexes().awaitScheduled();
+		assertTrue(database.getSecondaryIndexes().isIndexed(pid));
+		assertEquals(indexed, lookup());
+	}
+
+	@Test
+	public void testTooManyCandidates() throws Exception {
+		DatabaseSession session = database.createSession();
+		try {
+			List<IfcWall> walls = new ArrayList<IfcWall>();
+			for (int i = 0; i <= SecondaryIndexes.MAX_CANDIDATES; i++) {
+				walls.add(createWall("common-" + i, "Common"));
+			}
+			session.store(walls, pid, 2);
+			session.commit();
+		} finally {
+			session.close();
+		}
+		Set<EClass> eClasses = Collections.<EClass> singleton(Ifc2x3tc1Package.eINSTANCE.getIfcWall());
+		session = database.createSession();
+		try {
+			assertNull(database.getSecondaryIndexes().find(eClasses, Ifc2x3tc1Package.eINSTANCE.getIfcRoot_Name(), "Common", pid, session));
+			assertEquals(4, database.getSecondaryIndexes().find(eClasses, Ifc2x3tc1Package.eINSTANCE.getIfcRoot_Name(), "Wall 0", pid, session).size());
+		} finally {
+			session.close();
+		}
+		// The lookup scans, so it still finds all of them
+		session = database.createSession();
+		try {
+			Query query = new Query(metaDataManager.getPackageMetaData("ifc2x3tc1"), pid, 2, -1, null, Deep.NO, 1);
+			AttributeCondition condition = new AttributeCondition(Ifc2x3tc1Package.eINSTANCE.getIfcRoot_Name(), new StringLiteral("Common"));
+			assertEquals(SecondaryIndexes.MAX_CANDIDATES + 1, session.query(condition, IfcRoot.class, query).size());
+		} finally {
+			session.close();
+		}
+	}
+
+	private Database openDatabase() throws Exception {
+		Set<EPackage> packages = new LinkedHashSet<EPackage>();
+		packages.add(Ifc2x3tc1Package.eINSTANCE);
+		packages.add(Ifc4Package.eINSTANCE);
+		Database database = new Database(null, packages, new BerkeleyKeyValueStore(dataDir.resolve("database")), metaDataManager);
+		try {
+			database.init();
+		} catch (DatabaseRestartRequiredException e) {
+			// Like BimServer.start, a new database is opened again after it has been created
+			database.close();
+			database = new Database(null, packages, new BerkeleyKeyValueStore(dataDir.resolve("database")), metaDataManager);
+			database.init();
+		}
+		return database;
+	}
+
+	/*
+	 * Revision 1 has walls that share their names, revision 2 renames one of them and adds a new one
+	 */
+	private void createProject() throws Exception {
+		long renamedOid;
+		DatabaseSession session = database.createSession();
+		try {
+			pid = session.newPid();
+			Project project = session.create(Project.class);
+			project.setName("indexes");
+			project.setSchema("ifc2x3tc1");
+			project.setId(pid);
+			for (int rid = 1; rid <= 2; rid++) {
+				ConcreteRevision concreteRevision = session.create(ConcreteRevision.class);
+				concreteRevision.setId(rid);
+				concreteRevision.setClear(rid == 1);
+				concreteRevision.setProject(project);
+				project.getConcreteRevisions().add(concreteRevision);
+				revisionOids[rid - 1] = concreteRevision.getOid();
+			}
+			List<IfcWall> walls = new ArrayList<IfcWall>();
+			for (int i = 0; i < WALLS; i++) {
+				walls.add(createWall("wall-" + i, "Wall " + (i % 5)));
+				guids.add("wall-" + i);
+			}
+			session.store(walls, pid, 1);
+			session.commit();
+			renamedOid = walls.get(0).getOid();
+		} finally {
+			session.close();
+		}
+		session = database.createSession();
+		try {
+			IfcWall renamed = createWall("wall-0", "Renamed");
+			((IdEObjectImpl) renamed).setOid(renamedOid);
+			session.store(renamed, pid, 2);
+			session.store(createWall("wall-new", "Wall 1"), pid, 2);
+			session.commit();
+		} finally {
+			session.close();
+		}
+		guids.add("wall-new");
+		guids.add("missing");
+		for (int i = 0; i < 5; i++) {
+			names.add("Wall " + i);
+		}
+		names.add("Renamed");
+		names.add("Missing");
+	}
+
+	private IfcWall createWall(String guid, String name) {
+		IfcWall wall = Ifc2x3tc1Factory.eINSTANCE.createIfcWall();
+		wall.setGlobalId(guid);
+		wall.setName(name);
+		return wall;
+	}
+
+	private void setDeleted(boolean deleted) throws Exception {
+		DatabaseSession session = database.createSession();
+		try {
+			if (deleted) {
+				database.getSecondaryIndexes().projectDeleted(pid, session);
+			} else {
+				database.getSecondaryIndexes().projectUndeleted(pid, session);
+			}
+			session.commit();
+		} finally {
+			session.close();
+		}
+	}
+
+	/*
+	 * The results of getOidOfGuid and query for every guid and name in both revisions, every revision is read in a session of its own because
+	 * sessions cache the objects they have read
+	 */
+	private Map<String, Set<Long>> lookup() throws Exception {
+		Map<String, Set<Long>> result = new HashMap<String, Set<Long>>();
+		for (int rid = 1; rid <= 2; rid++) {
+			DatabaseSession session = database.createSession();
+			try {
+				ConcreteRevision concreteRevision = session.get(StorePackage.eINSTANCE.getConcreteRevision(), revisionOids[rid - 1], Query.getDefault());
+				for (String guid : guids) {
+					ObjectIdentifier objectIdentifier = session.getOidOfGuid(concreteRevision, guid);
+					result.put(rid + " guid " + guid, objectIdentifier == null ? Collections.<Long> emptySet() : Collections.singleton(objectIdentifier.getOid()));
+				}
+				Query query = new Query(metaDataManager.getPackageMetaData("ifc2x3tc1"), pid, rid, -1, null, Deep.NO, 1);
+				for (String name : names) {
+					AttributeCondition condition = new AttributeCondition(Ifc2x3tc1Package.eINSTANCE.getIfcRoot_Name(), new StringLiteral(name));
+					result.put(rid + " name " + name, session.query(condition, IfcRoot.class, query).keySet());
+				}
+			} finally {
+				session.close();
+			}
+		}
+		return result;
+	}
+
+	private int countEntries() throws Exception {
+		byte[] prefix = BinUtils.intToByteArray(pid);
+		DatabaseSession session = database.createSession();
+		try {
+			SearchingRecordIterator recordIterator = database.getKeyValueStore().getRecordIterator(GUID_INDEX_TABLE, prefix, prefix, session);
+			try {
+				int count = 0;
+				Record record = recordIterator.next();
+				while (record != null) {
+					count++;
+					record = recordIterator.next();
+				}
+				return count;
+			} finally {
+				recordIterator.close();
+			}
+		} finally {
+			session.close();
+		}
+	}
+}